@@ -0,0 +1,89 @@
+//  Copyright © 2012-2018 3 Electric Sheep Pty Ltd. All rights reserved.
+//
+//  The Welcome Interruption Software Development Kit (SDK) is licensed to you subject to the terms
+//  of the License Agreement. The License Agreement forms a legally binding contract between you and
+//  3 Electric Sheep Pty Ltd in relation to your use of the Welcome Interruption SDK.
+//  You may not use this file except in compliance with the License Agreement.
+//
+//  A copy of the License Agreement can be found in the LICENSE file in the root directory of this
+//  source tree.
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License
+//  Agreement is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+//  express or implied. See the License Agreement for the specific language governing permissions
+//  and limitations under the License Agreement.
+
+package com.welcomeinterruption.rnwisdk;
+
+import android.location.Location;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Synthetic location fixes for the benchmarks: a walk from Sydney's CBD with a fix every 30
+ * seconds. The same seed gives the same fixes, so runs can be compared.
+ */
+class BenchmarkFixes {
+    private static final long START_TIME = 1546300800000L; // 2019-01-01T00:00:00Z
+    private static final long INTERVAL = 30 * 1000;
+
+    static List<Location> locations(int count) {
+        List<Location> locations = new ArrayList<>(count);
+        double latitude = -33.8688;
+        double longitude = 151.2093;
+        for (int i = 0; i < count; i++) {
+            Location loc = new Location("fused");
+            loc.setLatitude(latitude);
+            loc.setLongitude(longitude);
+            loc.setAccuracy(5 + (i % 20));
+            loc.setSpeed(1.4f);
+            loc.setBearing((i * 7) % 360);
+            loc.setAltitude(20 + (i % 5));
+            loc.setTime(START_TIME + i * INTERVAL);
+            locations.add(loc);
+
+            latitude += 0.0002 * Math.sin(i / 10.0);
+            longitude += 0.0002 * Math.cos(i / 10.0);
+        }
+        return locations;
+    }
+
+    static TesLocationInfo[] infos(int count) {
+        List<Location> locations = locations(count);
+        TesLocationInfo[] infos = new TesLocationInfo[count];
+        for (int i = 0; i < count; i++) {
+            infos[i] = new TesLocationInfo(locations.get(i), true);
+            infos[i].arrival = infos[i].fix_timestamp;
+            infos[i].departure = new Date(infos[i].fix_timestamp.getTime() + INTERVAL);
+        }
+        return infos;
+    }
+
+    static JSONObject[] dictionaries(int count) throws JSONException {
+        TesLocationInfo[] infos = infos(count);
+        JSONObject[] dicts = new JSONObject[count];
+        for (int i = 0; i < count; i++) {
+            dicts[i] = infos[i].toDictionary();
+        }
+        return dicts;
+    }
+
+    /**
+     * @return fix timestamps as sent by the server, every other one with milliseconds
+     */
+    static String[] timestamps(int count) {
+        String[] timestamps = new String[count];
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            sb.setLength(0);
+            TesISO8601DateParser.format(START_TIME + i * INTERVAL + (i % 1000), i % 2 == 1, sb);
+            timestamps[i] = sb.toString();
+        }
+        return timestamps;
+    }
+}
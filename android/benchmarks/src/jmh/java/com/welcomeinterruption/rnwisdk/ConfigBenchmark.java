@@ -0,0 +1,56 @@
+//  Copyright © 2012-2018 3 Electric Sheep Pty Ltd. All rights reserved.
+//
+//  The Welcome Interruption Software Development Kit (SDK) is licensed to you subject to the terms
+//  of the License Agreement. The License Agreement forms a legally binding contract between you and
+//  3 Electric Sheep Pty Ltd in relation to your use of the Welcome Interruption SDK.
+//  You may not use this file except in compliance with the License Agreement.
+//
+//  A copy of the License Agreement can be found in the LICENSE file in the root directory of this
+//  source tree.
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License
+//  Agreement is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+//  express or implied. See the License Agreement for the specific language governing permissions
+//  and limitations under the License Agreement.
+
+package com.welcomeinterruption.rnwisdk;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Saving and loading the config as JSON, see {@link TesConfig#toJSON} and {@link TesConfig#fromJSON}
+ */
+@State(Scope.Benchmark)
+public class ConfigBenchmark {
+    private TesConfig config;
+    private String json;
+
+    @Setup
+    public void setup() throws JSONException {
+        config = new TesConfig("benchmark-provider-key");
+        config.powerProfile = TesPowerProfile.BALANCED;
+        json = config.toJSON().toString();
+    }
+
+    @Benchmark
+    public JSONObject toJSON() throws JSONException {
+        return config.toJSON();
+    }
+
+    @Benchmark
+    public String toJSONString() throws JSONException {
+        return config.toJSON().toString();
+    }
+
+    @Benchmark
+    public TesConfig fromJSON() throws JSONException {
+        TesConfig cfg = new TesConfig();
+        cfg.fromJSON(json);
+        return cfg;
+    }
+}
@@ -0,0 +1,68 @@
+//  Copyright © 2012-2018 3 Electric Sheep Pty Ltd. All rights reserved.
+//
+//  The Welcome Interruption Software Development Kit (SDK) is licensed to you subject to the terms
+//  of the License Agreement. The License Agreement forms a legally binding contract between you and
+//  3 Electric Sheep Pty Ltd in relation to your use of the Welcome Interruption SDK.
+//  You may not use this file except in compliance with the License Agreement.
+//
+//  A copy of the License Agreement can be found in the LICENSE file in the root directory of this
+//  source tree.
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License
+//  Agreement is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+//  express or implied. See the License Agreement for the specific language governing permissions
+//  and limitations under the License Agreement.
+
+package com.welcomeinterruption.rnwisdk;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.text.ParseException;
+import java.util.Date;
+
+/**
+ * Parsing and formatting the timestamps of a batch of fixes, see {@link TesISO8601DateParser}
+ */
+@State(Scope.Benchmark)
+public class DateParserBenchmark {
+    @Param({"1", "10", "100", "500"})
+    public int batchSize;
+
+    private String[] timestamps;
+    private Date[] dates;
+
+    @Setup
+    public void setup() throws ParseException {
+        timestamps = BenchmarkFixes.timestamps(batchSize);
+        dates = new Date[batchSize];
+        for (int i = 0; i < batchSize; i++) {
+            dates[i] = TesISO8601DateParser.parse(timestamps[i]);
+        }
+    }
+
+    @Benchmark
+    public void parse(Blackhole bh) throws ParseException {
+        for (String timestamp : timestamps) {
+            bh.consume(TesISO8601DateParser.parse(timestamp));
+        }
+    }
+
+    @Benchmark
+    public void parseMillis(Blackhole bh) throws ParseException {
+        for (String timestamp : timestamps) {
+            bh.consume(TesISO8601DateParser.parseMillis(timestamp));
+        }
+    }
+
+    @Benchmark
+    public void format(Blackhole bh) {
+        for (Date date : dates) {
+            bh.consume(TesISO8601DateParser.toString(date));
+        }
+    }
+}
@@ -0,0 +1,85 @@
+//  Copyright © 2012-2018 3 Electric Sheep Pty Ltd. All rights reserved.
+//
+//  The Welcome Interruption Software Development Kit (SDK) is licensed to you subject to the terms
+//  of the License Agreement. The License Agreement forms a legally binding contract between you and
+//  3 Electric Sheep Pty Ltd in relation to your use of the Welcome Interruption SDK.
+//  You may not use this file except in compliance with the License Agreement.
+//
+//  A copy of the License Agreement can be found in the LICENSE file in the root directory of this
+//  source tree.
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License
+//  Agreement is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+//  express or implied. See the License Agreement for the specific language governing permissions
+//  and limitations under the License Agreement.
+
+package com.welcomeinterruption.rnwisdk;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The {@link TesUtils} JSON helpers over a batch of fixes
+ */
+@State(Scope.Benchmark)
+public class JsonUtilsBenchmark {
+    private static final String KEY_ID = "id";
+
+    @Param({"1", "10", "100", "500"})
+    public int batchSize;
+
+    private JSONObject[] dictionaries;
+    private JSONObject extra;
+    private JSONArray objects;
+    private JSONArray strings;
+    private String lastId;
+
+    @Setup
+    public void setup() throws JSONException {
+        dictionaries = BenchmarkFixes.dictionaries(batchSize);
+
+        extra = new JSONObject();
+        extra.put("device_id", "0f8fad5b-d9cb-469f-a165-70867728950e");
+        extra.put("provider", "fused");
+        extra.put(TesLocationInfo.KEY_IN_BACKGROUND, false);
+
+        objects = new JSONArray();
+        strings = new JSONArray();
+        for (int i = 0; i < batchSize; i++) {
+            String id = "geofence-" + i;
+            JSONObject obj = new JSONObject();
+            obj.put(KEY_ID, id);
+            obj.put("radius", 100);
+            objects.put(obj);
+            strings.put(id);
+            lastId = id;
+        }
+    }
+
+    @Benchmark
+    public void mergeJSONObjects(Blackhole bh) throws JSONException {
+        for (JSONObject dict : dictionaries) {
+            bh.consume(TesUtils.mergeJSONObjects(dict, extra));
+        }
+    }
+
+    /**
+     * worst case, the key is the last entry
+     */
+    @Benchmark
+    public int findJsonArrayIndexByKey() {
+        return TesUtils.findJsonArrayIndex(KEY_ID, lastId, objects);
+    }
+
+    @Benchmark
+    public int findJsonArrayIndex() {
+        return TesUtils.findJsonArrayIndex(lastId, strings);
+    }
+}
@@ -0,0 +1,78 @@
+//  Copyright © 2012-2018 3 Electric Sheep Pty Ltd. All rights reserved.
+//
+//  The Welcome Interruption Software Development Kit (SDK) is licensed to you subject to the terms
+//  of the License Agreement. The License Agreement forms a legally binding contract between you and
+//  3 Electric Sheep Pty Ltd in relation to your use of the Welcome Interruption SDK.
+//  You may not use this file except in compliance with the License Agreement.
+//
+//  A copy of the License Agreement can be found in the LICENSE file in the root directory of this
+//  source tree.
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License
+//  Agreement is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+//  express or implied. See the License Agreement for the specific language governing permissions
+//  and limitations under the License Agreement.
+
+package com.welcomeinterruption.rnwisdk;
+
+import android.location.Location;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+
+/**
+ * Converting a batch of fixes between locations, {@link TesLocationInfo} and JSON, as done for
+ * each location result delivered to the SDK and each batch uploaded.
+ */
+@State(Scope.Benchmark)
+public class LocationInfoBenchmark {
+    @Param({"1", "10", "100", "500"})
+    public int batchSize;
+
+    private List<Location> locations;
+    private TesLocationInfo[] infos;
+    private JSONObject[] dictionaries;
+
+    @Setup
+    public void setup() throws JSONException {
+        locations = BenchmarkFixes.locations(batchSize);
+        infos = BenchmarkFixes.infos(batchSize);
+        dictionaries = BenchmarkFixes.dictionaries(batchSize);
+    }
+
+    @Benchmark
+    public void fromJson(Blackhole bh) throws JSONException {
+        for (JSONObject dict : dictionaries) {
+            bh.consume(new TesLocationInfo(dict));
+        }
+    }
+
+    @Benchmark
+    public void toDictionary(Blackhole bh) throws JSONException {
+        for (TesLocationInfo info : infos) {
+            bh.consume(info.toDictionary());
+        }
+    }
+
+    @Benchmark
+    public JSONArray locationsToJson() throws JSONException {
+        return TesUtils.locationsToJson(locations, true);
+    }
+
+    /**
+     * locationsToJson plus rendering the payload, as it is handed to the job
+     */
+    @Benchmark
+    public String locationsToJsonString() throws JSONException {
+        return TesUtils.locationsToJson(locations, true).toString();
+    }
+}
@@ -15,50 +15,66 @@
 
 package com.welcomeinterruption.rnwisdk;
 
-import android.content.BroadcastReceiver;
 import android.content.Context;
-import android.os.PowerManager;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.annotation.NonNull;
 
-import com.facebook.infer.annotation.Assertions;
 import com.facebook.react.ReactApplication;
-import com.facebook.react.ReactInstanceManager;
 import com.facebook.react.ReactNativeHost;
-import com.facebook.react.bridge.ReactContext;
 import com.facebook.react.bridge.UiThreadUtil;
 import com.facebook.react.jstasks.HeadlessJsTaskConfig;
-import com.facebook.react.jstasks.HeadlessJsTaskContext;
-import com.facebook.react.jstasks.HeadlessJsTaskEventListener;
 import com.google.common.util.concurrent.ListenableFuture;
 
-import java.util.Set;
-import java.util.concurrent.CopyOnWriteArraySet;
+import org.json.JSONException;
+
+import java.util.Collections;
+import java.util.List;
 
 import javax.annotation.Nullable;
-import android.support.annotation.NonNull;
 
 import androidx.work.Data;
-import androidx.work.Worker;
+import androidx.work.ListenableWorker;
 import androidx.work.WorkerParameters;
-import androidx.work.impl.utils.futures.SettableFuture;
 
 
 /**
- * Base class for running JS without a UI. Generally, you only need to override
- * {@link #getTaskConfig}, which is called for every {@link #onStartCommand}. The
- * result, if not {@code null}, is used to run a JS task.
+ * Base class for jobs that run JS without a UI. Generally, you only need to override
+ * {@link #getTaskConfig}, which is called for every job with its input data. The result, if not
+ * {@code null}, is used to run a JS task. Override {@link #getTaskConfigs} if a job can report
+ * more than one event.
  *
- * If you need more fine-grained control over how tasks are run, you can override
- * {@link #onStartCommand} and call {@link #startTask} depending on your custom logic.
+ * The job is a {@link ListenableWorker}, scheduled with {@link TesJobDispatcher}. WorkManager
+ * holds a wake lock while it runs, so there is nothing to acquire before scheduling it from a
+ * {@code BroadcastReceiver}.
  *
- * If you're starting a {@code HeadlessJsTaskService} from a {@code BroadcastReceiver} (e.g.
- * handling push notifications), make sure to call {@link #acquireWakeLockNow} before returning from
- * {@link BroadcastReceiver#onReceive}, to make sure the device doesn't go to sleep before the
- * service is started.
+ * A job that times out is retried for the tasks that never started. Tasks already running in JS
+ * get a second timeout to finish before they are abandoned, so a retry doesn't run alongside the
+ * task it replaces, and a task that never finishes can't hold up the jobs queued behind it. See
+ * {@link #onTimeout}.
  */
-public abstract class HeadlessJsJobService extends Worker implements HeadlessJsTaskEventListener {
+public abstract class HeadlessJsJobService extends ListenableWorker implements TesHeadlessRuntime.TaskCallback {
+    private static final String TAG = "HeadlessJsJobService";
 
-    private final Set<Integer> mActiveTasks = new CopyOnWriteArraySet<>();
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private TesSettableFuture<Payload> mFuture;
+    private int mRemaining = 0;
+    private int mDropped = 0;
+    private long mFixTime = 0;
+
+    private final Runnable mTimeout = new Runnable() {
+        @Override
+        public void run() {
+            onTimeout();
+        }
+    };
+
+    private final Runnable mAbandon = new Runnable() {
+        @Override
+        public void run() {
+            onAbandon();
+        }
+    };
 
     public HeadlessJsJobService(
             @NonNull Context context,
@@ -66,40 +82,130 @@ public abstract class HeadlessJsJobService extends Worker implements HeadlessJsT
         super(context, params);
     }
 
+    /**
+     * Starts the tasks for this job. The work only completes once every task has finished in JS,
+     * or has been given up on after a timeout, so WorkManager runs one job of each class at a time.
+     * <p>
+     * Called on the main thread. The task configs are built here too. For journal jobs that is a
+     * read of the mapped journal, and the config comes from the {@link TesConfigStore} snapshot,
+     * so neither touches the disk in the usual case. Building the JS args has to be done before
+     * the task starts on the main thread anyway.
+     */
     @NonNull
     @Override
-    public Worker.Result doWork() {
+    public ListenableFuture<Payload> startWork() {
+        mFuture = new TesSettableFuture<>();
+
         Data job = this.getInputData();
-        final HeadlessJsTaskConfig taskConfig = getTaskConfig(job);
-        if (taskConfig != null) {
-            UiThreadUtil.runOnUiThread(
-                new Runnable() {
-                    @Override
-                    public void run() {
+        mFixTime = TesJobDispatcher.getFixTime(job);
+        TesMetrics.latency(TesMetrics.STAGE_WORK, mFixTime);
+
+        final List<HeadlessJsTaskConfig> taskConfigs = getTaskConfigs(job);
+        if (taskConfigs.isEmpty()) {
+            // nothing to report, e.g. the events were already delivered by an earlier job
+            complete(Result.SUCCESS);
+            return mFuture;
+        }
+
+        mRemaining = taskConfigs.size();
+        mHandler.postDelayed(mTimeout, getConfig().headlessTaskTimeout * 1000L);
+        UiThreadUtil.runOnUiThread(
+            new Runnable() {
+                @Override
+                public void run() {
+                    for (HeadlessJsTaskConfig taskConfig : taskConfigs) {
                         startTask(taskConfig);
-                        finishtask();
                     }
                 }
-            );
-            return Result.SUCCESS;
+            }
+        );
+        return mFuture;
+    }
+
+    @Override
+    public void onStopped() {
+        super.onStopped();
+        UiThreadUtil.runOnUiThread(
+            new Runnable() {
+                @Override
+                public void run() {
+                    mHandler.removeCallbacks(mTimeout);
+                    mHandler.removeCallbacks(mAbandon);
+                    TesHeadlessRuntime.getInstance(getApplicationContext()).cancelTask(HeadlessJsJobService.this);
+                    // WorkManager reschedules stopped work itself, the result only releases the future
+                    mFuture.set(new Payload(Result.RETRY, Data.EMPTY));
+                }
+            }
+        );
+    }
+
+    @Override
+    public void onTaskFinished() {
+        TesMetrics.count(TesMetrics.TASKS_FINISHED, 1);
+        TesMetrics.latency(TesMetrics.STAGE_TASK_FINISH, mFixTime);
+        onTaskDone();
+    }
+
+    @Override
+    public void onTaskLost() {
+        TesLog.w(TAG, "Task for %s lost with its React context", getClass().getSimpleName());
+        mDropped++;
+        onTaskDone();
+    }
+
+    /**
+     * completes the work once no task is left, retrying it if any were dropped
+     */
+    private void onTaskDone() {
+        if (mFuture.isDone())
+            return;
+
+        if (--mRemaining == 0) {
+            mHandler.removeCallbacks(mTimeout);
+            mHandler.removeCallbacks(mAbandon);
+            if (mDropped > 0)
+                retryOrGiveUp();
+            else
+                complete(Result.SUCCESS);
         }
+    }
+
+    /**
+     * Called once all the tasks for this job have finished, or have been given up on. Override to
+     * mark the events reported by the job as delivered. Not called if the job is to be retried.
+     */
+    protected void onTasksFinished() {
+    }
+
+    /**
+     * Called from {@link #startWork} to create the list of {@link HeadlessJsTaskConfig} to run for this job.
+     * By default this is the result of {@link #getTaskConfig}. Override if a single job can report
+     * more than one event.
+     * @param job the job input data
+     * @return list of task configs, empty to ignore this job.
+     */
+    protected List<HeadlessJsTaskConfig> getTaskConfigs(Data job) {
+        HeadlessJsTaskConfig taskConfig = getTaskConfig(job);
+        if (taskConfig == null)
+            return Collections.emptyList();
 
-        return Result.FAILURE;
+        return Collections.singletonList(taskConfig);
     }
 
 
     /**
-     * Called from {@link #onStartCommand} to create a {@link HeadlessJsTaskConfig} for this intent.
-     * @param job the {@link JobParameters} received in {@link #onStartCommand}.
+     * Called from {@link #getTaskConfigs} to create a {@link HeadlessJsTaskConfig} for this job.
+     * @param job the job input data
      * @return a {@link HeadlessJsTaskConfig} to be used with {@link #startTask}, or
-     *         {@code null} to ignore this command.
+     *         {@code null} to ignore this job.
      */
     protected @Nullable HeadlessJsTaskConfig getTaskConfig(Data job) {
         return null;
     }
 
     /**
-     * Start a task. This method handles starting a new React instance if required.
+     * Start a task. This method handles starting a new React instance if required, reusing one
+     * that is still warm from an earlier task. See {@link TesHeadlessRuntime}.
      *
      * Has to be called on the UI thread.
      *
@@ -107,50 +213,79 @@ public abstract class HeadlessJsJobService extends Worker implements HeadlessJsT
      */
     protected void startTask(final HeadlessJsTaskConfig taskConfig) {
         UiThreadUtil.assertOnUiThread();
-        final ReactInstanceManager reactInstanceManager = getReactNativeHost().getReactInstanceManager();
-        ReactContext reactContext = reactInstanceManager.getCurrentReactContext();
-        if (reactContext == null) {
-            reactInstanceManager
-                    .addReactInstanceEventListener(new ReactInstanceManager.ReactInstanceEventListener() {
-                        @Override
-                        public void onReactContextInitialized(ReactContext reactContext) {
-                            invokeStartTask(reactContext, taskConfig);
-                            reactInstanceManager.removeReactInstanceEventListener(this);
-                        }
-                    });
-            if (!reactInstanceManager.hasStartedCreatingInitialContext()) {
-                reactInstanceManager.createReactContextInBackground();
-            }
-        } else {
-            invokeStartTask(reactContext, taskConfig);
-        }
+        TesMetrics.count(TesMetrics.TASKS_STARTED, 1);
+        TesMetrics.latency(TesMetrics.STAGE_TASK_START, mFixTime);
+        TesHeadlessRuntime.getInstance(getApplicationContext()).startTask(getReactNativeHost(), taskConfig, this);
     }
 
-    private void invokeStartTask(ReactContext reactContext, final HeadlessJsTaskConfig taskConfig) {
-        final HeadlessJsTaskContext headlessJsTaskContext = HeadlessJsTaskContext.getInstance(reactContext);
-        headlessJsTaskContext.addTaskEventListener(this);
-        int taskId = headlessJsTaskContext.startTask(taskConfig);
-        mActiveTasks.add(taskId);
+    /**
+     * gives up on tasks still waiting for the React context, e.g. a slow cold start. Tasks already
+     * running in JS can't be stopped, so they get one more timeout to finish rather than having a
+     * retry run alongside: if they all finish the events were delivered, and the job is only
+     * retried for the tasks that never started.
+     */
+    private void onTimeout() {
+        int dropped = TesHeadlessRuntime.getInstance(getApplicationContext()).cancelQueuedTasks(this);
+        TesMetrics.count(TesMetrics.TASKS_TIMED_OUT, dropped);
+        mDropped += dropped;
+        mRemaining -= dropped;
+        if (mRemaining > 0) {
+            TesLog.w(TAG, "Tasks for %s timed out - waiting for %d running in JS", getClass().getSimpleName(), mRemaining);
+            mHandler.postDelayed(mAbandon, getConfig().headlessTaskTimeout * 1000L);
+            return;
+        }
+        retryOrGiveUp();
     }
 
+    /**
+     * abandons tasks still running in JS a timeout after {@link #onTimeout}, so the job completes
+     * and the jobs queued behind it can run. The abandoned tasks were handed their events, so they
+     * aren't retried.
+     */
+    private void onAbandon() {
+        TesLog.e(TAG, "Tasks for %s still running in JS - abandoning %d", getClass().getSimpleName(), mRemaining);
+        TesMetrics.count(TesMetrics.TASKS_TIMED_OUT, mRemaining);
+        TesHeadlessRuntime.getInstance(getApplicationContext()).cancelTask(this);
+        mRemaining = 0;
+        if (mDropped > 0)
+            retryOrGiveUp();
+        else
+            complete(Result.SUCCESS);
+    }
 
-    private void finishtask() {
-        if (getReactNativeHost().hasInstance()) {
-            ReactInstanceManager reactInstanceManager = getReactNativeHost().getReactInstanceManager();
-            ReactContext reactContext = reactInstanceManager.getCurrentReactContext();
-            if (reactContext != null) {
-                HeadlessJsTaskContext headlessJsTaskContext = HeadlessJsTaskContext.getInstance(reactContext);
-                headlessJsTaskContext.removeTaskEventListener(this);
-            }
+    /**
+     * retries the job for tasks dropped on a timeout or lost, unless it has run out of retries, in which
+     * case the events are treated as delivered so they don't block later jobs.
+     */
+    private void retryOrGiveUp() {
+        int retries = getConfig().headlessTaskRetries;
+        if (getRunAttemptCount() < retries) {
+            TesLog.w(TAG, "Tasks for %s did not finish - retrying", getClass().getSimpleName());
+            mFuture.set(new Payload(Result.RETRY, Data.EMPTY));
+        }
+        else {
+            TesLog.e(TAG, "Tasks for %s did not finish after %d retries - giving up", getClass().getSimpleName(), retries);
+            complete(Result.SUCCESS);
         }
     }
 
-    @Override
-    public void onHeadlessJsTaskStart(int taskId) { }
+    /**
+     * completes the work. A job never fails, as that would cancel the jobs queued behind it.
+     */
+    private void complete(Result result) {
+        if (mFuture.isDone())
+            return;
 
-    @Override
-    public void onHeadlessJsTaskFinish(int taskId) {
-        mActiveTasks.remove(taskId);
+        onTasksFinished();
+        mFuture.set(new Payload(result, Data.EMPTY));
+    }
+
+    private TesConfig getConfig() {
+        try {
+            return TesConfig.getSavedConfig(getApplicationContext());
+        } catch (JSONException e) {
+            return new TesConfig();
+        }
     }
 
     /**
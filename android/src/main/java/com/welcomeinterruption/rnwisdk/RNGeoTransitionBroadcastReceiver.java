@@ -18,17 +18,25 @@ package com.welcomeinterruption.rnwisdk;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.location.Location;
 
+import com.google.android.gms.location.Geofence;
 import com.google.android.gms.location.GeofencingEvent;
 
+import org.json.JSONException;
+
+import java.util.ArrayList;
+import java.util.List;
+
 import androidx.work.Data;
 
 /**
  * Receiver for geofence transition changes.
  * <p>
  * Receives geofence transition events from Location Services in the form of an Intent containing
- * the transition type and geofence id(s) that triggered the transition. Creates a JobIntentService
- * that will handle the intent in the background.
+ * the transition type and geofence id(s) that triggered the transition. The event is handled off
+ * the main thread by {@link TesReceiverExecutor}, which emits it straight to JS while the app is
+ * in the foreground (see {@link TesForegroundEmitter}) or else schedules a job to report it.
  */
 public class RNGeoTransitionBroadcastReceiver extends BroadcastReceiver {
     private static final String TAG = "RNGeofenceReceiver";
@@ -46,19 +54,145 @@ public class RNGeoTransitionBroadcastReceiver extends BroadcastReceiver {
      */
     @Override
     public void onReceive(Context context, Intent intent) {
-        Data b;
-
         if (intent.getExtras() != null) {
-            GeofencingEvent geofencingEvent = GeofencingEvent.fromIntent(intent);
-            if (geofencingEvent.hasError()){
-                b = TesJobDispatcher.setError("Invalid Geoevent received",  geofencingEvent.getErrorCode());
-            }
-            else {
-                b = TesJobDispatcher.setData(geofencingEvent);
+            final Context ctx = context.getApplicationContext();
+            final GeofencingEvent geofencingEvent = GeofencingEvent.fromIntent(intent);
+            TesReceiverExecutor.execute(this, ctx, TesEventJournal.GEOFENCE_INBOX, new TesReceiverExecutor.Event() {
+                @Override
+                void handle() {
+                    recover(ctx);
+                    RNGeoTransitionBroadcastReceiver.this.handle(ctx, geofencingEvent);
+                }
+
+                @Override
+                long save(TesEventJournal inbox) {
+                    if (geofencingEvent.hasError())
+                        return -1;
+
+                    long to = inbox.appendGeofenceEvent(TesJobDispatcher.getRequestIds(geofencingEvent),
+                            geofencingEvent.getGeofenceTransition(), geofencingEvent.getTriggeringLocation(), true);
+                    if (to < 0)
+                        TesLog.w(TAG, "Geofence id too long for the inbox - not saved");
+                    return to;
+                }
+            });
+        }
+    }
+
+    /**
+     * Handles geofence events left in the inbox by an earlier process before the current event
+     *
+     * @param context - the application context
+     */
+    private void recover(Context context) {
+        long[] end = new long[1];
+        TesEventJournal inbox = TesReceiverExecutor.recoverOnce(context, TesEventJournal.GEOFENCE_INBOX, end);
+        if (inbox == null)
+            return;
+
+        long[] to = new long[1];
+        List<TesEventJournal.GeofenceEvent> saved = inbox.readGeofenceEvents(TesEventJournal.CURSOR_REPORT, end[0], to);
+        try {
+            TesConfig config = getConfig(context);
+            for (TesEventJournal.GeofenceEvent event : saved) {
+                Location loc = (event.location != null) ? event.location.toLocation() : null;
+                handleTransition(context, config, event.ids, event.transition, loc);
             }
+        } finally {
+            inbox.commit(to[0]);
+        }
+    }
+
+    /**
+     * Handles a geofencing event, on the receiver executor's thread
+     *
+     * @param context - the application context
+     * @param geofencingEvent - the event
+     */
+    private void handle(Context context, GeofencingEvent geofencingEvent) {
+        TesConfig config = getConfig(context);
+        if (geofencingEvent.hasError()){
+            Data b = TesJobDispatcher.setError("Invalid Geoevent received",  geofencingEvent.getErrorCode());
+            new TesJobDispatcher(config).scheduleJob(RNGeoTransitionService.class, b);
+            return;
+        }
+
+        handleTransition(context, config, TesJobDispatcher.getRequestIds(geofencingEvent),
+                geofencingEvent.getGeofenceTransition(), geofencingEvent.getTriggeringLocation());
+    }
+
+    /**
+     * Handles a geofence transition
+     *
+     * @param context - the application context
+     * @param config - the config
+     * @param requestIds - request ids of the triggering geofences
+     * @param transition - the geofence transition
+     * @param loc - the triggering location if any
+     */
+    private void handleTransition(Context context, TesConfig config, List<String> requestIds, int transition, Location loc) {
+        // the refresh fence belongs to the region registry - rotate and don't report it.
+        // registry regions are reported with their own ids. Exits also rotate if the
+        // device has left the area covered by the last rotation. The stationary fence
+        // resumes location updates and is reported as a motion change instead.
+        List<String> ids = new ArrayList<>();
+        boolean refresh = false;
+        boolean stationary = false;
+        for (String geoid : requestIds) {
+            if (TesRegionRegistry.isRefreshGeofence(geoid))
+                refresh = true;
+            else if (TesGeofenceMgr.STATIONARY_GEOFENCE_ID.equals(geoid))
+                stationary = true;
+            else
+                ids.add(TesRegionRegistry.toRegionId(geoid));
+        }
+
+        TesMetrics.count(TesMetrics.GEOFENCE_EVENTS_RECEIVED, 1);
+        if (loc != null) {
+            TesMetrics.latency(TesMetrics.STAGE_RECEIVE, loc.getTime());
+        }
+        boolean exit = transition == Geofence.GEOFENCE_TRANSITION_EXIT;
+        boolean resumed = stationary && exit && TesStationaryMonitor.onExit(context, config, loc);
+        if (loc != null && (refresh || (exit && TesRegionRegistry.getInstance(context).needsRotation(loc)))) {
+            TesGeofenceMgr.rotateGeofences(context, config, loc);
+        }
+
+        // leaving a geofence means we are moving again. Resuming has already requested updates.
+        if (exit && config.locAdaptive && !resumed) {
+            TesMotionController.onMovement(context, config, loc);
+        }
+
+        // move the follow fence here rather than waiting for JS to wake up and do it
+        if (loc != null && exit && config.geoNativeRearm && ids.contains(TesGeofenceMgr.FOLLOW_GEOFENCE_ID)) {
+            TesGeofenceMgr.rearmFollowGeofence(context, config, loc);
+        }
+
+        if (ids.isEmpty()) {
+            TesLog.d(TAG, "Only internal geofences triggered - not scheduling job");
+            TesMetrics.count(TesMetrics.GEOFENCE_EVENTS_FILTERED, 1);
+            return;
+        }
+
+        if ((config.geoReportTransitions & transition) == 0) {
+            TesLog.d(TAG, "Transition %d not reported to JS - not scheduling job", transition);
+            TesMetrics.count(TesMetrics.GEOFENCE_EVENTS_FILTERED, 1);
+            return;
+        }
+        Data b = TesJobDispatcher.setData(context, ids, transition, loc);
+        if (TesForegroundEmitter.emitGeofenceEvent(context, config, b, ids, transition, loc)) {
+            return;
+        }
+
+        TesJobDispatcher jm = new TesJobDispatcher(config);
+        jm.scheduleJob(RNGeoTransitionService.class, b);
+    }
 
-            TesJobDispatcher jm = new TesJobDispatcher();
-            jm.scheduleJob(RNGeoTransitionService.class, b);
+    private TesConfig getConfig(Context context) {
+        try {
+            return TesConfig.getSavedConfig(context);
+        } catch (JSONException e) {
+            TesLog.e(TAG, "Unable to load saved config - using defaults", e);
+            return new TesConfig();
         }
     }
 }
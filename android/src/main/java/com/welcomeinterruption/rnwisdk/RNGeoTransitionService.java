@@ -24,7 +24,6 @@ package com.welcomeinterruption.rnwisdk;
 import android.content.Context;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
-import android.util.Log;
 
 
 import com.facebook.react.bridge.Arguments;
@@ -37,6 +36,10 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
 import androidx.work.Data;
 import androidx.work.WorkerParameters;
 
@@ -48,6 +51,9 @@ public class RNGeoTransitionService extends HeadlessJsJobService
 {
     private static final String TAG = "RNGeoTransitionService";
 
+    private TesEventJournal mJournal;
+    private long mCommitSeq = 0;
+
 
     public RNGeoTransitionService(
             @NonNull Context context,
@@ -56,12 +62,61 @@ public class RNGeoTransitionService extends HeadlessJsJobService
     }
 
 
+    @Override
+    protected List<HeadlessJsTaskConfig> getTaskConfigs(Data extras)
+    {
+        if (extras == null || !TesJobDispatcher.isSuccess(extras) || !TesJobDispatcher.isJournal(extras)) {
+            return super.getTaskConfigs(extras);
+        }
+
+        // drain all pending events, not just the range for this job. Each event is reported
+        // to JS as its own task. Later jobs for the same range find nothing to do.
+        List<HeadlessJsTaskConfig> taskConfigs = new ArrayList<>();
+        try {
+            TesJobDispatcher.clearPending(RNGeoTransitionService.class);
+            TesEventJournal journal = TesEventJournal.getInstance(getApplicationContext(), TesEventJournal.GEOFENCE_JOURNAL);
+            long[] to = new long[1];
+            List<TesEventJournal.GeofenceEvent> events = journal.readGeofenceEvents(to);
+            // committed once JS has handled the events, so they are reported again on a retry
+            mJournal = journal;
+            mCommitSeq = to[0];
+
+            for (TesEventJournal.GeofenceEvent event : events) {
+                WritableMap jsArgs = Arguments.createMap();
+                if (event.location != null) {
+                    WritableArray regionIdentifiers = Arguments.createArray();
+                    for (String region : event.ids) {
+                        regionIdentifiers.pushString(region);
+                    }
+                    putGeofenceEvent(jsArgs, TesUtils.toLocMap(event.location), event.transition, regionIdentifiers);
+                }
+                taskConfigs.add(createTaskConfig(jsArgs));
+            }
+        } catch (IOException e) {
+            WritableMap jsArgs = Arguments.createMap();
+            TesMetrics.error(TesJobDispatcher.ERROR_JOURNAL);
+            jsArgs.putBoolean("success", false);
+            jsArgs.putInt("code", TesJobDispatcher.ERROR_JOURNAL);
+            jsArgs.putString("error", "Failed to read geofence journal: " + e.getMessage());
+            taskConfigs.add(createTaskConfig(jsArgs));
+        }
+        return taskConfigs;
+    }
+
+    @Override
+    protected void onTasksFinished() {
+        if (mJournal != null) {
+            mJournal.commit(mCommitSeq);
+        }
+    }
+
     @Override
     @Nullable
     protected HeadlessJsTaskConfig getTaskConfig(Data extras)
     {
         WritableMap jsArgs = Arguments.createMap();
         if (extras == null) {
+            TesMetrics.error(TesJobDispatcher.ERROR_BUNDLE_DATA);
             jsArgs.putBoolean("success", false);
             jsArgs.putInt("code", TesJobDispatcher.ERROR_BUNDLE_DATA);
             jsArgs.putString("error", "Null Bundle data");
@@ -88,25 +143,39 @@ public class RNGeoTransitionService extends HeadlessJsJobService
 
                     JSONObject triggeringLoc = result.optJSONObject(TesJobDispatcher.TES_KEY_TRIGGERING_LOCATION);
                     if (triggeringLoc != null) {
-                        WritableMap loc = TesUtils.toLocMap(triggeringLoc);
-                        loc.putInt("did_enter", (geofenceTransition == Geofence.GEOFENCE_TRANSITION_ENTER) ? 1 : 0);
-                        loc.putInt("did_exit", (geofenceTransition == Geofence.GEOFENCE_TRANSITION_EXIT) ? 1 : 0);
-                        loc.putInt("did_dwell", (geofenceTransition == Geofence.GEOFENCE_TRANSITION_DWELL) ? 1 : 0);
-                        loc.putArray("region_identifier", regionIdentifiers);
-
-                        jsArgs.putBoolean("success", true);
-                        jsArgs.putMap("location", loc);
-
+                        putGeofenceEvent(jsArgs, TesUtils.toLocMap(triggeringLoc), geofenceTransition, regionIdentifiers);
                     }
 
                 } catch (JSONException e) {
+                    TesMetrics.error(TesJobDispatcher.ERROR_JSON_ENCODE_DECODE);
                     jsArgs.putBoolean("success", false);
                     jsArgs.putInt("code", TesJobDispatcher.ERROR_JSON_ENCODE_DECODE);
                     jsArgs.putString("error", "Failed to decode JSON geofence event results: " + e.getMessage());
                 }
             }
         }
-        Log.d(TAG, "Report Geo transition update event to JS: " + jsArgs);
+        return createTaskConfig(jsArgs);
+    }
+
+    /**
+     * fills in the js args for a geofence event
+     * @param jsArgs - args to fill in
+     * @param loc - the triggering location
+     * @param geofenceTransition - the transition
+     * @param regionIdentifiers - the triggering geofence ids
+     */
+    static void putGeofenceEvent(WritableMap jsArgs, WritableMap loc, int geofenceTransition, WritableArray regionIdentifiers) {
+        loc.putInt("did_enter", (geofenceTransition == Geofence.GEOFENCE_TRANSITION_ENTER) ? 1 : 0);
+        loc.putInt("did_exit", (geofenceTransition == Geofence.GEOFENCE_TRANSITION_EXIT) ? 1 : 0);
+        loc.putInt("did_dwell", (geofenceTransition == Geofence.GEOFENCE_TRANSITION_DWELL) ? 1 : 0);
+        loc.putArray("region_identifier", regionIdentifiers);
+
+        jsArgs.putBoolean("success", true);
+        jsArgs.putMap("location", loc);
+    }
+
+    private HeadlessJsTaskConfig createTaskConfig(WritableMap jsArgs) {
+        TesLog.loc(TAG, "Report Geo transition update event to JS: %s", jsArgs);
         return new HeadlessJsTaskConfig(RNWisdkModule.GEO_TRANSITION_TASK_NAME, jsArgs, 0, true);
     }
 }
@@ -26,7 +26,6 @@ package com.welcomeinterruption.rnwisdk;
 import android.content.Context;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
-import android.util.Log;
 
 import com.facebook.react.jstasks.HeadlessJsTaskConfig;
 import com.facebook.react.bridge.Arguments;
@@ -37,6 +36,8 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
+import java.util.List;
 
 import androidx.work.Data;
 import androidx.work.WorkerParameters;
@@ -48,6 +49,9 @@ public class RNLocationUpdateService extends HeadlessJsJobService
 {
     private static final String TAG = "RNLocationUpdateService";
 
+    private TesEventJournal mJournal;
+    private long mCommitSeq = 0;
+
     public RNLocationUpdateService(
             @NonNull Context context,
             @NonNull WorkerParameters params) {
@@ -61,6 +65,7 @@ public class RNLocationUpdateService extends HeadlessJsJobService
 
         WritableMap jsArgs = Arguments.createMap();
         if (extras == null) {
+            TesMetrics.error(TesJobDispatcher.ERROR_BUNDLE_DATA);
             jsArgs.putBoolean("success", false);
             jsArgs.putInt("code", TesJobDispatcher.ERROR_BUNDLE_DATA);
             jsArgs.putString("error", "Null Bundle data");
@@ -70,6 +75,37 @@ public class RNLocationUpdateService extends HeadlessJsJobService
                 jsArgs.putBoolean("success", false);
                 jsArgs.putInt("code", TesJobDispatcher.getErrorCode(extras));
                 jsArgs.putString("error", TesJobDispatcher.getErrorMessage(extras));
+            } else if (TesJobDispatcher.isJournal(extras)) {
+                try {
+                    // drain everything pending, not just the range for this job, so a backlog of
+                    // wakeups is reported in one go. Later jobs for the same range find nothing to do.
+                    TesJobDispatcher.clearPending(RNLocationUpdateService.class);
+                    TesEventJournal journal = TesEventJournal.getInstance(getApplicationContext(), TesEventJournal.LOCATION_JOURNAL);
+                    long[] to = new long[1];
+                    List<TesLocationInfo> locations = journal.readLocations(to);
+                    if (locations.isEmpty()) {
+                        journal.commit(to[0]);
+                        return null;
+                    }
+                    // committed once JS has handled the locations, so they are reported again on a retry
+                    mJournal = journal;
+                    mCommitSeq = to[0];
+                    putLocations(jsArgs, locations);
+                } catch (IOException e) {
+                    TesMetrics.error(TesJobDispatcher.ERROR_JOURNAL);
+                    jsArgs.putBoolean("success", false);
+                    jsArgs.putInt("code", TesJobDispatcher.ERROR_JOURNAL);
+                    jsArgs.putString("error", "Failed to read location journal: " + e.getMessage());
+                }
+            } else if (TesJobDispatcher.isBinary(extras)) {
+                try {
+                    putLocations(jsArgs, TesJobDispatcher.getLocationData(extras));
+                } catch (IOException e) {
+                    TesMetrics.error(TesJobDispatcher.ERROR_BINARY_DECODE);
+                    jsArgs.putBoolean("success", false);
+                    jsArgs.putInt("code", TesJobDispatcher.ERROR_BINARY_DECODE);
+                    jsArgs.putString("error", "Failed to decode binary location results: " + e.getMessage());
+                }
             } else {
                 JSONObject result = null;
                 try {
@@ -92,6 +128,7 @@ public class RNLocationUpdateService extends HeadlessJsJobService
                     jsArgs.putArray("locations", locationList);
                     jsArgs.putMap("lastLocation", lastLocation);
                 } catch (JSONException e) {
+                    TesMetrics.error(TesJobDispatcher.ERROR_JSON_ENCODE_DECODE);
                     jsArgs.putBoolean("success", false);
                     jsArgs.putInt("code", TesJobDispatcher.ERROR_JSON_ENCODE_DECODE);
                     jsArgs.putString("error", "Failed to decode JSON location results: " + e.getMessage());
@@ -99,8 +136,28 @@ public class RNLocationUpdateService extends HeadlessJsJobService
             }
         }
 
-        Log.d(TAG, "Report location update event to JS: " + jsArgs);
+        TesLog.loc(TAG, "Report location update event to JS: %s", jsArgs);
         return new HeadlessJsTaskConfig(RNWisdkModule.LOC_UPDATE_TASK_NAME, jsArgs, 0, true);
     }
 
+    @Override
+    protected void onTasksFinished() {
+        if (mJournal != null) {
+            mJournal.commit(mCommitSeq);
+        }
+    }
+
+    /**
+     * fills in the js args for a list of locations
+     * @param jsArgs - args to fill in
+     * @param locations - location list, the last entry is the last location
+     */
+    static void putLocations(WritableMap jsArgs, List<TesLocationInfo> locations) {
+        jsArgs.putBoolean("success", true);
+        jsArgs.putArray("locations", TesUtils.toLocArray(locations));
+        if (locations.size() > 0) {
+            jsArgs.putMap("lastLocation", TesUtils.toLocMap(locations.get(locations.size() - 1)));
+        }
+    }
+
 }
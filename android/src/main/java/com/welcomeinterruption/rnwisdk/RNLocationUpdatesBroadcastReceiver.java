@@ -18,9 +18,16 @@ package com.welcomeinterruption.rnwisdk;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.location.Location;
 
 import com.google.android.gms.location.LocationResult;
 
+import org.json.JSONException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 import androidx.work.Data;
 
 
@@ -36,6 +43,10 @@ import androidx.work.Data;
  *  less frequently than the interval specified in the
  *  {@link com.google.android.gms.location.LocationRequest} when the app is no longer in the
  *  foreground.
+ *
+ *  The result is handled off the main thread by {@link TesReceiverExecutor}, which saves it to
+ *  the location inbox if it isn't handled in time. While the app is in
+ *  the foreground the locations are emitted straight to JS, see {@link TesForegroundEmitter}.
  */
 public class RNLocationUpdatesBroadcastReceiver extends BroadcastReceiver {
     private static final String TAG = "LUBroadcastReceiver";
@@ -48,20 +59,109 @@ public class RNLocationUpdatesBroadcastReceiver extends BroadcastReceiver {
         if (intent != null){
             final String action = intent.getAction();
             if (ACTION_PROCESS_UPDATES.equals(action) && LocationResult.hasResult(intent)) {
-                LocationResult result = LocationResult.extractResult(intent);
+                final Context ctx = context.getApplicationContext();
+                final LocationResult result = LocationResult.extractResult(intent);
+                TesReceiverExecutor.execute(this, ctx, TesEventJournal.LOCATION_INBOX, new TesReceiverExecutor.Event() {
+                    @Override
+                    void handle() {
+                        recover(ctx);
+                        RNLocationUpdatesBroadcastReceiver.this.handle(ctx, result);
+                    }
+
+                    @Override
+                    long save(TesEventJournal inbox) {
+                        return (result != null) ? inbox.appendLocations(result.getLocations(), true) : -1;
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Handles locations left in the inbox by an earlier process before the current result
+     *
+     * @param context - the application context
+     */
+    private void recover(Context context) {
+        long[] end = new long[1];
+        TesEventJournal inbox = TesReceiverExecutor.recoverOnce(context, TesEventJournal.LOCATION_INBOX, end);
+        if (inbox == null)
+            return;
+
+        long[] to = new long[1];
+        List<TesLocationInfo> saved = inbox.readLocations(TesEventJournal.CURSOR_REPORT, end[0], Integer.MAX_VALUE, to);
+        List<Location> locations = new ArrayList<>(saved.size());
+        for (TesLocationInfo info : saved) {
+            locations.add(info.toLocation());
+        }
+        try {
+            if (!locations.isEmpty()) {
+                handle(context, LocationResult.create(locations));
+            }
+        } finally {
+            inbox.commit(to[0]);
+        }
+    }
 
-                Data b;
-                if (result == null) {
-                    b = TesJobDispatcher.setError("No location received", -1);
-                }
-                else {
-                    b = TesJobDispatcher.setData(result);
-                }
+    /**
+     * Handles a location result, on the receiver executor's thread
+     *
+     * @param context - the application context
+     * @param result - the result, null if it couldn't be extracted
+     */
+    private void handle(Context context, LocationResult result) {
+        TesConfig config = getConfig(context);
 
-                TesJobDispatcher jm = new TesJobDispatcher();
-                jm.scheduleJob(RNLocationUpdateService.class, b);
+        List<Data> batches;
+        if (result == null) {
+            batches = Collections.singletonList(TesJobDispatcher.setError("No location received", -1));
+        }
+        else {
+            List<Location> received = result.getLocations();
+            TesMetrics.count(TesMetrics.LOCATIONS_RECEIVED, received.size());
+            for (int i = 0; i < received.size(); i++) {
+                TesMetrics.latency(TesMetrics.STAGE_RECEIVE, received.get(i).getTime());
+            }
+
+            if (config.locAdaptive) {
+                TesMotionController.onLocations(context, config, result.getLocations());
+            }
+            TesStationaryMonitor.onLocations(context, config, result.getLocations());
 
+            List<Location> locations = TesLocationFilter.filter(context, config, result.getLocations());
+            if (locations.isEmpty()) {
+                TesLog.d(TAG, "No new locations after filtering - not scheduling job");
+                TesMetrics.count(TesMetrics.LOCATIONS_FILTERED, received.size());
+                return;
             }
+
+            Location last = locations.get(locations.size() - 1);
+            if (TesRegionRegistry.getInstance(context).needsRotation(last)) {
+                TesGeofenceMgr.rotateGeofences(context, config, last);
+            }
+
+            locations = TesTrajectorySimplifier.simplify(locations, config.simplifyTolerance);
+            TesMetrics.count(TesMetrics.LOCATIONS_FILTERED, received.size() - locations.size());
+            batches = TesJobDispatcher.setData(context, LocationResult.create(locations));
+            Data b = batches.get(0);
+            if (config.nativeUpload && TesJobDispatcher.isJournal(b)) {
+                new TesJobDispatcher(config).scheduleJob(TesLocationUploadWorker.class, b);
+            }
+            if (TesForegroundEmitter.emitLocations(context, config, b, locations)) {
+                return;
+            }
+        }
+
+        TesJobDispatcher jm = new TesJobDispatcher(config);
+        jm.scheduleJobs(RNLocationUpdateService.class, batches);
+    }
+
+    private TesConfig getConfig(Context context) {
+        try {
+            return TesConfig.getSavedConfig(context);
+        } catch (JSONException e) {
+            TesLog.e(TAG, "Unable to load saved config - using defaults", e);
+            return new TesConfig();
         }
     }
 }
@@ -0,0 +1,82 @@
+//  Copyright © 2012-2018 3 Electric Sheep Pty Ltd. All rights reserved.
+//
+//  The Welcome Interruption Software Development Kit (SDK) is licensed to you subject to the terms
+//  of the License Agreement. The License Agreement forms a legally binding contract between you and
+//  3 Electric Sheep Pty Ltd in relation to your use of the Welcome Interruption SDK.
+//  You may not use this file except in compliance with the License Agreement.
+//
+//  A copy of the License Agreement can be found in the LICENSE file in the root directory of this
+//  source tree.
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License
+//  Agreement is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+//  express or implied. See the License Agreement for the specific language governing permissions
+//  and limitations under the License Agreement.
+
+package com.welcomeinterruption.rnwisdk;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.jstasks.HeadlessJsTaskConfig;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import androidx.work.Data;
+import androidx.work.WorkerParameters;
+
+/**
+ * Service launched when location updates are parked or resumed, see {@link TesStationaryMonitor}
+ */
+public class RNMotionChangeService extends HeadlessJsJobService
+{
+    private static final String TAG = "RNMotionChangeService";
+
+    public RNMotionChangeService(
+            @NonNull Context context,
+            @NonNull WorkerParameters params) {
+        super(context, params);
+    }
+
+    @Override
+    @Nullable
+    protected HeadlessJsTaskConfig getTaskConfig(Data extras)
+    {
+        WritableMap jsArgs = Arguments.createMap();
+        if (extras == null) {
+            TesMetrics.error(TesJobDispatcher.ERROR_BUNDLE_DATA);
+            jsArgs.putBoolean("success", false);
+            jsArgs.putInt("code", TesJobDispatcher.ERROR_BUNDLE_DATA);
+            jsArgs.putString("error", "Null Bundle data");
+        }
+        else if (!TesJobDispatcher.isSuccess(extras)) {
+            jsArgs.putBoolean("success", false);
+            jsArgs.putInt("code", TesJobDispatcher.getErrorCode(extras));
+            jsArgs.putString("error", TesJobDispatcher.getErrorMessage(extras));
+        }
+        else {
+            try {
+                JSONObject result = TesJobDispatcher.getJsonData(extras);
+                jsArgs.putBoolean("success", true);
+                jsArgs.putBoolean("stationary", result.getBoolean(TesJobDispatcher.TES_KEY_STATIONARY));
+
+                JSONObject loc = result.optJSONObject(TesJobDispatcher.TES_KEY_TRIGGERING_LOCATION);
+                if (loc != null) {
+                    jsArgs.putMap("location", TesUtils.toLocMap(loc));
+                }
+            } catch (JSONException e) {
+                TesMetrics.error(TesJobDispatcher.ERROR_JSON_ENCODE_DECODE);
+                jsArgs.putBoolean("success", false);
+                jsArgs.putInt("code", TesJobDispatcher.ERROR_JSON_ENCODE_DECODE);
+                jsArgs.putString("error", "Failed to decode JSON motion change: " + e.getMessage());
+            }
+        }
+
+        TesLog.loc(TAG, "Report motion change event to JS: %s", jsArgs);
+        return new HeadlessJsTaskConfig(RNWisdkModule.MOTION_CHANGE_TASK_NAME, jsArgs, 0, true);
+    }
+}
@@ -0,0 +1,65 @@
+//  Copyright © 2012-2018 3 Electric Sheep Pty Ltd. All rights reserved.
+//
+//  The Welcome Interruption Software Development Kit (SDK) is licensed to you subject to the terms
+//  of the License Agreement. The License Agreement forms a legally binding contract between you and
+//  3 Electric Sheep Pty Ltd in relation to your use of the Welcome Interruption SDK.
+//  You may not use this file except in compliance with the License Agreement.
+//
+//  A copy of the License Agreement can be found in the LICENSE file in the root directory of this
+//  source tree.
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License
+//  Agreement is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+//  express or implied. See the License Agreement for the specific language governing permissions
+//  and limitations under the License Agreement.
+
+package com.welcomeinterruption.rnwisdk;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Build;
+import android.os.PowerManager;
+import android.support.annotation.NonNull;
+
+/**
+ * Switches the power profile when battery saver is turned on or off, or the battery goes low or
+ * recovers. See {@link TesPowerProfile}.
+ * <p>
+ * These broadcasts can't be received by a manifest receiver on "O", so it is registered on the
+ * application context while the process is alive, by the module or the first time
+ * {@link TesConfigStore} needs the power state. A change missed while the process was dead is
+ * picked up the next time the config is loaded.
+ */
+public class RNPowerStateReceiver extends BroadcastReceiver {
+    private static final String TAG = "RNPowerStateReceiver";
+
+    private static RNPowerStateReceiver sReceiver = null;
+
+    /**
+     * Registers the receiver, once per process
+     *
+     * @param ctx - the context
+     */
+    public static synchronized void register(@NonNull Context ctx) {
+        if (sReceiver != null)
+            return;
+
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_BATTERY_LOW);
+        filter.addAction(Intent.ACTION_BATTERY_OKAY);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            filter.addAction(PowerManager.ACTION_POWER_SAVE_MODE_CHANGED);
+        }
+
+        sReceiver = new RNPowerStateReceiver();
+        ctx.getApplicationContext().registerReceiver(sReceiver, filter);
+    }
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        TesLog.d(TAG, "Power state changed: %s", intent.getAction());
+        TesPowerProfile.onPowerStateChanged(context);
+    }
+}
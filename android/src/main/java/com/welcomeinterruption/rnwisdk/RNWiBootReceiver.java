@@ -19,7 +19,8 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.support.annotation.NonNull;
-import android.util.Log;
+
+import org.json.JSONException;
 
 import androidx.work.WorkerParameters;
 
@@ -34,11 +35,25 @@ public class RNWiBootReceiver extends BroadcastReceiver
 	@Override
 	public void onReceive(Context context, Intent intent)
 	{
-		Log.e(TAG, "In boot receiver");
+		TesLog.d(TAG, "In boot receiver");
 		if (Intent.ACTION_BOOT_COMPLETED.equals(intent.getAction())) {
-			TesJobDispatcher jm = new TesJobDispatcher();
+			// geofences went with the reboot. The next location update puts the region registry back
+			TesRegionRegistry.getInstance(context).resetActive();
+			TesGeofenceMgr.resetRegistered(context);
+			TesStationaryMonitor.reset(context);
+			TesLocationMgr.setRequested(context, false);
+			TesJobDispatcher jm = new TesJobDispatcher(getConfig(context));
 			jm.scheduleJob(RNWiBootService.class, null);
 		}
 
 	}
+
+	private TesConfig getConfig(Context context) {
+		try {
+			return TesConfig.getSavedConfig(context);
+		} catch (JSONException e) {
+			TesLog.e(TAG, "Unable to load saved config - using defaults", e);
+			return new TesConfig();
+		}
+	}
 }
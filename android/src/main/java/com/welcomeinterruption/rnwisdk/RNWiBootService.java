@@ -23,7 +23,6 @@ package com.welcomeinterruption.rnwisdk;
 import android.content.Context;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
-import android.util.Log;
 
 import com.facebook.react.jstasks.HeadlessJsTaskConfig;
 
@@ -44,7 +43,7 @@ public class RNWiBootService extends HeadlessJsJobService
     @Nullable
     protected HeadlessJsTaskConfig getTaskConfig(Data extras)
     {
-        Log.d(TAG, "Boot receiver fired");
+        TesLog.d(TAG, "Boot receiver fired");
         return new HeadlessJsTaskConfig(RNWisdkModule.BOOT_TASK_NAME, null, 0, true);
     }
 }
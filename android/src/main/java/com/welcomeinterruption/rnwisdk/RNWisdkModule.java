@@ -24,12 +24,11 @@ import com.facebook.react.bridge.ReadableArray;
 import com.facebook.react.bridge.ReadableMap;
 import com.facebook.react.bridge.WritableMap;
 import com.google.android.gms.common.api.ApiException;
-import com.google.android.gms.location.Geofence;
 import com.google.android.gms.tasks.OnCompleteListener;
 import com.google.android.gms.tasks.Task;
 
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
@@ -47,6 +46,7 @@ public class RNWisdkModule extends ReactContextBaseJavaModule {
     public static final String GEO_TRANSITION_TASK_NAME = "wisdk-geo-transition";
     public static final String LOC_UPDATE_TASK_NAME = "wisdk-location-update";
     public static final String BOOT_TASK_NAME = "wisdk-boot-tassk";
+    public static final String MOTION_CHANGE_TASK_NAME = "wisdk-motion-change";
 
     public static final int ERROR_UNKNOWN = -1;
     public static final int ERROR_EMPTY_LOC = 1;
@@ -63,6 +63,7 @@ public class RNWisdkModule extends ReactContextBaseJavaModule {
         this.config = new TesConfig();
         this.geofenceMgr = new TesGeofenceMgr(this.reactContext, this.config);
         this.locMgr = new TesLocationMgr(this.reactContext, this.config);
+        TesAppState.register(this.reactContext);
     }
 
     @Override
@@ -76,6 +77,7 @@ public class RNWisdkModule extends ReactContextBaseJavaModule {
         constants.put("GEO_TRANSITION_TASK_NAME", GEO_TRANSITION_TASK_NAME);
         constants.put("LOC_UPDATE_TASK_NAME", LOC_UPDATE_TASK_NAME);
         constants.put("BOOT_TASK_NAME", BOOT_TASK_NAME);
+        constants.put("MOTION_CHANGE_TASK_NAME", MOTION_CHANGE_TASK_NAME);
         return constants;
     }
 
@@ -83,6 +85,7 @@ public class RNWisdkModule extends ReactContextBaseJavaModule {
     public void configure(String json, Promise promise) {
         try {
             this.config.fromJSON(json);
+            // the power profile is applied by TesConfigStore, this config stays as set from JS
             this.config.saveConfig(reactContext);
             promise.resolve(null);
         } catch (JSONException e) {
@@ -94,6 +97,7 @@ public class RNWisdkModule extends ReactContextBaseJavaModule {
     public void connect(boolean requireBackgroundProcessing) {
         this.geofenceMgr.connect();
         this.locMgr.connect(requireBackgroundProcessing);
+        RNPowerStateReceiver.register(reactContext);
     }
 
     /**
@@ -107,18 +111,7 @@ public class RNWisdkModule extends ReactContextBaseJavaModule {
                 if (task.isSuccessful() && task.getResult() != null) {
                     Location loc = task.getResult();
 
-                    WritableMap locEntry = Arguments.createMap();
-
-                    locEntry.putDouble("longitude", loc.getLongitude());
-                    locEntry.putDouble("latitude", loc.getLatitude());
-                    locEntry.putDouble("accuracy", loc.getAccuracy());
-                    locEntry.putDouble("speed", loc.getSpeed());
-                    locEntry.putDouble("course", loc.getBearing());
-                    locEntry.putDouble("altitude", loc.getAltitude());
-                    locEntry.putString("fix_timestamp", TesUtils.stringFromDate(new Date(loc.getTime())));
-                    locEntry.putBoolean("in_background", true);
-                    locEntry.putString("arrival", null);
-                    locEntry.putString("departure", null);
+                    WritableMap locEntry = TesUtils.toLocMap(loc, true);
                     promise.resolve(locEntry);
 
                 } else {
@@ -194,18 +187,81 @@ public class RNWisdkModule extends ReactContextBaseJavaModule {
      */
     @ReactMethod
     public void addGeofences(@NonNull ReadableArray geofencesToAdd, @Nullable final Promise promise) {
-        List<Geofence> geofenceList = new ArrayList<>();
-        for (int i = 0; i < geofencesToAdd.size(); i++) {
-            ReadableMap obj = geofencesToAdd.getMap(i);
+        List<TesGeofenceInfo> geofenceList = toGeofenceList(geofencesToAdd);
+
+        this.geofenceMgr.registerGeofences(geofenceList, new OnCompleteListener<Void>() {
+            @Override
+            public void onComplete(@NonNull Task<Void> task) {
+                if (task.isSuccessful()) {
+                    promise.resolve(null);
+                } else {
+                    Exception exc = task.getException();
+                    if (exc instanceof ApiException){
+                        ApiException apiexc = (ApiException) exc;
+                        promise.reject(Integer.toString(apiexc.getStatusCode()), apiexc);
+                    }
+                    else {
+                        promise.reject(Integer.toString(ERROR_UNKNOWN), exc);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Makes the geofences match the given list, only adding those that are new or changed and
+     * removing those no longer in the list. Geofences added with addGeofences are included, so they
+     * are removed unless they are in the list. This method should be called after the user has
+     * granted the location permission.
+     */
+    @ReactMethod
+    public void syncGeofences(@NonNull ReadableArray geofences, @Nullable final Promise promise) {
+        List<TesGeofenceInfo> geofenceList = toGeofenceList(geofences);
+
+        this.geofenceMgr.syncGeofences(geofenceList, new OnCompleteListener<Void>() {
+            @Override
+            public void onComplete(@NonNull Task<Void> task) {
+                if (task.isSuccessful()) {
+                    promise.resolve(null);
+                } else {
+                    Exception exc = task.getException();
+                    if (exc instanceof ApiException){
+                        ApiException apiexc = (ApiException) exc;
+                        promise.reject(Integer.toString(apiexc.getStatusCode()), apiexc);
+                    }
+                    else {
+                        promise.reject(Integer.toString(ERROR_UNKNOWN), exc);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Sets the full list of regions to monitor. Only the regions nearest the device are registered
+     * with the OS at a time, and these are rotated natively as the device moves.
+     */
+    @ReactMethod
+    public void setMonitoredRegions(@NonNull ReadableArray regions, @Nullable final Promise promise) {
+        List<TesRegionRegistry.Region> regionList = new ArrayList<>();
+        for (int i = 0; i < regions.size(); i++) {
+            ReadableMap obj = regions.getMap(i);
             double lat = obj.getDouble("latitude");
             double lng = obj.getDouble("longitude");
             String ident = obj.getString("identifier");
-            float radius = (float) (obj.hasKey("radius") ? obj.getInt("radius"): -1);
-            geofenceList.add(this.geofenceMgr.buildGeofence(lat,lng,radius,ident));
+            float radius = (float) (obj.hasKey("radius") ? obj.getDouble("radius"): -1);
+            regionList.add(new TesRegionRegistry.Region(ident, lat, lng, radius));
+        }
 
+        final TesRegionRegistry registry = TesRegionRegistry.getInstance(this.reactContext);
+        try {
+            registry.setRegions(regionList);
+        } catch (IOException e) {
+            promise.reject(Integer.toString(ERROR_UNKNOWN), e);
+            return;
         }
 
-        this.geofenceMgr.addGeofences(geofenceList, new OnCompleteListener<Void>() {
+        final OnCompleteListener<Void> rotateListener = new OnCompleteListener<Void>() {
             @Override
             public void onComplete(@NonNull Task<Void> task) {
                 if (task.isSuccessful()) {
@@ -221,6 +277,20 @@ public class RNWisdkModule extends ReactContextBaseJavaModule {
                     }
                 }
             }
+        };
+
+        this.locMgr.getLastKnownLocation(new OnCompleteListener<Location>() {
+            @Override
+            public void onComplete(@NonNull Task<Location> task) {
+                Location loc = task.isSuccessful() ? task.getResult() : null;
+                if (loc == null && registry.size() > 0) {
+                    // nowhere to rotate around yet - the next location update will do it
+                    promise.resolve(null);
+                }
+                else {
+                    geofenceMgr.rotateGeofences(loc, rotateListener);
+                }
+            }
         });
     }
 
@@ -278,4 +348,97 @@ public class RNWisdkModule extends ReactContextBaseJavaModule {
         });
     }
 
+    /**
+     * Sets the credentials used to upload locations natively (see TesConfig.nativeUpload), and the
+     * JSON device info sent with each upload as JS sends it. Pass null tokens to stop native uploads.
+     */
+    @ReactMethod
+    public void setUploadCredentials(@Nullable String accessToken, @Nullable String deviceToken, @Nullable String deviceInfo, @Nullable final Promise promise) {
+        TesLocationUploader.setCredentials(reactContext, accessToken, deviceToken, deviceInfo);
+        if (promise != null)
+            promise.resolve(null);
+    }
+
+    /**
+     * gets the device token used for native uploads, which is replaced if the server assigns a new
+     * device id in response to an upload
+     */
+    @ReactMethod
+    public void getUploadDeviceToken(@NonNull Promise promise) {
+        promise.resolve(TesLocationUploader.getDeviceToken(reactContext));
+    }
+
+    /**
+     * gets the configured power profile, the one in use and whether the device is short of power
+     */
+    @ReactMethod
+    public void getPowerProfile(@NonNull Promise promise) {
+        WritableMap result = Arguments.createMap();
+        String profile = TesPowerProfile.isProfile(this.config.powerProfile) ? this.config.powerProfile : null;
+        result.putString("profile", profile);
+        result.putString("active", TesPowerProfile.getActive(reactContext, this.config));
+        result.putBoolean("constrained", TesPowerProfile.isPowerConstrained(reactContext));
+        promise.resolve(result);
+    }
+
+    /**
+     * gets the pipeline metrics (see TesMetrics) and the headless task timings for this process
+     */
+    @ReactMethod
+    public void getMetrics(@NonNull Promise promise) {
+        WritableMap metrics = TesMetrics.toMap();
+
+        WritableMap headless = Arguments.createMap();
+        for (Map.Entry<String, TesHeadlessRuntime.TaskStats> entry : TesHeadlessRuntime.getInstance(reactContext).getStats().entrySet()) {
+            TesHeadlessRuntime.TaskStats stats = entry.getValue();
+            WritableMap task = Arguments.createMap();
+            task.putInt("count", stats.count);
+            task.putInt("coldStarts", stats.coldStarts);
+            task.putDouble("lastBootMs", stats.lastBootMs);
+            task.putDouble("totalBootMs", stats.totalBootMs);
+            task.putDouble("lastRunMs", stats.lastRunMs);
+            task.putDouble("totalRunMs", stats.totalRunMs);
+            task.putDouble("maxRunMs", stats.maxRunMs);
+            headless.putMap(entry.getKey(), task);
+        }
+        metrics.putMap("headless", headless);
+        promise.resolve(metrics);
+    }
+
+    /**
+     * gets the sdk log buffered in this process (see TesLog), oldest first
+     */
+    @ReactMethod
+    public void getLog(@NonNull Promise promise) {
+        promise.resolve(TesLog.dump());
+    }
+
+    /**
+     * writes the sdk log buffered in this process to a file, e.g. to attach to a support case
+     */
+    @ReactMethod
+    public void exportLog(@NonNull Promise promise) {
+        try {
+            promise.resolve(TesLog.flush(reactContext).getAbsolutePath());
+        } catch (IOException e) {
+            promise.reject(Integer.toString(ERROR_UNKNOWN), e);
+        }
+    }
+
+    /**
+     * converts geofences passed from JS
+     */
+    private List<TesGeofenceInfo> toGeofenceList(@NonNull ReadableArray geofences) {
+        List<TesGeofenceInfo> geofenceList = new ArrayList<>();
+        for (int i = 0; i < geofences.size(); i++) {
+            ReadableMap obj = geofences.getMap(i);
+            double lat = obj.getDouble("latitude");
+            double lng = obj.getDouble("longitude");
+            String ident = obj.getString("identifier");
+            float radius = (float) (obj.hasKey("radius") ? obj.getInt("radius"): -1);
+            geofenceList.add(this.geofenceMgr.buildGeofenceInfo(lat,lng,radius,ident));
+        }
+        return geofenceList;
+    }
+
 }
@@ -0,0 +1,207 @@
+//  Copyright © 2012-2018 3 Electric Sheep Pty Ltd. All rights reserved.
+//
+//  The Welcome Interruption Software Development Kit (SDK) is licensed to you subject to the terms
+//  of the License Agreement. The License Agreement forms a legally binding contract between you and
+//  3 Electric Sheep Pty Ltd in relation to your use of the Welcome Interruption SDK.
+//  You may not use this file except in compliance with the License Agreement.
+//
+//  A copy of the License Agreement can be found in the LICENSE file in the root directory of this
+//  source tree.
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License
+//  Agreement is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+//  express or implied. See the License Agreement for the specific language governing permissions
+//  and limitations under the License Agreement.
+
+package com.welcomeinterruption.rnwisdk;
+
+import android.app.Activity;
+import android.app.ActivityManager;
+import android.app.Application;
+import android.content.Context;
+import android.os.Bundle;
+import android.support.annotation.NonNull;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Tracks whether the app is in the foreground, i.e. has a started activity.
+ * <p>
+ * The state is kept up to date by activity lifecycle callbacks and held in a volatile field, so
+ * {@link #isForeground} can be called from any thread for the cost of a read. The running
+ * processes are only scanned once, when the callbacks are registered, in case an activity was
+ * already started by then. An activity being recreated for a configuration change doesn't count as
+ * leaving the foreground.
+ * <p>
+ * Listeners are told about transitions on the main thread, e.g. to change behaviour or flush
+ * anything held back while in the background.
+ */
+public class TesAppState {
+    private static final String TAG = "TesAppState";
+
+    /**
+     * Notified on the main thread when the app moves between foreground and background
+     */
+    public interface Listener {
+        void onForeground();
+        void onBackground();
+    }
+
+    private static volatile boolean sForeground = false;
+    private static volatile boolean sRegistered = false;
+
+    private static int sStarted = 0;
+    private static int sChangingConfig = 0;
+
+    private static final List<Listener> sListeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Registers for activity lifecycle callbacks, once per process. Called when the React context
+     * is created, so for a process started in the background any activity is seen as it starts.
+     *
+     * @param ctx - the context
+     */
+    public static void register(@NonNull Context ctx) {
+        if (sRegistered)
+            return;
+
+        synchronized (TesAppState.class) {
+            if (sRegistered)
+                return;
+
+            Context appCtx = ctx.getApplicationContext();
+            if (appCtx instanceof Application) {
+                ((Application) appCtx).registerActivityLifecycleCallbacks(sCallbacks);
+            }
+            else {
+                TesLog.w(TAG, "No application - foreground state won't be tracked");
+            }
+
+            // an activity may already be started, it is seen once it stops
+            if (scanProcesses(appCtx)) {
+                sStarted = 1;
+                sForeground = true;
+            }
+            sRegistered = true;
+        }
+    }
+
+    /**
+     * @return true if the app has a started activity. False until {@link #register} is called.
+     */
+    public static boolean isForeground() {
+        return sForeground;
+    }
+
+    /**
+     * @param listener - listener to add, notified of transitions on the main thread
+     */
+    public static void addListener(@NonNull Listener listener) {
+        sListeners.add(listener);
+    }
+
+    /**
+     * @param listener - listener to remove
+     */
+    public static void removeListener(@NonNull Listener listener) {
+        sListeners.remove(listener);
+    }
+
+    private static final Application.ActivityLifecycleCallbacks sCallbacks = new Application.ActivityLifecycleCallbacks() {
+        @Override
+        public void onActivityStarted(Activity activity) {
+            boolean changed;
+            synchronized (TesAppState.class) {
+                if (sChangingConfig > 0) {
+                    // the activity coming back after a configuration change was never counted out
+                    sChangingConfig--;
+                    return;
+                }
+                changed = sStarted++ == 0;
+                sForeground = true;
+            }
+            if (changed) {
+                onTransition(true);
+            }
+        }
+
+        @Override
+        public void onActivityResumed(Activity activity) {
+            boolean changed;
+            synchronized (TesAppState.class) {
+                // started before the callbacks were registered and missed by the scan
+                changed = sStarted == 0;
+                if (changed) {
+                    sStarted = 1;
+                    sForeground = true;
+                }
+            }
+            if (changed) {
+                onTransition(true);
+            }
+        }
+
+        @Override
+        public void onActivityStopped(Activity activity) {
+            boolean changed;
+            synchronized (TesAppState.class) {
+                if (activity.isChangingConfigurations()) {
+                    sChangingConfig++;
+                    return;
+                }
+                if (sStarted == 0)
+                    return;
+                changed = --sStarted == 0;
+                if (changed) {
+                    sForeground = false;
+                }
+            }
+            if (changed) {
+                onTransition(false);
+            }
+        }
+
+        @Override
+        public void onActivityCreated(Activity activity, Bundle savedInstanceState) { }
+
+        @Override
+        public void onActivityPaused(Activity activity) { }
+
+        @Override
+        public void onActivitySaveInstanceState(Activity activity, Bundle outState) { }
+
+        @Override
+        public void onActivityDestroyed(Activity activity) { }
+    };
+
+    private static void onTransition(boolean foreground) {
+        TesLog.d(TAG, "App moved to the %s", foreground ? "foreground" : "background");
+        for (Listener listener : sListeners) {
+            if (foreground)
+                listener.onForeground();
+            else
+                listener.onBackground();
+        }
+    }
+
+    /**
+     * checks the running processes for ours in the foreground. Costs an IPC so only used once.
+     */
+    private static boolean scanProcesses(Context ctx) {
+        ActivityManager activityManager = (ActivityManager) ctx.getSystemService(Context.ACTIVITY_SERVICE);
+        List<ActivityManager.RunningAppProcessInfo> appProcesses =
+                activityManager.getRunningAppProcesses();
+        if (appProcesses == null) {
+            return false;
+        }
+        final String packageName = ctx.getPackageName();
+        for (ActivityManager.RunningAppProcessInfo appProcess : appProcesses) {
+            if (appProcess.importance == ActivityManager.RunningAppProcessInfo.IMPORTANCE_FOREGROUND &&
+                    appProcess.processName.equals(packageName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -179,6 +179,48 @@ public class TesConfig implements Parcelable, Cloneable {
     public boolean requireCharging;
 
 
+    /** max distance in meters a fix can be from the simplified path of a batch, 0 disables simplification */
+    public float simplifyTolerance;
+
+    /** max regions from the region registry registered with the OS at once, the OS allows 100 per app */
+    public int geoMaxMonitored;
+
+    /** re-centre the follow geofence natively on exit rather than waiting for JS to do it */
+    public boolean geoNativeRearm;
+
+    /** geofence transitions that wake JS, others are only handled natively */
+    public int geoReportTransitions;
+
+    /** send background locations straight to the server instead of waking JS to do it */
+    public boolean nativeUpload;
+
+    /** seconds a headless React context is kept after its last task, -1 keeps it until the process dies */
+    public int headlessIdleTimeout;
+
+    /** seconds a headless JS task may run before it is given up on */
+    public int headlessTaskTimeout;
+
+    /** times a job whose headless JS tasks timed out is retried */
+    public int headlessTaskRetries;
+
+    /** adapt the location request to whether the device is driving, walking or stationary */
+    public boolean locAdaptive;
+
+    /** fixes in a row within stationaryRadius before location updates are parked, 0 disables */
+    public int stationaryFixes;
+
+    /** radius in meters of the stationary area and geofence */
+    public float stationaryRadius;
+
+    /** power profile (realtime, balanced or low-power) overriding the location, geofence and job settings, empty for none */
+    public String powerProfile;
+
+    /** switch to the low-power profile while battery saver is on or the battery is low */
+    public boolean powerProfileAuto;
+
+    /** geofence notification responsiveness in ms, 0 for as soon as possible */
+    public int geoResponsiveness;
+
     public TesConfig(String providerKey) {
          // system config
         this.providerKey = providerKey;
@@ -226,6 +268,20 @@ public class TesConfig implements Parcelable, Cloneable {
         this.geoExpiry = Geofence.NEVER_EXPIRE;
         this.geoInitialTrigger = GeofencingRequest.INITIAL_TRIGGER_ENTER;
         this.geoLoiteringDelay = LOITERING_DELAY;
+        this.simplifyTolerance = 0;
+        this.geoMaxMonitored = 90;
+        this.geoNativeRearm = false;
+        this.geoReportTransitions = Geofence.GEOFENCE_TRANSITION_ENTER | Geofence.GEOFENCE_TRANSITION_DWELL | Geofence.GEOFENCE_TRANSITION_EXIT;
+        this.nativeUpload = false;
+        this.headlessIdleTimeout = 60;
+        this.headlessTaskTimeout = 30;
+        this.headlessTaskRetries = 3;
+        this.locAdaptive = false;
+        this.stationaryFixes = 0;
+        this.stationaryRadius = 100;
+        this.powerProfile = "";
+        this.powerProfileAuto = false;
+        this.geoResponsiveness = 0;
 
 
     }
@@ -270,6 +326,20 @@ public class TesConfig implements Parcelable, Cloneable {
         geoExpiry = in.readLong();
         geoInitialTrigger = in.readInt();
         geoLoiteringDelay = in.readInt();
+        simplifyTolerance = in.readFloat();
+        geoMaxMonitored = in.readInt();
+        geoNativeRearm = in.readByte() != 0;
+        geoReportTransitions = in.readInt();
+        nativeUpload = in.readByte() != 0;
+        headlessIdleTimeout = in.readInt();
+        headlessTaskTimeout = in.readInt();
+        headlessTaskRetries = in.readInt();
+        locAdaptive = in.readByte() != 0;
+        stationaryFixes = in.readInt();
+        stationaryRadius = in.readFloat();
+        powerProfile = in.readString();
+        powerProfileAuto = in.readByte() != 0;
+        geoResponsiveness = in.readInt();
     }
 
     public static final Creator<TesConfig> CREATOR = new Creator<TesConfig>() {
@@ -336,6 +406,20 @@ public class TesConfig implements Parcelable, Cloneable {
         dest.writeLong(geoExpiry);
         dest.writeInt(geoInitialTrigger);
         dest.writeInt(geoLoiteringDelay);
+        dest.writeFloat(simplifyTolerance);
+        dest.writeInt(geoMaxMonitored);
+        dest.writeByte((byte) (geoNativeRearm ? 1 : 0));
+        dest.writeInt(geoReportTransitions);
+        dest.writeByte((byte) (nativeUpload ? 1 : 0));
+        dest.writeInt(headlessIdleTimeout);
+        dest.writeInt(headlessTaskTimeout);
+        dest.writeInt(headlessTaskRetries);
+        dest.writeByte((byte) (locAdaptive ? 1 : 0));
+        dest.writeInt(stationaryFixes);
+        dest.writeFloat(stationaryRadius);
+        dest.writeString(powerProfile);
+        dest.writeByte((byte) (powerProfileAuto ? 1 : 0));
+        dest.writeInt(geoResponsiveness);
     }
 
     @Override
@@ -375,6 +459,20 @@ public class TesConfig implements Parcelable, Cloneable {
                 ", geoExpiry=" +  this.geoExpiry +
                 ", geoInitialTrigger=" + this.geoInitialTrigger +
                 ", geoLoiteringDelay=" +  this.geoLoiteringDelay +
+                ", simplifyTolerance=" + this.simplifyTolerance +
+                ", geoMaxMonitored=" + this.geoMaxMonitored +
+                ", geoNativeRearm=" + this.geoNativeRearm +
+                ", geoReportTransitions=" + this.geoReportTransitions +
+                ", nativeUpload=" + this.nativeUpload +
+                ", headlessIdleTimeout=" + this.headlessIdleTimeout +
+                ", headlessTaskTimeout=" + this.headlessTaskTimeout +
+                ", headlessTaskRetries=" + this.headlessTaskRetries +
+                ", locAdaptive=" + this.locAdaptive +
+                ", stationaryFixes=" + this.stationaryFixes +
+                ", stationaryRadius=" + this.stationaryRadius +
+                ", powerProfile=" + this.powerProfile +
+                ", powerProfileAuto=" + this.powerProfileAuto +
+                ", geoResponsiveness=" + this.geoResponsiveness +
         '}';
     }
 
@@ -415,6 +513,20 @@ public class TesConfig implements Parcelable, Cloneable {
         json.put("geoInitialTrigger", this.geoInitialTrigger);
         json.put("geoLoiteringDelay",  this.geoLoiteringDelay);
 
+        json.put("simplifyTolerance", this.simplifyTolerance);
+        json.put("geoMaxMonitored", this.geoMaxMonitored);
+        json.put("geoNativeRearm", this.geoNativeRearm);
+        json.put("geoReportTransitions", this.geoReportTransitions);
+        json.put("nativeUpload", this.nativeUpload);
+        json.put("headlessIdleTimeout", this.headlessIdleTimeout);
+        json.put("headlessTaskTimeout", this.headlessTaskTimeout);
+        json.put("headlessTaskRetries", this.headlessTaskRetries);
+        json.put("locAdaptive", this.locAdaptive);
+        json.put("stationaryFixes", this.stationaryFixes);
+        json.put("stationaryRadius", this.stationaryRadius);
+        json.put("powerProfile", this.powerProfile);
+        json.put("powerProfileAuto", this.powerProfileAuto);
+        json.put("geoResponsiveness", this.geoResponsiveness);
         return json;
     }
 
@@ -461,6 +573,20 @@ public class TesConfig implements Parcelable, Cloneable {
         this.geoExpiry = json.optLong("geoExpiry", this.geoExpiry);
         this.geoInitialTrigger = json.optInt("geoInitialTrigger", this.geoInitialTrigger);
         this.geoLoiteringDelay = json.optInt("geoLoiteringDelay",  this.geoLoiteringDelay);
+        this.simplifyTolerance = (float) json.optDouble("simplifyTolerance", this.simplifyTolerance);
+        this.geoMaxMonitored = json.optInt("geoMaxMonitored", this.geoMaxMonitored);
+        this.geoNativeRearm = json.optBoolean("geoNativeRearm", this.geoNativeRearm);
+        this.geoReportTransitions = json.optInt("geoReportTransitions", this.geoReportTransitions);
+        this.nativeUpload = json.optBoolean("nativeUpload", this.nativeUpload);
+        this.headlessIdleTimeout = json.optInt("headlessIdleTimeout", this.headlessIdleTimeout);
+        this.headlessTaskTimeout = json.optInt("headlessTaskTimeout", this.headlessTaskTimeout);
+        this.headlessTaskRetries = json.optInt("headlessTaskRetries", this.headlessTaskRetries);
+        this.locAdaptive = json.optBoolean("locAdaptive", this.locAdaptive);
+        this.stationaryFixes = json.optInt("stationaryFixes", this.stationaryFixes);
+        this.stationaryRadius = (float) json.optDouble("stationaryRadius", this.stationaryRadius);
+        this.powerProfile = json.optString("powerProfile", this.powerProfile);
+        this.powerProfileAuto = json.optBoolean("powerProfileAuto", this.powerProfileAuto);
+        this.geoResponsiveness = json.optInt("geoResponsiveness", this.geoResponsiveness);
 
 
     }
@@ -471,13 +597,26 @@ public class TesConfig implements Parcelable, Cloneable {
                 .edit()
                 .putString(KEY_CONFIG_SETTINGS, cfg)
                 .apply();
+        TesConfigStore.put(context, this);
     }
 
+    /**
+     * Returns the process wide snapshot of the saved config, with the active power profile
+     * applied. The snapshot is shared and must not be modified. See {@link TesConfigStore}.
+     */
     static public TesConfig getSavedConfig(Context context) throws JSONException {
+        return TesConfigStore.get(context);
+    }
+
+    /**
+     * loads the config from the JSON settings, see {@link TesConfigStore}
+     */
+    static TesConfig loadJSONConfig(Context context) throws JSONException {
         String cfgStr = PreferenceManager.getDefaultSharedPreferences(context)
                 .getString(KEY_CONFIG_SETTINGS, null);
         TesConfig cfg = new TesConfig();
-        cfg.fromJSON(cfgStr);
+        if (cfgStr != null)
+            cfg.fromJSON(cfgStr);
         return cfg;
     }
 }
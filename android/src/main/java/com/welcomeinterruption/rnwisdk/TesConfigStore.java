@@ -0,0 +1,283 @@
+//  Copyright © 2012-2018 3 Electric Sheep Pty Ltd. All rights reserved.
+//
+//  The Welcome Interruption Software Development Kit (SDK) is licensed to you subject to the terms
+//  of the License Agreement. The License Agreement forms a legally binding contract between you and
+//  3 Electric Sheep Pty Ltd in relation to your use of the Welcome Interruption SDK.
+//  You may not use this file except in compliance with the License Agreement.
+//
+//  A copy of the License Agreement can be found in the LICENSE file in the root directory of this
+//  source tree.
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License
+//  Agreement is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+//  express or implied. See the License Agreement for the specific language governing permissions
+//  and limitations under the License Agreement.
+
+package com.welcomeinterruption.rnwisdk;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.os.Build;
+import android.os.Parcel;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v4.util.AtomicFile;
+
+import org.json.JSONException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.CRC32;
+
+/**
+ * Process wide snapshot of the saved config.
+ * <p>
+ * The config is loaded once per process and shared by the receivers and workers, so they don't
+ * each reread and parse the JSON settings. {@link #put} swaps in a new snapshot, readers holding
+ * the old one carry on with it. Snapshots are shared and must not be modified.
+ * <p>
+ * With {@link TesConfig#powerProfileAuto} the power state is read once and then cached, so getting
+ * the config doesn't cost a binder call and a sticky broadcast each time.
+ * <p>
+ * The config is also kept in a binary file so a new process doesn't have to parse JSON either.
+ * The file holds the config's parcel:
+ * <pre>
+ *   int magic, int format version, int sdk version, long app update time,
+ *   int length, long crc32, byte[length] parcel
+ * </pre>
+ * A parcel is only readable by the same code on the same platform, so the file is ignored if the
+ * sdk version or the app install has changed, or it fails its checksum. The config is then loaded
+ * from the JSON settings, which remain the master copy, and the file rewritten. It is written with
+ * an {@link AtomicFile} so a crash part way through leaves the previous file.
+ */
+public class TesConfigStore {
+    private static final String TAG = "TesConfigStore";
+
+    private static final String FILE_NAME = "wisdk_config.bin";
+    private static final int MAGIC = 0x57494346; // "WICF"
+    private static final int FORMAT_VERSION = 1;
+
+    /**
+     * the config as saved
+     */
+    private static volatile TesConfig sSaved = null;
+
+    /**
+     * the saved config with the active power profile applied
+     */
+    private static volatile Effective sEffective = null;
+
+    /**
+     * whether the device is power constrained, read once per process and then kept up to date by
+     * {@link RNPowerStateReceiver}. Null until first needed.
+     */
+    private static volatile Boolean sPowerConstrained = null;
+
+    private static class Effective {
+        final TesConfig saved;
+        final String profile;
+        final TesConfig config;
+
+        Effective(TesConfig saved, String profile, TesConfig config) {
+            this.saved = saved;
+            this.profile = profile;
+            this.config = config;
+        }
+    }
+
+    /**
+     * @param ctx - the context
+     * @return the saved config with the active power profile applied. Must not be modified.
+     * @throws JSONException if the JSON settings had to be loaded and are invalid
+     */
+    public static @NonNull TesConfig get(@NonNull Context ctx) throws JSONException {
+        TesConfig saved = getSaved(ctx);
+        String profile = TesPowerProfile.getActive(saved, saved.powerProfileAuto && isPowerConstrained(ctx));
+        if (profile == null)
+            return saved;
+
+        Effective effective = sEffective;
+        if (effective != null && effective.saved == saved && effective.profile.equals(profile))
+            return effective.config;
+
+        TesConfig config = copy(saved);
+        TesPowerProfile.applyTo(config, profile);
+        sEffective = new Effective(saved, profile, config);
+        return config;
+    }
+
+    /**
+     * @param ctx - the context
+     * @return the config as saved, without a power profile applied. Must not be modified.
+     * @throws JSONException if the JSON settings had to be loaded and are invalid
+     */
+    public static @NonNull TesConfig getSaved(@NonNull Context ctx) throws JSONException {
+        TesConfig saved = sSaved;
+        if (saved != null)
+            return saved;
+
+        synchronized (TesConfigStore.class) {
+            if (sSaved == null) {
+                sSaved = load(ctx);
+                TesLog.configure(sSaved);
+            }
+            return sSaved;
+        }
+    }
+
+    /**
+     * Saves a copy of a config to the binary file and makes it the current snapshot.
+     *
+     * @param ctx - the context
+     * @param config - the config, later changes to it are not seen
+     */
+    public static void put(@NonNull Context ctx, @NonNull TesConfig config) {
+        TesConfig saved = copy(config);
+        synchronized (TesConfigStore.class) {
+            write(ctx, saved);
+            sSaved = saved;
+        }
+        TesLog.configure(saved);
+    }
+
+    /**
+     * Updates the cached power state, see {@link TesPowerProfile#onPowerStateChanged}
+     *
+     * @param constrained - whether the device is power constrained
+     */
+    static void setPowerConstrained(boolean constrained) {
+        sPowerConstrained = constrained;
+    }
+
+    /**
+     * reads the power state the first time it is needed, registering for changes so the cached
+     * value stays current
+     */
+    private static boolean isPowerConstrained(Context ctx) {
+        Boolean constrained = sPowerConstrained;
+        if (constrained == null) {
+            constrained = TesPowerProfile.isPowerConstrained(ctx);
+            sPowerConstrained = constrained;
+            RNPowerStateReceiver.register(ctx);
+        }
+        return constrained;
+    }
+
+    /**
+     * @param config - config to copy
+     * @return a copy of the config
+     */
+    static @NonNull TesConfig copy(@NonNull TesConfig config) {
+        Parcel parcel = Parcel.obtain();
+        try {
+            config.writeToParcel(parcel, 0);
+            parcel.setDataPosition(0);
+            return TesConfig.CREATOR.createFromParcel(parcel);
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    private static TesConfig load(Context ctx) throws JSONException {
+        TesConfig config = read(ctx);
+        if (config != null)
+            return config;
+
+        TesLog.i(TAG, "No usable config snapshot - loading saved settings");
+        config = TesConfig.loadJSONConfig(ctx);
+        write(ctx, config);
+        return config;
+    }
+
+    private static @Nullable TesConfig read(Context ctx) {
+        AtomicFile file = getFile(ctx);
+        if (!file.getBaseFile().exists())
+            return null;
+
+        Parcel parcel = Parcel.obtain();
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(file.readFully()));
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION)
+                return null;
+            if (in.readInt() != Build.VERSION.SDK_INT || in.readLong() != getAppUpdateTime(ctx))
+                return null;
+
+            byte[] data = new byte[in.readInt()];
+            long crc = in.readLong();
+            in.readFully(data);
+            if (crc != checksum(data)) {
+                TesLog.w(TAG, "Config snapshot is corrupt - ignoring");
+                return null;
+            }
+
+            parcel.unmarshall(data, 0, data.length);
+            parcel.setDataPosition(0);
+            return TesConfig.CREATOR.createFromParcel(parcel);
+        } catch (IOException | RuntimeException e) {
+            TesLog.w(TAG, "Unable to read config snapshot - ignoring", e);
+            return null;
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    private static void write(Context ctx, TesConfig config) {
+        Parcel parcel = Parcel.obtain();
+        byte[] data;
+        try {
+            config.writeToParcel(parcel, 0);
+            data = parcel.marshall();
+        } finally {
+            parcel.recycle();
+        }
+
+        AtomicFile file = getFile(ctx);
+        FileOutputStream fos = null;
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length + 32);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(Build.VERSION.SDK_INT);
+            out.writeLong(getAppUpdateTime(ctx));
+            out.writeInt(data.length);
+            out.writeLong(checksum(data));
+            out.write(data);
+            out.flush();
+
+            fos = file.startWrite();
+            bytes.writeTo(fos);
+            file.finishWrite(fos);
+        } catch (IOException e) {
+            TesLog.e(TAG, "Unable to write config snapshot", e);
+            if (fos != null)
+                file.failWrite(fos);
+        }
+    }
+
+    private static long checksum(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+        return crc.getValue();
+    }
+
+    /**
+     * changes whenever the app is installed or updated, and so whenever this code may have changed
+     */
+    private static long getAppUpdateTime(Context ctx) {
+        try {
+            return ctx.getPackageManager().getPackageInfo(ctx.getPackageName(), 0).lastUpdateTime;
+        } catch (PackageManager.NameNotFoundException e) {
+            return 0;
+        }
+    }
+
+    private static AtomicFile getFile(Context ctx) {
+        return new AtomicFile(new File(ctx.getFilesDir(), FILE_NAME));
+    }
+}
@@ -0,0 +1,439 @@
+//  Copyright © 2012-2018 3 Electric Sheep Pty Ltd. All rights reserved.
+//
+//  The Welcome Interruption Software Development Kit (SDK) is licensed to you subject to the terms
+//  of the License Agreement. The License Agreement forms a legally binding contract between you and
+//  3 Electric Sheep Pty Ltd in relation to your use of the Welcome Interruption SDK.
+//  You may not use this file except in compliance with the License Agreement.
+//
+//  A copy of the License Agreement can be found in the LICENSE file in the root directory of this
+//  source tree.
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License
+//  Agreement is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+//  express or implied. See the License Agreement for the specific language governing permissions
+//  and limitations under the License Agreement.
+
+package com.welcomeinterruption.rnwisdk;
+
+import android.content.Context;
+import android.location.Location;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Append only ring journal of location and geofence events, shared between the broadcast
+ * receivers (writers) and the job workers (readers).
+ * <p>
+ * The journal is a memory mapped file made of a 64 byte header followed by a fixed number of
+ * 128 byte records. Every record carries the sequence number it was written with so a reader can
+ * tell if a slot has since been overwritten. Jobs only carry the sequence range they were
+ * scheduled for, and a reader drains everything from the committed read position up to the
+ * current write position so several wakeups can be delivered in one go.
+ * <p>
+ * There is a read position per consumer, {@link #CURSOR_REPORT} for reporting to JS and
+ * {@link #CURSOR_UPLOAD} for the native uploader, so each consumes the records independently.
+ * <p>
+ * Writes go to the page cache via the mapping, so they survive the process being killed but are
+ * not forced to disk.
+ */
+public class TesEventJournal {
+    private static final String TAG = "TesEventJournal";
+
+    public static final String LOCATION_JOURNAL = "wisdk_locations.journal";
+    public static final String GEOFENCE_JOURNAL = "wisdk_geofences.journal";
+
+    // raw receiver events not handled by the broadcast deadline, see TesReceiverExecutor
+    public static final String LOCATION_INBOX = "wisdk_locations.inbox";
+    public static final String GEOFENCE_INBOX = "wisdk_geofences.inbox";
+
+    public static final int TYPE_LOCATION = 1;
+    public static final int TYPE_GEOFENCE = 2;
+
+    public static final int CURSOR_REPORT = 0;
+    public static final int CURSOR_UPLOAD = 1;
+    private static final int CURSOR_COUNT = 2;
+
+    public static final int RECORD_SIZE = 128;
+    public static final int MAX_ID_LENGTH = 64;
+
+    private static final int MAGIC = 0x57494a4c; // "WIJL"
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 64;
+    private static final int DEFAULT_CAPACITY = 4096; // records - 512KB
+
+    // header layout
+    private static final int OFF_MAGIC = 0;
+    private static final int OFF_VERSION = 4;
+    private static final int OFF_RECORD_SIZE = 8;
+    private static final int OFF_CAPACITY = 12;
+    private static final int OFF_WRITE_SEQ = 16;
+    private static final int OFF_READ_SEQ = 24; // one long per cursor
+
+    // record layout
+    private static final int REC_SEQ = 0;
+    private static final int REC_TYPE = 8;
+    private static final int REC_TRANSITION = 9;
+    private static final int REC_GROUP_REMAINING = 10;
+    private static final int REC_ID_LENGTH = 12;
+    private static final int REC_FLAGS = 14;
+    private static final int REC_LOCATION = 16;
+    private static final int REC_ID = REC_LOCATION + TesLocationCodec.RECORD_SIZE;
+
+    private static final int FLAG_HAS_LOCATION = 0x01;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final Map<String, TesEventJournal> sJournals = new HashMap<>();
+
+    /**
+     * A geofence event read back from the journal
+     */
+    public static class GeofenceEvent {
+        public int transition;
+        public @Nullable TesLocationInfo location;
+        public @NonNull List<String> ids = new ArrayList<>();
+    }
+
+    private final int capacity;
+    private final MappedByteBuffer mBuf;
+
+    /**
+     * Gets the journal with the given name, creating and mapping it if required.
+     *
+     * @param ctx - context used to locate the files dir
+     * @param name - journal name, one of LOCATION_JOURNAL, GEOFENCE_JOURNAL or an inbox
+     * @return the journal
+     * @throws IOException if the file can't be created or mapped
+     */
+    public static synchronized @NonNull TesEventJournal getInstance(@NonNull Context ctx, @NonNull String name) throws IOException {
+        TesEventJournal journal = sJournals.get(name);
+        if (journal == null) {
+            journal = new TesEventJournal(new File(ctx.getApplicationContext().getFilesDir(), name), DEFAULT_CAPACITY);
+            sJournals.put(name, journal);
+        }
+        return journal;
+    }
+
+    TesEventJournal(@NonNull File file, int capacity) throws IOException {
+        this.capacity = capacity;
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            FileChannel channel = raf.getChannel();
+            mBuf = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) capacity * RECORD_SIZE);
+        }
+        finally {
+            // the mapping stays valid once the file is closed
+            raf.close();
+        }
+
+        if (mBuf.getInt(OFF_MAGIC) != MAGIC || mBuf.getInt(OFF_VERSION) != VERSION ||
+                mBuf.getInt(OFF_RECORD_SIZE) != RECORD_SIZE || mBuf.getInt(OFF_CAPACITY) != capacity) {
+            TesLog.i(TAG, "Initialising journal %s", file.getName());
+            mBuf.putInt(OFF_MAGIC, MAGIC);
+            mBuf.putInt(OFF_VERSION, VERSION);
+            mBuf.putInt(OFF_RECORD_SIZE, RECORD_SIZE);
+            mBuf.putInt(OFF_CAPACITY, capacity);
+            mBuf.putLong(OFF_WRITE_SEQ, 0);
+            for (int cursor=0; cursor<CURSOR_COUNT; cursor++) {
+                mBuf.putLong(cursorOffset(cursor), 0);
+            }
+        }
+    }
+
+    /**
+     * @return sequence number the next record will be written with
+     */
+    public synchronized long getWriteSeq() {
+        return mBuf.getLong(OFF_WRITE_SEQ);
+    }
+
+    /**
+     * @return sequence number of the oldest record not yet reported
+     */
+    public synchronized long getReadSeq() {
+        return getReadSeq(CURSOR_REPORT);
+    }
+
+    /**
+     * @param cursor - the consumer, one of CURSOR_REPORT or CURSOR_UPLOAD
+     * @return sequence number of the oldest record not yet consumed
+     */
+    public synchronized long getReadSeq(int cursor) {
+        return mBuf.getLong(cursorOffset(cursor));
+    }
+
+    /**
+     * @return true if there are records that have not been reported
+     */
+    public synchronized boolean hasPending() {
+        return hasPending(CURSOR_REPORT);
+    }
+
+    /**
+     * @param cursor - the consumer, one of CURSOR_REPORT or CURSOR_UPLOAD
+     * @return true if there are records that have not been consumed
+     */
+    public synchronized boolean hasPending(int cursor) {
+        return getReadSeq(cursor) < getWriteSeq();
+    }
+
+    /**
+     * Marks all records before seq as reported
+     * @param seq - sequence number (exclusive)
+     */
+    public synchronized void commit(long seq) {
+        commit(CURSOR_REPORT, seq);
+    }
+
+    /**
+     * Marks all records before seq as consumed
+     * @param cursor - the consumer, one of CURSOR_REPORT or CURSOR_UPLOAD
+     * @param seq - sequence number (exclusive)
+     */
+    public synchronized void commit(int cursor, long seq) {
+        if (seq > getReadSeq(cursor))
+            mBuf.putLong(cursorOffset(cursor), Math.min(seq, getWriteSeq()));
+    }
+
+    /**
+     * Marks a range of records as consumed, but only if they are the oldest not yet consumed. A
+     * consumer that has read earlier records and not committed them yet holds the read position
+     * before the range, so the range is left for it and the records stay in order.
+     * @param cursor - the consumer, one of CURSOR_REPORT or CURSOR_UPLOAD
+     * @param from - first sequence number of the range
+     * @param to - sequence number after the last record of the range
+     * @return true if the range was marked as consumed
+     */
+    public synchronized boolean commitIfNext(int cursor, long from, long to) {
+        if (getReadSeq(cursor) != from || to > getWriteSeq())
+            return false;
+
+        mBuf.putLong(cursorOffset(cursor), to);
+        return true;
+    }
+
+    /**
+     * Appends a batch of locations
+     * @param locations - the locations
+     * @param inBackground - whether the list came while the app was not running in foreground.
+     * @return sequence number after the last record written (exclusive end of the batch)
+     */
+    public synchronized long appendLocations(@NonNull List<Location> locations, boolean inBackground) {
+        long seq = getWriteSeq();
+        for (Location loc: locations) {
+            int off = startRecord(seq++, TYPE_LOCATION, 0, 0, FLAG_HAS_LOCATION);
+            mBuf.position(off + REC_LOCATION);
+            TesLocationCodec.writeRecord(mBuf, loc, inBackground);
+            mBuf.putShort(off + REC_ID_LENGTH, (short) 0);
+        }
+        publish(seq);
+        return seq;
+    }
+
+    /**
+     * Appends a geofence event. One record is written for each triggering geofence.
+     * @param ids - request ids of the triggering geofences
+     * @param transition - the geofence transition
+     * @param location - the triggering location if any
+     * @param inBackground - whether the event came while the app was not running in foreground.
+     * @return sequence number after the last record written or -1 if an id is too long to journal
+     */
+    public synchronized long appendGeofenceEvent(@NonNull List<String> ids, int transition, @Nullable Location location, boolean inBackground) {
+        List<byte[]> encodedIds = new ArrayList<>(ids.size());
+        for (String id: ids) {
+            byte[] encoded = id.getBytes(UTF8);
+            if (encoded.length > MAX_ID_LENGTH)
+                return -1;
+            encodedIds.add(encoded);
+        }
+        if (encodedIds.isEmpty())
+            encodedIds.add(new byte[0]);
+
+        long seq = getWriteSeq();
+        int count = encodedIds.size();
+        for (int i=0; i<count; i++) {
+            byte[] id = encodedIds.get(i);
+            int off = startRecord(seq++, TYPE_GEOFENCE, transition, count - i - 1, (location != null) ? FLAG_HAS_LOCATION : 0);
+            if (location != null) {
+                mBuf.position(off + REC_LOCATION);
+                TesLocationCodec.writeRecord(mBuf, location, inBackground);
+            }
+            mBuf.putShort(off + REC_ID_LENGTH, (short) id.length);
+            mBuf.position(off + REC_ID);
+            mBuf.put(id);
+        }
+        publish(seq);
+        return seq;
+    }
+
+    /**
+     * Reads all locations from the read position up to the write position
+     * @param to - receives the sequence number to commit once the locations are delivered
+     * @return the locations in the order they were written
+     */
+    public synchronized @NonNull List<TesLocationInfo> readLocations(@NonNull long[] to) {
+        return readLocations(CURSOR_REPORT, Integer.MAX_VALUE, to);
+    }
+
+    /**
+     * Reads locations from the read position of a consumer towards the write position
+     * @param cursor - the consumer, one of CURSOR_REPORT or CURSOR_UPLOAD
+     * @param max - max number of locations to read
+     * @param to - receives the sequence number to commit once the locations are delivered
+     * @return the locations in the order they were written
+     */
+    public synchronized @NonNull List<TesLocationInfo> readLocations(int cursor, int max, @NonNull long[] to) {
+        return readLocations(cursor, getWriteSeq(), max, to);
+    }
+
+    /**
+     * Reads locations from the read position of a consumer towards a sequence number
+     * @param cursor - the consumer, one of CURSOR_REPORT or CURSOR_UPLOAD
+     * @param end - sequence number to stop at (exclusive), at most the write position
+     * @param max - max number of locations to read
+     * @param to - receives the sequence number to commit once the locations are delivered
+     * @return the locations in the order they were written
+     */
+    public synchronized @NonNull List<TesLocationInfo> readLocations(int cursor, long end, int max, @NonNull long[] to) {
+        end = Math.min(end, getWriteSeq());
+        List<TesLocationInfo> locations = new ArrayList<>();
+        long seq = getReadSeq(cursor);
+        for (; seq < end && locations.size() < max; seq++) {
+            int off = recordOffset(seq);
+            if (mBuf.getLong(off + REC_SEQ) != seq || mBuf.get(off + REC_TYPE) != TYPE_LOCATION)
+                continue;
+
+            mBuf.position(off + REC_LOCATION);
+            locations.add(TesLocationCodec.readRecord(mBuf));
+        }
+        to[0] = seq;
+        return locations;
+    }
+
+    /**
+     * Reads all geofence events from the read position up to the write position
+     * @param to - receives the sequence number to commit once the events are delivered
+     * @return the events in the order they were written
+     */
+    public synchronized @NonNull List<GeofenceEvent> readGeofenceEvents(@NonNull long[] to) {
+        return readGeofenceEvents(CURSOR_REPORT, getWriteSeq(), to);
+    }
+
+    /**
+     * Reads geofence events from the read position of a consumer up to a sequence number
+     * @param cursor - the consumer, one of CURSOR_REPORT or CURSOR_UPLOAD
+     * @param end - sequence number to stop at (exclusive), at most the write position
+     * @param to - receives the sequence number to commit once the events are delivered
+     * @return the events in the order they were written
+     */
+    public synchronized @NonNull List<GeofenceEvent> readGeofenceEvents(int cursor, long end, @NonNull long[] to) {
+        end = Math.min(end, getWriteSeq());
+        List<GeofenceEvent> events = new ArrayList<>();
+        GeofenceEvent event = null;
+        for (long seq = getReadSeq(cursor); seq < end; seq++) {
+            int off = recordOffset(seq);
+            if (mBuf.getLong(off + REC_SEQ) != seq || mBuf.get(off + REC_TYPE) != TYPE_GEOFENCE) {
+                event = null;
+                continue;
+            }
+
+            if (event == null) {
+                event = new GeofenceEvent();
+                event.transition = mBuf.get(off + REC_TRANSITION);
+                if ((mBuf.getShort(off + REC_FLAGS) & FLAG_HAS_LOCATION) != 0) {
+                    mBuf.position(off + REC_LOCATION);
+                    event.location = TesLocationCodec.readRecord(mBuf);
+                }
+                events.add(event);
+            }
+
+            int idLength = mBuf.getShort(off + REC_ID_LENGTH);
+            if (idLength > 0) {
+                byte[] id = new byte[idLength];
+                mBuf.position(off + REC_ID);
+                mBuf.get(id);
+                event.ids.add(new String(id, UTF8));
+            }
+
+            if (mBuf.getShort(off + REC_GROUP_REMAINING) == 0)
+                event = null;
+        }
+        to[0] = end;
+        return events;
+    }
+
+    private static int cursorOffset(int cursor) {
+        return OFF_READ_SEQ + cursor * 8;
+    }
+
+    private int recordOffset(long seq) {
+        return HEADER_SIZE + (int) (seq % capacity) * RECORD_SIZE;
+    }
+
+    /**
+     * claims the slot for a record and writes its header, dropping the oldest unread record if the
+     * ring is full. The record isn't visible to readers until it is published.
+     * @param seq - sequence number of the record, at or after the write position
+     * @return offset of the claimed record
+     */
+    private int startRecord(long seq, int type, int transition, int groupRemaining, int flags) {
+        for (int cursor=0; cursor<CURSOR_COUNT; cursor++) {
+            long readSeq = getReadSeq(cursor);
+            if (seq - readSeq >= capacity) {
+                if (cursor == CURSOR_REPORT) {
+                    TesLog.w(TAG, "Journal full - dropping record %d", readSeq);
+                    countDropped(readSeq, seq - capacity + 1);
+                }
+                mBuf.putLong(cursorOffset(cursor), seq - capacity + 1);
+            }
+        }
+
+        int off = recordOffset(seq);
+        mBuf.putLong(off + REC_SEQ, seq);
+        mBuf.put(off + REC_TYPE, (byte) type);
+        mBuf.put(off + REC_TRANSITION, (byte) transition);
+        mBuf.putShort(off + REC_GROUP_REMAINING, (short) groupRemaining);
+        mBuf.putShort(off + REC_FLAGS, (short) flags);
+        return off;
+    }
+
+    /**
+     * makes the records before seq visible to readers. Stored once the records are fully written,
+     * so if the process is killed part way through an append the write position still points at
+     * the last complete record.
+     * @param seq - sequence number after the last record written
+     */
+    /**
+     * counts the events in records that are overwritten before being reported. A geofence event
+     * is counted by its last record.
+     */
+    private void countDropped(long from, long to) {
+        for (long seq = from; seq < to; seq++) {
+            int off = recordOffset(seq);
+            if (mBuf.getLong(off + REC_SEQ) != seq)
+                continue;
+
+            int type = mBuf.get(off + REC_TYPE);
+            if (type == TYPE_LOCATION)
+                TesMetrics.count(TesMetrics.LOCATIONS_DROPPED, 1);
+            else if (type == TYPE_GEOFENCE && mBuf.getShort(off + REC_GROUP_REMAINING) == 0)
+                TesMetrics.count(TesMetrics.GEOFENCE_EVENTS_DROPPED, 1);
+        }
+    }
+
+    private void publish(long seq) {
+        mBuf.putLong(OFF_WRITE_SEQ, seq);
+    }
+}
@@ -0,0 +1,168 @@
+//  Copyright © 2012-2018 3 Electric Sheep Pty Ltd. All rights reserved.
+//
+//  The Welcome Interruption Software Development Kit (SDK) is licensed to you subject to the terms
+//  of the License Agreement. The License Agreement forms a legally binding contract between you and
+//  3 Electric Sheep Pty Ltd in relation to your use of the Welcome Interruption SDK.
+//  You may not use this file except in compliance with the License Agreement.
+//
+//  A copy of the License Agreement can be found in the LICENSE file in the root directory of this
+//  source tree.
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License
+//  Agreement is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+//  express or implied. See the License Agreement for the specific language governing permissions
+//  and limitations under the License Agreement.
+
+package com.welcomeinterruption.rnwisdk;
+
+import android.content.Context;
+import android.location.Location;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.facebook.react.ReactApplication;
+import com.facebook.react.ReactNativeHost;
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.ReactContext;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.common.LifecycleState;
+import com.facebook.react.modules.core.DeviceEventManagerModule;
+import com.google.android.gms.location.LocationResult;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import androidx.work.Data;
+
+/**
+ * Delivers location and geofence events straight to JS while the app is in the foreground.
+ * <p>
+ * When the app's React context is live and resumed the receivers emit events with
+ * {@code RCTDeviceEventEmitter}, using the task names as event names, instead of scheduling a job
+ * that waits for its constraints and starts a headless task. In the background, or while a
+ * headless context is running, events go through the jobs as before.
+ * <p>
+ * Events are still journaled first. An event is only emitted if its journal records are the next
+ * to be reported: if earlier records are waiting for a job, or being reported by one, the event
+ * is left for the job as well so JS sees events in order and each only once. The native uploader
+ * reads the journal with its own cursor and is not affected.
+ */
+public class TesForegroundEmitter {
+    private static final String TAG = "TesForegroundEmitter";
+
+    /**
+     * Emits a batch of locations if the app is in the foreground
+     *
+     * @param ctx - the context
+     * @param config - the config, used if the event has to fall back to a job
+     * @param b - job data returned when the locations were journaled, the first if there were several
+     * @param locations - the locations, the last entry is the last location
+     * @return true if the locations were delivered and no job is needed
+     */
+    public static boolean emitLocations(@NonNull Context ctx, @NonNull TesConfig config, @NonNull Data b, @NonNull List<Location> locations) {
+        ReactContext reactContext = getResumedContext(ctx);
+        if (reactContext == null || !claim(ctx, TesEventJournal.LOCATION_JOURNAL, b))
+            return false;
+
+        List<TesLocationInfo> infos = new ArrayList<>(locations.size());
+        for (Location loc : locations) {
+            infos.add(new TesLocationInfo(loc, false));
+        }
+        WritableMap jsArgs = Arguments.createMap();
+        RNLocationUpdateService.putLocations(jsArgs, infos);
+
+        if (!emit(reactContext, RNWisdkModule.LOC_UPDATE_TASK_NAME, jsArgs)) {
+            // the records are already marked as reported, so the job carries the locations itself
+            new TesJobDispatcher(config).scheduleJobs(RNLocationUpdateService.class,
+                    TesJobDispatcher.setData(LocationResult.create(locations)));
+        }
+        return true;
+    }
+
+    /**
+     * Emits a geofence event if the app is in the foreground
+     *
+     * @param ctx - the context
+     * @param config - the config, used if the event has to fall back to a job
+     * @param b - job data returned when the event was journaled
+     * @param ids - the triggering region ids
+     * @param transition - the geofence transition
+     * @param location - the triggering location
+     * @return true if the event was delivered and no job is needed
+     */
+    public static boolean emitGeofenceEvent(@NonNull Context ctx, @NonNull TesConfig config, @NonNull Data b,
+                                            @NonNull List<String> ids, int transition, @Nullable Location location) {
+        ReactContext reactContext = getResumedContext(ctx);
+        if (reactContext == null || !claim(ctx, TesEventJournal.GEOFENCE_JOURNAL, b))
+            return false;
+
+        WritableMap jsArgs = Arguments.createMap();
+        if (location != null) {
+            WritableArray regionIdentifiers = Arguments.createArray();
+            for (String region : ids) {
+                regionIdentifiers.pushString(region);
+            }
+            RNGeoTransitionService.putGeofenceEvent(jsArgs, TesUtils.toLocMap(location, false), transition, regionIdentifiers);
+        }
+
+        if (!emit(reactContext, RNWisdkModule.GEO_TRANSITION_TASK_NAME, jsArgs)) {
+            new TesJobDispatcher(config).scheduleJob(RNGeoTransitionService.class,
+                    TesJobDispatcher.setData(ids, transition, location));
+        }
+        return true;
+    }
+
+    /**
+     * @param ctx - the context
+     * @return the app's React context if it is live and resumed, i.e. the app is in the foreground
+     */
+    static @Nullable ReactContext getResumedContext(@NonNull Context ctx) {
+        Context appCtx = ctx.getApplicationContext();
+        if (!TesAppState.isForeground() || !(appCtx instanceof ReactApplication))
+            return null;
+
+        ReactNativeHost host = ((ReactApplication) appCtx).getReactNativeHost();
+        if (!host.hasInstance())
+            return null;
+
+        ReactContext reactContext = host.getReactInstanceManager().getCurrentReactContext();
+        if (reactContext == null || !reactContext.hasActiveCatalystInstance())
+            return null;
+        return reactContext.getLifecycleState() == LifecycleState.RESUMED ? reactContext : null;
+    }
+
+    /**
+     * marks the journal records for an event as reported if nothing before them is still waiting.
+     * Events that couldn't be journaled travel in the job data and have nothing to claim.
+     */
+    private static boolean claim(Context ctx, String journalName, Data b) {
+        if (!TesJobDispatcher.isJournal(b))
+            return true;
+
+        try {
+            TesEventJournal journal = TesEventJournal.getInstance(ctx, journalName);
+            if (journal.commitIfNext(TesEventJournal.CURSOR_REPORT, TesJobDispatcher.getSeqFrom(b), TesJobDispatcher.getSeqTo(b)))
+                return true;
+
+            TesLog.d(TAG, "Earlier events waiting in %s - leaving for the job", journalName);
+        } catch (IOException e) {
+            TesLog.e(TAG, "Unable to open " + journalName, e);
+        }
+        return false;
+    }
+
+    private static boolean emit(ReactContext reactContext, String eventName, WritableMap jsArgs) {
+        try {
+            TesLog.loc(TAG, "Emit " + eventName + " event to JS: %s", jsArgs);
+            reactContext.getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class).emit(eventName, jsArgs);
+            TesMetrics.count(TesMetrics.EVENTS_EMITTED, 1);
+            return true;
+        } catch (RuntimeException e) {
+            // the React instance went away after it was checked
+            TesLog.w(TAG, "Unable to emit " + eventName + " - scheduling job", e);
+            return false;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+//  Copyright © 2012-2018 3 Electric Sheep Pty Ltd. All rights reserved.
+//
+//  The Welcome Interruption Software Development Kit (SDK) is licensed to you subject to the terms
+//  of the License Agreement. The License Agreement forms a legally binding contract between you and
+//  3 Electric Sheep Pty Ltd in relation to your use of the Welcome Interruption SDK.
+//  You may not use this file except in compliance with the License Agreement.
+//
+//  A copy of the License Agreement can be found in the LICENSE file in the root directory of this
+//  source tree.
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License
+//  Agreement is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+//  express or implied. See the License Agreement for the specific language governing permissions
+//  and limitations under the License Agreement.
+
+package com.welcomeinterruption.rnwisdk;
+
+import android.support.annotation.NonNull;
+
+import com.google.android.gms.location.Geofence;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * The parameters a geofence is registered with. Kept so that geofences can be compared with what
+ * is already registered without asking the OS.
+ */
+public class TesGeofenceInfo {
+    public @NonNull String identifier;
+    public double latitude = 0;
+    public double longitude = 0;
+    public float radius = 0;
+    public int transitionTypes = 0;
+    public long expiry = Geofence.NEVER_EXPIRE;
+    public int loiteringDelay = 0;
+    public int notificationResponsiveness = 0; // ms
+    public long registered = 0; // time the geofence was registered, epoch millis
+
+    public TesGeofenceInfo(@NonNull String identifier, double latitude, double longitude, float radius,
+                           int transitionTypes, long expiry, int loiteringDelay) {
+        this.identifier = identifier;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.radius = radius;
+        this.transitionTypes = transitionTypes;
+        this.expiry = expiry;
+        this.loiteringDelay = loiteringDelay;
+    }
+
+    public TesGeofenceInfo(@NonNull JSONObject attributes) throws JSONException {
+        this.identifier = attributes.getString("identifier");
+        this.latitude = attributes.getDouble("latitude");
+        this.longitude = attributes.getDouble("longitude");
+        this.radius = (float) attributes.getDouble("radius");
+        this.transitionTypes = attributes.getInt("transitionTypes");
+        this.expiry = attributes.optLong("expiry", Geofence.NEVER_EXPIRE);
+        this.loiteringDelay = attributes.optInt("loiteringDelay", 0);
+        this.notificationResponsiveness = attributes.optInt("notificationResponsiveness", 0);
+        this.registered = attributes.optLong("registered", 0);
+    }
+
+    /**
+     * @param rhs - geofence to compare with
+     * @return true if both geofences have the same id and parameters
+     */
+    public boolean sameAs(@NonNull TesGeofenceInfo rhs) {
+        return this.identifier.equals(rhs.identifier) &&
+                this.latitude == rhs.latitude &&
+                this.longitude == rhs.longitude &&
+                this.radius == rhs.radius &&
+                this.transitionTypes == rhs.transitionTypes &&
+                this.expiry == rhs.expiry &&
+                this.loiteringDelay == rhs.loiteringDelay &&
+                this.notificationResponsiveness == rhs.notificationResponsiveness;
+    }
+
+    /**
+     * @param now - current time, epoch millis
+     * @return true if the OS will have dropped the geofence
+     */
+    public boolean isExpired(long now) {
+        return this.expiry >= 0 && now - this.registered > this.expiry;
+    }
+
+    public @NonNull Geofence toGeofence() {
+        return new Geofence.Builder()
+                .setRequestId(this.identifier)
+                .setTransitionTypes(this.transitionTypes)
+                .setCircularRegion(this.latitude, this.longitude, this.radius)
+                .setExpirationDuration(this.expiry)
+                .setLoiteringDelay(this.loiteringDelay)
+                .setNotificationResponsiveness(this.notificationResponsiveness)
+                .build();
+    }
+
+    public @NonNull JSONObject toDictionary() throws JSONException {
+        JSONObject obj = new JSONObject();
+        obj.put("identifier", this.identifier);
+        obj.put("latitude", this.latitude);
+        obj.put("longitude", this.longitude);
+        obj.put("radius", this.radius);
+        obj.put("transitionTypes", this.transitionTypes);
+        obj.put("expiry", this.expiry);
+        obj.put("loiteringDelay", this.loiteringDelay);
+        obj.put("notificationResponsiveness", this.notificationResponsiveness);
+        obj.put("registered", this.registered);
+        return obj;
+    }
+}
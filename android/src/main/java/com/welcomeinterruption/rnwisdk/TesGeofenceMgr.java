@@ -18,15 +18,26 @@ package com.welcomeinterruption.rnwisdk;
 import android.app.PendingIntent;
 import android.content.Context;
 import android.content.Intent;
+import android.content.SharedPreferences;
+import android.location.Location;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 
 import com.google.android.gms.location.Geofence;
-import com.google.android.gms.location.GeofencingClient;
-import com.google.android.gms.location.GeofencingRequest;
-import com.google.android.gms.location.LocationServices;
+import com.google.android.gms.tasks.Continuation;
 import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
 
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 /**
@@ -46,6 +57,26 @@ public class TesGeofenceMgr {
 
     private static final int REQUEST_PERMISSIONS_REQUEST_CODE = 34;
 
+    /**
+     * smallest refresh fence radius in meters. Smaller fences don't trigger reliably.
+     */
+    private static final float MIN_REFRESH_RADIUS = 500;
+
+    /**
+     * id of the geofence that follows the device. Must match FOLLOW_GEOFENCE_ID in wiapp.js
+     */
+    public static final String FOLLOW_GEOFENCE_ID = "gf_follow";
+
+    /**
+     * id of the geofence left around the device while it is stationary, see {@link TesStationaryMonitor}
+     */
+    public static final String STATIONARY_GEOFENCE_ID = "gf_stationary";
+
+    /**
+     * shared preferences holding the geofences registered through this class, keyed by id
+     */
+    private static final String PREFS_NAME = "wisdk_geofences";
+
 
     /**
      * Context to the main activity that all the intents will be bound too
@@ -58,9 +89,9 @@ public class TesGeofenceMgr {
     private final TesConfig config;
 
     /**
-     * Provides access to the Geofencing API.
+     * Provides geofencing, the Geofencing API unless set otherwise.
      */
-    private GeofencingClient mGeofencingClient;
+    private TesGeofenceSource mGeofenceSource;
 
 
     /**
@@ -77,7 +108,7 @@ public class TesGeofenceMgr {
     public TesGeofenceMgr(@NonNull Context ctx, TesConfig config) {
         this.config = config;
         this.mCtx = ctx;
-        this.mGeofencingClient = null;
+        this.mGeofenceSource = null;
         this.mGeofencePendingIntent = null;
     }
 
@@ -85,7 +116,7 @@ public class TesGeofenceMgr {
         // TODO: pjf - should I check if we have a client ?
         // Initially set the PendingIntent used in addGeofences() and removeGeofences() to null.
         mGeofencePendingIntent = null;
-        mGeofencingClient = LocationServices.getGeofencingClient(this.mCtx);
+        mGeofenceSource = TesLocationSources.getGeofenceSource(this.mCtx);
     }
 
     /**
@@ -93,27 +124,245 @@ public class TesGeofenceMgr {
      * permission.
      */
     @SuppressWarnings("MissingPermission")
-    public void addGeofences(List<Geofence> geofencesToAdd,  OnCompleteListener<Void> listener) {
-        mGeofencingClient.addGeofences(getGeofencingRequest(geofencesToAdd), getGeofencePendingIntent())
+    public void addGeofences(List<TesGeofenceInfo> geofencesToAdd,  OnCompleteListener<Void> listener) {
+        mGeofenceSource.addGeofences(geofencesToAdd, this.config.geoInitialTrigger, getGeofencePendingIntent())
                 .addOnCompleteListener(listener);
     }
 
+    /**
+     * Adds geofences and remembers what they were registered with. This method should be called
+     * after the user has granted the location permission.
+     */
+    @SuppressWarnings("MissingPermission")
+    public void registerGeofences(final List<TesGeofenceInfo> geofencesToAdd,  final OnCompleteListener<Void> listener) {
+        mGeofenceSource.addGeofences(geofencesToAdd, this.config.geoInitialTrigger, getGeofencePendingIntent())
+                .addOnCompleteListener(new OnCompleteListener<Void>() {
+                    @Override
+                    public void onComplete(@NonNull Task<Void> task) {
+                        if (task.isSuccessful())
+                            saveRegistered(geofencesToAdd, null);
+                        listener.onComplete(task);
+                    }
+                });
+    }
+
     /**
      * Removes geofences by id. This method should be called after the user has granted the location
      * permission.
      */
-    public void removeGeofences(List<String> ids, OnCompleteListener<Void> listener) {
-        mGeofencingClient.removeGeofences(ids)
-                .addOnCompleteListener(listener);
+    public void removeGeofences(final List<String> ids, final OnCompleteListener<Void> listener) {
+        mGeofenceSource.removeGeofences(ids)
+                .addOnCompleteListener(new OnCompleteListener<Void>() {
+                    @Override
+                    public void onComplete(@NonNull Task<Void> task) {
+                        if (task.isSuccessful())
+                            saveRegistered(null, ids);
+                        listener.onComplete(task);
+                    }
+                });
     }
 
     /**
      * Removes all geofences. This method should be called after the user has granted the location
      * permission.
      */
-    public void clearGeofences( OnCompleteListener<Void> listener) {
-        mGeofencingClient.removeGeofences(getGeofencePendingIntent()).
-                addOnCompleteListener(listener);
+    public void clearGeofences( final OnCompleteListener<Void> listener) {
+        // this also removes the region registry geofences. The next location update puts them back.
+        TesRegionRegistry.getInstance(mCtx).resetActive();
+        mGeofenceSource.removeGeofences(getGeofencePendingIntent()).
+                addOnCompleteListener(new OnCompleteListener<Void>() {
+                    @Override
+                    public void onComplete(@NonNull Task<Void> task) {
+                        if (task.isSuccessful()) {
+                            resetRegistered(mCtx);
+                            // the stationary geofence has gone too, so nothing would resume updates
+                            TesStationaryMonitor.resume(mCtx, config, null);
+                        }
+                        listener.onComplete(task);
+                    }
+                });
+    }
+
+    /**
+     * Makes the geofences registered through this class match the given set. Only geofences that
+     * are new or whose parameters changed are added (re-adding an id replaces it), and only those
+     * no longer wanted are removed, so geofences that don't change don't retrigger. This makes at
+     * most one remove and one add call.
+     *
+     * Geofences added with registerGeofences, which the addGeofences bridge method uses, are part
+     * of the set, so a sync removes them unless they are passed again. Geofences added with
+     * addGeofences (such as the stationary geofence) and the region registry geofences are not
+     * affected.
+     *
+     * @param geofences - the geofences wanted
+     * @param listener - called once the geofences are updated
+     */
+    @SuppressWarnings("MissingPermission")
+    public void syncGeofences(@NonNull List<TesGeofenceInfo> geofences, @NonNull final OnCompleteListener<Void> listener) {
+        Map<String, TesGeofenceInfo> registered = loadRegistered();
+        long now = System.currentTimeMillis();
+
+        Set<String> wanted = new HashSet<>();
+        final List<TesGeofenceInfo> toAdd = new ArrayList<>();
+        for (TesGeofenceInfo info : geofences) {
+            wanted.add(info.identifier);
+            TesGeofenceInfo current = registered.get(info.identifier);
+            if (current == null || current.isExpired(now) || !current.sameAs(info))
+                toAdd.add(info);
+        }
+
+        final List<String> toRemove = new ArrayList<>();
+        for (String id : registered.keySet()) {
+            if (!wanted.contains(id))
+                toRemove.add(id);
+        }
+
+        TesLog.d(TAG, "Syncing geofences - adding %d removing %d", toAdd.size(), toRemove.size());
+
+        Task<Void> removed = toRemove.isEmpty() ? Tasks.<Void>forResult(null) : mGeofenceSource.removeGeofences(toRemove);
+        removed.continueWithTask(new Continuation<Void, Task<Void>>() {
+            @Override
+            public Task<Void> then(@NonNull Task<Void> task) {
+                if (!task.isSuccessful())
+                    return task;
+
+                saveRegistered(null, toRemove);
+                if (toAdd.isEmpty())
+                    return task;
+
+                return mGeofenceSource.addGeofences(toAdd, config.geoInitialTrigger, getGeofencePendingIntent());
+            }
+        }).addOnCompleteListener(new OnCompleteListener<Void>() {
+            @Override
+            public void onComplete(@NonNull Task<Void> task) {
+                if (task.isSuccessful())
+                    saveRegistered(toAdd, null);
+                listener.onComplete(task);
+            }
+        });
+    }
+
+    /**
+     * Re-centres the follow geofence on a location, from outside the react module, e.g. in a
+     * broadcast receiver. This is what JS would do on an exit, without having to start JS.
+     *
+     * @param ctx - the context
+     * @param config - the config object
+     * @param loc - the location to centre on
+     */
+    public static void rearmFollowGeofence(@NonNull Context ctx, @NonNull TesConfig config, @NonNull Location loc) {
+        TesGeofenceMgr mgr = new TesGeofenceMgr(ctx, config);
+        mgr.connect();
+
+        List<TesGeofenceInfo> geofences = new ArrayList<>();
+        geofences.add(mgr.buildGeofenceInfo(loc.getLatitude(), loc.getLongitude(), config.geoRadius, FOLLOW_GEOFENCE_ID));
+        mgr.registerGeofences(geofences, new OnCompleteListener<Void>() {
+            @Override
+            public void onComplete(@NonNull Task<Void> task) {
+                if (!task.isSuccessful())
+                    TesLog.e(TAG, "Unable to re-arm follow geofence", task.getException());
+            }
+        });
+    }
+
+    /**
+     * Forgets the geofences registered through this class, e.g. after a reboot has removed them.
+     *
+     * @param ctx - the context
+     */
+    public static void resetRegistered(@NonNull Context ctx) {
+        ctx.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit().clear().apply();
+    }
+
+    /**
+     * Registers the regions from the region registry nearest to a location, removing those
+     * registered by the last rotation that are no longer near. If not all regions fit, a refresh
+     * geofence is added around the location that triggers the next rotation when the device
+     * leaves it. Regions that stay registered are left alone so they don't retrigger.
+     *
+     * @param loc - the current location, may be null if the registry is empty
+     * @param listener - called once the geofences are updated, may be null
+     */
+    @SuppressWarnings("MissingPermission")
+    public void rotateGeofences(@Nullable Location loc, @Nullable final OnCompleteListener<Void> listener) {
+        final TesRegionRegistry registry = TesRegionRegistry.getInstance(mCtx);
+        final double latitude = (loc != null) ? loc.getLatitude() : 0;
+        final double longitude = (loc != null) ? loc.getLongitude() : 0;
+
+        List<TesRegionRegistry.Region> nearest = (loc != null) ?
+                registry.nearest(latitude, longitude, this.config.geoMaxMonitored) :
+                new ArrayList<TesRegionRegistry.Region>();
+
+        Set<String> activeIds = registry.getActiveIds();
+        final Set<String> ids = new HashSet<>();
+        final List<TesGeofenceInfo> geofencesToAdd = new ArrayList<>();
+        for (TesRegionRegistry.Region region : nearest) {
+            String geoid = TesRegionRegistry.REGION_PREFIX + region.id;
+            ids.add(geoid);
+            if (!activeIds.contains(geoid))
+                geofencesToAdd.add(buildGeofenceInfo(region.latitude, region.longitude, region.radius, geoid));
+        }
+
+        float refreshRadius = 0;
+        if (!nearest.isEmpty() && nearest.size() < registry.size()) {
+            // regions that aren't registered are at least as far away as the furthest one that is,
+            // so rotate well before getting there.
+            double furthest = TesRegionRegistry.distance(latitude, longitude, nearest.get(nearest.size() - 1));
+            refreshRadius = (float) Math.max(MIN_REFRESH_RADIUS, furthest / 2);
+            ids.add(TesRegionRegistry.REFRESH_GEOFENCE_ID);
+            geofencesToAdd.add(buildRefreshGeofenceInfo(latitude, longitude, refreshRadius));
+        }
+        final float activeRefreshRadius = refreshRadius;
+
+        List<String> staleIds = new ArrayList<>(activeIds);
+        staleIds.removeAll(ids);
+
+        registry.onRotationStarted();
+        Task<Void> removed = staleIds.isEmpty() ? Tasks.<Void>forResult(null) : mGeofenceSource.removeGeofences(staleIds);
+        removed.continueWithTask(new Continuation<Void, Task<Void>>() {
+            @Override
+            public Task<Void> then(@NonNull Task<Void> task) {
+                if (!task.isSuccessful() || geofencesToAdd.isEmpty())
+                    return task;
+
+                return mGeofenceSource.addGeofences(geofencesToAdd, config.geoInitialTrigger, getGeofencePendingIntent());
+            }
+        }).addOnCompleteListener(new OnCompleteListener<Void>() {
+            @Override
+            public void onComplete(@NonNull Task<Void> task) {
+                if (task.isSuccessful()) {
+                    registry.setActive(ids, latitude, longitude, activeRefreshRadius);
+                    TesLog.i(TAG, "Rotated geofences - %d regions registered", ids.size());
+                }
+                else {
+                    TesLog.e(TAG, "Unable to rotate geofences", task.getException());
+                }
+                registry.onRotationFinished(task.isSuccessful());
+
+                if (listener != null)
+                    listener.onComplete(task);
+            }
+        });
+    }
+
+    /**
+     * Rotates the region registry geofences from outside the react module, e.g. in a broadcast receiver.
+     * Skipped while a rotation is in flight or backing off after a failure, the next location
+     * update tries again.
+     *
+     * @param ctx - the context
+     * @param config - the config object
+     * @param loc - the current location
+     */
+    public static void rotateGeofences(@NonNull Context ctx, @NonNull TesConfig config, @NonNull Location loc) {
+        if (!TesRegionRegistry.getInstance(ctx).canRotate()) {
+            TesLog.d(TAG, "Rotation in flight or backing off - not rotating");
+            return;
+        }
+
+        TesGeofenceMgr mgr = new TesGeofenceMgr(ctx, config);
+        mgr.connect();
+        mgr.rotateGeofences(loc, null);
     }
 
     /**
@@ -126,6 +375,20 @@ public class TesGeofenceMgr {
      * @return geoFence object
      */
     public Geofence buildGeofence(double latitude, double longitude, float radius, String geoid)
+    {
+        return buildGeofenceInfo(latitude, longitude, radius, geoid).toGeofence();
+    }
+
+    /**
+     * Builds the parameters for a geofence that can be passed into registerGeofences or syncGeofences
+     *
+     * @param latitude lat of center
+     * @param longitude long of center
+     * @param radius in meters, < 0 implies config default
+     * @param geoid id, if null, set to a random uuid
+     * @return geoFence parameters
+     */
+    public TesGeofenceInfo buildGeofenceInfo(double latitude, double longitude, float radius, String geoid)
     {
         if (geoid == null)
             geoid = UUID.randomUUID().toString();
@@ -133,35 +396,85 @@ public class TesGeofenceMgr {
         if (radius < 0)
             radius = this.config.geoRadius;
 
-        return new Geofence.Builder()
-                .setRequestId(geoid)
-                .setTransitionTypes(this.config.geoTransitionType)
-                .setCircularRegion(latitude, longitude, radius)
-                .setExpirationDuration(this.config.geoExpiry)
-                .setLoiteringDelay(this.config.geoLoiteringDelay)
-                .build();
+        TesGeofenceInfo info = new TesGeofenceInfo(geoid, latitude, longitude, radius,
+                this.config.geoTransitionType, this.config.geoExpiry, this.config.geoLoiteringDelay);
+        info.notificationResponsiveness = getConfig().geoResponsiveness;
+        return info;
+    }
+
+    /**
+     * @return the saved config with the active power profile applied, so a profile switched since
+     * this manager was created is used. The config passed in if the saved one can't be loaded.
+     */
+    private TesConfig getConfig() {
+        try {
+            return TesConfigStore.get(mCtx);
+        } catch (JSONException e) {
+            return this.config;
+        }
     }
 
 
     /**
-     * Builds and returns a GeofencingRequest. Specifies the list of geofences to be monitored.
-     * Also specifies how the geofence notifications are initially triggered.
+     * Builds the stationary geofence. It only reports exits and never expires.
      */
-    private GeofencingRequest getGeofencingRequest(List<Geofence> geofencesToAdd) {
-        GeofencingRequest.Builder builder = new GeofencingRequest.Builder();
+    public TesGeofenceInfo buildStationaryGeofenceInfo(double latitude, double longitude, float radius)
+    {
+        return new TesGeofenceInfo(STATIONARY_GEOFENCE_ID, latitude, longitude, radius,
+                Geofence.GEOFENCE_TRANSITION_EXIT, Geofence.NEVER_EXPIRE, 0);
+    }
 
-        // The INITIAL_TRIGGER_ENTER flag indicates that geofencing service should trigger a
-        // GEOFENCE_TRANSITION_ENTER notification when the geofence is added and if the device
-        // is already inside that geofence.
-        builder.setInitialTrigger(this.config.geoInitialTrigger);
+    /**
+     * Builds the refresh geofence for the region registry. It only reports exits and never expires.
+     */
+    private TesGeofenceInfo buildRefreshGeofenceInfo(double latitude, double longitude, float radius)
+    {
+        return new TesGeofenceInfo(TesRegionRegistry.REFRESH_GEOFENCE_ID, latitude, longitude, radius,
+                Geofence.GEOFENCE_TRANSITION_EXIT, Geofence.NEVER_EXPIRE, 0);
+    }
 
-        // Add the geofences to be monitored by geofencing service.
-        builder.addGeofences(geofencesToAdd);
 
-        // Return a GeofencingRequest.
-        return builder.build();
+    /**
+     * @return the geofences registered through this class keyed by id
+     */
+    private Map<String, TesGeofenceInfo> loadRegistered() {
+        Map<String, TesGeofenceInfo> registered = new HashMap<>();
+        SharedPreferences prefs = mCtx.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        for (Map.Entry<String, ?> entry : prefs.getAll().entrySet()) {
+            try {
+                registered.put(entry.getKey(), new TesGeofenceInfo(new JSONObject((String) entry.getValue())));
+            } catch (JSONException | ClassCastException e) {
+                TesLog.w(TAG, "Ignoring invalid saved geofence %s", entry.getKey());
+            }
+        }
+        return registered;
     }
 
+    /**
+     * updates the saved geofences
+     * @param added - geofences that were added, may be null
+     * @param removed - ids of geofences that were removed, may be null
+     */
+    private void saveRegistered(@Nullable List<TesGeofenceInfo> added, @Nullable List<String> removed) {
+        SharedPreferences.Editor editor = mCtx.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit();
+        if (removed != null) {
+            for (String id : removed) {
+                editor.remove(id);
+            }
+        }
+        if (added != null) {
+            long now = System.currentTimeMillis();
+            for (TesGeofenceInfo info : added) {
+                info.registered = now;
+                try {
+                    editor.putString(info.identifier, info.toDictionary().toString());
+                } catch (JSONException e) {
+                    TesLog.e(TAG, String.format("Unable to save geofence %s", info.identifier), e);
+                }
+            }
+        }
+        editor.apply();
+    }
 
     /**
      * Gets a PendingIntent to send with the request to add or remove Geofences. Location Services
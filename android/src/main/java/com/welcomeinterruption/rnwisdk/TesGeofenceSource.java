@@ -0,0 +1,56 @@
+//  Copyright © 2012-2018 3 Electric Sheep Pty Ltd. All rights reserved.
+//
+//  The Welcome Interruption Software Development Kit (SDK) is licensed to you subject to the terms
+//  of the License Agreement. The License Agreement forms a legally binding contract between you and
+//  3 Electric Sheep Pty Ltd in relation to your use of the Welcome Interruption SDK.
+//  You may not use this file except in compliance with the License Agreement.
+//
+//  A copy of the License Agreement can be found in the LICENSE file in the root directory of this
+//  source tree.
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License
+//  Agreement is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+//  express or implied. See the License Agreement for the specific language governing permissions
+//  and limitations under the License Agreement.
+
+package com.welcomeinterruption.rnwisdk;
+
+import android.app.PendingIntent;
+import android.support.annotation.NonNull;
+
+import com.google.android.gms.tasks.Task;
+
+import java.util.List;
+
+/**
+ * Where geofence transitions come from. Transitions are delivered to the pending intent as a
+ * {@link com.google.android.gms.location.GeofencingEvent}, the way Play Services delivers them.
+ * <p>
+ * Geofences are passed as {@link TesGeofenceInfo} rather than Play Services geofences, whose
+ * parameters can't be read back, so a source can work out transitions itself.
+ * See {@link TesLocationSources}.
+ */
+public interface TesGeofenceSource {
+    /**
+     * Adds geofences, replacing any with the same id
+     *
+     * @param geofences - the geofences
+     * @param initialTrigger - GeofencingRequest.INITIAL_TRIGGER_* flags
+     * @param intent - intent transitions are delivered to
+     * @return completes once the geofences are monitored
+     * @throws SecurityException if the app doesn't have the location permission
+     */
+    @NonNull Task<Void> addGeofences(@NonNull List<TesGeofenceInfo> geofences, int initialTrigger, @NonNull PendingIntent intent);
+
+    /**
+     * @param ids - ids of the geofences to remove
+     * @return completes once the geofences are removed
+     */
+    @NonNull Task<Void> removeGeofences(@NonNull List<String> ids);
+
+    /**
+     * @param intent - intent the geofences were added with
+     * @return completes once every geofence added with the intent is removed
+     */
+    @NonNull Task<Void> removeGeofences(@NonNull PendingIntent intent);
+}
@@ -0,0 +1,341 @@
+//  Copyright © 2012-2018 3 Electric Sheep Pty Ltd. All rights reserved.
+//
+//  The Welcome Interruption Software Development Kit (SDK) is licensed to you subject to the terms
+//  of the License Agreement. The License Agreement forms a legally binding contract between you and
+//  3 Electric Sheep Pty Ltd in relation to your use of the Welcome Interruption SDK.
+//  You may not use this file except in compliance with the License Agreement.
+//
+//  A copy of the License Agreement can be found in the LICENSE file in the root directory of this
+//  source tree.
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License
+//  Agreement is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+//  express or implied. See the License Agreement for the specific language governing permissions
+//  and limitations under the License Agreement.
+
+package com.welcomeinterruption.rnwisdk;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.facebook.react.ReactInstanceManager;
+import com.facebook.react.ReactNativeHost;
+import com.facebook.react.bridge.ReactContext;
+import com.facebook.react.bridge.UiThreadUtil;
+import com.facebook.react.jstasks.HeadlessJsTaskConfig;
+import com.facebook.react.jstasks.HeadlessJsTaskContext;
+import com.facebook.react.jstasks.HeadlessJsTaskEventListener;
+
+import org.json.JSONException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs headless JS tasks on a shared React context.
+ * <p>
+ * Tasks that arrive while the context is being created are queued and started together once it
+ * is ready, so back to back events only pay for one boot. Once the last task finishes a context
+ * that was created headlessly is kept for {@link TesConfig#headlessIdleTimeout} seconds so that
+ * later events can reuse it, after which it is torn down unless the app has come to the
+ * foreground in the meantime.
+ * <p>
+ * The time taken to boot the context and to run each task is recorded per task name, and callers
+ * can be told when their task finishes.
+ * <p>
+ * All methods must be called on the UI thread.
+ */
+public class TesHeadlessRuntime implements HeadlessJsTaskEventListener, ReactInstanceManager.ReactInstanceEventListener {
+    private static final String TAG = "TesHeadlessRuntime";
+
+    private static TesHeadlessRuntime sInstance;
+
+    /**
+     * Notified when a task started with {@link #startTask} finishes
+     */
+    public interface TaskCallback {
+        void onTaskFinished();
+
+        /**
+         * the React context the task was running on was replaced, so it will never finish
+         */
+        void onTaskLost();
+    }
+
+    private static class Task {
+        final HeadlessJsTaskConfig config;
+        @Nullable TaskCallback callback;
+        long start = 0;
+
+        Task(HeadlessJsTaskConfig config, @Nullable TaskCallback callback) {
+            this.config = config;
+            this.callback = callback;
+        }
+    }
+
+    /**
+     * Timings for one task name
+     */
+    public static class TaskStats {
+        public int count = 0;           // tasks run
+        public int coldStarts = 0;      // tasks that had to wait for the context to boot
+        public long lastBootMs = 0;
+        public long totalBootMs = 0;
+        public long lastRunMs = 0;
+        public long totalRunMs = 0;
+        public long maxRunMs = 0;
+
+        TaskStats copy() {
+            TaskStats stats = new TaskStats();
+            stats.count = count;
+            stats.coldStarts = coldStarts;
+            stats.lastBootMs = lastBootMs;
+            stats.totalBootMs = totalBootMs;
+            stats.lastRunMs = lastRunMs;
+            stats.totalRunMs = totalRunMs;
+            stats.maxRunMs = maxRunMs;
+            return stats;
+        }
+    }
+
+    private final Context mContext;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Map<String, TaskStats> mStats = new HashMap<>();
+
+    private ReactNativeHost mHost;
+    private ReactContext mListeningTo;
+    private boolean mCreatedHeadless = false;
+    private long mBootStart = 0;
+
+    private final List<Task> mQueued = new ArrayList<>();
+    private final Map<Integer, Task> mRunning = new HashMap<>();
+
+    private final Runnable mIdleTimeout = new Runnable() {
+        @Override
+        public void run() {
+            teardownIfIdle();
+        }
+    };
+
+    private TesHeadlessRuntime(@NonNull Context ctx) {
+        mContext = ctx.getApplicationContext();
+    }
+
+    public static synchronized @NonNull TesHeadlessRuntime getInstance(@NonNull Context ctx) {
+        if (sInstance == null) {
+            sInstance = new TesHeadlessRuntime(ctx);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Starts a task, creating the React context if needed.
+     *
+     * @param host - host owning the React instance
+     * @param taskConfig - describes what task to start and the parameters to pass to it
+     * @param callback - notified when the task finishes, may be null
+     */
+    public void startTask(@NonNull ReactNativeHost host, @NonNull HeadlessJsTaskConfig taskConfig, @Nullable TaskCallback callback) {
+        UiThreadUtil.assertOnUiThread();
+        mHandler.removeCallbacks(mIdleTimeout);
+        mHost = host;
+
+        Task task = new Task(taskConfig, callback);
+        ReactInstanceManager reactInstanceManager = host.getReactInstanceManager();
+        ReactContext reactContext = reactInstanceManager.getCurrentReactContext();
+        if (reactContext != null && mQueued.isEmpty()) {
+            invokeStartTask(reactContext, task, false);
+            return;
+        }
+
+        mQueued.add(task);
+        if (mBootStart == 0) {
+            mBootStart = SystemClock.elapsedRealtime();
+            reactInstanceManager.addReactInstanceEventListener(this);
+            if (!reactInstanceManager.hasStartedCreatingInitialContext()) {
+                TesLog.d(TAG, "Creating React context for %s", taskConfig.getTaskKey());
+                mCreatedHeadless = true;
+                reactInstanceManager.createReactContextInBackground();
+            }
+        }
+    }
+
+    /**
+     * Abandons a task that has not finished, e.g. on a timeout. A queued task is dropped and a
+     * running task is marked as finished. The callback is not notified.
+     *
+     * @param callback - callback the task was started with
+     */
+    public void cancelTask(@NonNull TaskCallback callback) {
+        UiThreadUtil.assertOnUiThread();
+        cancelQueuedTasks(callback);
+
+        List<Integer> taskIds = new ArrayList<>();
+        for (Map.Entry<Integer, Task> entry : mRunning.entrySet()) {
+            if (entry.getValue().callback == callback)
+                taskIds.add(entry.getKey());
+        }
+        for (Integer taskId : taskIds) {
+            Task task = mRunning.get(taskId);
+            TesLog.w(TAG, "Abandoning task %s", task.config.getTaskKey());
+            task.callback = null;
+            if (mListeningTo != null) {
+                HeadlessJsTaskContext.getInstance(mListeningTo).finishTask(taskId);
+            }
+        }
+    }
+
+    /**
+     * Drops tasks that are still waiting for the React context. Tasks already running in JS are
+     * left to finish and notify the callback.
+     *
+     * @param callback - callback the tasks were started with
+     * @return the number of tasks dropped
+     */
+    public int cancelQueuedTasks(@NonNull TaskCallback callback) {
+        UiThreadUtil.assertOnUiThread();
+        int count = 0;
+        for (Iterator<Task> it = mQueued.iterator(); it.hasNext(); ) {
+            if (it.next().callback == callback) {
+                it.remove();
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return copy of the timings recorded so far keyed on task name
+     */
+    public synchronized @NonNull Map<String, TaskStats> getStats() {
+        Map<String, TaskStats> stats = new HashMap<>();
+        for (Map.Entry<String, TaskStats> entry : mStats.entrySet()) {
+            stats.put(entry.getKey(), entry.getValue().copy());
+        }
+        return stats;
+    }
+
+    @Override
+    public void onReactContextInitialized(ReactContext reactContext) {
+        mHost.getReactInstanceManager().removeReactInstanceEventListener(this);
+
+        long bootMs = SystemClock.elapsedRealtime() - mBootStart;
+        mBootStart = 0;
+        TesLog.d(TAG, "React context ready after %dms, starting %d tasks", bootMs, mQueued.size());
+
+        List<Task> queued = new ArrayList<>(mQueued);
+        mQueued.clear();
+        for (Task task : queued) {
+            recordBoot(task.config.getTaskKey(), bootMs);
+            invokeStartTask(reactContext, task, true);
+        }
+    }
+
+    @Override
+    public void onHeadlessJsTaskStart(int taskId) { }
+
+    @Override
+    public void onHeadlessJsTaskFinish(int taskId) {
+        Task task = mRunning.remove(taskId);
+        if (task != null) {
+            recordRun(task.config.getTaskKey(), SystemClock.elapsedRealtime() - task.start);
+            if (task.callback != null)
+                task.callback.onTaskFinished();
+        }
+
+        int idleTimeout = getIdleTimeout();
+        if (mRunning.isEmpty() && mQueued.isEmpty() && idleTimeout >= 0) {
+            mHandler.removeCallbacks(mIdleTimeout);
+            mHandler.postDelayed(mIdleTimeout, idleTimeout * 1000L);
+        }
+    }
+
+    private void invokeStartTask(ReactContext reactContext, Task task, boolean cold) {
+        if (mListeningTo != reactContext) {
+            // a new context has been created since we last ran a task, tasks on the old one
+            // will never finish
+            List<Task> lost = new ArrayList<>(mRunning.values());
+            mListeningTo = reactContext;
+            mRunning.clear();
+            HeadlessJsTaskContext.getInstance(reactContext).addTaskEventListener(this);
+            for (Task lostTask : lost) {
+                if (lostTask.callback != null)
+                    lostTask.callback.onTaskLost();
+            }
+        }
+
+        if (!cold)
+            recordBoot(task.config.getTaskKey(), -1);
+
+        task.start = SystemClock.elapsedRealtime();
+        int taskId = HeadlessJsTaskContext.getInstance(reactContext).startTask(task.config);
+        mRunning.put(taskId, task);
+    }
+
+    /**
+     * tears down a context we created once no task has run for the idle timeout
+     */
+    private void teardownIfIdle() {
+        if (!mRunning.isEmpty() || !mQueued.isEmpty() || !mCreatedHeadless || mHost == null)
+            return;
+
+        if (mHost.hasInstance()) {
+            ReactContext reactContext = mHost.getReactInstanceManager().getCurrentReactContext();
+            if (reactContext != null && reactContext.hasCurrentActivity()) {
+                // the app has been opened - the context now belongs to the UI
+                mCreatedHeadless = false;
+                return;
+            }
+            if (reactContext != null) {
+                HeadlessJsTaskContext.getInstance(reactContext).removeTaskEventListener(this);
+            }
+
+            TesLog.d(TAG, "Headless React context idle - tearing down");
+            mHost.clear();
+        }
+        mListeningTo = null;
+        mCreatedHeadless = false;
+    }
+
+    private int getIdleTimeout() {
+        try {
+            return TesConfig.getSavedConfig(mContext).headlessIdleTimeout;
+        } catch (JSONException e) {
+            return new TesConfig().headlessIdleTimeout;
+        }
+    }
+
+    private synchronized void recordBoot(String name, long bootMs) {
+        TaskStats stats = getOrCreateStats(name);
+        stats.count++;
+        if (bootMs >= 0) {
+            stats.coldStarts++;
+            stats.lastBootMs = bootMs;
+            stats.totalBootMs += bootMs;
+        }
+    }
+
+    private synchronized void recordRun(String name, long runMs) {
+        TaskStats stats = getOrCreateStats(name);
+        stats.lastRunMs = runMs;
+        stats.totalRunMs += runMs;
+        stats.maxRunMs = Math.max(stats.maxRunMs, runMs);
+        TesLog.d(TAG, "Task %s finished in %dms", name, runMs);
+    }
+
+    private TaskStats getOrCreateStats(String name) {
+        TaskStats stats = mStats.get(name);
+        if (stats == null) {
+            stats = new TaskStats();
+            mStats.put(name, stats);
+        }
+        return stats;
+    }
+}
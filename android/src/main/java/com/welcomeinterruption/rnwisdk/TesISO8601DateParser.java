@@ -30,20 +30,35 @@
 
 package com.welcomeinterruption.rnwisdk;
 
-import java.text.SimpleDateFormat;
+import java.text.ParseException;
 import java.util.Date;
-import java.util.TimeZone;
 
 
 /**
  * ISO 8601 date parsing utility.  Designed for parsing the ISO subset used in
  * Dublin Core, RSS 1.0, and Atom.
+ * <p>
+ * Works directly on epoch milliseconds with no Calendar, TimeZone or SimpleDateFormat
+ * instances, so it allocates nothing beyond the resulting string and holds no shared state.
+ * It is safe to use from any thread.
  *
  * @author <a href="mailto:burton@apache.org">Kevin A. Burton (burtonator)</a>
  * @version $Id: TesISO8601DateParser.java,v 1.2 2005/06/03 20:25:29 snoopdave Exp $
  */
 public class TesISO8601DateParser {
 
+    private static final long MILLIS_PER_DAY = 86400000L;
+
+    /**
+     * length of yyyy-MM-ddTHH:mm:ss+0000
+     */
+    private static final int FORMATTED_LENGTH = 24;
+
+    /**
+     * length of yyyy-MM-ddTHH:mm:ss.SSS+0000
+     */
+    private static final int FORMATTED_MILLIS_LENGTH = 28;
+
     // 2004-06-14T19:GMT20:30Z
     // 2004-06-20T06:GMT22:01Z
 
@@ -89,32 +104,226 @@ public class TesISO8601DateParser {
     //      ss   = two digits of second (00 through 59)
     //      s    = one or more digits representing a decimal fraction of a second
     //      TZD  = time zone designator (Z or +hh:mm or -hh:mm)
-    public static Date parse(String input ) throws java.text.ParseException {
+    //
+    // The parser accepts the complete date plus hours and minutes forms and above, with the
+    // TZD as Z, +hh:mm, +hhmm or +hh.
+    public static Date parse(String input ) throws ParseException {
+        return new Date(parseMillis(input));
+    }
+
+    /**
+     * parses an ISO 8601 date time
+     * @param input - the string to parse
+     * @return epoch milliseconds
+     * @throws ParseException if the string is not a supported ISO 8601 form
+     */
+    public static long parseMillis(CharSequence input) throws ParseException {
+        int len = input.length();
+        int year = digits(input, 0, 4);
+        expect(input, 4, '-');
+        int month = digits(input, 5, 2);
+        expect(input, 7, '-');
+        int day = digits(input, 8, 2);
+        if (len <= 10 || (input.charAt(10) != 'T' && input.charAt(10) != 't'))
+            throw new ParseException("Expected time in date: " + input, 10);
+
+        int hour = digits(input, 11, 2);
+        expect(input, 13, ':');
+        int minute = digits(input, 14, 2);
+        int second = 0;
+        int millis = 0;
+
+        int pos = 16;
+        if (pos < len && input.charAt(pos) == ':') {
+            second = digits(input, pos + 1, 2);
+            pos += 3;
+
+            if (pos < len && (input.charAt(pos) == '.' || input.charAt(pos) == ',')) {
+                // decimal fraction of a second, only millisecond precision is kept
+                pos++;
+                int start = pos;
+                int scale = 100;
+                while (pos < len && isDigit(input.charAt(pos))) {
+                    millis += (input.charAt(pos) - '0') * scale;
+                    scale /= 10;
+                    pos++;
+                }
+                if (pos == start)
+                    throw new ParseException("Expected fraction of a second in date: " + input, pos);
+            }
+        }
+
+        if (month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month) ||
+                hour > 23 || minute > 59 || second > 60)
+            throw new ParseException("Invalid date: " + input, 0);
+
+        // leap seconds are folded into the next minute
+        long time = (daysFromCivil(year, month, day) * 86400L + hour * 3600L + minute * 60L + second) * 1000L + millis;
 
-        //NOTE: SimpleDateFormat uses GMT[-+]hh:mm for the TZ which breaks
-        //things a bit.  Before we go on we have to repair this.
-        SimpleDateFormat df = new SimpleDateFormat( "yyyy-MM-dd'T'HH:mm:ssZ" );
+        if (pos >= len)
+            throw new ParseException("Expected time zone in date: " + input, pos);
 
-        //this is zero time so we need to add that TZ indicator for
-        if ( input.endsWith( "Z" ) ) {
-            input = input.substring( 0, input.length() - 1) + "+0000";
+        char tz = input.charAt(pos);
+        if (tz == 'Z' || tz == 'z') {
+            pos++;
+        }
+        else if (tz == '+' || tz == '-') {
+            int offsetHours = digits(input, pos + 1, 2);
+            int offsetMinutes = 0;
+            pos += 3;
+            if (pos < len && input.charAt(pos) == ':') {
+                pos++;
+            }
+            if (pos < len) {
+                offsetMinutes = digits(input, pos, 2);
+                pos += 2;
+            }
+            long offset = (offsetHours * 60L + offsetMinutes) * 60000L;
+            time = (tz == '+') ? time - offset : time + offset;
+        }
+        else {
+            throw new ParseException("Invalid time zone in date: " + input, pos);
         }
 
-        return df.parse( input );
+        if (pos != len)
+            throw new ParseException("Unexpected text in date: " + input, pos);
 
+        return time;
     }
 
     public static String toString(Date date ) {
+        return format(date.getTime());
+    }
+
+    /**
+     * formats epoch milliseconds as yyyy-MM-ddTHH:mm:ss+0000 in UTC
+     * @param time - epoch milliseconds
+     * @return formatted date
+     */
+    public static String format(long time) {
+        char[] buf = new char[FORMATTED_LENGTH];
+        int len = format(time, false, buf);
+        return new String(buf, 0, len);
+    }
+
+    /**
+     * appends epoch milliseconds as yyyy-MM-ddTHH:mm:ss[.SSS]+0000 in UTC
+     * @param time - epoch milliseconds
+     * @param withMillis - whether to include milliseconds
+     * @param sb - builder to append to
+     * @return the builder
+     */
+    public static StringBuilder format(long time, boolean withMillis, StringBuilder sb) {
+        char[] buf = new char[FORMATTED_MILLIS_LENGTH];
+        int len = format(time, withMillis, buf);
+        return sb.append(buf, 0, len);
+    }
+
+    /**
+     * writes epoch milliseconds as yyyy-MM-ddTHH:mm:ss[.SSS]+0000 in UTC
+     * @param time - epoch milliseconds
+     * @param withMillis - whether to include milliseconds
+     * @param buf - buffer to write to, must hold at least 24 chars (28 with millis)
+     * @return number of chars written
+     */
+    public static int format(long time, boolean withMillis, char[] buf) {
+        long days = time / MILLIS_PER_DAY;
+        long millisOfDay = time % MILLIS_PER_DAY;
+        if (millisOfDay < 0) {
+            days--;
+            millisOfDay += MILLIS_PER_DAY;
+        }
+
+        // civil from days - see http://howardhinnant.github.io/date_algorithms.html
+        long z = days + 719468;
+        long era = (z >= 0 ? z : z - 146096) / 146097;
+        long doe = z - era * 146097;
+        long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        long mp = (5 * doy + 2) / 153;
+        int day = (int) (doy - (153 * mp + 2) / 5 + 1);
+        int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+        int year = (int) (yoe + era * 400 + (month <= 2 ? 1 : 0));
+
+        int secondOfDay = (int) (millisOfDay / 1000);
+
+        int pos = 0;
+        pos = put(buf, pos, year, 4);
+        buf[pos++] = '-';
+        pos = put(buf, pos, month, 2);
+        buf[pos++] = '-';
+        pos = put(buf, pos, day, 2);
+        buf[pos++] = 'T';
+        pos = put(buf, pos, secondOfDay / 3600, 2);
+        buf[pos++] = ':';
+        pos = put(buf, pos, (secondOfDay / 60) % 60, 2);
+        buf[pos++] = ':';
+        pos = put(buf, pos, secondOfDay % 60, 2);
+        if (withMillis) {
+            buf[pos++] = '.';
+            pos = put(buf, pos, (int) (millisOfDay % 1000), 3);
+        }
+        buf[pos++] = '+';
+        buf[pos++] = '0';
+        buf[pos++] = '0';
+        buf[pos++] = '0';
+        buf[pos++] = '0';
+        return pos;
+    }
+
+    private static int put(char[] buf, int pos, int value, int width) {
+        for (int i = pos + width - 1; i >= pos; i--) {
+            buf[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        return pos + width;
+    }
 
-        SimpleDateFormat df = new SimpleDateFormat( "yyyy-MM-dd'T'HH:mm:ssZ" );
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
 
-        TimeZone tz = TimeZone.getTimeZone( "UTC" );
+    private static int digits(CharSequence input, int pos, int count) throws ParseException {
+        if (pos + count > input.length())
+            throw new ParseException("Unexpected end of date: " + input, pos);
 
-        df.setTimeZone( tz );
+        int value = 0;
+        for (int i = pos; i < pos + count; i++) {
+            char c = input.charAt(i);
+            if (!isDigit(c))
+                throw new ParseException("Expected digit in date: " + input, i);
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
 
-        String result = df.format( date );
-        return result;
+    private static void expect(CharSequence input, int pos, char c) throws ParseException {
+        if (pos >= input.length() || input.charAt(pos) != c)
+            throw new ParseException(String.format("Expected '%c' in date: %s", c, input), pos);
+    }
+
+    private static int daysInMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                boolean leap = (year % 4 == 0) && (year % 100 != 0 || year % 400 == 0);
+                return leap ? 29 : 28;
+            case 4: case 6: case 9: case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
 
+    /**
+     * days from civil - see http://howardhinnant.github.io/date_algorithms.html
+     */
+    private static long daysFromCivil(int year, int month, int day) {
+        year -= (month <= 2) ? 1 : 0;
+        long era = (year >= 0 ? year : year - 399) / 400;
+        long yoe = year - era * 400;
+        long doy = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return era * 146097 + doe - 719468;
     }
 
 }
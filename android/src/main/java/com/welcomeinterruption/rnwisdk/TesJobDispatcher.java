@@ -15,7 +15,12 @@
 
 package com.welcomeinterruption.rnwisdk;
 
+import android.arch.lifecycle.Observer;
+import android.content.Context;
 import android.location.Location;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
@@ -28,14 +33,23 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import androidx.work.Constraints;
 import androidx.work.Data;
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.ListenableWorker;
 import androidx.work.NetworkType;
 import androidx.work.OneTimeWorkRequest;
+import androidx.work.State;
 import androidx.work.WorkManager;
-import androidx.work.Worker;
+import androidx.work.WorkStatus;
 
 
 /**
@@ -50,27 +64,70 @@ public class TesJobDispatcher {
     public static String TES_JOBPARAM_MSG = "msg";
     public static String TES_JOBPARAM_CODE = "code";
     public static String TES_JOBPARAM_DATA = "data";
+    public static String TES_JOBPARAM_FORMAT = "format";
+    public static String TES_JOBPARAM_BINDATA = "bindata";
+    public static String TES_JOBPARAM_SEQ_FROM = "seqFrom";
+    public static String TES_JOBPARAM_SEQ_TO = "seqTo";
+    public static String TES_JOBPARAM_FIX_TIME = "fixTime";
+
+    public static int FORMAT_JSON = 0;
+    public static int FORMAT_BINARY = 1;
+    public static int FORMAT_JOURNAL = 2;
 
     public static String TES_KEY_LOCATIONS = "locations";
     public static String TES_KEY_LASTLOCATION = "lastLocation";
     public static String TES_KEY_TRIGGERING_GEOFENCES = "triggeringGeofences";
     public static String TES_KEY_TRIGGERING_LOCATION = "triggeringLocation";
     public static String TES_KEY_GEOFENCE_TRANSITION = "geofenceTransition";
+    public static String TES_KEY_STATIONARY = "stationary";
 
     public static int ERROR_JSON_ENCODE_DECODE = -3;
+    public static int ERROR_BINARY_DECODE = -4;
+    public static int ERROR_JOURNAL = -5;
     public static int ERROR_BUNDLE_DATA = -2;
+    public static int ERROR_RECEIVER_DEADLINE = -6;
 
 
     private static final String TAG = "TesJobDispatcher";
 
-    private static int mJobId = 0;
+    /**
+     * max number of binary location records in a Data object. Data is limited to 10240 bytes once
+     * serialized and a long[] is stored as boxed Longs, about 14 bytes each, so a batch of n fixes
+     * (1 + 6n longs) takes about 84n bytes. 119 fixes is the most that fits, this leaves room for
+     * the other keys.
+     */
+    public static final int MAX_BINARY_LOCATIONS = 110;
 
-    private static synchronized int nextJobId() {
-        return ++mJobId;
-    }
+    /**
+     * unique work names that have a journal draining job waiting to run. Set once the job is
+     * enqueued, and cleared when the worker starts or when WorkManager has nothing of the name
+     * waiting to run, e.g. because the work was cancelled.
+     */
+    private static final Set<String> sPendingJobs = new HashSet<>();
+
+    /**
+     * unique work names whose statuses are being observed, guarded by sPendingJobs
+     */
+    private static final Set<String> sWatched = new HashSet<>();
+
+    private static final Handler sHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * config holding the job constraints, null for the defaults
+     */
+    private final @Nullable TesConfig mConfig;
 
 
     public TesJobDispatcher() {
+        this(null);
+    }
+
+    /**
+     * @param config - config whose job settings (network type, charging, idle and delay) are
+     *               applied to scheduled jobs, null for the defaults
+     */
+    public TesJobDispatcher(@Nullable TesConfig config) {
+        mConfig = config;
     }
 
     /**
@@ -80,6 +137,7 @@ public class TesJobDispatcher {
      * @return bundle
      */
     public static Data setError(String msg, int code){
+        TesMetrics.error(code);
         Data.Builder b = new Data.Builder();
         b.putInt(TES_JOBPARAM_SUCCESS, 0);
         b.putString(TES_JOBPARAM_MSG, msg);
@@ -88,35 +146,120 @@ public class TesJobDispatcher {
     }
 
     /**
-     * sets data field to a Location result and returns a new bundle with the field set internally
-     *
-     * NOTE: we have to json things as the firebase job scheduler only supports basic data types like strings, numbers, etc..
+     * appends a Location result to the location journal and returns a new bundle with the journal
+     * range set internally. Falls back to carrying the locations in bundles if the journal can't be used.
      *
+     * @param ctx - context used to open the journal
      * @param lr - location result
-     * @return bunder
+     * @return bundles, oldest first. A single bundle if the locations were journaled.
      */
-    public static Data setData(LocationResult lr) {
-        Data.Builder b = new Data.Builder();
+    public static List<Data> setData(Context ctx, LocationResult lr) {
         try {
-            List<Location> locations = lr.getLocations();
+            TesEventJournal journal = TesEventJournal.getInstance(ctx, TesEventJournal.LOCATION_JOURNAL);
+            long to = journal.appendLocations(lr.getLocations(), true);
+            return Collections.singletonList(setJournalData(to - lr.getLocations().size(), to, lr.getLastLocation().getTime()));
+        }
+        catch (IOException e) {
+            TesLog.e(TAG, "Unable to journal locations - sending in job data", e);
+        }
+        return setData(lr);
+    }
 
-            JSONArray locArray = TesUtils.locationsToJson(locations, true);
-            JSONObject lastLoc = new TesLocationInfo(lr.getLastLocation(), true).toDictionary();
-            JSONObject params = new JSONObject();
-            params.put(TES_KEY_LOCATIONS, locArray);
-            params.put(TES_KEY_LASTLOCATION, lastLoc);
+    /**
+     * appends a Geofence event to the geofence journal and returns a new bundle with the journal
+     * range set internally. Falls back to carrying the event in the bundle if the journal can't be used.
+     *
+     * @param ctx - context used to open the journal
+     * @param ge - geofence event
+     * @return bundle
+     */
+    public static Data setData(Context ctx, GeofencingEvent ge) {
+        return setData(ctx, getRequestIds(ge), ge.getGeofenceTransition(), ge.getTriggeringLocation());
+    }
 
-            String json = params.toString();
+    /**
+     * appends a Geofence event to the geofence journal and returns a new bundle with the journal
+     * range set internally. Falls back to carrying the event in the bundle if the journal can't be used.
+     *
+     * @param ctx - context used to open the journal
+     * @param ids - request ids of the triggering geofences
+     * @param transition - the geofence transition
+     * @param location - the triggering location
+     * @return bundle
+     */
+    public static Data setData(Context ctx, List<String> ids, int transition, Location location) {
+        try {
+            TesEventJournal journal = TesEventJournal.getInstance(ctx, TesEventJournal.GEOFENCE_JOURNAL);
+            long from = journal.getWriteSeq();
+            long to = journal.appendGeofenceEvent(ids, transition, location, true);
+            if (to >= 0)
+                return setJournalData(from, to, location != null ? location.getTime() : 0);
 
-            b.putInt(TES_JOBPARAM_SUCCESS, 1);
-            b.putString(TES_JOBPARAM_DATA, json);
+            TesLog.w(TAG, "Geofence id too long to journal - sending in job data");
         }
-        catch (JSONException e){
-            setError("Faled to encode location to JSON "+e.getMessage(), -3);
+        catch (IOException e) {
+            TesLog.e(TAG, "Unable to journal geofence event - sending in job data", e);
         }
+        return setData(ids, transition, location);
+    }
+
+    /**
+     * creates a bundle that refers to a range of journal records
+     * @param from - first sequence number
+     * @param to - sequence number after the last record
+     * @return bundle
+     */
+    public static Data setJournalData(long from, long to) {
+        return setJournalData(from, to, 0);
+    }
+
+    /**
+     * creates a bundle that refers to a range of journal records
+     * @param from - first sequence number
+     * @param to - sequence number after the last record
+     * @param fixTime - time of the newest fix in the range, 0 if not known
+     * @return bundle
+     */
+    public static Data setJournalData(long from, long to, long fixTime) {
+        Data.Builder b = new Data.Builder();
+        b.putInt(TES_JOBPARAM_SUCCESS, 1);
+        b.putInt(TES_JOBPARAM_FORMAT, FORMAT_JOURNAL);
+        b.putLong(TES_JOBPARAM_SEQ_FROM, from);
+        b.putLong(TES_JOBPARAM_SEQ_TO, to);
+        if (fixTime > 0)
+            b.putLong(TES_JOBPARAM_FIX_TIME, fixTime);
         return b.build();
     }
 
+    /**
+     * sets data field to a Location result and returns new bundles with the field set internally
+     *
+     * NOTE: locations are packed with the binary location codec. The last location is the last entry
+     * in each batch. A result too big for one Data object is split into batches of at most
+     * {@link #MAX_BINARY_LOCATIONS}, each to be reported by its own job.
+     *
+     * @param lr - location result
+     * @return bundles, oldest locations first
+     */
+    public static List<Data> setData(LocationResult lr) {
+        List<Location> locations = lr.getLocations();
+        List<Data> batches = new ArrayList<>();
+        for (int from = 0; from < locations.size(); from += MAX_BINARY_LOCATIONS) {
+            List<Location> batch = locations.subList(from, Math.min(from + MAX_BINARY_LOCATIONS, locations.size()));
+
+            Data.Builder b = new Data.Builder();
+            b.putInt(TES_JOBPARAM_SUCCESS, 1);
+            b.putInt(TES_JOBPARAM_FORMAT, FORMAT_BINARY);
+            b.putLongArray(TES_JOBPARAM_BINDATA, TesLocationCodec.encode(batch, true));
+            b.putLong(TES_JOBPARAM_FIX_TIME, batch.get(batch.size() - 1).getTime());
+            batches.add(b.build());
+        }
+        if (batches.size() > 1) {
+            TesLog.d(TAG, "Location batch of %d split into %d jobs", locations.size(), batches.size());
+        }
+        return batches;
+    }
+
     /**
      * sets data field to a Geofence event result and returns a new bundle with the field set internally
      *
@@ -126,31 +269,82 @@ public class TesJobDispatcher {
      * @return bunder
      */
     public static Data setData(GeofencingEvent ge) {
+        return setData(getRequestIds(ge), ge.getGeofenceTransition(), ge.getTriggeringLocation());
+    }
+
+    /**
+     * sets data field to a Geofence event result and returns a new bundle with the field set internally
+     *
+     * @param ids - request ids of the triggering geofences
+     * @param transition - the geofence transition
+     * @param location - the triggering location
+     * @return bunder
+     */
+    public static Data setData(List<String> ids, int transition, Location location) {
         Data.Builder b = new Data.Builder();
         try {
 
             JSONObject params = new JSONObject();
             JSONArray regionIdentifiers = new JSONArray();
-            for (Geofence triggered : ge.getTriggeringGeofences()) {
-                regionIdentifiers.put(triggered.getRequestId());
+            for (String id : ids) {
+                regionIdentifiers.put(id);
             }
-            JSONObject loc = new TesLocationInfo(ge.getTriggeringLocation(), true).toDictionary();
+            JSONObject loc = new TesLocationInfo(location, true).toDictionary();
 
             params.put(TES_KEY_TRIGGERING_GEOFENCES, regionIdentifiers);
             params.put(TES_KEY_TRIGGERING_LOCATION, loc);
-            params.put(TES_KEY_GEOFENCE_TRANSITION, ge.getGeofenceTransition());
+            params.put(TES_KEY_GEOFENCE_TRANSITION, transition);
 
             String json = params.toString();
 
             b.putInt(TES_JOBPARAM_SUCCESS, 1);
             b.putString(TES_JOBPARAM_DATA, json);
+            if (location != null)
+                b.putLong(TES_JOBPARAM_FIX_TIME, location.getTime());
         }
         catch (JSONException e){
-            setError("Faled to encode geoevtn to JSON "+e.getMessage(), -3);
+            return setError("Faled to encode geoevtn to JSON "+e.getMessage(), ERROR_JSON_ENCODE_DECODE);
         }
         return b.build();
     }
 
+    /**
+     * sets data field to a stationary state change and returns a new bundle with the field set internally
+     *
+     * @param stationary - true if the device has become stationary, false if it is moving again
+     * @param location - where the change was seen, may be null
+     * @return bunder
+     */
+    public static Data setMotionData(boolean stationary, @Nullable Location location) {
+        Data.Builder b = new Data.Builder();
+        try {
+            JSONObject params = new JSONObject();
+            params.put(TES_KEY_STATIONARY, stationary);
+            if (location != null) {
+                params.put(TES_KEY_TRIGGERING_LOCATION, new TesLocationInfo(location, true).toDictionary());
+            }
+
+            b.putInt(TES_JOBPARAM_SUCCESS, 1);
+            b.putString(TES_JOBPARAM_DATA, params.toString());
+        }
+        catch (JSONException e){
+            return setError("Failed to encode motion change to JSON "+e.getMessage(), ERROR_JSON_ENCODE_DECODE);
+        }
+        return b.build();
+    }
+
+    /**
+     * @param ge - geofence event
+     * @return request ids of the triggering geofences
+     */
+    public static List<String> getRequestIds(GeofencingEvent ge) {
+        List<String> ids = new ArrayList<>();
+        for (Geofence triggered : ge.getTriggeringGeofences()) {
+            ids.add(triggered.getRequestId());
+        }
+        return ids;
+    }
+
     /**
      * returns a json object from bundled up data
      * @param b - bundle containting jsonified geoevent or location result
@@ -162,6 +356,37 @@ public class TesJobDispatcher {
     }
 
 
+    /**
+     * returns the locations from a binary bundle
+     * @param b - bundle containing a binary location batch
+     * @return list of locations, the last entry is the last location
+     */
+    public static List<TesLocationInfo> getLocationData(Data b) throws IOException {
+        long[] packed = b.getLongArray(TES_JOBPARAM_BINDATA);
+        if (packed == null)
+            throw new IOException("No binary location data");
+
+        return TesLocationCodec.decode(packed);
+    }
+
+    /**
+     * bundle check to see if the data was encoded with the binary codec
+     * @param b - bundle to check
+     * @return binary - true, json - false
+     */
+    public static boolean isBinary(Data b){
+        return (b.getInt(TES_JOBPARAM_FORMAT, FORMAT_JSON) == FORMAT_BINARY);
+    }
+
+    /**
+     * bundle check to see if the data refers to journal records
+     * @param b - bundle to check
+     * @return journal - true
+     */
+    public static boolean isJournal(Data b){
+        return (b.getInt(TES_JOBPARAM_FORMAT, FORMAT_JSON) == FORMAT_JOURNAL);
+    }
+
     /**
      * bundle check to see what success is set to
      * @param b - bunle to check
@@ -179,26 +404,184 @@ public class TesJobDispatcher {
         return b.getString(TES_JOBPARAM_MSG);
     }
 
+    /**
+     * @param b - bundle that refers to journal records
+     * @return first sequence number of the range
+     */
+    public static long getSeqFrom(Data b){
+        return b.getLong(TES_JOBPARAM_SEQ_FROM, 0);
+    }
+
+    /**
+     * @param b - bundle that refers to journal records
+     * @return sequence number after the last record of the range
+     */
+    public static long getSeqTo(Data b){
+        return b.getLong(TES_JOBPARAM_SEQ_TO, 0);
+    }
+
+    /**
+     * @param b - bundle to check
+     * @return time of the newest fix the job reports, epoch millis, 0 if not known. See {@link TesMetrics}
+     */
+    public static long getFixTime(Data b){
+        return b.getLong(TES_JOBPARAM_FIX_TIME, 0);
+    }
+
+    /**
+     * Called by a worker just before it drains its journal. Any event journaled after this point
+     * needs a new job to be scheduled.
+     * @param cls - class of job
+     */
+    public static void clearPending(@NonNull Class<? extends ListenableWorker> cls) {
+        synchronized (sPendingJobs) {
+            sPendingJobs.remove(cls.getName());
+        }
+    }
+
+    /**
+     * Observes the statuses of a unique work chain, the first time it is called for the name, so a
+     * pending job that was cancelled or pruned doesn't keep coalescing events.
+     */
+    private static void watch(final String uniqueWorkName) {
+        synchronized (sPendingJobs) {
+            if (!sWatched.add(uniqueWorkName))
+                return;
+        }
+
+        // LiveData has to be observed on the main thread
+        sHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                WorkManager.getInstance().getStatusesForUniqueWork(uniqueWorkName).observeForever(new Observer<List<WorkStatus>>() {
+                    @Override
+                    public void onChanged(@Nullable List<WorkStatus> statuses) {
+                        if (statuses != null) {
+                            for (WorkStatus status : statuses) {
+                                if (status.getState() == State.ENQUEUED || status.getState() == State.BLOCKED)
+                                    return;
+                            }
+                        }
+                        synchronized (sPendingJobs) {
+                            sPendingJobs.remove(uniqueWorkName);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Schedules a job per bundle, in order
+     *
+     * @param cls - class of job
+     * @param batches - bundles to pass to the jobs
+     */
+    public void scheduleJobs(@NonNull Class<? extends ListenableWorker> cls, @NonNull List<Data> batches) {
+        for (Data extras : batches) {
+            scheduleJob(cls, extras);
+        }
+    }
+
     /**
      * Schedule a job
+     *
+     * Jobs of the same class are run one after the other as a unique work chain. Jobs that refer to
+     * the journal are coalesced: if a job is already waiting to run it will drain whatever has been
+     * journaled since, so no new job is added. A job only counts as waiting once it has been
+     * enqueued, and only while WorkManager has it enqueued or blocked.
+     *
      * @param cls - class of job
      * @param extras - bundle to pass to the job
      */
-    public void scheduleJob(@NonNull Class<? extends Worker> cls, final @Nullable Data extras){
-
-        Constraints myConstraints = new Constraints.Builder()
-                .setRequiredNetworkType(NetworkType.CONNECTED)
-                .build();
+    public void scheduleJob(@NonNull Class<? extends ListenableWorker> cls, final @Nullable Data extras){
+        String uniqueWorkName = cls.getName();
+        if (extras != null && HeadlessJsJobService.class.isAssignableFrom(cls)) {
+            // only the path to JS is timed
+            TesMetrics.latency(TesMetrics.STAGE_SCHEDULE, getFixTime(extras));
+        }
+        boolean journal = extras != null && isJournal(extras);
+        if (journal) {
+            synchronized (sPendingJobs) {
+                if (sPendingJobs.contains(uniqueWorkName)) {
+                    TesLog.d(TAG, "Coalescing into pending %s job", cls.getSimpleName());
+                    TesMetrics.count(TesMetrics.JOBS_COALESCED, 1);
+                    return;
+                }
+            }
+        }
 
         OneTimeWorkRequest.Builder builder =
-                new OneTimeWorkRequest.Builder(cls).setConstraints(myConstraints);
+                new OneTimeWorkRequest.Builder(cls).setConstraints(buildConstraints());
+
+        if (mConfig != null && mConfig.delay > 0) {
+            builder.setInitialDelay(mConfig.delay, TimeUnit.SECONDS);
+        }
 
         if (extras!=null) {
             builder.setInputData(extras);
         }
 
         OneTimeWorkRequest myJob = builder.build();
-        WorkManager.getInstance().enqueue(myJob);
+        try {
+            WorkManager.getInstance()
+                    .beginUniqueWork(uniqueWorkName, ExistingWorkPolicy.APPEND, myJob)
+                    .enqueue();
+        } catch (RuntimeException e) {
+            // e.g. WorkManager not initialized yet
+            TesLog.e(TAG, "Unable to schedule job", e);
+            countDropped(cls, extras);
+            return;
+        }
+        TesMetrics.count(TesMetrics.JOBS_SCHEDULED, 1);
+
+        if (journal) {
+            synchronized (sPendingJobs) {
+                sPendingJobs.add(uniqueWorkName);
+            }
+            watch(uniqueWorkName);
+        }
+    }
+
+    /**
+     * counts the events carried by a job that couldn't be scheduled. Journal records are left for
+     * the next job, so only events in the job data are lost.
+     */
+    private static void countDropped(Class<? extends ListenableWorker> cls, @Nullable Data extras) {
+        if (extras == null || !isSuccess(extras) || isJournal(extras))
+            return;
+
+        if (RNLocationUpdateService.class.isAssignableFrom(cls)) {
+            long[] packed = isBinary(extras) ? extras.getLongArray(TES_JOBPARAM_BINDATA) : null;
+            long count = (packed != null) ? Math.max(0, (packed.length * 8L - TesLocationCodec.HEADER_SIZE) / TesLocationCodec.RECORD_SIZE) : 1;
+            TesMetrics.count(TesMetrics.LOCATIONS_DROPPED, count);
+        }
+        else if (RNGeoTransitionService.class.isAssignableFrom(cls)) {
+            TesMetrics.count(TesMetrics.GEOFENCE_EVENTS_DROPPED, 1);
+        }
+    }
+
+    /**
+     * builds the job constraints from the config. WorkManager has no deadline, so
+     * {@link TesConfig#deadline} is not applied.
+     */
+    private Constraints buildConstraints() {
+        Constraints.Builder builder = new Constraints.Builder();
+        if (mConfig == null) {
+            return builder.setRequiredNetworkType(NetworkType.CONNECTED).build();
+        }
+
+        NetworkType[] types = NetworkType.values();
+        NetworkType networkType = (mConfig.networkType >= 0 && mConfig.networkType < types.length)
+                ? types[mConfig.networkType]
+                : NetworkType.CONNECTED;
+
+        builder.setRequiredNetworkType(networkType)
+                .setRequiresCharging(mConfig.requireCharging);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            builder.setRequiresDeviceIdle(mConfig.requireIdle);
+        }
+        return builder.build();
     }
 
 
@@ -0,0 +1,145 @@
+//  Copyright © 2012-2018 3 Electric Sheep Pty Ltd. All rights reserved.
+//
+//  The Welcome Interruption Software Development Kit (SDK) is licensed to you subject to the terms
+//  of the License Agreement. The License Agreement forms a legally binding contract between you and
+//  3 Electric Sheep Pty Ltd in relation to your use of the Welcome Interruption SDK.
+//  You may not use this file except in compliance with the License Agreement.
+//
+//  A copy of the License Agreement can be found in the LICENSE file in the root directory of this
+//  source tree.
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License
+//  Agreement is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+//  express or implied. See the License Agreement for the specific language governing permissions
+//  and limitations under the License Agreement.
+
+package com.welcomeinterruption.rnwisdk;
+
+import android.location.Location;
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Versioned fixed width binary encoding for batches of locations.
+ * <p>
+ * A batch is an 8 byte header followed by one 48 byte record per location:
+ * <pre>
+ *   header:  short magic | byte version | byte reserved | int count
+ *   record:  double latitude | double longitude | double altitude | long fix time (epoch millis) |
+ *            float accuracy | float speed | float course | int flags
+ * </pre>
+ * Every part is a multiple of 8 bytes so a batch can be carried as a {@code long[]}, which is
+ * what WorkManager {@link androidx.work.Data} can store.
+ */
+public class TesLocationCodec {
+    public static final int VERSION = 1;
+
+    public static final int HEADER_SIZE = 8;
+    public static final int RECORD_SIZE = 48;
+
+    private static final short MAGIC = 0x5749; // "WI"
+
+    private static final int FLAG_IN_BACKGROUND = 0x01;
+
+    /**
+     * writes a single location record at the buffers current position
+     * @param buf - buffer to write to (must have RECORD_SIZE bytes remaining)
+     * @param loc - location to write
+     * @param inBackground - whether the location was received while the app was in the background
+     */
+    public static void writeRecord(@NonNull ByteBuffer buf, @NonNull Location loc, boolean inBackground) {
+        writeRecord(buf, loc.getLatitude(), loc.getLongitude(), loc.getAltitude(), loc.getTime(),
+                loc.getAccuracy(), loc.getSpeed(), loc.getBearing(), inBackground);
+    }
+
+    public static void writeRecord(@NonNull ByteBuffer buf, double latitude, double longitude, double altitude, long time,
+                                   float accuracy, float speed, float course, boolean inBackground) {
+        buf.putDouble(latitude);
+        buf.putDouble(longitude);
+        buf.putDouble(altitude);
+        buf.putLong(time);
+        buf.putFloat(accuracy);
+        buf.putFloat(speed);
+        buf.putFloat(course);
+        buf.putInt(inBackground ? FLAG_IN_BACKGROUND : 0);
+    }
+
+    /**
+     * reads a single location record from the buffers current position
+     * @param buf - buffer to read from
+     * @return the location
+     */
+    public static @NonNull TesLocationInfo readRecord(@NonNull ByteBuffer buf) {
+        double latitude = buf.getDouble();
+        double longitude = buf.getDouble();
+        double altitude = buf.getDouble();
+        long time = buf.getLong();
+        float accuracy = buf.getFloat();
+        float speed = buf.getFloat();
+        float course = buf.getFloat();
+        int flags = buf.getInt();
+
+        return new TesLocationInfo(longitude, latitude, accuracy, speed, course, altitude,
+                new Date(time), (flags & FLAG_IN_BACKGROUND) != 0);
+    }
+
+    /**
+     * Encodes a list of locations
+     * @param locations - locations to encode
+     * @param inBackground - whether the list came while the app was not running in foreground.
+     * @return packed batch
+     */
+    public static @NonNull long[] encode(@NonNull List<Location> locations, boolean inBackground) {
+        int count = locations.size();
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE + count * RECORD_SIZE);
+        buf.putShort(MAGIC);
+        buf.put((byte) VERSION);
+        buf.put((byte) 0);
+        buf.putInt(count);
+        for (Location loc: locations) {
+            writeRecord(buf, loc, inBackground);
+        }
+
+        long[] packed = new long[buf.capacity() / 8];
+        buf.flip();
+        buf.asLongBuffer().get(packed);
+        return packed;
+    }
+
+    /**
+     * Decodes a packed batch
+     * @param packed - batch created by {@link #encode}
+     * @return list of locations in the order they were encoded
+     * @throws IOException if the batch is corrupt or from an unknown version
+     */
+    public static @NonNull List<TesLocationInfo> decode(@NonNull long[] packed) throws IOException {
+        if (packed.length < HEADER_SIZE / 8)
+            throw new IOException("Location batch too short");
+
+        ByteBuffer buf = ByteBuffer.allocate(packed.length * 8);
+        buf.asLongBuffer().put(packed);
+
+        if (buf.getShort() != MAGIC)
+            throw new IOException("Invalid location batch");
+
+        int version = buf.get();
+        if (version != VERSION)
+            throw new IOException(String.format("Unsupported location batch version %d", version));
+
+        buf.get(); // reserved
+        int count = buf.getInt();
+        if (count < 0 || buf.remaining() < count * RECORD_SIZE)
+            throw new IOException(String.format("Location batch truncated, expected %d records", count));
+
+        List<TesLocationInfo> locations = new ArrayList<>(count);
+        for (int i=0; i<count; i++) {
+            locations.add(readRecord(buf));
+        }
+        return locations;
+    }
+}
@@ -0,0 +1,136 @@
+//  Copyright © 2012-2018 3 Electric Sheep Pty Ltd. All rights reserved.
+//
+//  The Welcome Interruption Software Development Kit (SDK) is licensed to you subject to the terms
+//  of the License Agreement. The License Agreement forms a legally binding contract between you and
+//  3 Electric Sheep Pty Ltd in relation to your use of the Welcome Interruption SDK.
+//  You may not use this file except in compliance with the License Agreement.
+//
+//  A copy of the License Agreement can be found in the LICENSE file in the root directory of this
+//  source tree.
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License
+//  Agreement is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+//  express or implied. See the License Agreement for the specific language governing permissions
+//  and limitations under the License Agreement.
+
+package com.welcomeinterruption.rnwisdk;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.location.Location;
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Filters incoming location fixes before a job is scheduled, so that JS is only woken when
+ * there is something worth reporting.
+ * <p>
+ * A fix is dropped if:
+ * <ul>
+ *     <li>it has been seen recently (e.g. a redelivered PendingIntent)</li>
+ *     <li>it is not newer than the last fix let through</li>
+ *     <li>it is older than {@link TesConfig#staleLocationThreshold} seconds</li>
+ *     <li>it is less than {@link TesConfig#distacneFilter} meters from the last fix let through</li>
+ * </ul>
+ * The stale and distance checks are only applied when the config value is greater than 0.
+ */
+public class TesLocationFilter {
+    private static final String TAG = "TesLocationFilter";
+
+    private static final String PREFS_NAME = "wisdk_location_filter";
+    private static final String KEY_LAST_LATITUDE = "lastLatitude";
+    private static final String KEY_LAST_LONGITUDE = "lastLongitude";
+    private static final String KEY_LAST_TIME = "lastTime";
+
+    private static final int FINGERPRINT_HISTORY = 32;
+
+    private static final long[] sFingerprints = new long[FINGERPRINT_HISTORY];
+    private static int sFingerprintCount = 0;
+    private static int sFingerprintNext = 0;
+
+    /**
+     * Filters a list of fixes, remembering the last fix let through.
+     *
+     * @param ctx - context used to persist the last fix
+     * @param config - config holding the filter settings
+     * @param locations - fixes in the order they were delivered
+     * @return the fixes that should be reported, may be empty
+     */
+    public static synchronized @NonNull List<Location> filter(@NonNull Context ctx, @NonNull TesConfig config, @NonNull List<Location> locations) {
+        SharedPreferences prefs = ctx.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        boolean haveLast = prefs.contains(KEY_LAST_TIME);
+        double lastLatitude = Double.longBitsToDouble(prefs.getLong(KEY_LAST_LATITUDE, 0));
+        double lastLongitude = Double.longBitsToDouble(prefs.getLong(KEY_LAST_LONGITUDE, 0));
+        long lastTime = prefs.getLong(KEY_LAST_TIME, 0);
+
+        long now = System.currentTimeMillis();
+        float[] distance = new float[1];
+
+        List<Location> accepted = new ArrayList<>(locations.size());
+        for (Location loc : locations) {
+            long fingerprint = fingerprint(loc);
+            if (seen(fingerprint)) {
+                TesLog.d(TAG, "Dropping duplicate fix");
+                continue;
+            }
+            remember(fingerprint);
+
+            if (haveLast && loc.getTime() <= lastTime) {
+                TesLog.d(TAG, "Dropping out of order fix");
+                continue;
+            }
+
+            if (config.staleLocationThreshold > 0 && now - loc.getTime() > config.staleLocationThreshold * 1000) {
+                TesLog.d(TAG, "Dropping stale fix");
+                continue;
+            }
+
+            if (haveLast && config.distacneFilter > 0) {
+                Location.distanceBetween(lastLatitude, lastLongitude, loc.getLatitude(), loc.getLongitude(), distance);
+                if (distance[0] < config.distacneFilter) {
+                    TesLog.d(TAG, "Dropping fix inside distance filter");
+                    continue;
+                }
+            }
+
+            accepted.add(loc);
+            haveLast = true;
+            lastLatitude = loc.getLatitude();
+            lastLongitude = loc.getLongitude();
+            lastTime = loc.getTime();
+        }
+
+        if (!accepted.isEmpty()) {
+            prefs.edit()
+                    .putLong(KEY_LAST_LATITUDE, Double.doubleToRawLongBits(lastLatitude))
+                    .putLong(KEY_LAST_LONGITUDE, Double.doubleToRawLongBits(lastLongitude))
+                    .putLong(KEY_LAST_TIME, lastTime)
+                    .apply();
+        }
+        return accepted;
+    }
+
+    private static long fingerprint(Location loc) {
+        long h = loc.getTime();
+        h = 31 * h + Double.doubleToLongBits(loc.getLatitude());
+        h = 31 * h + Double.doubleToLongBits(loc.getLongitude());
+        h = 31 * h + Float.floatToIntBits(loc.getAccuracy());
+        return h;
+    }
+
+    private static boolean seen(long fingerprint) {
+        for (int i=0; i<sFingerprintCount; i++) {
+            if (sFingerprints[i] == fingerprint)
+                return true;
+        }
+        return false;
+    }
+
+    private static void remember(long fingerprint) {
+        sFingerprints[sFingerprintNext] = fingerprint;
+        sFingerprintNext = (sFingerprintNext + 1) % FINGERPRINT_HISTORY;
+        sFingerprintCount = Math.min(sFingerprintCount + 1, FINGERPRINT_HISTORY);
+    }
+}
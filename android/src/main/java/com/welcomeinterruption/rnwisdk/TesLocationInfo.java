@@ -46,6 +46,18 @@ public class TesLocationInfo {
 
     static final String TAG = "TesLocationInfo";
 
+    // field names shared by the JSON and JS representations of a location
+    public static final String KEY_LONGITUDE = "longitude";
+    public static final String KEY_LATITUDE = "latitude";
+    public static final String KEY_ACCURACY = "accuracy";
+    public static final String KEY_SPEED = "speed";
+    public static final String KEY_COURSE = "course";
+    public static final String KEY_ALTITUDE = "altitude";
+    public static final String KEY_FIX_TIMESTAMP = "fix_timestamp";
+    public static final String KEY_IN_BACKGROUND = "in_background";
+    public static final String KEY_ARRIVAL = "arrival";
+    public static final String KEY_DEPARTURE = "departure";
+
     public TesLocationInfo(@NonNull Location loc, boolean inBackground){
         this.longitude = loc.getLongitude();
         this.latitude = loc.getLatitude();
@@ -59,22 +71,36 @@ public class TesLocationInfo {
         this.departure = null;
     }
 
+    public TesLocationInfo(double longitude, double latitude, float accuracy, float speed, float course,
+                           double altitude, @NonNull Date fix_timestamp, boolean inBackground){
+        this.longitude = longitude;
+        this.latitude = latitude;
+        this.accuracy = accuracy;
+        this.speed = speed;
+        this.course = course;
+        this.altitude = altitude;
+        this.fix_timestamp = fix_timestamp;
+        this.inBackground = inBackground;
+        this.arrival = null;
+        this.departure = null;
+    }
+
     public TesLocationInfo(@NonNull JSONObject attributes) throws JSONException {
-        this.longitude = attributes.getDouble("longitude");
-        this.latitude = attributes.getDouble("latitude");
-        this.accuracy = (float) attributes.optDouble("accuracy", 0);
-        this.speed = (float) attributes.optDouble("speed", 0);
-        this.course = (float) attributes.optDouble("course", 0);
-        this.altitude = attributes.optDouble("altitude", 0);
+        this.longitude = attributes.getDouble(KEY_LONGITUDE);
+        this.latitude = attributes.getDouble(KEY_LATITUDE);
+        this.accuracy = (float) attributes.optDouble(KEY_ACCURACY, 0);
+        this.speed = (float) attributes.optDouble(KEY_SPEED, 0);
+        this.course = (float) attributes.optDouble(KEY_COURSE, 0);
+        this.altitude = attributes.optDouble(KEY_ALTITUDE, 0);
         try {
-            this.fix_timestamp = TesUtils.dateFromString(attributes.optString("fix_timestamp"));
-            this.arrival = TesUtils.dateFromString(attributes.optString("arrival"));
-            this.departure = TesUtils.dateFromString(attributes.optString("departure"));
+            this.fix_timestamp = TesUtils.dateFromString(attributes.optString(KEY_FIX_TIMESTAMP));
+            this.arrival = TesUtils.dateFromString(attributes.optString(KEY_ARRIVAL));
+            this.departure = TesUtils.dateFromString(attributes.optString(KEY_DEPARTURE));
         } catch (ParseException e) {
              String err = e.getLocalizedMessage();
              throw new JSONException(String.format("Invalid date found: %s", err));
         }
-        this.inBackground = attributes.optBoolean("in_background", false);
+        this.inBackground = attributes.optBoolean(KEY_IN_BACKGROUND, false);
 
     }
 
@@ -82,33 +108,51 @@ public class TesLocationInfo {
           return ((this.latitude == rhs.latitude) && (this.longitude == rhs.longitude));
     }
 
+    /**
+     * @return an android location with the fields of this one, e.g. to handle a fix read back from
+     * a journal. Speed and bearing are only set if non zero.
+     */
+    public @NonNull Location toLocation() {
+        Location loc = new Location("fused");
+        loc.setLongitude(this.longitude);
+        loc.setLatitude(this.latitude);
+        loc.setAccuracy(this.accuracy);
+        loc.setAltitude(this.altitude);
+        loc.setTime(this.fix_timestamp.getTime());
+        if (this.speed != 0)
+            loc.setSpeed(this.speed);
+        if (this.course != 0)
+            loc.setBearing(this.course);
+        return loc;
+    }
+
     public @NonNull JSONObject toDictionary() throws JSONException{
         JSONObject obj = new JSONObject();
-        obj.put("longitude", this.longitude);
-        obj.put("latitude", this.latitude);
-        obj.put("accuracy", this.accuracy);
-        obj.put("speed", this.speed);
-        obj.put("course", this.course);
-        obj.put("altitude", this.altitude);
-        obj.put("fix_timestamp", TesUtils.stringFromDate(this.fix_timestamp));
-        obj.put("arrival", TesUtils.stringFromDate(this.arrival));
-        obj.put("departure", TesUtils.stringFromDate(this.departure));
-        obj.put("in_background", this.inBackground);
+        obj.put(KEY_LONGITUDE, this.longitude);
+        obj.put(KEY_LATITUDE, this.latitude);
+        obj.put(KEY_ACCURACY, this.accuracy);
+        obj.put(KEY_SPEED, this.speed);
+        obj.put(KEY_COURSE, this.course);
+        obj.put(KEY_ALTITUDE, this.altitude);
+        obj.put(KEY_FIX_TIMESTAMP, TesUtils.stringFromDate(this.fix_timestamp));
+        obj.put(KEY_ARRIVAL, TesUtils.stringFromDate(this.arrival));
+        obj.put(KEY_DEPARTURE, TesUtils.stringFromDate(this.departure));
+        obj.put(KEY_IN_BACKGROUND, this.inBackground);
         return obj;
     }
 
     public static @NonNull TesLocationInfo createEmptyLocation()  throws JSONException{
         JSONObject obj = new JSONObject();
-        obj.put("longitude", 0.0);
-        obj.put("latitude", 0.0);
-        obj.put("accuracy", -1.0);
-        obj.put("speed", -1.0);
-        obj.put("course", -1.0);
-        obj.put("altitude", 0.0);
-        obj.put("fix_timestamp", TesUtils.stringFromDate(new Date()));
-        obj.put("arrival", null);
-        obj.put("departure", null);
-        obj.put("in_background", false);
+        obj.put(KEY_LONGITUDE, 0.0);
+        obj.put(KEY_LATITUDE, 0.0);
+        obj.put(KEY_ACCURACY, -1.0);
+        obj.put(KEY_SPEED, -1.0);
+        obj.put(KEY_COURSE, -1.0);
+        obj.put(KEY_ALTITUDE, 0.0);
+        obj.put(KEY_FIX_TIMESTAMP, TesUtils.stringFromDate(new Date()));
+        obj.put(KEY_ARRIVAL, null);
+        obj.put(KEY_DEPARTURE, null);
+        obj.put(KEY_IN_BACKGROUND, false);
 
         TesLocationInfo loc  = new TesLocationInfo(obj);
         return loc;
@@ -22,15 +22,14 @@ import android.content.pm.PackageManager;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.v4.app.ActivityCompat;
-import android.util.Log;
 
-import com.google.android.gms.location.FusedLocationProviderClient;
 import com.google.android.gms.location.LocationRequest;
-import com.google.android.gms.location.LocationServices;
 
 
 import com.google.android.gms.tasks.OnCompleteListener;
 
+import org.json.JSONException;
+
 
 /**
  * Created by pfrantz on 31/1/18.
@@ -44,21 +43,18 @@ public class TesLocationMgr
 
     private static final int REQUEST_PERMISSIONS_REQUEST_CODE = 34;
 
+    private static final String PREFS_NAME = "wisdk_location";
+    private static final String KEY_REQUESTED = "requested";
+
     /**
      * Config for the system
      */
     private final TesConfig config;
 
     /**
-     * Stores parameters for requests to the FusedLocationProviderApi.
-     */
-    private LocationRequest mLocationRequest;
-
-
-    /**
-     * Provides access to the Fused Location Provider API.
+     * Provides location, the Fused Location Provider API unless set otherwise.
      */
-    private FusedLocationProviderClient mFusedLocationClient;
+    private TesLocationSource mLocationSource;
 
 
     /**
@@ -83,7 +79,7 @@ public class TesLocationMgr
     public TesLocationMgr(@NonNull Context ctx, TesConfig config) {
         this.config = config;
         this.mCtx = ctx;
-        this.mFusedLocationClient = null;
+        this.mLocationSource = null;
     }
 
     public void connect(boolean requireBackgroundProcessing) {
@@ -92,8 +88,7 @@ public class TesLocationMgr
 
         this.requireBackgroundProcessing = requireBackgroundProcessing;
         // get fused loc client and ask for latest pos
-        mFusedLocationClient = LocationServices.getFusedLocationProviderClient(this.mCtx);
-        createLocationRequest();
+        mLocationSource = TesLocationSources.getLocationSource(this.mCtx);
     }
 
 
@@ -109,9 +104,11 @@ public class TesLocationMgr
      * <p/>
      * These settings are appropriate for mapping applications that show real-time location
      * updates.
+     * <p/>
+     * Built for each request from the effective config, so the active power profile is used.
      */
-    private void createLocationRequest() {
-        mLocationRequest = new LocationRequest();
+    private static LocationRequest createLocationRequest(TesConfig config) {
+        LocationRequest request = new LocationRequest();
 
         // Sets the desired interval for active location updates. This interval is
         // inexact. You may not receive updates at all if no location sources are available, or
@@ -119,20 +116,21 @@ public class TesLocationMgr
         // requested if other applications are requesting location at a faster interval.
         // Note: apps running on "O" devices (regardless of targetSdkVersion) may receive updates
         // less frequently than this interval when the app is no longer in the foreground.
-        mLocationRequest.setInterval(this.config.locUpdateInterval);
+        request.setInterval(config.locUpdateInterval);
 
         // Sets the fastest rate for active location updates. This interval is exact, and your
         // application will never receive updates faster than this value.
-        mLocationRequest.setFastestInterval(this.config.locFastestUpdateInterval);
+        request.setFastestInterval(config.locFastestUpdateInterval);
 
-        mLocationRequest.setPriority(this.config.locPriorityAccuracy);
+        request.setPriority(config.locPriorityAccuracy);
 
         // Sets the maximum time when batched location updates are delivered. Updates may be
         // delivered sooner than this interval.
-        mLocationRequest.setMaxWaitTime(this.config.locMaxWaitTime);
+        request.setMaxWaitTime(config.locMaxWaitTime);
+        return request;
     }
 
-    private PendingIntent getLocationUpdatesPendingIntent(Context ctx) {
+    static PendingIntent getLocationUpdatesPendingIntent(Context ctx) {
         // Note: for apps targeting API level 25 ("Nougat") or lower, either
         // PendingIntent.getService() or PendingIntent.getBroadcast() may be used when requesting
         // location updates. For apps targeting API level O, only
@@ -164,18 +162,25 @@ public class TesLocationMgr
      */
     @SuppressWarnings("MissingPermission")
     public void getLastKnownLocation(OnCompleteListener<android.location.Location> listener) {
-        mFusedLocationClient.getLastLocation()
+        mLocationSource.getLastLocation()
                 .addOnCompleteListener(listener);
 
     }
 
     /**
-     *  requests start of location updates.
+     *  requests start of location updates. With adaptive updates the request for the current
+     *  motion profile is used, see {@link TesMotionController}.
      */
     @SuppressWarnings("MissingPermission")
     public void requestLocationUpdates(OnCompleteListener<Void> listener) {
-        Log.i(TAG, "Starting location updates");
-        mFusedLocationClient.requestLocationUpdates(mLocationRequest, getLocationUpdatesPendingIntent(this.mCtx))
+        TesLog.i(TAG, "Starting location updates");
+        TesStationaryMonitor.reset(this.mCtx);
+        TesConfig config = getConfig();
+        LocationRequest request = config.locAdaptive
+                ? TesMotionController.buildRequest(config, TesMotionController.getProfile(this.mCtx))
+                : createLocationRequest(config);
+        setRequested(this.mCtx, true);
+        mLocationSource.requestLocationUpdates(request, getLocationUpdatesPendingIntent(this.mCtx))
                 .addOnCompleteListener(listener);
     }
 
@@ -183,10 +188,41 @@ public class TesLocationMgr
      *  requests removal of location updates.
      */
     public void removeLocationUpdates(OnCompleteListener<Void> listener) {
-        Log.i(TAG, "Removing location updates");
-         mFusedLocationClient.removeLocationUpdates(getLocationUpdatesPendingIntent(this.mCtx))
+        TesLog.i(TAG, "Removing location updates");
+        TesMotionController.reset(this.mCtx);
+        TesStationaryMonitor.reset(this.mCtx);
+        setRequested(this.mCtx, false);
+         mLocationSource.removeLocationUpdates(getLocationUpdatesPendingIntent(this.mCtx))
             .addOnCompleteListener(listener);
     }
 
+    /**
+     * @return the saved config with the active power profile applied, so a profile switched since
+     * this manager was created is used. The config passed in if the saved one can't be loaded.
+     */
+    private TesConfig getConfig() {
+        try {
+            return TesConfigStore.get(this.mCtx);
+        } catch (JSONException e) {
+            return this.config;
+        }
+    }
+
+    /**
+     * @param ctx - context used to read the state
+     * @return true if location updates have been started from JS and not removed since
+     */
+    static boolean isRequested(@NonNull Context ctx) {
+        return ctx.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).getBoolean(KEY_REQUESTED, false);
+    }
+
+    /**
+     * @param ctx - the context
+     * @param requested - whether location updates are started, e.g. false after a reboot
+     */
+    static void setRequested(@NonNull Context ctx, boolean requested) {
+        ctx.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit().putBoolean(KEY_REQUESTED, requested).apply();
+    }
+
 }
 
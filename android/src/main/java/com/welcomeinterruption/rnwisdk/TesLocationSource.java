@@ -0,0 +1,54 @@
+//  Copyright © 2012-2018 3 Electric Sheep Pty Ltd. All rights reserved.
+//
+//  The Welcome Interruption Software Development Kit (SDK) is licensed to you subject to the terms
+//  of the License Agreement. The License Agreement forms a legally binding contract between you and
+//  3 Electric Sheep Pty Ltd in relation to your use of the Welcome Interruption SDK.
+//  You may not use this file except in compliance with the License Agreement.
+//
+//  A copy of the License Agreement can be found in the LICENSE file in the root directory of this
+//  source tree.
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License
+//  Agreement is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+//  express or implied. See the License Agreement for the specific language governing permissions
+//  and limitations under the License Agreement.
+
+package com.welcomeinterruption.rnwisdk;
+
+import android.app.PendingIntent;
+import android.location.Location;
+import android.support.annotation.NonNull;
+
+import com.google.android.gms.location.LocationRequest;
+import com.google.android.gms.tasks.Task;
+
+/**
+ * Where location fixes come from. Fixes are delivered to the pending intent as a
+ * {@link com.google.android.gms.location.LocationResult}, the way the fused location provider
+ * delivers them, so the rest of the pipeline doesn't know which source is in use.
+ * <p>
+ * Play Services is used unless another source is set with {@link TesLocationSources}, e.g.
+ * {@link TesReplaySource} to run recorded traces through the pipeline.
+ */
+public interface TesLocationSource {
+    /**
+     * @return the last known location, the result may be null
+     */
+    @NonNull Task<Location> getLastLocation();
+
+    /**
+     * Starts delivering fixes, replacing any request made with the same pending intent
+     *
+     * @param request - interval, batching and accuracy of the updates
+     * @param intent - intent the fixes are delivered to
+     * @return completes once the request is in place
+     * @throws SecurityException if the app doesn't have the location permission
+     */
+    @NonNull Task<Void> requestLocationUpdates(@NonNull LocationRequest request, @NonNull PendingIntent intent);
+
+    /**
+     * @param intent - intent the fixes were requested with
+     * @return completes once the updates are stopped
+     */
+    @NonNull Task<Void> removeLocationUpdates(@NonNull PendingIntent intent);
+}
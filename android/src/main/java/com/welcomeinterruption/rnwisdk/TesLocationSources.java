@@ -0,0 +1,56 @@
+//  Copyright © 2012-2018 3 Electric Sheep Pty Ltd. All rights reserved.
+//
+//  The Welcome Interruption Software Development Kit (SDK) is licensed to you subject to the terms
+//  of the License Agreement. The License Agreement forms a legally binding contract between you and
+//  3 Electric Sheep Pty Ltd in relation to your use of the Welcome Interruption SDK.
+//  You may not use this file except in compliance with the License Agreement.
+//
+//  A copy of the License Agreement can be found in the LICENSE file in the root directory of this
+//  source tree.
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License
+//  Agreement is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+//  express or implied. See the License Agreement for the specific language governing permissions
+//  and limitations under the License Agreement.
+
+package com.welcomeinterruption.rnwisdk;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * The location and geofence sources used by the SDK, Play Services unless set otherwise.
+ * <p>
+ * A source set here is used process wide, including by the receivers, so set it before the
+ * SDK is connected, e.g. in the application's onCreate.
+ */
+public class TesLocationSources {
+    private static TesLocationSource sLocationSource = null;
+    private static TesGeofenceSource sGeofenceSource = null;
+
+    /**
+     * @param locationSource - source of location fixes, null for Play Services
+     * @param geofenceSource - source of geofence transitions, null for Play Services
+     */
+    public static synchronized void set(@Nullable TesLocationSource locationSource, @Nullable TesGeofenceSource geofenceSource) {
+        sLocationSource = locationSource;
+        sGeofenceSource = geofenceSource;
+    }
+
+    /**
+     * @param ctx - context used to create the Play Services source
+     * @return the location source
+     */
+    public static synchronized @NonNull TesLocationSource getLocationSource(@NonNull Context ctx) {
+        return (sLocationSource != null) ? sLocationSource : new TesPlayServicesSource(ctx);
+    }
+
+    /**
+     * @param ctx - context used to create the Play Services source
+     * @return the geofence source
+     */
+    public static synchronized @NonNull TesGeofenceSource getGeofenceSource(@NonNull Context ctx) {
+        return (sGeofenceSource != null) ? sGeofenceSource : new TesPlayServicesSource(ctx);
+    }
+}
@@ -0,0 +1,133 @@
+//  Copyright © 2012-2018 3 Electric Sheep Pty Ltd. All rights reserved.
+//
+//  The Welcome Interruption Software Development Kit (SDK) is licensed to you subject to the terms
+//  of the License Agreement. The License Agreement forms a legally binding contract between you and
+//  3 Electric Sheep Pty Ltd in relation to your use of the Welcome Interruption SDK.
+//  You may not use this file except in compliance with the License Agreement.
+//
+//  A copy of the License Agreement can be found in the LICENSE file in the root directory of this
+//  source tree.
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License
+//  Agreement is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+//  express or implied. See the License Agreement for the specific language governing permissions
+//  and limitations under the License Agreement.
+
+package com.welcomeinterruption.rnwisdk;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.util.List;
+
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+/**
+ * Uploads journaled location fixes to the server natively, so background fixes don't need JS to
+ * be started just to send them on.
+ * <p>
+ * The worker reads the location journal with its own cursor, so it doesn't interfere with the
+ * fixes reported to JS. Fixes are sent in batches of up to {@link #MAX_BATCH} and the cursor is
+ * only committed once the server has accepted a batch. On a network or server error the work is
+ * retried with WorkManager's backoff. If the credentials are refused the fixes are left in the
+ * journal until JS saves new ones. A batch the server rejects outright is skipped and counted in
+ * {@link TesMetrics#LOCATIONS_REJECTED}, so it can't hold up every fix behind it. The worker never
+ * fails as that would cancel every upload queued behind it in the unique work chain.
+ */
+public class TesLocationUploadWorker extends Worker {
+    private static final String TAG = "TesLocationUploadWorker";
+
+    /**
+     * max number of fixes sent in one request
+     */
+    static final int MAX_BATCH = 500;
+
+    /**
+     * number of retries before the pending fixes are left for the next upload
+     */
+    static final int MAX_ATTEMPTS = 5;
+
+    public TesLocationUploadWorker(@NonNull Context context, @NonNull WorkerParameters params) {
+        super(context, params);
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        TesJobDispatcher.clearPending(TesLocationUploadWorker.class);
+
+        Context ctx = getApplicationContext();
+        TesConfig config;
+        try {
+            config = TesConfig.getSavedConfig(ctx);
+        } catch (JSONException e) {
+            TesLog.e(TAG, "Unable to load saved config - not uploading", e);
+            return Result.SUCCESS;
+        }
+        if (!config.nativeUpload)
+            return Result.SUCCESS;
+
+        TesLocationUploader uploader = TesLocationUploader.fromSaved(ctx, config);
+        if (uploader == null) {
+            TesLog.d(TAG, "No upload credentials - not uploading");
+            return Result.SUCCESS;
+        }
+
+        TesEventJournal journal;
+        try {
+            journal = TesEventJournal.getInstance(ctx, TesEventJournal.LOCATION_JOURNAL);
+        } catch (IOException e) {
+            TesLog.e(TAG, "Unable to open location journal", e);
+            return Result.SUCCESS;
+        }
+
+        long[] to = new long[1];
+        while (!isStopped() && journal.hasPending(TesEventJournal.CURSOR_UPLOAD)) {
+            List<TesLocationInfo> locations = journal.readLocations(TesEventJournal.CURSOR_UPLOAD, MAX_BATCH, to);
+            if (locations.isEmpty()) {
+                // only other events in the range
+                journal.commit(TesEventJournal.CURSOR_UPLOAD, to[0]);
+                continue;
+            }
+
+            int result = uploader.upload(locations);
+            if (result != TesLocationUploader.RESULT_OK) {
+                TesMetrics.count(TesMetrics.UPLOAD_FAILURES, 1);
+            }
+            if (result == TesLocationUploader.RESULT_RETRY) {
+                if (getRunAttemptCount() < MAX_ATTEMPTS)
+                    return Result.RETRY;
+
+                TesLog.w(TAG, "Giving up on upload until more locations arrive");
+                return Result.SUCCESS;
+            }
+            if (result == TesLocationUploader.RESULT_UNAUTHORIZED) {
+                // leave the fixes in the journal, they are sent once the credentials are updated
+                return Result.SUCCESS;
+            }
+
+            journal.commit(TesEventJournal.CURSOR_UPLOAD, to[0]);
+            if (result == TesLocationUploader.RESULT_REJECTED) {
+                TesLog.w(TAG, "Skipping %d locations the server won't accept", locations.size());
+                TesMetrics.count(TesMetrics.LOCATIONS_REJECTED, locations.size());
+                continue;
+            }
+            TesMetrics.count(TesMetrics.LOCATIONS_UPLOADED, locations.size());
+
+            String newDeviceToken = uploader.getNewDeviceToken();
+            if (newDeviceToken != null) {
+                TesLocationUploader.adoptDeviceToken(ctx, uploader.getDeviceToken(), newDeviceToken);
+                // later batches go to the new device
+                uploader = TesLocationUploader.fromSaved(ctx, config);
+                if (uploader == null)
+                    break;
+            }
+        }
+
+        return Result.SUCCESS;
+    }
+}
@@ -0,0 +1,328 @@
+//  Copyright © 2012-2018 3 Electric Sheep Pty Ltd. All rights reserved.
+//
+//  The Welcome Interruption Software Development Kit (SDK) is licensed to you subject to the terms
+//  of the License Agreement. The License Agreement forms a legally binding contract between you and
+//  3 Electric Sheep Pty Ltd in relation to your use of the Welcome Interruption SDK.
+//  You may not use this file except in compliance with the License Agreement.
+//
+//  A copy of the License Agreement can be found in the LICENSE file in the root directory of this
+//  source tree.
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License
+//  Agreement is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+//  express or implied. See the License Agreement for the specific language governing permissions
+//  and limitations under the License Agreement.
+
+package com.welcomeinterruption.rnwisdk;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Sends batches of location fixes straight to the server, without going through JS.
+ * <p>
+ * A batch is sent as a single gzip compressed JSON PUT to the geodevice endpoint JS uses. The body
+ * is the device info JS sends with its own updates (hardware details, push targets, locale etc.),
+ * with the last fix as "current" (as JS sends it) and the whole batch as "locations". The
+ * credentials are the access and device tokens JS got when it registered the device, passed down
+ * with the device info by {@link #setCredentials}.
+ * <p>
+ * As in JS, a device_id in the response that differs from the device token replaces it. JS picks
+ * the new token up the next time it loads its tokens, see RNWisdkModule.getUploadDeviceToken.
+ * <p>
+ * Only plain java is used here so it can be run against a local mock server.
+ */
+public class TesLocationUploader {
+    private static final String TAG = "TesLocationUploader";
+
+    public static final String PATH_GEODEVICE = "geodevice";
+
+    public static final int RESULT_OK = 0;
+    public static final int RESULT_RETRY = 1;
+    public static final int RESULT_REJECTED = 2;
+    public static final int RESULT_UNAUTHORIZED = 3;
+
+    private static final String PREFS_NAME = "wisdk_upload";
+    private static final String KEY_ACCESS_TOKEN = "accessToken";
+    private static final String KEY_DEVICE_TOKEN = "deviceToken";
+    private static final String KEY_DEVICE_INFO = "deviceInfo";
+
+    private static final int CONNECT_TIMEOUT = 15000; // ms
+    private static final int READ_TIMEOUT = 30000; // ms
+
+    private final String endpoint;
+    private final String accessToken;
+    private final String deviceToken;
+    private final @Nullable JSONObject deviceInfo;
+
+    private @Nullable String newDeviceToken = null;
+
+    /**
+     * @param endpoint - server base url
+     * @param accessToken - auth token
+     * @param deviceToken - id of this device on the server
+     */
+    public TesLocationUploader(@NonNull String endpoint, @NonNull String accessToken, @NonNull String deviceToken) {
+        this(endpoint, accessToken, deviceToken, null);
+    }
+
+    /**
+     * @param endpoint - server base url
+     * @param accessToken - auth token
+     * @param deviceToken - id of this device on the server
+     * @param deviceInfo - device fields sent with each batch, null to send only the locations
+     */
+    public TesLocationUploader(@NonNull String endpoint, @NonNull String accessToken, @NonNull String deviceToken, @Nullable JSONObject deviceInfo) {
+        this.endpoint = endpoint;
+        this.accessToken = accessToken;
+        this.deviceToken = deviceToken;
+        this.deviceInfo = deviceInfo;
+    }
+
+    /**
+     * Creates an uploader with the saved credentials
+     *
+     * @param ctx - context used to read the credentials
+     * @param config - config holding the server
+     * @return the uploader or null if JS hasn't registered the device yet
+     */
+    public static @Nullable TesLocationUploader fromSaved(@NonNull Context ctx, @NonNull TesConfig config) {
+        SharedPreferences prefs = ctx.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        String accessToken = prefs.getString(KEY_ACCESS_TOKEN, null);
+        String deviceToken = prefs.getString(KEY_DEVICE_TOKEN, null);
+        if (accessToken == null || deviceToken == null)
+            return null;
+
+        JSONObject deviceInfo = null;
+        String info = prefs.getString(KEY_DEVICE_INFO, null);
+        if (info != null) {
+            try {
+                deviceInfo = new JSONObject(info);
+            } catch (JSONException e) {
+                TesLog.e(TAG, "Invalid saved device info - sending locations only", e);
+            }
+        }
+        return new TesLocationUploader(config.getEnvServer(), accessToken, deviceToken, deviceInfo);
+    }
+
+    /**
+     * Saves the credentials used for uploads. Passing a null token stops uploads.
+     *
+     * @param ctx - the context
+     * @param accessToken - auth token
+     * @param deviceToken - id of this device on the server
+     */
+    public static void setCredentials(@NonNull Context ctx, @Nullable String accessToken, @Nullable String deviceToken) {
+        setCredentials(ctx, accessToken, deviceToken, null);
+    }
+
+    /**
+     * Saves the credentials used for uploads and the device info sent with them. Passing a null
+     * token stops uploads.
+     *
+     * @param ctx - the context
+     * @param accessToken - auth token
+     * @param deviceToken - id of this device on the server
+     * @param deviceInfo - JSON device fields as JS sends them to the geodevice endpoint, without
+     *                   "current". Null to send only the locations.
+     */
+    public static void setCredentials(@NonNull Context ctx, @Nullable String accessToken, @Nullable String deviceToken, @Nullable String deviceInfo) {
+        ctx.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit()
+                .putString(KEY_ACCESS_TOKEN, accessToken)
+                .putString(KEY_DEVICE_TOKEN, deviceToken)
+                .putString(KEY_DEVICE_INFO, deviceInfo)
+                .apply();
+    }
+
+    /**
+     * @param ctx - context used to read the credentials
+     * @return the saved device token, null if there is none
+     */
+    public static @Nullable String getDeviceToken(@NonNull Context ctx) {
+        return ctx.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).getString(KEY_DEVICE_TOKEN, null);
+    }
+
+    /**
+     * Saves a device token assigned by the server in place of the current one, see
+     * {@link #getNewDeviceToken}. Only replaced if the token hasn't changed since the upload.
+     *
+     * @param ctx - the context
+     * @param oldToken - token the upload was made with
+     * @param newToken - token from the response
+     */
+    public static void adoptDeviceToken(@NonNull Context ctx, @NonNull String oldToken, @NonNull String newToken) {
+        SharedPreferences prefs = ctx.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        if (!oldToken.equals(prefs.getString(KEY_DEVICE_TOKEN, null)))
+            return;
+
+        TesLog.i(TAG, "Server assigned a new device token");
+        prefs.edit().putString(KEY_DEVICE_TOKEN, newToken).apply();
+    }
+
+    /**
+     * @return the device token this uploader sends with
+     */
+    public @NonNull String getDeviceToken() {
+        return deviceToken;
+    }
+
+    /**
+     * @return the device_id from the last successful upload if it differs from the device token
+     */
+    public @Nullable String getNewDeviceToken() {
+        return newDeviceToken;
+    }
+
+    /**
+     * Sends a batch of locations
+     *
+     * @param locations - the locations in time order, must not be empty
+     * @return RESULT_OK if the server took the batch, RESULT_RETRY if it might on a later attempt,
+     * RESULT_UNAUTHORIZED if the credentials were refused or RESULT_REJECTED if the batch never will
+     * be taken
+     */
+    public int upload(@NonNull List<TesLocationInfo> locations) {
+        byte[] body;
+        try {
+            body = gzip(buildBody(deviceInfo, locations).toString().getBytes("UTF-8"));
+        } catch (JSONException | IOException e) {
+            TesLog.e(TAG, "Unable to encode location batch", e);
+            return RESULT_REJECTED;
+        }
+
+        HttpURLConnection conn = null;
+        try {
+            conn = (HttpURLConnection) getUrl().openConnection();
+            conn.setConnectTimeout(CONNECT_TIMEOUT);
+            conn.setReadTimeout(READ_TIMEOUT);
+            conn.setRequestMethod("PUT");
+            conn.setDoOutput(true);
+            conn.setFixedLengthStreamingMode(body.length);
+            conn.setRequestProperty("Content-type", "application/json");
+            conn.setRequestProperty("Content-Encoding", "gzip");
+
+            OutputStream out = conn.getOutputStream();
+            try {
+                out.write(body);
+            }
+            finally {
+                out.close();
+            }
+
+            int status = conn.getResponseCode();
+            if (status >= 500 || status == 408 || status == 429) {
+                TesLog.w(TAG, "Upload of %d locations failed with %d - will retry", locations.size(), status);
+                return RESULT_RETRY;
+            }
+            if (status == 401 || status == 403) {
+                TesLog.e(TAG, "Upload of %d locations unauthorized with %d", locations.size(), status);
+                return RESULT_UNAUTHORIZED;
+            }
+            if (status < 200 || status >= 300) {
+                TesLog.e(TAG, "Upload of %d locations rejected with %d", locations.size(), status);
+                return RESULT_REJECTED;
+            }
+
+            // the api wraps errors in a 200 response
+            String response = readResponse(conn);
+            if (response.length() > 0 && response.trim().startsWith("{")) {
+                JSONObject result = new JSONObject(response);
+                if (!result.optBoolean("success", true)) {
+                    TesLog.e(TAG, "Upload of %d locations rejected: %s", locations.size(), result.optString("msg"));
+                    return RESULT_REJECTED;
+                }
+
+                String deviceId = result.optString("device_id", null);
+                if (deviceId != null && deviceId.length() > 0 && !deviceId.equals(deviceToken))
+                    newDeviceToken = deviceId;
+            }
+
+            TesLog.i(TAG, "Uploaded %d locations (%d bytes)", locations.size(), body.length);
+            return RESULT_OK;
+        }
+        catch (IOException e) {
+            TesLog.w(TAG, "Upload failed - will retry: %s", e.getMessage());
+            return RESULT_RETRY;
+        }
+        catch (JSONException e) {
+            TesLog.w(TAG, "Unexpected upload response - will retry: %s", e.getMessage());
+            return RESULT_RETRY;
+        }
+        finally {
+            if (conn != null)
+                conn.disconnect();
+        }
+    }
+
+    /**
+     * @return the url of this device on the server
+     */
+    @NonNull URL getUrl() throws IOException {
+        String base = endpoint.endsWith("/") ? endpoint : endpoint + "/";
+        return new URL(base + PATH_GEODEVICE + "/" + encode(deviceToken) + "?token=" + encode(accessToken));
+    }
+
+    /**
+     * builds the request body for a batch of locations, on top of the device info if any
+     */
+    static @NonNull JSONObject buildBody(@Nullable JSONObject deviceInfo, @NonNull List<TesLocationInfo> locations) throws JSONException {
+        JSONArray locArray = new JSONArray();
+        for (TesLocationInfo loc : locations) {
+            locArray.put(loc.toDictionary());
+        }
+
+        JSONObject body = (deviceInfo != null) ? new JSONObject(deviceInfo.toString()) : new JSONObject();
+        body.put("current", locArray.get(locArray.length() - 1));
+        body.put("locations", locArray);
+        return body;
+    }
+
+    static @NonNull byte[] gzip(@NonNull byte[] data) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length / 4 + 64);
+        GZIPOutputStream out = new GZIPOutputStream(bytes);
+        try {
+            out.write(data);
+        }
+        finally {
+            out.close();
+        }
+        return bytes.toByteArray();
+    }
+
+    private static String encode(String value) throws UnsupportedEncodingException {
+        return URLEncoder.encode(value, "UTF-8");
+    }
+
+    private static String readResponse(HttpURLConnection conn) throws IOException {
+        InputStream in = conn.getInputStream();
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buf = new byte[1024];
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                bytes.write(buf, 0, n);
+            }
+            return bytes.toString("UTF-8");
+        }
+        finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,564 @@
+//  Copyright © 2012-2018 3 Electric Sheep Pty Ltd. All rights reserved.
+//
+//  The Welcome Interruption Software Development Kit (SDK) is licensed to you subject to the terms
+//  of the License Agreement. The License Agreement forms a legally binding contract between you and
+//  3 Electric Sheep Pty Ltd in relation to your use of the Welcome Interruption SDK.
+//  You may not use this file except in compliance with the License Agreement.
+//
+//  A copy of the License Agreement can be found in the LICENSE file in the root directory of this
+//  source tree.
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License
+//  Agreement is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+//  express or implied. See the License Agreement for the specific language governing permissions
+//  and limitations under the License Agreement.
+
+package com.welcomeinterruption.rnwisdk;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.IllegalFormatException;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Logging for the sdk.
+ * <p>
+ * Records go to a fixed size in memory ring buffer, and are only formatted when the buffer is
+ * read with {@link #dump} or {@link #flush}, e.g. for a support case. Format arguments are kept
+ * in binary (numbers as is, other objects as their string) and format strings and tags are stored
+ * as an index into a table, so a record is cheap to write. Calls below the current level return
+ * straight away, so pass format arguments rather than building the message.
+ * <p>
+ * The level follows the config (see {@link #configure}):
+ * <ul>
+ *     <li>{@link TesConfig#debug} - debug and above are recorded and also sent to logcat</li>
+ *     <li>otherwise - info and above are recorded, warnings and errors are sent to logcat</li>
+ *     <li>{@link TesConfig#logLocInfo} - location and event payloads are recorded, see {@link #loc}</li>
+ * </ul>
+ * The buffer only holds records from this process.
+ */
+public final class TesLog {
+    public static final int DEBUG = Log.DEBUG;
+    public static final int INFO = Log.INFO;
+    public static final int WARN = Log.WARN;
+    public static final int ERROR = Log.ERROR;
+
+    private static final String FILE_NAME = "wisdk.log";
+
+    private static final int CAPACITY = 64 * 1024;  // bytes
+    private static final int MAX_RECORD = 1024;     // bytes, string arguments are truncated to fit
+    private static final int MAX_STRINGS = 0xFFFF;  // interned tags and formats
+    private static final int INLINE = 0xFFFF;       // string index of a string stored in the record
+
+    private static final int HEADER = 2 + 8 + 1 + 2 + 2 + 1; // length, time, level, tag, format, argc
+    private static final int THROWABLE = 0x80;      // level flag, the last argument is the throwable
+
+    private static final byte ARG_LONG = 0;
+    private static final byte ARG_DOUBLE = 1;
+    private static final byte ARG_BOOLEAN = 2;
+    private static final byte ARG_STRING = 3;
+    private static final byte ARG_NULL = 4;
+
+    private static volatile int sLevel = INFO;
+    private static volatile int sLogcatLevel = WARN;
+    private static volatile boolean sLocInfo = false;
+
+    // guarded by TesLog.class
+    private static final byte[] sRing = new byte[CAPACITY];
+    private static final byte[] sRecord = new byte[MAX_RECORD];
+    private static int sHead = 0;   // where the next record is written
+    private static int sTail = 0;   // oldest record
+    private static int sUsed = 0;
+    private static int sPos = 0;    // write position in sRecord
+    private static int sArgc = 0;
+    private static final Map<String, Integer> sIndex = new HashMap<>();
+    private static final List<String> sStrings = new ArrayList<>();
+
+    private TesLog() {
+    }
+
+    /**
+     * Sets the level from the config
+     *
+     * @param config - the config
+     */
+    public static void configure(@NonNull TesConfig config) {
+        sLevel = config.debug ? DEBUG : INFO;
+        sLogcatLevel = config.debug ? DEBUG : WARN;
+        sLocInfo = config.logLocInfo;
+    }
+
+    /**
+     * @param level - log level
+     * @return true if records at this level are kept
+     */
+    public static boolean isLoggable(int level) {
+        return level >= sLevel;
+    }
+
+    public static void d(String tag, String msg) {
+        if (DEBUG >= sLevel) logMessage(DEBUG, tag, msg, null);
+    }
+
+    public static void d(String tag, String fmt, long a) {
+        if (DEBUG >= sLevel) logNumbers(DEBUG, tag, fmt, 1, a, 0);
+    }
+
+    public static void d(String tag, String fmt, long a, long b) {
+        if (DEBUG >= sLevel) logNumbers(DEBUG, tag, fmt, 2, a, b);
+    }
+
+    public static void d(String tag, String fmt, Object a) {
+        if (DEBUG >= sLevel) logArgs(DEBUG, tag, fmt, new Object[] {a});
+    }
+
+    public static void d(String tag, String fmt, Object a, Object b) {
+        if (DEBUG >= sLevel) logArgs(DEBUG, tag, fmt, new Object[] {a, b});
+    }
+
+    public static void d(String tag, String fmt, Object... args) {
+        if (DEBUG >= sLevel) logArgs(DEBUG, tag, fmt, args);
+    }
+
+    public static void i(String tag, String msg) {
+        if (INFO >= sLevel) logMessage(INFO, tag, msg, null);
+    }
+
+    public static void i(String tag, String fmt, long a) {
+        if (INFO >= sLevel) logNumbers(INFO, tag, fmt, 1, a, 0);
+    }
+
+    public static void i(String tag, String fmt, long a, long b) {
+        if (INFO >= sLevel) logNumbers(INFO, tag, fmt, 2, a, b);
+    }
+
+    public static void i(String tag, String fmt, Object a) {
+        if (INFO >= sLevel) logArgs(INFO, tag, fmt, new Object[] {a});
+    }
+
+    public static void i(String tag, String fmt, Object a, Object b) {
+        if (INFO >= sLevel) logArgs(INFO, tag, fmt, new Object[] {a, b});
+    }
+
+    public static void i(String tag, String fmt, Object... args) {
+        if (INFO >= sLevel) logArgs(INFO, tag, fmt, args);
+    }
+
+    public static void w(String tag, String msg) {
+        if (WARN >= sLevel) logMessage(WARN, tag, msg, null);
+    }
+
+    public static void w(String tag, String msg, Throwable tr) {
+        if (WARN >= sLevel) logMessage(WARN, tag, msg, tr);
+    }
+
+    public static void w(String tag, String fmt, long a) {
+        if (WARN >= sLevel) logNumbers(WARN, tag, fmt, 1, a, 0);
+    }
+
+    public static void w(String tag, String fmt, long a, long b) {
+        if (WARN >= sLevel) logNumbers(WARN, tag, fmt, 2, a, b);
+    }
+
+    public static void w(String tag, String fmt, Object a) {
+        if (WARN >= sLevel) logArgs(WARN, tag, fmt, new Object[] {a});
+    }
+
+    public static void w(String tag, String fmt, Object a, Object b) {
+        if (WARN >= sLevel) logArgs(WARN, tag, fmt, new Object[] {a, b});
+    }
+
+    public static void w(String tag, String fmt, Object... args) {
+        if (WARN >= sLevel) logArgs(WARN, tag, fmt, args);
+    }
+
+    public static void e(String tag, String msg) {
+        if (ERROR >= sLevel) logMessage(ERROR, tag, msg, null);
+    }
+
+    public static void e(String tag, String msg, Throwable tr) {
+        if (ERROR >= sLevel) logMessage(ERROR, tag, msg, tr);
+    }
+
+    public static void e(String tag, String fmt, long a) {
+        if (ERROR >= sLevel) logNumbers(ERROR, tag, fmt, 1, a, 0);
+    }
+
+    public static void e(String tag, String fmt, long a, long b) {
+        if (ERROR >= sLevel) logNumbers(ERROR, tag, fmt, 2, a, b);
+    }
+
+    public static void e(String tag, String fmt, Object a) {
+        if (ERROR >= sLevel) logArgs(ERROR, tag, fmt, new Object[] {a});
+    }
+
+    public static void e(String tag, String fmt, Object a, Object b) {
+        if (ERROR >= sLevel) logArgs(ERROR, tag, fmt, new Object[] {a, b});
+    }
+
+    public static void e(String tag, String fmt, Object... args) {
+        if (ERROR >= sLevel) logArgs(ERROR, tag, fmt, args);
+    }
+
+    /**
+     * Logs a location or event payload at debug level. Only recorded when
+     * {@link TesConfig#logLocInfo} is set, whatever the level.
+     *
+     * @param tag - log tag
+     * @param fmt - format with one argument
+     * @param payload - the payload, only converted to a string if recorded
+     */
+    public static void loc(String tag, String fmt, Object payload) {
+        if (sLocInfo) logArgs(DEBUG, tag, fmt, new Object[] {payload});
+    }
+
+    /**
+     * @return the buffered records, oldest first, one per line
+     */
+    public static @NonNull String dump() {
+        StringBuilder sb = new StringBuilder();
+        byte[] data;
+        String[] strings;
+        synchronized (TesLog.class) {
+            data = new byte[sUsed];
+            copyOut(sTail, data, sUsed);
+            strings = sStrings.toArray(new String[sStrings.size()]);
+        }
+
+        SimpleDateFormat dateFormat = new SimpleDateFormat("MM-dd HH:mm:ss.SSS", Locale.US);
+        int pos = 0;
+        while (pos < data.length) {
+            int len = getShort(data, pos);
+            format(sb, data, pos, strings, dateFormat);
+            sb.append('\n');
+            pos += len;
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Writes the buffered records to a file in the app's files dir, replacing the last one.
+     *
+     * @param ctx - the context
+     * @return the file
+     * @throws IOException if the file can't be written
+     */
+    public static @NonNull File flush(@NonNull Context ctx) throws IOException {
+        File file = new File(ctx.getFilesDir(), FILE_NAME);
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write(dump());
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+
+    /**
+     * Discards the buffered records
+     */
+    public static synchronized void clear() {
+        sHead = 0;
+        sTail = 0;
+        sUsed = 0;
+    }
+
+    /**
+     * records a message, and a throwable if there is one
+     */
+    private static void logMessage(int level, String tag, String msg, @Nullable Throwable tr) {
+        synchronized (TesLog.class) {
+            begin(level | (tr != null ? THROWABLE : 0), tag, msg, false);
+            if (tr != null)
+                putString(tr.toString());
+            end();
+        }
+
+        if (level >= sLogcatLevel) {
+            Log.println(level, tag, tr != null ? msg + '\n' + Log.getStackTraceString(tr) : msg);
+        }
+    }
+
+    /**
+     * records a format with number arguments, without boxing them
+     */
+    private static void logNumbers(int level, String tag, String fmt, int argc, long a, long b) {
+        synchronized (TesLog.class) {
+            begin(level, tag, fmt, true);
+            putLong(a);
+            if (argc > 1)
+                putLong(b);
+            end();
+        }
+
+        if (level >= sLogcatLevel) {
+            Log.println(level, tag, format(fmt, argc > 1 ? new Object[] {a, b} : new Object[] {a}));
+        }
+    }
+
+    /**
+     * records a format with any arguments
+     */
+    private static void logArgs(int level, String tag, String fmt, Object[] args) {
+        synchronized (TesLog.class) {
+            begin(level, tag, fmt, true);
+            for (Object arg : args) {
+                if (arg instanceof Long || arg instanceof Integer || arg instanceof Short || arg instanceof Byte)
+                    putLong(((Number) arg).longValue());
+                else if (arg instanceof Double || arg instanceof Float)
+                    putDouble(((Number) arg).doubleValue());
+                else if (arg instanceof Boolean)
+                    putBoolean((Boolean) arg);
+                else if (arg == null)
+                    putNull();
+                else
+                    putString(arg.toString());
+            }
+            end();
+        }
+
+        if (level >= sLogcatLevel) {
+            Log.println(level, tag, format(fmt, args));
+        }
+    }
+
+    // -- writing records, called holding the lock
+
+    /**
+     * starts a record. Formats are interned, plain messages are stored in the record as they are
+     * often built from variable text and would fill the table.
+     */
+    private static void begin(int level, String tag, String text, boolean isFormat) {
+        sPos = 0;
+        sArgc = 0;
+        int tagIdx = intern(tag);
+        int textIdx = isFormat ? intern(text) : INLINE;
+
+        sPos = 2; // length, filled in by end()
+        putRawLong(System.currentTimeMillis());
+        sRecord[sPos++] = (byte) level;
+        putRawShort(tagIdx);
+        putRawShort(textIdx);
+        sPos++; // argc, filled in by end()
+
+        if (tagIdx == INLINE)
+            putRawString(tag);
+        if (textIdx == INLINE)
+            putRawString(text);
+    }
+
+    private static void putLong(long value) {
+        if (sPos + 9 > MAX_RECORD)
+            return;
+        sRecord[sPos++] = ARG_LONG;
+        putRawLong(value);
+        sArgc++;
+    }
+
+    private static void putDouble(double value) {
+        if (sPos + 9 > MAX_RECORD)
+            return;
+        sRecord[sPos++] = ARG_DOUBLE;
+        putRawLong(Double.doubleToRawLongBits(value));
+        sArgc++;
+    }
+
+    private static void putBoolean(boolean value) {
+        if (sPos + 2 > MAX_RECORD)
+            return;
+        sRecord[sPos++] = ARG_BOOLEAN;
+        sRecord[sPos++] = (byte) (value ? 1 : 0);
+        sArgc++;
+    }
+
+    private static void putNull() {
+        if (sPos + 1 > MAX_RECORD)
+            return;
+        sRecord[sPos++] = ARG_NULL;
+        sArgc++;
+    }
+
+    private static void putString(String value) {
+        if (sPos + 3 > MAX_RECORD)
+            return;
+        sRecord[sPos++] = ARG_STRING;
+        putRawString(value);
+        sArgc++;
+    }
+
+    /**
+     * copies the record into the ring, dropping the oldest records to make room
+     */
+    private static void end() {
+        int len = sPos;
+        sRecord[0] = (byte) (len >>> 8);
+        sRecord[1] = (byte) len;
+        sRecord[HEADER - 1] = (byte) sArgc;
+
+        while (CAPACITY - sUsed < len) {
+            int oldest = ((sRing[sTail] & 0xFF) << 8) | (sRing[(sTail + 1) % CAPACITY] & 0xFF);
+            sTail = (sTail + oldest) % CAPACITY;
+            sUsed -= oldest;
+        }
+
+        int first = Math.min(len, CAPACITY - sHead);
+        System.arraycopy(sRecord, 0, sRing, sHead, first);
+        System.arraycopy(sRecord, first, sRing, 0, len - first);
+        sHead = (sHead + len) % CAPACITY;
+        sUsed += len;
+    }
+
+    private static int intern(String s) {
+        Integer idx = sIndex.get(s);
+        if (idx != null)
+            return idx;
+        if (s == null || sStrings.size() >= MAX_STRINGS)
+            return INLINE;
+
+        idx = sStrings.size();
+        sStrings.add(s);
+        sIndex.put(s, idx);
+        return idx;
+    }
+
+    private static void putRawLong(long value) {
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            sRecord[sPos++] = (byte) (value >>> shift);
+        }
+    }
+
+    private static void putRawShort(int value) {
+        sRecord[sPos++] = (byte) (value >>> 8);
+        sRecord[sPos++] = (byte) value;
+    }
+
+    /**
+     * utf-16 chars, truncated to fit the record
+     */
+    private static void putRawString(String value) {
+        if (value == null)
+            value = "null";
+        int n = Math.min(value.length(), (MAX_RECORD - sPos - 2) / 2);
+        putRawShort(n);
+        for (int i = 0; i < n; i++) {
+            char c = value.charAt(i);
+            sRecord[sPos++] = (byte) (c >>> 8);
+            sRecord[sPos++] = (byte) c;
+        }
+    }
+
+    private static void copyOut(int from, byte[] to, int len) {
+        int first = Math.min(len, CAPACITY - from);
+        System.arraycopy(sRing, from, to, 0, first);
+        System.arraycopy(sRing, 0, to, first, len - first);
+    }
+
+    // -- reading records
+
+    private static void format(StringBuilder sb, byte[] data, int pos, String[] strings, SimpleDateFormat dateFormat) {
+        int[] at = {pos + 2};
+        long time = getLong(data, at);
+        int level = data[at[0]++] & 0xFF;
+        int tagIdx = getShort(data, at[0]);
+        int textIdx = getShort(data, at[0] + 2);
+        int argc = data[at[0] + 4] & 0xFF;
+        at[0] += 5;
+
+        String tag = tagIdx == INLINE ? getString(data, at) : strings[tagIdx];
+        String text = textIdx == INLINE ? getString(data, at) : strings[textIdx];
+
+        Object[] args = new Object[argc];
+        for (int i = 0; i < argc; i++) {
+            byte type = data[at[0]++];
+            switch (type) {
+                case ARG_LONG:
+                    args[i] = getLong(data, at);
+                    break;
+                case ARG_DOUBLE:
+                    args[i] = Double.longBitsToDouble(getLong(data, at));
+                    break;
+                case ARG_BOOLEAN:
+                    args[i] = data[at[0]++] != 0;
+                    break;
+                case ARG_STRING:
+                    args[i] = getString(data, at);
+                    break;
+                default:
+                    args[i] = null;
+                    break;
+            }
+        }
+
+        sb.append(dateFormat.format(new Date(time)))
+                .append(' ')
+                .append(levelChar(level & ~THROWABLE))
+                .append('/')
+                .append(tag)
+                .append(": ");
+        if ((level & THROWABLE) != 0)
+            sb.append(text).append(": ").append(args.length > 0 ? args[0] : "");
+        else if (textIdx == INLINE)
+            sb.append(text);
+        else
+            sb.append(format(text, args));
+    }
+
+    private static String format(String fmt, Object[] args) {
+        try {
+            return String.format(Locale.US, fmt, args);
+        } catch (IllegalFormatException e) {
+            StringBuilder sb = new StringBuilder(fmt);
+            for (Object arg : args) {
+                sb.append(' ').append(arg);
+            }
+            return sb.toString();
+        }
+    }
+
+    private static char levelChar(int level) {
+        switch (level) {
+            case DEBUG: return 'D';
+            case INFO: return 'I';
+            case WARN: return 'W';
+            case ERROR: return 'E';
+            default: return 'V';
+        }
+    }
+
+    private static int getShort(byte[] data, int pos) {
+        return ((data[pos] & 0xFF) << 8) | (data[pos + 1] & 0xFF);
+    }
+
+    private static long getLong(byte[] data, int[] at) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (data[at[0]++] & 0xFF);
+        }
+        return value;
+    }
+
+    private static String getString(byte[] data, int[] at) {
+        int n = getShort(data, at[0]);
+        at[0] += 2;
+        char[] chars = new char[n];
+        for (int i = 0; i < n; i++) {
+            chars[i] = (char) (((data[at[0]] & 0xFF) << 8) | (data[at[0] + 1] & 0xFF));
+            at[0] += 2;
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,306 @@
+//  Copyright © 2012-2018 3 Electric Sheep Pty Ltd. All rights reserved.
+//
+//  The Welcome Interruption Software Development Kit (SDK) is licensed to you subject to the terms
+//  of the License Agreement. The License Agreement forms a legally binding contract between you and
+//  3 Electric Sheep Pty Ltd in relation to your use of the Welcome Interruption SDK.
+//  You may not use this file except in compliance with the License Agreement.
+//
+//  A copy of the License Agreement can be found in the LICENSE file in the root directory of this
+//  source tree.
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License
+//  Agreement is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+//  express or implied. See the License Agreement for the specific language governing permissions
+//  and limitations under the License Agreement.
+
+package com.welcomeinterruption.rnwisdk;
+
+import android.support.annotation.NonNull;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.WritableMap;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters and latency histograms for the location and geofence pipeline, since the process
+ * started.
+ * <p>
+ * Latency is measured from the time of the fix to each stage an event passes through:
+ * <ul>
+ *     <li>{@link #STAGE_RECEIVE} - the broadcast receiver, once per fix</li>
+ *     <li>{@link #STAGE_SCHEDULE} - the job being scheduled</li>
+ *     <li>{@link #STAGE_WORK} - the job starting</li>
+ *     <li>{@link #STAGE_TASK_START} - the JS task starting</li>
+ *     <li>{@link #STAGE_TASK_FINISH} - the JS task finishing</li>
+ * </ul>
+ * From the receiver on a batch is timed from its newest fix, which travels with the job data
+ * (see {@link TesJobDispatcher#getFixTime}). A job that drains a coalesced journal is timed from
+ * the first batch it was scheduled for.
+ * <p>
+ * Recording doesn't allocate or lock. Counters are striped by thread, each stripe on its own cache
+ * line, and histograms use log linear buckets (8 per power of 2, so within 12.5%) of atomic longs.
+ */
+public class TesMetrics {
+    public static final int LOCATIONS_RECEIVED = 0;
+    public static final int LOCATIONS_FILTERED = 1;       // removed by the filter or simplifier
+    public static final int LOCATIONS_DROPPED = 2;        // overwritten in a full journal or inbox before being reported, or their job couldn't be scheduled
+    public static final int LOCATIONS_UPLOADED = 3;
+    public static final int UPLOAD_FAILURES = 4;
+    public static final int GEOFENCE_EVENTS_RECEIVED = 5;
+    public static final int GEOFENCE_EVENTS_FILTERED = 6; // internal geofences or unreported transitions
+    public static final int JOBS_SCHEDULED = 7;
+    public static final int JOBS_COALESCED = 8;
+    public static final int TASKS_STARTED = 9;
+    public static final int TASKS_FINISHED = 10;
+    public static final int TASKS_TIMED_OUT = 11;
+    public static final int ERRORS = 12;
+    public static final int EVENTS_EMITTED = 13;      // delivered straight to a foreground React context
+    public static final int LOCATIONS_REJECTED = 14;  // refused by the server on upload and skipped
+    public static final int GEOFENCE_EVENTS_DROPPED = 15; // as LOCATIONS_DROPPED
+
+    private static final String[] COUNTER_NAMES = {
+            "locationsReceived",
+            "locationsFiltered",
+            "locationsDropped",
+            "locationsUploaded",
+            "uploadFailures",
+            "geofenceEventsReceived",
+            "geofenceEventsFiltered",
+            "jobsScheduled",
+            "jobsCoalesced",
+            "tasksStarted",
+            "tasksFinished",
+            "tasksTimedOut",
+            "errors",
+            "eventsEmitted",
+            "locationsRejected",
+            "geofenceEventsDropped",
+    };
+
+    public static final int STAGE_RECEIVE = 0;
+    public static final int STAGE_SCHEDULE = 1;
+    public static final int STAGE_WORK = 2;
+    public static final int STAGE_TASK_START = 3;
+    public static final int STAGE_TASK_FINISH = 4;
+
+    private static final String[] STAGE_NAMES = {
+            "receive",
+            "schedule",
+            "work",
+            "taskStart",
+            "taskFinish",
+    };
+
+    private static final int STRIPES = 8;   // power of 2
+    private static final int PAD = 8;       // longs per cache line
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 36; // ~2 years in ms, anything slower lands in the last bucket
+    private static final int NUM_BUCKETS = 2 * SUB_BUCKETS + (MAX_EXPONENT - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    // per stage count, sum and max, a cache line each
+    private static final int STAT_COUNT = 0;
+    private static final int STAT_SUM = 1;
+    private static final int STAT_MAX = 2;
+
+    private static final int ERROR_SLOTS = 32; // power of 2
+    private static final int EMPTY = Integer.MIN_VALUE;
+
+    private static final long sSince = System.currentTimeMillis();
+    private static final AtomicLongArray sCounters = new AtomicLongArray(COUNTER_NAMES.length * STRIPES * PAD);
+    private static final AtomicLongArray sBuckets = new AtomicLongArray(STAGE_NAMES.length * NUM_BUCKETS);
+    private static final AtomicLongArray sStats = new AtomicLongArray(STAGE_NAMES.length * PAD);
+    private static final AtomicIntegerArray sErrorCodes = new AtomicIntegerArray(ERROR_SLOTS);
+    private static final AtomicLongArray sErrorCounts = new AtomicLongArray(ERROR_SLOTS);
+
+    static {
+        for (int i = 0; i < ERROR_SLOTS; i++) {
+            sErrorCodes.set(i, EMPTY);
+        }
+    }
+
+    /**
+     * @param counter - one of the counter constants
+     * @param n - amount to add
+     */
+    public static void count(int counter, long n) {
+        if (n == 0)
+            return;
+
+        int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+        sCounters.addAndGet((counter * STRIPES + stripe) * PAD, n);
+    }
+
+    /**
+     * Counts an error reported to JS, by error code
+     *
+     * @param code - the error code
+     */
+    public static void error(int code) {
+        count(ERRORS, 1);
+
+        int slot = (code * 0x9E3779B9) >>> 27; // top 5 bits, ERROR_SLOTS = 32
+        for (int i = 0; i < ERROR_SLOTS; i++) {
+            int idx = (slot + i) & (ERROR_SLOTS - 1);
+            int key = sErrorCodes.get(idx);
+            if (key == EMPTY) {
+                if (!sErrorCodes.compareAndSet(idx, EMPTY, code))
+                    key = sErrorCodes.get(idx);
+                else
+                    key = code;
+            }
+            if (key == code) {
+                sErrorCounts.incrementAndGet(idx);
+                return;
+            }
+        }
+        // more distinct codes than slots - only counted in ERRORS
+    }
+
+    /**
+     * Records the latency of a stage
+     *
+     * @param stage - one of the stage constants
+     * @param fixTime - time of the fix, epoch millis. Ignored if not known (<= 0)
+     */
+    public static void latency(int stage, long fixTime) {
+        if (fixTime <= 0)
+            return;
+
+        long ms = Math.max(0, System.currentTimeMillis() - fixTime);
+        sBuckets.incrementAndGet(stage * NUM_BUCKETS + bucketOf(ms));
+
+        int base = stage * PAD;
+        sStats.incrementAndGet(base + STAT_COUNT);
+        sStats.addAndGet(base + STAT_SUM, ms);
+        long max = sStats.get(base + STAT_MAX);
+        while (ms > max && !sStats.compareAndSet(base + STAT_MAX, max, ms)) {
+            max = sStats.get(base + STAT_MAX);
+        }
+    }
+
+    /**
+     * @param counter - one of the counter constants
+     * @return the counter's value
+     */
+    public static long get(int counter) {
+        long total = 0;
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            total += sCounters.get((counter * STRIPES + stripe) * PAD);
+        }
+        return total;
+    }
+
+    /**
+     * Snapshot of the metrics for JS:
+     * <pre>
+     * {
+     *   since: epoch millis,
+     *   counters: { locationsReceived: n, ... },
+     *   errors: { "code": n, ... },
+     *   latency: { receive: { count, mean, max, p50, p90, p99, buckets: { "upper bound ms": n } }, ... }
+     * }
+     * </pre>
+     * Updates made while the snapshot is taken may be partly included.
+     *
+     * @return the snapshot
+     */
+    public static @NonNull WritableMap toMap() {
+        WritableMap counters = Arguments.createMap();
+        for (int i = 0; i < COUNTER_NAMES.length; i++) {
+            counters.putDouble(COUNTER_NAMES[i], get(i));
+        }
+
+        WritableMap errors = Arguments.createMap();
+        for (int i = 0; i < ERROR_SLOTS; i++) {
+            int code = sErrorCodes.get(i);
+            if (code != EMPTY)
+                errors.putDouble(Integer.toString(code), sErrorCounts.get(i));
+        }
+
+        WritableMap latency = Arguments.createMap();
+        for (int stage = 0; stage < STAGE_NAMES.length; stage++) {
+            latency.putMap(STAGE_NAMES[stage], stageToMap(stage));
+        }
+
+        WritableMap metrics = Arguments.createMap();
+        metrics.putDouble("since", sSince);
+        metrics.putMap("counters", counters);
+        metrics.putMap("errors", errors);
+        metrics.putMap("latency", latency);
+        return metrics;
+    }
+
+    private static WritableMap stageToMap(int stage) {
+        long[] buckets = new long[NUM_BUCKETS];
+        long count = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            buckets[i] = sBuckets.get(stage * NUM_BUCKETS + i);
+            count += buckets[i];
+        }
+        long sum = sStats.get(stage * PAD + STAT_SUM);
+        long max = sStats.get(stage * PAD + STAT_MAX);
+
+        WritableMap histogram = Arguments.createMap();
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            if (buckets[i] > 0)
+                histogram.putDouble(Long.toString(upperBoundOf(i)), buckets[i]);
+        }
+
+        WritableMap map = Arguments.createMap();
+        map.putDouble("count", count);
+        map.putDouble("mean", count > 0 ? (double) sum / count : 0);
+        map.putDouble("max", max);
+        map.putDouble("p50", percentile(buckets, count, max, 0.50));
+        map.putDouble("p90", percentile(buckets, count, max, 0.90));
+        map.putDouble("p99", percentile(buckets, count, max, 0.99));
+        map.putMap("buckets", histogram);
+        return map;
+    }
+
+    /**
+     * upper bound of the bucket holding the percentile, capped at the max seen
+     */
+    private static long percentile(long[] buckets, long count, long max, double p) {
+        if (count == 0)
+            return 0;
+
+        long rank = (long) Math.ceil(p * count);
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= rank)
+                return Math.min(upperBoundOf(i), max);
+        }
+        return max;
+    }
+
+    /**
+     * values below 2 * SUB_BUCKETS get a bucket each, above that each power of 2 is split into
+     * SUB_BUCKETS buckets
+     */
+    static int bucketOf(long value) {
+        if (value < 2 * SUB_BUCKETS)
+            return (int) value;
+
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT)
+            return NUM_BUCKETS - 1;
+
+        int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return 2 * SUB_BUCKETS + (exponent - SUB_BUCKET_BITS - 1) * SUB_BUCKETS + sub;
+    }
+
+    static long upperBoundOf(int bucket) {
+        if (bucket < 2 * SUB_BUCKETS)
+            return bucket;
+
+        int k = bucket - 2 * SUB_BUCKETS;
+        int shift = k / SUB_BUCKETS + 1;
+        long lower = (long) (SUB_BUCKETS + k % SUB_BUCKETS) << shift;
+        return lower + (1L << shift) - 1;
+    }
+}
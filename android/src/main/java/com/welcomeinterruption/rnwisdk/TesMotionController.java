@@ -0,0 +1,286 @@
+//  Copyright © 2012-2018 3 Electric Sheep Pty Ltd. All rights reserved.
+//
+//  The Welcome Interruption Software Development Kit (SDK) is licensed to you subject to the terms
+//  of the License Agreement. The License Agreement forms a legally binding contract between you and
+//  3 Electric Sheep Pty Ltd in relation to your use of the Welcome Interruption SDK.
+//  You may not use this file except in compliance with the License Agreement.
+//
+//  A copy of the License Agreement can be found in the LICENSE file in the root directory of this
+//  source tree.
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License
+//  Agreement is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+//  express or implied. See the License Agreement for the specific language governing permissions
+//  and limitations under the License Agreement.
+
+package com.welcomeinterruption.rnwisdk;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.location.Location;
+import android.support.annotation.NonNull;
+
+import com.google.android.gms.location.LocationRequest;
+
+import java.util.List;
+
+/**
+ * Adapts the location request to how the device is moving.
+ * <p>
+ * Each batch of fixes is classified from the reported speed and the displacement from the last
+ * point movement was seen at. The request is then switched between profiles:
+ * <ul>
+ *     <li>{@link #PROFILE_DRIVING} - the configured request</li>
+ *     <li>{@link #PROFILE_WALKING} - the configured request at half the rate</li>
+ *     <li>{@link #PROFILE_STATIONARY} - infrequent balanced power fixes</li>
+ *     <li>{@link #PROFILE_GEOFENCE_ONLY} - passive fixes only, movement is picked up by the
+ *     geofence exit</li>
+ * </ul>
+ * Switching to a faster profile happens on the first fix that calls for it. Switching to a slower
+ * one only happens once the faster one hasn't been needed for a hold time, so the request doesn't
+ * flap at traffic lights or when a fix jumps.
+ * <p>
+ * Only used when {@link TesConfig#locAdaptive} is set.
+ */
+public class TesMotionController {
+    private static final String TAG = "TesMotionController";
+
+    public static final int PROFILE_DRIVING = 0;
+    public static final int PROFILE_WALKING = 1;
+    public static final int PROFILE_STATIONARY = 2;
+    public static final int PROFILE_GEOFENCE_ONLY = 3;
+
+    private static final String PREFS_NAME = "wisdk_motion";
+    private static final String KEY_PROFILE = "profile";
+    private static final String KEY_ANCHOR_LATITUDE = "anchorLatitude";
+    private static final String KEY_ANCHOR_LONGITUDE = "anchorLongitude";
+    private static final String KEY_ANCHOR_TIME = "anchorTime";
+    private static final String KEY_LAST_MOVING = "lastMoving";
+    private static final String KEY_LAST_DRIVING = "lastDriving";
+
+    private static final float WALKING_SPEED = 0.7f; // m/s
+    private static final float DRIVING_SPEED = 7.0f; // m/s
+    private static final float STILL_RADIUS = 75; // meters
+    private static final float MAX_ACCURACY = 200; // meters, fixes worse than this are ignored
+    private static final float MAX_SPEED_ACCURACY = 50; // meters, worst fix whose reported speed is trusted
+
+    private static final long DRIVING_HOLD = 3 * 60 * 1000;             // 3 min
+    private static final long WALKING_HOLD = 5 * 60 * 1000;             // 5 min
+    private static final long STATIONARY_HOLD = 20 * 60 * 1000;         // 20 min
+
+    private static final long STATIONARY_INTERVAL = 5 * 60 * 1000;      // 5 min
+    private static final long STATIONARY_MAX_WAIT = 15 * 60 * 1000;     // 15 min
+    private static final long PASSIVE_INTERVAL = 15 * 60 * 1000;        // 15 min
+    private static final long PASSIVE_FASTEST_INTERVAL = 60 * 1000;     // 1 min
+
+    /**
+     * @param ctx - context used to read the state
+     * @return the profile currently in use
+     */
+    public static int getProfile(@NonNull Context ctx) {
+        return getPrefs(ctx).getInt(KEY_PROFILE, PROFILE_DRIVING);
+    }
+
+    /**
+     * Builds the location request for a profile
+     *
+     * @param config - config holding the configured request
+     * @param profile - one of the PROFILE_ constants
+     * @return the request
+     */
+    public static @NonNull LocationRequest buildRequest(@NonNull TesConfig config, int profile) {
+        LocationRequest request = new LocationRequest();
+        switch (profile) {
+            case PROFILE_WALKING:
+                request.setInterval(config.locUpdateInterval * 2);
+                request.setFastestInterval(config.locFastestUpdateInterval * 2);
+                request.setPriority(config.locPriorityAccuracy);
+                request.setMaxWaitTime(config.locMaxWaitTime * 2);
+                break;
+
+            case PROFILE_STATIONARY:
+                request.setInterval(Math.max(config.locUpdateInterval, STATIONARY_INTERVAL));
+                request.setFastestInterval(Math.max(config.locFastestUpdateInterval, STATIONARY_INTERVAL / 5));
+                request.setPriority(LocationRequest.PRIORITY_BALANCED_POWER_ACCURACY);
+                request.setMaxWaitTime(Math.max(config.locMaxWaitTime, STATIONARY_MAX_WAIT));
+                break;
+
+            case PROFILE_GEOFENCE_ONLY:
+                request.setInterval(PASSIVE_INTERVAL);
+                request.setFastestInterval(PASSIVE_FASTEST_INTERVAL);
+                request.setPriority(LocationRequest.PRIORITY_NO_POWER);
+                request.setMaxWaitTime(PASSIVE_INTERVAL);
+                break;
+
+            default:
+                request.setInterval(config.locUpdateInterval);
+                request.setFastestInterval(config.locFastestUpdateInterval);
+                request.setPriority(config.locPriorityAccuracy);
+                request.setMaxWaitTime(config.locMaxWaitTime);
+                break;
+        }
+        return request;
+    }
+
+    /**
+     * Updates the motion state from a batch of fixes, switching the location request if needed.
+     *
+     * @param ctx - the context
+     * @param config - the config
+     * @param locations - fixes in time order, before filtering
+     * @return the profile now in use
+     */
+    public static synchronized int onLocations(@NonNull Context ctx, @NonNull TesConfig config, @NonNull List<Location> locations) {
+        SharedPreferences prefs = getPrefs(ctx);
+        boolean haveAnchor = prefs.contains(KEY_ANCHOR_TIME);
+        double anchorLatitude = Double.longBitsToDouble(prefs.getLong(KEY_ANCHOR_LATITUDE, 0));
+        double anchorLongitude = Double.longBitsToDouble(prefs.getLong(KEY_ANCHOR_LONGITUDE, 0));
+        long anchorTime = prefs.getLong(KEY_ANCHOR_TIME, 0);
+        long lastMoving = prefs.getLong(KEY_LAST_MOVING, 0);
+        long lastDriving = prefs.getLong(KEY_LAST_DRIVING, 0);
+
+        float[] distance = new float[1];
+        for (Location loc : locations) {
+            if (loc.getAccuracy() > MAX_ACCURACY)
+                continue;
+
+            long time = loc.getTime();
+            if (!haveAnchor) {
+                haveAnchor = true;
+                anchorLatitude = loc.getLatitude();
+                anchorLongitude = loc.getLongitude();
+                anchorTime = time;
+                lastMoving = time;
+                continue;
+            }
+
+            float speed = (loc.hasSpeed() && loc.getAccuracy() <= MAX_SPEED_ACCURACY) ? loc.getSpeed() : 0;
+            Location.distanceBetween(anchorLatitude, anchorLongitude, loc.getLatitude(), loc.getLongitude(), distance);
+            if (distance[0] > Math.max(STILL_RADIUS, 2 * loc.getAccuracy())) {
+                if (time > anchorTime)
+                    speed = Math.max(speed, distance[0] * 1000 / (time - anchorTime));
+
+                anchorLatitude = loc.getLatitude();
+                anchorLongitude = loc.getLongitude();
+                anchorTime = time;
+                lastMoving = Math.max(lastMoving, time);
+            }
+
+            if (speed >= WALKING_SPEED)
+                lastMoving = Math.max(lastMoving, time);
+            if (speed >= DRIVING_SPEED)
+                lastDriving = Math.max(lastDriving, time);
+        }
+
+        prefs.edit()
+                .putLong(KEY_ANCHOR_LATITUDE, Double.doubleToRawLongBits(anchorLatitude))
+                .putLong(KEY_ANCHOR_LONGITUDE, Double.doubleToRawLongBits(anchorLongitude))
+                .putLong(KEY_ANCHOR_TIME, anchorTime)
+                .putLong(KEY_LAST_MOVING, lastMoving)
+                .putLong(KEY_LAST_DRIVING, lastDriving)
+                .apply();
+
+        long now = System.currentTimeMillis();
+        int profile;
+        if (now - lastDriving < DRIVING_HOLD)
+            profile = PROFILE_DRIVING;
+        else if (now - lastMoving < WALKING_HOLD)
+            profile = PROFILE_WALKING;
+        else if (now - lastMoving < STATIONARY_HOLD || !config.useGeoFences)
+            profile = PROFILE_STATIONARY;
+        else
+            profile = PROFILE_GEOFENCE_ONLY;
+
+        return switchProfile(ctx, config, profile);
+    }
+
+    /**
+     * Called when the device is known to have moved, e.g. it has left a geofence. Switches to at
+     * least the walking profile.
+     *
+     * @param ctx - the context
+     * @param config - the config
+     * @param location - where the movement was seen, if known
+     * @return the profile now in use
+     */
+    public static synchronized int onMovement(@NonNull Context ctx, @NonNull TesConfig config, Location location) {
+        return switchProfile(ctx, config, markMoving(ctx, location));
+    }
+
+    /**
+     * Called when parked location updates are about to be requested again because the device has
+     * moved. Switches to at least the walking profile but leaves the request to the caller.
+     *
+     * @param ctx - the context
+     * @param location - where the movement was seen, if known
+     * @return the profile to request updates with
+     */
+    static synchronized int onResume(@NonNull Context ctx, Location location) {
+        int profile = markMoving(ctx, location);
+        getPrefs(ctx).edit().putInt(KEY_PROFILE, profile).apply();
+        return profile;
+    }
+
+    /**
+     * Forgets the motion state, e.g. when location updates are stopped.
+     *
+     * @param ctx - the context
+     */
+    public static synchronized void reset(@NonNull Context ctx) {
+        getPrefs(ctx).edit().clear().apply();
+    }
+
+    /**
+     * records movement now, at the given location if known
+     * @return the current profile, at least walking
+     */
+    private static int markMoving(Context ctx, Location location) {
+        SharedPreferences prefs = getPrefs(ctx);
+        long now = System.currentTimeMillis();
+        SharedPreferences.Editor editor = prefs.edit().putLong(KEY_LAST_MOVING, now);
+        if (location != null) {
+            editor.putLong(KEY_ANCHOR_LATITUDE, Double.doubleToRawLongBits(location.getLatitude()))
+                    .putLong(KEY_ANCHOR_LONGITUDE, Double.doubleToRawLongBits(location.getLongitude()))
+                    .putLong(KEY_ANCHOR_TIME, location.getTime());
+        }
+        editor.apply();
+
+        return Math.min(getProfile(ctx), PROFILE_WALKING);
+    }
+
+    /**
+     * swaps the request if the profile has changed. Requesting updates with the same pending
+     * intent replaces the existing request. If updates are stopped or parked the profile is only
+     * saved, e.g. for a batch still in flight when JS stopped updates, and is used when they are
+     * next requested.
+     */
+    @SuppressWarnings("MissingPermission")
+    private static int switchProfile(Context ctx, TesConfig config, int profile) {
+        SharedPreferences prefs = getPrefs(ctx);
+        int current = prefs.getInt(KEY_PROFILE, PROFILE_DRIVING);
+        if (profile == current)
+            return current;
+
+        if (!TesLocationMgr.isRequested(ctx) || TesStationaryMonitor.isStationary(ctx)) {
+            TesLog.d(TAG, "Location updates not active - saving profile %d without a request", profile);
+            prefs.edit().putInt(KEY_PROFILE, profile).apply();
+            return profile;
+        }
+
+        TesLog.i(TAG, "Switching location profile %d -> %d", current, profile);
+        try {
+            TesLocationSources.getLocationSource(ctx)
+                    .requestLocationUpdates(buildRequest(config, profile), TesLocationMgr.getLocationUpdatesPendingIntent(ctx));
+        } catch (SecurityException e) {
+            TesLog.e(TAG, "No permission to change location request", e);
+            return current;
+        }
+
+        prefs.edit().putInt(KEY_PROFILE, profile).apply();
+        return profile;
+    }
+
+    private static SharedPreferences getPrefs(Context ctx) {
+        return ctx.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+}
@@ -0,0 +1,90 @@
+//  Copyright © 2012-2018 3 Electric Sheep Pty Ltd. All rights reserved.
+//
+//  The Welcome Interruption Software Development Kit (SDK) is licensed to you subject to the terms
+//  of the License Agreement. The License Agreement forms a legally binding contract between you and
+//  3 Electric Sheep Pty Ltd in relation to your use of the Welcome Interruption SDK.
+//  You may not use this file except in compliance with the License Agreement.
+//
+//  A copy of the License Agreement can be found in the LICENSE file in the root directory of this
+//  source tree.
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License
+//  Agreement is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+//  express or implied. See the License Agreement for the specific language governing permissions
+//  and limitations under the License Agreement.
+
+package com.welcomeinterruption.rnwisdk;
+
+import android.app.PendingIntent;
+import android.content.Context;
+import android.location.Location;
+import android.support.annotation.NonNull;
+
+import com.google.android.gms.location.FusedLocationProviderClient;
+import com.google.android.gms.location.Geofence;
+import com.google.android.gms.location.GeofencingClient;
+import com.google.android.gms.location.GeofencingRequest;
+import com.google.android.gms.location.LocationRequest;
+import com.google.android.gms.location.LocationServices;
+import com.google.android.gms.tasks.Task;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Location and geofences from Play Services, the default source
+ */
+public class TesPlayServicesSource implements TesLocationSource, TesGeofenceSource {
+    private final FusedLocationProviderClient mFusedLocationClient;
+    private final GeofencingClient mGeofencingClient;
+
+    public TesPlayServicesSource(@NonNull Context ctx) {
+        mFusedLocationClient = LocationServices.getFusedLocationProviderClient(ctx);
+        mGeofencingClient = LocationServices.getGeofencingClient(ctx);
+    }
+
+    @SuppressWarnings("MissingPermission")
+    @Override
+    public @NonNull Task<Location> getLastLocation() {
+        return mFusedLocationClient.getLastLocation();
+    }
+
+    @SuppressWarnings("MissingPermission")
+    @Override
+    public @NonNull Task<Void> requestLocationUpdates(@NonNull LocationRequest request, @NonNull PendingIntent intent) {
+        return mFusedLocationClient.requestLocationUpdates(request, intent);
+    }
+
+    @Override
+    public @NonNull Task<Void> removeLocationUpdates(@NonNull PendingIntent intent) {
+        return mFusedLocationClient.removeLocationUpdates(intent);
+    }
+
+    @SuppressWarnings("MissingPermission")
+    @Override
+    public @NonNull Task<Void> addGeofences(@NonNull List<TesGeofenceInfo> geofences, int initialTrigger, @NonNull PendingIntent intent) {
+        List<Geofence> geofenceList = new ArrayList<>(geofences.size());
+        for (TesGeofenceInfo info : geofences) {
+            geofenceList.add(info.toGeofence());
+        }
+
+        // The INITIAL_TRIGGER_ENTER flag indicates that geofencing service should trigger a
+        // GEOFENCE_TRANSITION_ENTER notification when the geofence is added and if the device
+        // is already inside that geofence.
+        GeofencingRequest request = new GeofencingRequest.Builder()
+                .setInitialTrigger(initialTrigger)
+                .addGeofences(geofenceList)
+                .build();
+        return mGeofencingClient.addGeofences(request, intent);
+    }
+
+    @Override
+    public @NonNull Task<Void> removeGeofences(@NonNull List<String> ids) {
+        return mGeofencingClient.removeGeofences(ids);
+    }
+
+    @Override
+    public @NonNull Task<Void> removeGeofences(@NonNull PendingIntent intent) {
+        return mGeofencingClient.removeGeofences(intent);
+    }
+}
@@ -0,0 +1,204 @@
+//  Copyright © 2012-2018 3 Electric Sheep Pty Ltd. All rights reserved.
+//
+//  The Welcome Interruption Software Development Kit (SDK) is licensed to you subject to the terms
+//  of the License Agreement. The License Agreement forms a legally binding contract between you and
+//  3 Electric Sheep Pty Ltd in relation to your use of the Welcome Interruption SDK.
+//  You may not use this file except in compliance with the License Agreement.
+//
+//  A copy of the License Agreement can be found in the LICENSE file in the root directory of this
+//  source tree.
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License
+//  Agreement is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+//  express or implied. See the License Agreement for the specific language governing permissions
+//  and limitations under the License Agreement.
+
+package com.welcomeinterruption.rnwisdk;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.PowerManager;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.google.android.gms.location.LocationRequest;
+
+import org.json.JSONException;
+
+import androidx.work.NetworkType;
+
+/**
+ * Named power profiles. A profile sets the location request, the geofence responsiveness and the
+ * job constraints together, so the subsystems don't pull against each other (e.g. a slow location
+ * request whose batches are each reported by an immediate job).
+ * <ul>
+ *     <li>{@link #REALTIME} - frequent high accuracy fixes, reported straight away</li>
+ *     <li>{@link #BALANCED} - block level accuracy every few minutes, batched</li>
+ *     <li>{@link #LOW_POWER} - city level accuracy, long batches and delayed jobs so wakeups
+ *     are coalesced</li>
+ * </ul>
+ * The profile is set with {@link TesConfig#powerProfile}. With {@link TesConfig#powerProfileAuto}
+ * the low power profile is used whenever battery saver is on or the battery is low, see
+ * {@link RNPowerStateReceiver}. An empty or unknown profile leaves the individual settings alone.
+ * <p>
+ * The profile is applied to a copy of the saved config by {@link TesConfigStore#get}, never to the
+ * config set from JS, so a switch is seen everywhere the config is next read.
+ */
+public class TesPowerProfile {
+    private static final String TAG = "TesPowerProfile";
+
+    public static final String REALTIME = "realtime";
+    public static final String BALANCED = "balanced";
+    public static final String LOW_POWER = "low-power";
+
+    private static final String PREFS_NAME = "wisdk_power";
+    private static final String KEY_ACTIVE = "active";
+
+    private static final int LOW_BATTERY_PERCENT = 15;
+
+    /**
+     * @param profile - profile name
+     * @return true if the name is one of the profiles
+     */
+    public static boolean isProfile(@Nullable String profile) {
+        return REALTIME.equals(profile) || BALANCED.equals(profile) || LOW_POWER.equals(profile);
+    }
+
+    /**
+     * Overwrites the location, geofence and job settings of a config with those of a profile.
+     * {@link TesConfig#powerProfile} itself is left as is.
+     *
+     * @param config - the config to update
+     * @param profile - profile name, does nothing if it isn't a profile
+     */
+    public static void applyTo(@NonNull TesConfig config, @Nullable String profile) {
+        if (REALTIME.equals(profile)) {
+            config.locUpdateInterval = 60 * 1000;           // 1 min
+            config.locFastestUpdateInterval = 10 * 1000;    // 10 sec
+            config.locMaxWaitTime = 60 * 1000;              // 1 min
+            config.locPriorityAccuracy = LocationRequest.PRIORITY_HIGH_ACCURACY;
+            config.geoResponsiveness = 0;
+            config.delay = 0;
+            config.deadline = 60;
+            config.networkType = NetworkType.CONNECTED.ordinal();
+            config.requireCharging = false;
+            config.requireIdle = false;
+        }
+        else if (BALANCED.equals(profile)) {
+            config.locUpdateInterval = 5 * 60 * 1000;       // 5 min
+            config.locFastestUpdateInterval = 30 * 1000;    // 30 sec
+            config.locMaxWaitTime = 15 * 60 * 1000;         // 15 min
+            config.locPriorityAccuracy = LocationRequest.PRIORITY_BALANCED_POWER_ACCURACY;
+            config.geoResponsiveness = 60 * 1000;           // 1 min
+            config.delay = 0;
+            config.deadline = 5 * 60;
+            config.networkType = NetworkType.CONNECTED.ordinal();
+            config.requireCharging = false;
+            config.requireIdle = false;
+        }
+        else if (LOW_POWER.equals(profile)) {
+            config.locUpdateInterval = 15 * 60 * 1000;      // 15 min
+            config.locFastestUpdateInterval = 5 * 60 * 1000; // 5 min
+            config.locMaxWaitTime = 60 * 60 * 1000;         // 60 min
+            config.locPriorityAccuracy = LocationRequest.PRIORITY_LOW_POWER;
+            config.geoResponsiveness = 5 * 60 * 1000;       // 5 min
+            config.delay = 5 * 60;
+            config.deadline = 30 * 60;
+            config.networkType = NetworkType.CONNECTED.ordinal();
+            config.requireCharging = false;
+            config.requireIdle = false;
+        }
+    }
+
+    /**
+     * @param ctx - context used to read the power state
+     * @param config - the config
+     * @return the profile that should be in use, null if none
+     */
+    public static @Nullable String getActive(@NonNull Context ctx, @NonNull TesConfig config) {
+        return getActive(config, config.powerProfileAuto && isPowerConstrained(ctx));
+    }
+
+    /**
+     * @param config - the config
+     * @param constrained - whether the device is power constrained, see {@link #isPowerConstrained}
+     * @return the profile that should be in use, null if none
+     */
+    public static @Nullable String getActive(@NonNull TesConfig config, boolean constrained) {
+        if (config.powerProfileAuto && constrained)
+            return LOW_POWER;
+
+        return isProfile(config.powerProfile) ? config.powerProfile : null;
+    }
+
+    /**
+     * @param ctx - the context
+     * @return true if battery saver is on, or the battery is low and not charging
+     */
+    public static boolean isPowerConstrained(@NonNull Context ctx) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            PowerManager pm = (PowerManager) ctx.getSystemService(Context.POWER_SERVICE);
+            if (pm != null && pm.isPowerSaveMode())
+                return true;
+        }
+
+        // sticky broadcast, nothing is actually registered
+        Intent battery = ctx.getApplicationContext().registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        if (battery == null)
+            return false;
+
+        int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+        int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+        boolean plugged = battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+        return !plugged && level >= 0 && scale > 0 && level * 100 <= LOW_BATTERY_PERCENT * scale;
+    }
+
+    /**
+     * Called when battery saver or the battery level changes. If that changes the active profile
+     * the location request is replaced. Geofences pick up the new responsiveness the next time
+     * they are synced, and jobs the next time one is scheduled.
+     *
+     * @param ctx - the context
+     */
+    @SuppressWarnings("MissingPermission")
+    public static synchronized void onPowerStateChanged(@NonNull Context ctx) {
+        // updated first so the config below has the new profile applied
+        boolean constrained = isPowerConstrained(ctx);
+        TesConfigStore.setPowerConstrained(constrained);
+
+        TesConfig config;
+        try {
+            config = TesConfig.getSavedConfig(ctx);
+        } catch (JSONException e) {
+            TesLog.e(TAG, "Unable to load config", e);
+            return;
+        }
+
+        String active = getActive(config, constrained);
+        SharedPreferences prefs = ctx.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        String last = prefs.getString(KEY_ACTIVE, null);
+        if (active == null ? last == null : active.equals(last))
+            return;
+
+        TesLog.i(TAG, "Switching power profile %s -> %s", last, active);
+        prefs.edit().putString(KEY_ACTIVE, active).apply();
+
+        // parked updates are requested with the new settings when they resume
+        if (!TesLocationMgr.isRequested(ctx) || TesStationaryMonitor.isStationary(ctx))
+            return;
+
+        LocationRequest request = config.locAdaptive
+                ? TesMotionController.buildRequest(config, TesMotionController.getProfile(ctx))
+                : TesMotionController.buildRequest(config, TesMotionController.PROFILE_DRIVING);
+        try {
+            TesLocationSources.getLocationSource(ctx)
+                    .requestLocationUpdates(request, TesLocationMgr.getLocationUpdatesPendingIntent(ctx));
+        } catch (SecurityException e) {
+            TesLog.e(TAG, "No permission to change location request", e);
+        }
+    }
+}
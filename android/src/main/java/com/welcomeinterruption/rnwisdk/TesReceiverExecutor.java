@@ -0,0 +1,333 @@
+//  Copyright © 2012-2018 3 Electric Sheep Pty Ltd. All rights reserved.
+//
+//  The Welcome Interruption Software Development Kit (SDK) is licensed to you subject to the terms
+//  of the License Agreement. The License Agreement forms a legally binding contract between you and
+//  3 Electric Sheep Pty Ltd in relation to your use of the Welcome Interruption SDK.
+//  You may not use this file except in compliance with the License Agreement.
+//
+//  A copy of the License Agreement can be found in the LICENSE file in the root directory of this
+//  source tree.
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License
+//  Agreement is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+//  express or implied. See the License Agreement for the specific language governing permissions
+//  and limitations under the License Agreement.
+
+
+package com.welcomeinterruption.rnwisdk;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs broadcast receiver work off the main thread.
+ * <p>
+ * The receiver calls {@link BroadcastReceiver#goAsync} and the work is run on a single shared
+ * background thread, so events are handled one at a time in the order they were received, as they
+ * were on the main thread. The location filter drops fixes that arrive out of order, so the order
+ * matters.
+ * <p>
+ * The queue is unbounded so onReceive never waits for the thread. That is safe because each queued
+ * event is a single small broadcast, they arrive at most every few seconds (location batches and
+ * geofence transitions), and an event still queued at the deadline is moved out of memory into
+ * its inbox.
+ * <p>
+ * While the broadcast is pending the process is kept alive, so an event only needs saving if it
+ * is still waiting or being handled at {@link #DEADLINE}. It is then saved to its receiver's inbox
+ * journal ({@link TesEventJournal#LOCATION_INBOX}, {@link TesEventJournal#GEOFENCE_INBOX}) on a
+ * second background thread, the broadcast is finished, and the work carries on. Once handled the
+ * saved event is committed. Events saved but not handled when the process dies are handled by the
+ * first receiver task in the next process, see {@link #recoverOnce}. Events handled in time never
+ * touch the inbox, and nothing is done on the main thread but the handoff.
+ */
+public class TesReceiverExecutor {
+    private static final String TAG = "TesReceiverExecutor";
+
+    /**
+     * time the work has before the event is saved and the broadcast finished, in ms. Inside the
+     * 10 sec limit for foreground broadcasts, leaving time to save.
+     */
+    static final long DEADLINE = 8000;
+
+    /**
+     * An event handed off by a receiver
+     */
+    abstract static class Event {
+        /**
+         * Handles the event, on the executor thread
+         */
+        abstract void handle();
+
+        /**
+         * Saves the event to the inbox, on the spill thread. Only called if the event is still
+         * waiting or being handled at the deadline.
+         *
+         * @param inbox - the receiver's inbox
+         * @return the inbox write position after the event, -1 if it can't be saved
+         */
+        abstract long save(@NonNull TesEventJournal inbox);
+    }
+
+    private static final Handler sHandler = new Handler(Looper.getMainLooper());
+
+    private static final ThreadPoolExecutor sExecutor = newExecutor(TAG);
+    private static final ThreadPoolExecutor sSpillExecutor = newExecutor(TAG + "Spill");
+
+    /**
+     * inbox write position when each inbox was first opened in this process. Events before it were
+     * left by an earlier process. Guarded by the class.
+     */
+    private static final Map<String, Long> sOpenedAt = new HashMap<>();
+
+    /**
+     * inboxes already checked for events left by an earlier process, only used on the executor thread
+     */
+    private static final Set<String> sRecovered = new HashSet<>();
+
+    /**
+     * Runs a receiver's event in the background. Must be called from onReceive.
+     *
+     * @param receiver - the receiver, whose broadcast is finished once the event is handled or saved
+     * @param ctx - the application context
+     * @param inboxName - the receiver's inbox
+     * @param event - the event
+     */
+    public static void execute(@NonNull BroadcastReceiver receiver, @NonNull Context ctx, @NonNull String inboxName, @NonNull Event event) {
+        // null if onReceive was called directly rather than for a broadcast
+        BroadcastReceiver.PendingResult result = receiver.goAsync();
+        Task task = new Task(ctx, inboxName, event, result, receiver.getClass().getSimpleName());
+        sHandler.postDelayed(task.deadline, DEADLINE);
+        sExecutor.execute(task);
+        prepare(ctx, inboxName);
+    }
+
+    /**
+     * Checks an inbox for events left by an earlier process, the first time it is called for the
+     * inbox. Must be called on the executor thread, before handling any event from the inbox.
+     *
+     * @param ctx - the context
+     * @param name - the inbox name
+     * @param end - set to the end of the events to recover
+     * @return the inbox if it holds events saved by an earlier process, to read up to end[0] and
+     * then {@link TesEventJournal#commit} once handled. Null if there is nothing to recover. An
+     * event that was part way through being handled when the process died is handled again.
+     */
+    static @Nullable TesEventJournal recoverOnce(@NonNull Context ctx, @NonNull String name, @NonNull long[] end) {
+        if (!sRecovered.add(name))
+            return null;
+
+        try {
+            TesEventJournal inbox = openInbox(ctx, name);
+            synchronized (TesReceiverExecutor.class) {
+                end[0] = sOpenedAt.get(name);
+            }
+            if (inbox.getReadSeq() >= end[0])
+                return null;
+
+            TesLog.w(TAG, "%d records left in %s by an earlier process - recovering", end[0] - inbox.getReadSeq(), name);
+            return inbox;
+        } catch (IOException e) {
+            TesLog.e(TAG, "Unable to open inbox", e);
+            return null;
+        }
+    }
+
+    /**
+     * Waits for the work queued so far to be done. For tests and harnesses.
+     *
+     * @param timeout - max time to wait, in ms
+     * @return true if the work was done in time
+     * @throws InterruptedException if interrupted while waiting
+     */
+    static boolean awaitIdle(long timeout) throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        });
+        return done.await(timeout, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * opens and maps an inbox on the spill thread the first time it's used, so neither the main
+     * thread nor a deadline has to wait for it
+     */
+    private static void prepare(final Context ctx, final String name) {
+        synchronized (TesReceiverExecutor.class) {
+            if (sOpenedAt.containsKey(name))
+                return;
+        }
+        sSpillExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    openInbox(ctx, name);
+                } catch (IOException e) {
+                    TesLog.e(TAG, "Unable to open inbox", e);
+                }
+            }
+        });
+    }
+
+    private static synchronized TesEventJournal openInbox(Context ctx, String name) throws IOException {
+        TesEventJournal inbox = TesEventJournal.getInstance(ctx, name);
+        if (!sOpenedAt.containsKey(name))
+            sOpenedAt.put(name, inbox.getWriteSeq());
+        return inbox;
+    }
+
+    private static ThreadPoolExecutor newExecutor(final String name) {
+        return new ThreadPoolExecutor(1, 1,
+                0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(@NonNull final Runnable r) {
+                        return new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                                r.run();
+                            }
+                        }, name);
+                    }
+                });
+    }
+
+    /**
+     * An event on its way through the executor. Handled on the executor thread, and saved on the
+     * spill thread if it isn't handled by the deadline.
+     */
+    private static final class Task implements Runnable {
+        private static final int PENDING = 0;
+        private static final int RUNNING = 1;
+        private static final int DONE = 2;
+
+        private final Context ctx;
+        private final String inboxName;
+        private final Event event;
+        private final @Nullable BroadcastReceiver.PendingResult result;
+        private final String name;
+        private final AtomicBoolean finished = new AtomicBoolean(false);
+
+        // guarded by this
+        private int state = PENDING;
+        private long savedTo = -1;
+
+        final Runnable deadline = new Runnable() {
+            @Override
+            public void run() {
+                onDeadline();
+            }
+        };
+
+        Task(Context ctx, String inboxName, Event event, @Nullable BroadcastReceiver.PendingResult result, String name) {
+            this.ctx = ctx;
+            this.inboxName = inboxName;
+            this.event = event;
+            this.result = result;
+            this.name = name;
+        }
+
+        @Override
+        public void run() {
+            synchronized (this) {
+                state = RUNNING;
+            }
+            try {
+                event.handle();
+            } catch (RuntimeException e) {
+                TesLog.e(name, "Work failed", e);
+            } finally {
+                sHandler.removeCallbacks(deadline);
+                long commitTo;
+                synchronized (this) {
+                    state = DONE;
+                    commitTo = savedTo;
+                }
+                if (commitTo >= 0)
+                    commit(commitTo);
+                finish();
+            }
+        }
+
+        /**
+         * called on the main thread at the deadline
+         */
+        private void onDeadline() {
+            synchronized (this) {
+                if (state == DONE)
+                    return;
+            }
+            TesLog.w(TAG, "%s work past deadline - saving to inbox", name);
+            TesMetrics.error(TesJobDispatcher.ERROR_RECEIVER_DEADLINE);
+            sSpillExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    spill();
+                }
+            });
+        }
+
+        /**
+         * saves the event, then finishes the broadcast. Spills run in deadline order, which is the
+         * order the events are handled in, so the inbox is committed in order.
+         */
+        private void spill() {
+            try {
+                synchronized (this) {
+                    if (state == DONE)
+                        return;
+                }
+
+                TesEventJournal inbox = openInbox(ctx, inboxName);
+                long to = event.save(inbox);
+                boolean done;
+                synchronized (this) {
+                    done = state == DONE;
+                    savedTo = to;
+                }
+                // handled while it was being saved
+                if (done && to >= 0)
+                    inbox.commit(to);
+            } catch (IOException e) {
+                TesLog.e(TAG, "Unable to open inbox", e);
+            } finally {
+                finish();
+            }
+        }
+
+        private void commit(long to) {
+            try {
+                openInbox(ctx, inboxName).commit(to);
+            } catch (IOException e) {
+                TesLog.e(TAG, "Unable to commit inbox", e);
+            }
+        }
+
+        private void finish() {
+            if (finished.compareAndSet(false, true) && result != null)
+                result.finish();
+        }
+    }
+}
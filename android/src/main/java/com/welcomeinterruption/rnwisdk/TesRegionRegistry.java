@@ -0,0 +1,440 @@
+//  Copyright © 2012-2018 3 Electric Sheep Pty Ltd. All rights reserved.
+//
+//  The Welcome Interruption Software Development Kit (SDK) is licensed to you subject to the terms
+//  of the License Agreement. The License Agreement forms a legally binding contract between you and
+//  3 Electric Sheep Pty Ltd in relation to your use of the Welcome Interruption SDK.
+//  You may not use this file except in compliance with the License Agreement.
+//
+//  A copy of the License Agreement can be found in the LICENSE file in the root directory of this
+//  source tree.
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License
+//  Agreement is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+//  express or implied. See the License Agreement for the specific language governing permissions
+//  and limitations under the License Agreement.
+
+package com.welcomeinterruption.rnwisdk;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.location.Location;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Full set of regions to monitor, of which only the nearest are registered with the OS at a time.
+ * <p>
+ * Regions are bucketed in a fixed lat/lng grid so the nearest regions to a point can be found by
+ * searching outwards ring by ring from the cell the point is in, without looking at the whole
+ * set. The set is persisted to a file so it is available to the receivers when the app is not
+ * running. The state of the last rotation (what is registered and where the refresh fence is)
+ * is kept in shared preferences. Rotations in progress and failures are tracked in memory so the
+ * receivers don't start another rotation while one is in flight, and back off after a failure.
+ * <p>
+ * Grid cells don't wrap at the antimeridian, so regions just across it are found late.
+ */
+public class TesRegionRegistry {
+    private static final String TAG = "TesRegionRegistry";
+
+    /**
+     * geofence id of the fence around the rotation point. Leaving it triggers the next rotation.
+     */
+    public static final String REFRESH_GEOFENCE_ID = "wisdk_refresh";
+
+    /**
+     * prefix on the geofence ids of registry regions, so they can be told apart from geofences
+     * added directly with addGeofences
+     */
+    public static final String REGION_PREFIX = "wr_";
+
+    private static final String REGIONS_FILE = "wisdk_regions.dat";
+    private static final int MAGIC = 0x57495247; // "WIRG"
+    private static final int VERSION = 1;
+
+    private static final String PREFS_NAME = "wisdk_regions";
+    private static final String KEY_ACTIVE_IDS = "activeIds";
+    private static final String KEY_REFRESH_LATITUDE = "refreshLatitude";
+    private static final String KEY_REFRESH_LONGITUDE = "refreshLongitude";
+    private static final String KEY_REFRESH_RADIUS = "refreshRadius";
+
+    private static final long MIN_RETRY_DELAY = 30 * 1000;         // 30 sec
+    private static final long MAX_RETRY_DELAY = 30 * 60 * 1000;    // 30 min
+
+    private static final double CELL_DEGREES = 0.05;
+    private static final double METERS_PER_DEGREE = 111320.0;
+
+    private static TesRegionRegistry sInstance = null;
+
+    /**
+     * A region to monitor
+     */
+    public static class Region {
+        public final @NonNull String id;
+        public final double latitude;
+        public final double longitude;
+        public final float radius; // meters, < 0 implies config default
+
+        public Region(@NonNull String id, double latitude, double longitude, float radius) {
+            this.id = id;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.radius = radius;
+        }
+    }
+
+    private final File mFile;
+    private final SharedPreferences mPrefs;
+
+    private final List<Region> mRegions = new ArrayList<>();
+    private final Map<Long, List<Region>> mCells = new HashMap<>();
+    private int mMinLatIndex, mMaxLatIndex, mMinLngIndex, mMaxLngIndex;
+
+    private int mRotating = 0;
+    private int mFailures = 0;
+    private long mRetryAt = 0; // elapsed realtime
+
+    /**
+     * Gets the registry, loading the saved regions if required.
+     *
+     * @param ctx - context used to locate the files
+     * @return the registry
+     */
+    public static synchronized @NonNull TesRegionRegistry getInstance(@NonNull Context ctx) {
+        if (sInstance == null) {
+            Context appCtx = ctx.getApplicationContext();
+            sInstance = new TesRegionRegistry(new File(appCtx.getFilesDir(), REGIONS_FILE),
+                    appCtx.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE));
+        }
+        return sInstance;
+    }
+
+    TesRegionRegistry(@NonNull File file, @NonNull SharedPreferences prefs) {
+        mFile = file;
+        mPrefs = prefs;
+        try {
+            index(load());
+        } catch (IOException e) {
+            TesLog.e(TAG, "Unable to load saved regions", e);
+        }
+    }
+
+    /**
+     * @param geofenceId - geofence request id
+     * @return true if this is the refresh fence
+     */
+    public static boolean isRefreshGeofence(@NonNull String geofenceId) {
+        return REFRESH_GEOFENCE_ID.equals(geofenceId);
+    }
+
+    /**
+     * @param geofenceId - geofence request id
+     * @return the region id for a registry geofence, or the geofence id unchanged for any other geofence
+     */
+    public static @NonNull String toRegionId(@NonNull String geofenceId) {
+        return geofenceId.startsWith(REGION_PREFIX) ? geofenceId.substring(REGION_PREFIX.length()) : geofenceId;
+    }
+
+    /**
+     * Replaces the regions being monitored and saves them. The next location update will rotate
+     * the registered geofences.
+     *
+     * @param regions - all regions to monitor
+     * @throws IOException if the regions can't be saved
+     */
+    public synchronized void setRegions(@NonNull List<Region> regions) throws IOException {
+        save(regions);
+        index(regions);
+        resetRefresh();
+    }
+
+    /**
+     * @return number of regions in the registry
+     */
+    public synchronized int size() {
+        return mRegions.size();
+    }
+
+    /**
+     * Finds the regions nearest to a point
+     *
+     * @param latitude - latitude of the point
+     * @param longitude - longitude of the point
+     * @param k - max number of regions to return
+     * @return up to k regions ordered by the distance of their center from the point
+     */
+    public synchronized @NonNull List<Region> nearest(final double latitude, final double longitude, int k) {
+        List<Region> candidates = new ArrayList<>();
+        if (k <= 0 || mRegions.isEmpty())
+            return candidates;
+
+        final double cosLat = Math.cos(Math.toRadians(latitude));
+        Comparator<Region> byDistance = new Comparator<Region>() {
+            @Override
+            public int compare(Region lhs, Region rhs) {
+                return Double.compare(distanceSquared(latitude, longitude, cosLat, lhs),
+                        distanceSquared(latitude, longitude, cosLat, rhs));
+            }
+        };
+
+        if (mRegions.size() <= k) {
+            candidates.addAll(mRegions);
+            Collections.sort(candidates, byDistance);
+            return candidates;
+        }
+
+        int latIndex = latIndex(latitude);
+        int lngIndex = lngIndex(longitude);
+        int maxRing = Math.max(Math.max(Math.abs(latIndex - mMinLatIndex), Math.abs(latIndex - mMaxLatIndex)),
+                Math.max(Math.abs(lngIndex - mMinLngIndex), Math.abs(lngIndex - mMaxLngIndex)));
+
+        // a cell in ring r+1 is at least r cells away. Cells are narrowest in the east/west direction
+        // on the poleward side of the point.
+        double cosEdge = Math.cos(Math.toRadians(Math.min(90, Math.abs(latitude) + 1)));
+        double cellMeters = CELL_DEGREES * METERS_PER_DEGREE * Math.max(cosEdge, 0.01);
+
+        for (int ring = 0; ring <= maxRing; ring++) {
+            for (int dLat = -ring; dLat <= ring; dLat++) {
+                int step = (Math.abs(dLat) == ring) ? 1 : Math.max(1, 2 * ring);
+                for (int dLng = -ring; dLng <= ring; dLng += step) {
+                    List<Region> cell = mCells.get(cellKey(latIndex + dLat, lngIndex + dLng));
+                    if (cell != null)
+                        candidates.addAll(cell);
+                }
+            }
+
+            if (candidates.size() >= k) {
+                Collections.sort(candidates, byDistance);
+                double kth = Math.sqrt(distanceSquared(latitude, longitude, cosLat, candidates.get(k - 1)));
+                if (kth <= ring * cellMeters)
+                    break;
+            }
+        }
+
+        Collections.sort(candidates, byDistance);
+        return new ArrayList<>(candidates.subList(0, Math.min(k, candidates.size())));
+    }
+
+    /**
+     * distance in meters between a point and the center of a region
+     */
+    public static double distance(double latitude, double longitude, @NonNull Region region) {
+        return Math.sqrt(distanceSquared(latitude, longitude, Math.cos(Math.toRadians(latitude)), region));
+    }
+
+    /**
+     * @return geofence ids registered by the last rotation
+     */
+    public synchronized @NonNull Set<String> getActiveIds() {
+        return new HashSet<>(mPrefs.getStringSet(KEY_ACTIVE_IDS, Collections.<String>emptySet()));
+    }
+
+    /**
+     * Records the result of a rotation
+     *
+     * @param ids - geofence ids now registered
+     * @param latitude - latitude of the rotation point
+     * @param longitude - longitude of the rotation point
+     * @param refreshRadius - radius of the refresh fence, 0 if there is none
+     */
+    public synchronized void setActive(@NonNull Set<String> ids, double latitude, double longitude, float refreshRadius) {
+        mPrefs.edit()
+                .putStringSet(KEY_ACTIVE_IDS, new HashSet<>(ids))
+                .putLong(KEY_REFRESH_LATITUDE, Double.doubleToRawLongBits(latitude))
+                .putLong(KEY_REFRESH_LONGITUDE, Double.doubleToRawLongBits(longitude))
+                .putFloat(KEY_REFRESH_RADIUS, refreshRadius)
+                .apply();
+    }
+
+    /**
+     * Forgets the last rotation, e.g. after all geofences have been removed. The next location
+     * update will rotate the registered geofences.
+     */
+    public synchronized void resetActive() {
+        mPrefs.edit()
+                .remove(KEY_ACTIVE_IDS)
+                .remove(KEY_REFRESH_LATITUDE)
+                .remove(KEY_REFRESH_LONGITUDE)
+                .remove(KEY_REFRESH_RADIUS)
+                .apply();
+    }
+
+    /**
+     * Checks whether a location has moved out of the area covered by the last rotation. This
+     * catches the case where the refresh fence exit is missed or delayed.
+     *
+     * @param loc - the current location
+     * @return true if the registered regions should be rotated
+     */
+    public synchronized boolean needsRotation(@NonNull Location loc) {
+        if (mRegions.isEmpty())
+            return false;
+
+        if (!mPrefs.contains(KEY_REFRESH_RADIUS))
+            return true;
+
+        float refreshRadius = mPrefs.getFloat(KEY_REFRESH_RADIUS, 0);
+        if (refreshRadius <= 0)
+            return false; // everything is registered
+
+        double refreshLatitude = Double.longBitsToDouble(mPrefs.getLong(KEY_REFRESH_LATITUDE, 0));
+        double refreshLongitude = Double.longBitsToDouble(mPrefs.getLong(KEY_REFRESH_LONGITUDE, 0));
+        float[] distance = new float[1];
+        Location.distanceBetween(refreshLatitude, refreshLongitude, loc.getLatitude(), loc.getLongitude(), distance);
+        return distance[0] > refreshRadius;
+    }
+
+    /**
+     * @return true if no rotation is in flight and the last one didn't fail recently
+     */
+    public synchronized boolean canRotate() {
+        return mRotating == 0 && SystemClock.elapsedRealtime() >= mRetryAt;
+    }
+
+    /**
+     * Records that a rotation has been started
+     */
+    public synchronized void onRotationStarted() {
+        mRotating++;
+    }
+
+    /**
+     * Records the end of a rotation. After a failure further rotations are held off for a delay
+     * that doubles with each failure in a row.
+     *
+     * @param success - true if the geofences were updated
+     */
+    public synchronized void onRotationFinished(boolean success) {
+        if (mRotating > 0)
+            mRotating--;
+
+        if (success) {
+            mFailures = 0;
+            mRetryAt = 0;
+            return;
+        }
+
+        long delay = MIN_RETRY_DELAY << Math.min(mFailures, 16);
+        mFailures++;
+        mRetryAt = SystemClock.elapsedRealtime() + Math.min(delay, MAX_RETRY_DELAY);
+    }
+
+    private void resetRefresh() {
+        mPrefs.edit()
+                .remove(KEY_REFRESH_LATITUDE)
+                .remove(KEY_REFRESH_LONGITUDE)
+                .remove(KEY_REFRESH_RADIUS)
+                .apply();
+    }
+
+    private static double distanceSquared(double latitude, double longitude, double cosLat, Region region) {
+        double dx = (region.longitude - longitude) * cosLat * METERS_PER_DEGREE;
+        double dy = (region.latitude - latitude) * METERS_PER_DEGREE;
+        return dx * dx + dy * dy;
+    }
+
+    private static int latIndex(double latitude) {
+        return (int) Math.floor((latitude + 90) / CELL_DEGREES);
+    }
+
+    private static int lngIndex(double longitude) {
+        return (int) Math.floor((longitude + 180) / CELL_DEGREES);
+    }
+
+    private static long cellKey(int latIndex, int lngIndex) {
+        return ((long) latIndex << 32) | (lngIndex & 0xffffffffL);
+    }
+
+    private void index(@NonNull List<Region> regions) {
+        mRegions.clear();
+        mCells.clear();
+        mMinLatIndex = mMinLngIndex = Integer.MAX_VALUE;
+        mMaxLatIndex = mMaxLngIndex = Integer.MIN_VALUE;
+
+        for (Region region : regions) {
+            int latIndex = latIndex(region.latitude);
+            int lngIndex = lngIndex(region.longitude);
+            long key = cellKey(latIndex, lngIndex);
+            List<Region> cell = mCells.get(key);
+            if (cell == null) {
+                cell = new ArrayList<>();
+                mCells.put(key, cell);
+            }
+            cell.add(region);
+            mRegions.add(region);
+
+            mMinLatIndex = Math.min(mMinLatIndex, latIndex);
+            mMaxLatIndex = Math.max(mMaxLatIndex, latIndex);
+            mMinLngIndex = Math.min(mMinLngIndex, lngIndex);
+            mMaxLngIndex = Math.max(mMaxLngIndex, lngIndex);
+        }
+    }
+
+    private @NonNull List<Region> load() throws IOException {
+        List<Region> regions = new ArrayList<>();
+        DataInputStream in;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+        } catch (FileNotFoundException e) {
+            return regions;
+        }
+
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                TesLog.w(TAG, "Ignoring saved regions with unknown format");
+                return regions;
+            }
+            int count = in.readInt();
+            for (int i=0; i<count; i++) {
+                String id = in.readUTF();
+                double latitude = in.readDouble();
+                double longitude = in.readDouble();
+                float radius = in.readFloat();
+                regions.add(new Region(id, latitude, longitude, radius));
+            }
+        }
+        finally {
+            in.close();
+        }
+        return regions;
+    }
+
+    private void save(@NonNull List<Region> regions) throws IOException {
+        File tmp = new File(mFile.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(regions.size());
+            for (Region region : regions) {
+                out.writeUTF(region.id);
+                out.writeDouble(region.latitude);
+                out.writeDouble(region.longitude);
+                out.writeFloat(region.radius);
+            }
+        }
+        finally {
+            out.close();
+        }
+
+        if (!tmp.renameTo(mFile))
+            throw new IOException("Unable to replace " + mFile.getName());
+    }
+}
@@ -0,0 +1,486 @@
+//  Copyright © 2012-2018 3 Electric Sheep Pty Ltd. All rights reserved.
+//
+//  The Welcome Interruption Software Development Kit (SDK) is licensed to you subject to the terms
+//  of the License Agreement. The License Agreement forms a legally binding contract between you and
+//  3 Electric Sheep Pty Ltd in relation to your use of the Welcome Interruption SDK.
+//  You may not use this file except in compliance with the License Agreement.
+//
+//  A copy of the License Agreement can be found in the LICENSE file in the root directory of this
+//  source tree.
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License
+//  Agreement is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+//  express or implied. See the License Agreement for the specific language governing permissions
+//  and limitations under the License Agreement.
+
+package com.welcomeinterruption.rnwisdk;
+
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.location.Location;
+import android.os.Build;
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.google.android.gms.location.Geofence;
+import com.google.android.gms.location.GeofencingRequest;
+import com.google.android.gms.location.LocationRequest;
+import com.google.android.gms.location.LocationResult;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Replays a recorded trace (see {@link TesTraceReader}) in place of Play Services, so the
+ * pipeline can be run and measured without a device moving, e.g. under Robolectric on a build box.
+ * Set it with {@link TesLocationSources#set} before the SDK is connected.
+ * <p>
+ * The trace is played at real speed or faster, shifted so it starts when the replay does.
+ * Location requests are honoured roughly the way the fused provider does: fixes closer together
+ * than the interval or the smallest displacement are skipped, and fixes are batched up to the
+ * max wait time. Geofence enter, exit and dwell transitions are worked out from the trace,
+ * including the initial trigger, and held back for the geofence's notification responsiveness.
+ * Accuracy, power and the provider's own smoothing aren't modelled.
+ * <p>
+ * Nothing is delivered until {@link #start} or {@link #replay} is called, so the SDK can make
+ * its requests first.
+ */
+public class TesReplaySource implements TesLocationSource, TesGeofenceSource {
+    private static final String TAG = "TesReplaySource";
+
+    public static final String PROVIDER = "replay";
+
+    // extras Play Services sets, see LocationResult.hasResult and GeofencingEvent.fromIntent
+    static final String EXTRA_LOCATION_RESULT = "com.google.android.gms.location.EXTRA_LOCATION_RESULT";
+    static final String EXTRA_GEOFENCE_ERROR = "gms_error_code";
+    static final String EXTRA_GEOFENCE_TRANSITION = "com.google.android.location.intent.extra.transition";
+    static final String EXTRA_GEOFENCE_LIST = "com.google.android.location.intent.extra.geofence_list";
+    static final String EXTRA_TRIGGERING_LOCATION = "com.google.android.location.intent.extra.triggering_location";
+
+    /**
+     * Hands replayed intents to the app. By default the pending intent is sent, a harness can
+     * call the receivers directly instead.
+     */
+    public interface Delivery {
+        void deliver(@NonNull PendingIntent target, @NonNull Intent intent);
+    }
+
+    private static final int STATE_UNKNOWN = 0;
+    private static final int STATE_INSIDE = 1;
+    private static final int STATE_OUTSIDE = 2;
+
+    private static class Fence {
+        final TesGeofenceInfo info;
+        final int initialTrigger;
+        long added = 0;
+        int state = STATE_UNKNOWN;
+        long entered = 0;
+        boolean dwelled = false;
+
+        Fence(TesGeofenceInfo info, int initialTrigger) {
+            this.info = info;
+            this.initialTrigger = initialTrigger;
+        }
+    }
+
+    private static class Transition {
+        final String id;
+        final int transition;
+        final long due;
+
+        Transition(String id, int transition, long due) {
+            this.id = id;
+            this.transition = transition;
+            this.due = due;
+        }
+    }
+
+    private static class Pending {
+        final PendingIntent target;
+        final Intent intent;
+
+        Pending(PendingIntent target, Intent intent) {
+            this.target = target;
+            this.intent = intent;
+        }
+    }
+
+    private final Context mCtx;
+    private final List<Location> mTrace;
+    private final double mSpeed;
+    private Delivery mDelivery;
+
+    // the rest is guarded by this
+    private int mPosition = 0;
+    private long mOffset = 0;
+    private @Nullable Location mLast = null;
+
+    private @Nullable LocationRequest mRequest = null;
+    private @Nullable PendingIntent mLocationIntent = null;
+    private final List<Location> mBatch = new ArrayList<>();
+    private @Nullable Location mLastAccepted = null;
+
+    private @Nullable PendingIntent mGeofenceIntent = null;
+    private final Map<String, Fence> mFences = new LinkedHashMap<>();
+    private final List<Transition> mTransitions = new ArrayList<>();
+
+    private Thread mThread = null;
+    private volatile boolean mStopped = false;
+
+    /**
+     * @param ctx - context the intents are sent with
+     * @param trace - fixes in time order
+     * @param speed - 1 for real time, higher to play faster, 0 for as fast as possible
+     */
+    public TesReplaySource(@NonNull Context ctx, @NonNull List<Location> trace, double speed) {
+        mCtx = ctx.getApplicationContext() != null ? ctx.getApplicationContext() : ctx;
+        mTrace = new ArrayList<>(trace);
+        mSpeed = speed;
+        mDelivery = new Delivery() {
+            @Override
+            public void deliver(@NonNull PendingIntent target, @NonNull Intent intent) {
+                try {
+                    target.send(mCtx, 0, intent);
+                } catch (PendingIntent.CanceledException e) {
+                    TesLog.w(TAG, "Replay target cancelled", e);
+                }
+            }
+        };
+    }
+
+    /**
+     * @param ctx - context the intents are sent with
+     * @param file - CSV or GPX trace
+     * @param speed - 1 for real time, higher to play faster, 0 for as fast as possible
+     * @return the source
+     * @throws IOException if the trace can't be read
+     */
+    public static @NonNull TesReplaySource fromFile(@NonNull Context ctx, @NonNull File file, double speed) throws IOException {
+        return new TesReplaySource(ctx, TesTraceReader.read(file), speed);
+    }
+
+    /**
+     * @param delivery - how intents are handed to the app
+     */
+    public void setDelivery(@NonNull Delivery delivery) {
+        mDelivery = delivery;
+    }
+
+    /**
+     * Plays the trace on a background thread
+     */
+    public synchronized void start() {
+        if (mThread != null)
+            return;
+
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                replay();
+            }
+        }, TAG);
+        mThread.start();
+    }
+
+    /**
+     * Stops playing. Batched fixes and transitions not yet due are dropped.
+     */
+    public void stop() {
+        mStopped = true;
+        Thread thread;
+        synchronized (this) {
+            thread = mThread;
+        }
+        if (thread != null)
+            thread.interrupt();
+    }
+
+    /**
+     * Plays the rest of the trace on the calling thread, returning once it is done or stopped.
+     * Batched fixes and transitions are delivered at the end of the trace.
+     */
+    public void replay() {
+        long startTime = -1;
+        long startWall = SystemClock.elapsedRealtime();
+        while (!mStopped) {
+            Location fix;
+            synchronized (this) {
+                if (mPosition >= mTrace.size())
+                    break;
+                fix = mTrace.get(mPosition++);
+            }
+
+            if (startTime < 0)
+                startTime = fix.getTime();
+            if (mSpeed > 0 && !pace(startWall + (long) ((fix.getTime() - startTime) / mSpeed)))
+                break;
+
+            deliver(step(fix));
+        }
+
+        if (!mStopped)
+            deliver(flush());
+        TesLog.i(TAG, "Replay %s", mStopped ? "stopped" : "finished");
+    }
+
+    /**
+     * @return true once the whole trace has been played
+     */
+    public synchronized boolean isFinished() {
+        return mPosition >= mTrace.size();
+    }
+
+    @Override
+    public synchronized @NonNull Task<Location> getLastLocation() {
+        return Tasks.forResult(mLast != null ? new Location(mLast) : null);
+    }
+
+    @Override
+    public synchronized @NonNull Task<Void> requestLocationUpdates(@NonNull LocationRequest request, @NonNull PendingIntent intent) {
+        mRequest = request;
+        mLocationIntent = intent;
+        return Tasks.forResult(null);
+    }
+
+    @Override
+    public synchronized @NonNull Task<Void> removeLocationUpdates(@NonNull PendingIntent intent) {
+        mRequest = null;
+        mLocationIntent = null;
+        mBatch.clear();
+        mLastAccepted = null;
+        return Tasks.forResult(null);
+    }
+
+    @Override
+    public synchronized @NonNull Task<Void> addGeofences(@NonNull List<TesGeofenceInfo> geofences, int initialTrigger, @NonNull PendingIntent intent) {
+        mGeofenceIntent = intent;
+        long now = (mLast != null) ? mLast.getTime() : System.currentTimeMillis();
+        for (TesGeofenceInfo info : geofences) {
+            Fence fence = new Fence(info, initialTrigger);
+            fence.added = now;
+            mFences.put(info.identifier, fence);
+        }
+        return Tasks.forResult(null);
+    }
+
+    @Override
+    public synchronized @NonNull Task<Void> removeGeofences(@NonNull List<String> ids) {
+        for (String id : ids) {
+            mFences.remove(id);
+        }
+        removeTransitions(ids);
+        return Tasks.forResult(null);
+    }
+
+    @Override
+    public synchronized @NonNull Task<Void> removeGeofences(@NonNull PendingIntent intent) {
+        mFences.clear();
+        mTransitions.clear();
+        return Tasks.forResult(null);
+    }
+
+    /**
+     * waits until a fix is due
+     * @return false if stopped while waiting
+     */
+    private boolean pace(long due) {
+        long wait = due - SystemClock.elapsedRealtime();
+        if (wait <= 0)
+            return true;
+
+        try {
+            Thread.sleep(wait);
+            return true;
+        } catch (InterruptedException e) {
+            return false;
+        }
+    }
+
+    /**
+     * plays one fix
+     * @return intents to deliver, once the lock is released
+     */
+    private synchronized List<Pending> step(Location traced) {
+        if (mLast == null)
+            mOffset = System.currentTimeMillis() - traced.getTime();
+
+        Location fix = new Location(traced);
+        fix.setProvider(PROVIDER);
+        fix.setTime(traced.getTime() + mOffset);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+            fix.setElapsedRealtimeNanos(SystemClock.elapsedRealtimeNanos());
+        }
+        mLast = fix;
+
+        List<Pending> pending = new ArrayList<>();
+        updateFences(fix);
+        collectTransitions(fix, false, pending);
+        collectLocation(fix, pending);
+        return pending;
+    }
+
+    /**
+     * @return whatever is still batched or held back at the end of the trace
+     */
+    private synchronized List<Pending> flush() {
+        List<Pending> pending = new ArrayList<>();
+        if (mLast != null)
+            collectTransitions(mLast, true, pending);
+        if (mLocationIntent != null && !mBatch.isEmpty())
+            pending.add(locationIntent());
+        return pending;
+    }
+
+    private void deliver(List<Pending> pending) {
+        for (Pending p : pending) {
+            mDelivery.deliver(p.target, p.intent);
+        }
+    }
+
+    private void collectLocation(Location fix, List<Pending> pending) {
+        if (mRequest == null || mLocationIntent == null)
+            return;
+
+        if (mLastAccepted != null) {
+            if (fix.getTime() - mLastAccepted.getTime() < mRequest.getInterval())
+                return;
+            if (mRequest.getSmallestDisplacement() > 0 && mLastAccepted.distanceTo(fix) < mRequest.getSmallestDisplacement())
+                return;
+        }
+        mLastAccepted = fix;
+        mBatch.add(fix);
+
+        // a batch spans up to the max wait time, a max wait within the interval means no batching
+        if (fix.getTime() - mBatch.get(0).getTime() >= mRequest.getMaxWaitTime() - mRequest.getInterval())
+            pending.add(locationIntent());
+    }
+
+    private Pending locationIntent() {
+        Intent intent = new Intent();
+        intent.putExtra(EXTRA_LOCATION_RESULT, LocationResult.create(new ArrayList<>(mBatch)));
+        mBatch.clear();
+        return new Pending(mLocationIntent, intent);
+    }
+
+    /**
+     * works out the transitions for a fix
+     */
+    private void updateFences(Location fix) {
+        long now = fix.getTime();
+        float[] distance = new float[1];
+        Iterator<Fence> it = mFences.values().iterator();
+        while (it.hasNext()) {
+            Fence fence = it.next();
+            TesGeofenceInfo info = fence.info;
+            if (info.expiry >= 0 && now - fence.added > info.expiry) {
+                it.remove();
+                continue;
+            }
+
+            Location.distanceBetween(info.latitude, info.longitude, fix.getLatitude(), fix.getLongitude(), distance);
+            boolean inside = distance[0] <= info.radius;
+
+            if (fence.state == STATE_UNKNOWN) {
+                if (inside) {
+                    if ((fence.initialTrigger & GeofencingRequest.INITIAL_TRIGGER_ENTER) != 0)
+                        addTransition(fence, Geofence.GEOFENCE_TRANSITION_ENTER, now);
+                    // without the initial dwell trigger only a later entry counts
+                    fence.dwelled = (fence.initialTrigger & GeofencingRequest.INITIAL_TRIGGER_DWELL) == 0;
+                    fence.entered = now;
+                }
+                else if ((fence.initialTrigger & GeofencingRequest.INITIAL_TRIGGER_EXIT) != 0) {
+                    addTransition(fence, Geofence.GEOFENCE_TRANSITION_EXIT, now);
+                }
+            }
+            else if (inside && fence.state == STATE_OUTSIDE) {
+                addTransition(fence, Geofence.GEOFENCE_TRANSITION_ENTER, now);
+                fence.entered = now;
+                fence.dwelled = false;
+            }
+            else if (!inside && fence.state == STATE_INSIDE) {
+                addTransition(fence, Geofence.GEOFENCE_TRANSITION_EXIT, now);
+            }
+
+            if (inside && !fence.dwelled && now - fence.entered >= info.loiteringDelay) {
+                addTransition(fence, Geofence.GEOFENCE_TRANSITION_DWELL, now);
+                fence.dwelled = true;
+            }
+            fence.state = inside ? STATE_INSIDE : STATE_OUTSIDE;
+        }
+    }
+
+    private void addTransition(Fence fence, int transition, long now) {
+        if ((fence.info.transitionTypes & transition) != 0)
+            mTransitions.add(new Transition(fence.info.identifier, transition, now + fence.info.notificationResponsiveness));
+    }
+
+    private void removeTransitions(List<String> ids) {
+        Iterator<Transition> it = mTransitions.iterator();
+        while (it.hasNext()) {
+            if (ids.contains(it.next().id))
+                it.remove();
+        }
+    }
+
+    /**
+     * builds an intent for each transition type with the transitions that are due, the way Play
+     * Services reports geofences that trigger together
+     */
+    private void collectTransitions(Location fix, boolean all, List<Pending> pending) {
+        if (mGeofenceIntent == null || mTransitions.isEmpty())
+            return;
+
+        Map<Integer, ArrayList<byte[]>> due = new LinkedHashMap<>();
+        Iterator<Transition> it = mTransitions.iterator();
+        while (it.hasNext()) {
+            Transition t = it.next();
+            if (!all && t.due > fix.getTime())
+                continue;
+
+            it.remove();
+            Fence fence = mFences.get(t.id);
+            if (fence == null)
+                continue;
+
+            ArrayList<byte[]> geofences = due.get(t.transition);
+            if (geofences == null) {
+                geofences = new ArrayList<>();
+                due.put(t.transition, geofences);
+            }
+            geofences.add(marshall(fence.info.toGeofence()));
+        }
+
+        for (Map.Entry<Integer, ArrayList<byte[]>> entry : due.entrySet()) {
+            Intent intent = new Intent();
+            intent.putExtra(EXTRA_GEOFENCE_ERROR, -1);
+            intent.putExtra(EXTRA_GEOFENCE_TRANSITION, entry.getKey().intValue());
+            intent.putExtra(EXTRA_GEOFENCE_LIST, entry.getValue());
+            intent.putExtra(EXTRA_TRIGGERING_LOCATION, new Location(fix));
+            pending.add(new Pending(mGeofenceIntent, intent));
+        }
+    }
+
+    /**
+     * Play Services sends the triggering geofences as marshalled parcels
+     */
+    private static byte[] marshall(Geofence geofence) {
+        Parcel parcel = Parcel.obtain();
+        try {
+            ((Parcelable) geofence).writeToParcel(parcel, 0);
+            return parcel.marshall();
+        } finally {
+            parcel.recycle();
+        }
+    }
+}
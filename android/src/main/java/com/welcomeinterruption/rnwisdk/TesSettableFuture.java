@@ -0,0 +1,141 @@
+//  Copyright © 2012-2018 3 Electric Sheep Pty Ltd. All rights reserved.
+//
+//  The Welcome Interruption Software Development Kit (SDK) is licensed to you subject to the terms
+//  of the License Agreement. The License Agreement forms a legally binding contract between you and
+//  3 Electric Sheep Pty Ltd in relation to your use of the Welcome Interruption SDK.
+//  You may not use this file except in compliance with the License Agreement.
+//
+//  A copy of the License Agreement can be found in the LICENSE file in the root directory of this
+//  source tree.
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License
+//  Agreement is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+//  express or implied. See the License Agreement for the specific language governing permissions
+//  and limitations under the License Agreement.
+
+
+package com.welcomeinterruption.rnwisdk;
+
+import android.support.annotation.NonNull;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A future that is completed by calling {@link #set}, for the result of a ListenableWorker. The
+ * first value set wins, later calls are ignored.
+ *
+ * @param <V> - the result type
+ */
+class TesSettableFuture<V> implements ListenableFuture<V> {
+    private final List<Runnable> mListeners = new ArrayList<>();
+    private final List<Executor> mExecutors = new ArrayList<>();
+
+    // guarded by this
+    private boolean mDone = false;
+    private boolean mCancelled = false;
+    private V mValue;
+
+    /**
+     * Completes the future
+     *
+     * @param value - the result
+     * @return true if the future was completed by this call
+     */
+    public boolean set(V value) {
+        synchronized (this) {
+            if (mDone)
+                return false;
+            mValue = value;
+            mDone = true;
+            notifyAll();
+        }
+        runListeners();
+        return true;
+    }
+
+    @Override
+    public void addListener(@NonNull Runnable listener, @NonNull Executor executor) {
+        synchronized (this) {
+            if (!mDone) {
+                mListeners.add(listener);
+                mExecutors.add(executor);
+                return;
+            }
+        }
+        executor.execute(listener);
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        synchronized (this) {
+            if (mDone)
+                return false;
+            mCancelled = true;
+            mDone = true;
+            notifyAll();
+        }
+        runListeners();
+        return true;
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return mCancelled;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return mDone;
+    }
+
+    @Override
+    public synchronized V get() throws InterruptedException, ExecutionException {
+        while (!mDone) {
+            wait();
+        }
+        return getValue();
+    }
+
+    @Override
+    public synchronized V get(long timeout, @NonNull TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!mDone) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0)
+                throw new TimeoutException();
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return getValue();
+    }
+
+    private V getValue() {
+        if (mCancelled)
+            throw new CancellationException();
+        return mValue;
+    }
+
+    /**
+     * runs the listeners added before completion, outside the lock
+     */
+    private void runListeners() {
+        List<Runnable> listeners;
+        List<Executor> executors;
+        synchronized (this) {
+            listeners = new ArrayList<>(mListeners);
+            executors = new ArrayList<>(mExecutors);
+            mListeners.clear();
+            mExecutors.clear();
+        }
+        for (int i = 0; i < listeners.size(); i++) {
+            executors.get(i).execute(listeners.get(i));
+        }
+    }
+}
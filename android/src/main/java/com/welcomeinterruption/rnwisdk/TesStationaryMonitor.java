@@ -0,0 +1,253 @@
+//  Copyright © 2012-2018 3 Electric Sheep Pty Ltd. All rights reserved.
+//
+//  The Welcome Interruption Software Development Kit (SDK) is licensed to you subject to the terms
+//  of the License Agreement. The License Agreement forms a legally binding contract between you and
+//  3 Electric Sheep Pty Ltd in relation to your use of the Welcome Interruption SDK.
+//  You may not use this file except in compliance with the License Agreement.
+//
+//  A copy of the License Agreement can be found in the LICENSE file in the root directory of this
+//  source tree.
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License
+//  Agreement is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+//  express or implied. See the License Agreement for the specific language governing permissions
+//  and limitations under the License Agreement.
+
+package com.welcomeinterruption.rnwisdk;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.location.Location;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.google.android.gms.location.LocationRequest;
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Parks location updates while the device is stationary.
+ * <p>
+ * Once {@link TesConfig#stationaryFixes} fixes in a row have been within
+ * {@link TesConfig#stationaryRadius} meters of each other, an exit only geofence is left around
+ * them and location updates are removed. Updates are requested again when the device leaves that
+ * geofence. Each change is reported to JS with the motion change task, so it is clear why no fixes
+ * arrive while parked.
+ * <p>
+ * The state is kept in shared preferences so it survives the process being killed. While the
+ * geofence is being added the state is parking, and it only becomes stationary once updates have
+ * been removed. If the process dies part way through, the next batch rolls the parking state back
+ * and the next exit resumes updates, so the device can't be left parked with updates running or
+ * with updates removed and nothing to resume them. It is reset on boot (when the geofence is gone)
+ * and whenever location updates are started or stopped from JS.
+ */
+public class TesStationaryMonitor {
+    private static final String TAG = "TesStationaryMonitor";
+
+    private static final String PREFS_NAME = "wisdk_stationary";
+    private static final String KEY_STATIONARY = "stationary";
+    private static final String KEY_PARKING = "parking";
+    private static final String KEY_CENTER_LATITUDE = "centerLatitude";
+    private static final String KEY_CENTER_LONGITUDE = "centerLongitude";
+    private static final String KEY_COUNT = "count";
+
+    // set while this process is adding the stationary geofence
+    private static boolean sParking = false;
+
+    /**
+     * @param ctx - context used to read the state
+     * @return true if location updates are parked
+     */
+    public static boolean isStationary(@NonNull Context ctx) {
+        return getPrefs(ctx).getBoolean(KEY_STATIONARY, false);
+    }
+
+    /**
+     * Counts fixes that stay inside the stationary radius and parks location updates once there
+     * are enough of them.
+     *
+     * @param ctx - the context
+     * @param config - the config
+     * @param locations - fixes in time order, before filtering
+     */
+    public static synchronized void onLocations(@NonNull Context ctx, @NonNull TesConfig config, @NonNull List<Location> locations) {
+        SharedPreferences prefs = getPrefs(ctx);
+        if (config.stationaryFixes <= 0 || prefs.getBoolean(KEY_STATIONARY, false) || sParking)
+            return;
+
+        if (prefs.getBoolean(KEY_PARKING, false)) {
+            // the process died while parking and updates are still arriving - start again
+            TesLog.w(TAG, "Parking was interrupted - rolling back");
+            prefs.edit().remove(KEY_PARKING).apply();
+        }
+
+        boolean haveCenter = prefs.contains(KEY_CENTER_LATITUDE);
+        double centerLatitude = Double.longBitsToDouble(prefs.getLong(KEY_CENTER_LATITUDE, 0));
+        double centerLongitude = Double.longBitsToDouble(prefs.getLong(KEY_CENTER_LONGITUDE, 0));
+        int count = prefs.getInt(KEY_COUNT, 0);
+
+        float[] distance = new float[1];
+        Location last = null;
+        for (Location loc : locations) {
+            // a fix this poor can't tell us whether we've moved
+            if (loc.getAccuracy() > config.stationaryRadius)
+                continue;
+
+            last = loc;
+            if (haveCenter) {
+                Location.distanceBetween(centerLatitude, centerLongitude, loc.getLatitude(), loc.getLongitude(), distance);
+                if (distance[0] <= config.stationaryRadius) {
+                    count++;
+                    continue;
+                }
+            }
+
+            haveCenter = true;
+            centerLatitude = loc.getLatitude();
+            centerLongitude = loc.getLongitude();
+            count = 1;
+        }
+
+        prefs.edit()
+                .putLong(KEY_CENTER_LATITUDE, Double.doubleToRawLongBits(centerLatitude))
+                .putLong(KEY_CENTER_LONGITUDE, Double.doubleToRawLongBits(centerLongitude))
+                .putInt(KEY_COUNT, count)
+                .apply();
+
+        if (last != null && count >= config.stationaryFixes) {
+            park(ctx, config, centerLatitude, centerLongitude, last);
+        }
+    }
+
+    /**
+     * Called when the stationary geofence reports an exit.
+     *
+     * @param ctx - the context
+     * @param config - the config
+     * @param location - the triggering location, may be null
+     * @return true if location updates were resumed
+     */
+    public static boolean onExit(@NonNull Context ctx, @NonNull TesConfig config, @Nullable Location location) {
+        if (!resume(ctx, config, location)) {
+            // left over from before a reset - just tidy it up
+            removeStationaryGeofence(ctx, config);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Requests location updates again if they are parked, or were being parked when the process
+     * died. Makes a single location request.
+     *
+     * @param ctx - the context
+     * @param config - the config
+     * @param location - where movement was seen, may be null
+     * @return true if updates were parked
+     */
+    @SuppressWarnings("MissingPermission")
+    public static synchronized boolean resume(@NonNull Context ctx, @NonNull TesConfig config, @Nullable Location location) {
+        SharedPreferences prefs = getPrefs(ctx);
+        if (!prefs.getBoolean(KEY_STATIONARY, false) && !prefs.getBoolean(KEY_PARKING, false))
+            return false;
+
+        TesLog.i(TAG, "Moving again - resuming location updates");
+
+        // also cancels parking still in progress, see park
+        reset(ctx);
+
+        LocationRequest request;
+        if (config.locAdaptive) {
+            request = TesMotionController.buildRequest(config, TesMotionController.onResume(ctx, location));
+        }
+        else {
+            request = TesMotionController.buildRequest(config, TesMotionController.PROFILE_DRIVING);
+        }
+
+        try {
+            TesLocationSources.getLocationSource(ctx)
+                    .requestLocationUpdates(request, TesLocationMgr.getLocationUpdatesPendingIntent(ctx));
+        } catch (SecurityException e) {
+            TesLog.e(TAG, "No permission to resume location updates", e);
+        }
+        removeStationaryGeofence(ctx, config);
+
+        notifyJS(config, false, location);
+        return true;
+    }
+
+    /**
+     * Forgets the stationary state without touching location updates.
+     *
+     * @param ctx - the context
+     */
+    public static synchronized void reset(@NonNull Context ctx) {
+        getPrefs(ctx).edit().clear().apply();
+    }
+
+    /**
+     * leaves a geofence around the device and, once that is in place, removes location updates
+     */
+    private static void park(final Context ctx, final TesConfig config, double latitude, double longitude, final Location location) {
+        TesLog.i(TAG, "Stationary - parking location updates");
+
+        // batches arriving while the geofence is added don't park again
+        sParking = true;
+        getPrefs(ctx).edit().putBoolean(KEY_PARKING, true).apply();
+
+        TesGeofenceMgr mgr = new TesGeofenceMgr(ctx, config);
+        mgr.connect();
+        mgr.addGeofences(
+                Collections.singletonList(mgr.buildStationaryGeofenceInfo(latitude, longitude, config.stationaryRadius)),
+                new OnCompleteListener<Void>() {
+                    @Override
+                    public void onComplete(@NonNull Task<Void> task) {
+                        synchronized (TesStationaryMonitor.class) {
+                            sParking = false;
+                            SharedPreferences prefs = getPrefs(ctx);
+                            if (!prefs.getBoolean(KEY_PARKING, false)) {
+                                // reset while the geofence was added, e.g. updates were restarted
+                                TesLog.d(TAG, "Parking cancelled");
+                                return;
+                            }
+
+                            if (!task.isSuccessful()) {
+                                // without the geofence nothing would wake us up - keep the updates
+                                TesLog.e(TAG, "Unable to add stationary geofence", task.getException());
+                                reset(ctx);
+                                return;
+                            }
+
+                            TesLocationSources.getLocationSource(ctx)
+                                    .removeLocationUpdates(TesLocationMgr.getLocationUpdatesPendingIntent(ctx));
+                            prefs.edit().remove(KEY_PARKING).putBoolean(KEY_STATIONARY, true).apply();
+                        }
+                        notifyJS(config, true, location);
+                    }
+                });
+    }
+
+    private static void removeStationaryGeofence(final Context ctx, TesConfig config) {
+        TesGeofenceMgr mgr = new TesGeofenceMgr(ctx, config);
+        mgr.connect();
+        mgr.removeGeofences(Collections.singletonList(TesGeofenceMgr.STATIONARY_GEOFENCE_ID), new OnCompleteListener<Void>() {
+            @Override
+            public void onComplete(@NonNull Task<Void> task) {
+                if (!task.isSuccessful())
+                    TesLog.w(TAG, "Unable to remove stationary geofence", task.getException());
+            }
+        });
+    }
+
+    private static void notifyJS(TesConfig config, boolean stationary, @Nullable Location location) {
+        TesJobDispatcher jm = new TesJobDispatcher(config);
+        jm.scheduleJob(RNMotionChangeService.class, TesJobDispatcher.setMotionData(stationary, location));
+    }
+
+    private static SharedPreferences getPrefs(Context ctx) {
+        return ctx.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+}
@@ -0,0 +1,272 @@
+//  Copyright © 2012-2018 3 Electric Sheep Pty Ltd. All rights reserved.
+//
+//  The Welcome Interruption Software Development Kit (SDK) is licensed to you subject to the terms
+//  of the License Agreement. The License Agreement forms a legally binding contract between you and
+//  3 Electric Sheep Pty Ltd in relation to your use of the Welcome Interruption SDK.
+//  You may not use this file except in compliance with the License Agreement.
+//
+//  A copy of the License Agreement can be found in the LICENSE file in the root directory of this
+//  source tree.
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License
+//  Agreement is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+//  express or implied. See the License Agreement for the specific language governing permissions
+//  and limitations under the License Agreement.
+
+package com.welcomeinterruption.rnwisdk;
+
+import android.location.Location;
+import android.support.annotation.NonNull;
+import android.util.Xml;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads recorded location traces for {@link TesReplaySource}.
+ * <p>
+ * CSV traces need a header row naming the columns. time, latitude and longitude are required;
+ * accuracy, speed, bearing and altitude are optional. Times are ISO 8601 or epoch seconds or
+ * milliseconds. Lines starting with # are ignored.
+ * <pre>
+ *   time,latitude,longitude,accuracy,speed,bearing,altitude
+ *   2019-03-04T08:15:00Z,-33.8688,151.2093,8,12.5,90,20
+ * </pre>
+ * GPX traces are read from their track and route points. ele, time, speed, course and hdop are
+ * used if present.
+ * <p>
+ * Fixes without a time are skipped, and those without a speed or bearing get one worked out from
+ * the fix before.
+ */
+public class TesTraceReader {
+    private static final String TAG = "TesTraceReader";
+
+    /**
+     * accuracy of fixes that don't have one, in meters
+     */
+    static final float DEFAULT_ACCURACY = 10;
+
+    /**
+     * meters of accuracy per unit of GPX hdop
+     */
+    static final float HDOP_ACCURACY = 5;
+
+    /**
+     * @param file - CSV or GPX trace, told apart by the extension
+     * @return the fixes in time order
+     * @throws IOException if the file can't be read or isn't a trace
+     */
+    public static @NonNull List<Location> read(@NonNull File file) throws IOException {
+        Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+        try {
+            return file.getName().toLowerCase().endsWith(".gpx") ? readGpx(reader) : readCsv(reader);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * @param reader - CSV trace
+     * @return the fixes in time order
+     * @throws IOException if the trace can't be read or has no header
+     */
+    public static @NonNull List<Location> readCsv(@NonNull Reader reader) throws IOException {
+        BufferedReader in = new BufferedReader(reader);
+        Map<String, Integer> columns = null;
+        List<Location> locations = new ArrayList<>();
+
+        String line;
+        int lineNumber = 0;
+        while ((line = in.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#"))
+                continue;
+
+            String[] fields = line.split(",", -1);
+            if (columns == null) {
+                columns = readHeader(fields);
+                continue;
+            }
+
+            try {
+                locations.add(readCsvFix(columns, fields));
+            } catch (ParseException | NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                TesLog.w(TAG, "Skipping invalid fix on line %d: %s", lineNumber, e.getMessage());
+            }
+        }
+
+        if (columns == null)
+            throw new IOException("Trace has no header");
+
+        return finish(locations);
+    }
+
+    /**
+     * @param reader - GPX trace
+     * @return the fixes in time order
+     * @throws IOException if the trace can't be read or isn't valid XML
+     */
+    public static @NonNull List<Location> readGpx(@NonNull Reader reader) throws IOException {
+        List<Location> locations = new ArrayList<>();
+        try {
+            XmlPullParser parser = Xml.newPullParser();
+            parser.setInput(reader);
+
+            Location loc = null;
+            boolean hasTime = false;
+            String text = "";
+            for (int event = parser.getEventType(); event != XmlPullParser.END_DOCUMENT; event = parser.next()) {
+                if (event == XmlPullParser.START_TAG) {
+                    String name = localName(parser.getName());
+                    if (name.equals("trkpt") || name.equals("rtept")) {
+                        loc = new Location(TesReplaySource.PROVIDER);
+                        loc.setLatitude(Double.parseDouble(parser.getAttributeValue(null, "lat")));
+                        loc.setLongitude(Double.parseDouble(parser.getAttributeValue(null, "lon")));
+                        loc.setAccuracy(DEFAULT_ACCURACY);
+                        hasTime = false;
+                    }
+                    text = "";
+                }
+                else if (event == XmlPullParser.TEXT) {
+                    text = parser.getText().trim();
+                }
+                else if (event == XmlPullParser.END_TAG && loc != null) {
+                    String name = localName(parser.getName());
+                    if (name.equals("trkpt") || name.equals("rtept")) {
+                        if (hasTime)
+                            locations.add(loc);
+                        loc = null;
+                    }
+                    else if (name.equals("time")) {
+                        loc.setTime(parseTime(text));
+                        hasTime = true;
+                    }
+                    else if (name.equals("ele")) {
+                        loc.setAltitude(Double.parseDouble(text));
+                    }
+                    else if (name.equals("speed")) {
+                        loc.setSpeed(Float.parseFloat(text));
+                    }
+                    else if (name.equals("course")) {
+                        loc.setBearing(Float.parseFloat(text));
+                    }
+                    else if (name.equals("hdop")) {
+                        loc.setAccuracy(Float.parseFloat(text) * HDOP_ACCURACY);
+                    }
+                }
+            }
+        } catch (XmlPullParserException | ParseException | NumberFormatException | NullPointerException e) {
+            throw new IOException("Invalid GPX trace: " + e.getMessage(), e);
+        }
+
+        return finish(locations);
+    }
+
+    private static Map<String, Integer> readHeader(String[] fields) throws IOException {
+        Map<String, Integer> columns = new HashMap<>();
+        for (int i = 0; i < fields.length; i++) {
+            String name = fields[i].trim().toLowerCase();
+            if (name.equals("timestamp") || name.equals("fix_timestamp"))
+                name = "time";
+            else if (name.equals("lat"))
+                name = "latitude";
+            else if (name.equals("lon") || name.equals("lng"))
+                name = "longitude";
+            else if (name.equals("course"))
+                name = "bearing";
+            else if (name.equals("ele"))
+                name = "altitude";
+            columns.put(name, i);
+        }
+
+        if (!columns.containsKey("time") || !columns.containsKey("latitude") || !columns.containsKey("longitude"))
+            throw new IOException("Trace header needs time, latitude and longitude columns");
+
+        return columns;
+    }
+
+    private static Location readCsvFix(Map<String, Integer> columns, String[] fields) throws ParseException {
+        Location loc = new Location(TesReplaySource.PROVIDER);
+        loc.setTime(parseTime(fields[columns.get("time")].trim()));
+        loc.setLatitude(Double.parseDouble(fields[columns.get("latitude")].trim()));
+        loc.setLongitude(Double.parseDouble(fields[columns.get("longitude")].trim()));
+
+        String accuracy = field(columns, fields, "accuracy");
+        loc.setAccuracy(accuracy.isEmpty() ? DEFAULT_ACCURACY : Float.parseFloat(accuracy));
+        String speed = field(columns, fields, "speed");
+        if (!speed.isEmpty())
+            loc.setSpeed(Float.parseFloat(speed));
+        String bearing = field(columns, fields, "bearing");
+        if (!bearing.isEmpty())
+            loc.setBearing(Float.parseFloat(bearing));
+        String altitude = field(columns, fields, "altitude");
+        if (!altitude.isEmpty())
+            loc.setAltitude(Double.parseDouble(altitude));
+        return loc;
+    }
+
+    /**
+     * @return the value of an optional column, empty if there isn't one
+     */
+    private static String field(Map<String, Integer> columns, String[] fields, String name) {
+        Integer index = columns.get(name);
+        return (index != null && index < fields.length) ? fields[index].trim() : "";
+    }
+
+    /**
+     * @param text - ISO 8601, epoch seconds or epoch milliseconds
+     * @return epoch milliseconds
+     */
+    private static long parseTime(String text) throws ParseException {
+        if (text.indexOf('-') < 0) {
+            double value = Double.parseDouble(text);
+            // anything before 1973 in milliseconds is taken to be in seconds
+            return (long) (value < 1e11 ? value * 1000 : value);
+        }
+        return TesISO8601DateParser.parseMillis(text);
+    }
+
+    private static String localName(String name) {
+        return name.substring(name.indexOf(':') + 1);
+    }
+
+    /**
+     * sorts the fixes and fills in missing speeds and bearings
+     */
+    private static List<Location> finish(List<Location> locations) {
+        Collections.sort(locations, new Comparator<Location>() {
+            @Override
+            public int compare(Location lhs, Location rhs) {
+                return (lhs.getTime() < rhs.getTime()) ? -1 : (lhs.getTime() == rhs.getTime() ? 0 : 1);
+            }
+        });
+
+        for (int i = 1; i < locations.size(); i++) {
+            Location prev = locations.get(i - 1);
+            Location loc = locations.get(i);
+            long elapsed = loc.getTime() - prev.getTime();
+            if (!loc.hasSpeed() && elapsed > 0)
+                loc.setSpeed(prev.distanceTo(loc) * 1000 / elapsed);
+            if (!loc.hasBearing() && prev.distanceTo(loc) > 0)
+                loc.setBearing((prev.bearingTo(loc) + 360) % 360);
+        }
+
+        TesLog.d(TAG, "Read %d fixes", locations.size());
+        return locations;
+    }
+}
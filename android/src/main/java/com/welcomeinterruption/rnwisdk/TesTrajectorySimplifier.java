@@ -0,0 +1,154 @@
+//  Copyright © 2012-2018 3 Electric Sheep Pty Ltd. All rights reserved.
+//
+//  The Welcome Interruption Software Development Kit (SDK) is licensed to you subject to the terms
+//  of the License Agreement. The License Agreement forms a legally binding contract between you and
+//  3 Electric Sheep Pty Ltd in relation to your use of the Welcome Interruption SDK.
+//  You may not use this file except in compliance with the License Agreement.
+//
+//  A copy of the License Agreement can be found in the LICENSE file in the root directory of this
+//  source tree.
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License
+//  Agreement is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+//  express or implied. See the License Agreement for the specific language governing permissions
+//  and limitations under the License Agreement.
+
+package com.welcomeinterruption.rnwisdk;
+
+import android.location.Location;
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reduces a batch of fixes to the points needed to describe the path taken.
+ * <p>
+ * Uses Douglas-Peucker over a local flat projection of the batch. A point is only kept if it is
+ * further from the simplified path than both the tolerance and its own reported accuracy, so
+ * noisy fixes don't survive as fake corners. The first and last points are always kept, as is any
+ * point where the heading turns by more than {@link #TURN_ANGLE} degrees.
+ */
+public class TesTrajectorySimplifier {
+    private static final double EARTH_RADIUS = 6371008.8; // meters
+
+    /**
+     * change in heading (degrees) that always keeps a point
+     */
+    private static final double TURN_ANGLE = 60.0;
+
+    /**
+     * Simplifies a batch of fixes.
+     *
+     * @param locations - fixes in time order
+     * @param tolerance - max distance in meters a dropped point may be from the simplified path. &lt;= 0 disables.
+     * @return the fixes to keep in time order
+     */
+    public static @NonNull List<Location> simplify(@NonNull List<Location> locations, float tolerance) {
+        int count = locations.size();
+        if (tolerance <= 0 || count < 3)
+            return locations;
+
+        // project into meters around the first point
+        double lat0 = Math.toRadians(locations.get(0).getLatitude());
+        double lng0 = Math.toRadians(locations.get(0).getLongitude());
+        double cosLat0 = Math.cos(lat0);
+        double[] x = new double[count];
+        double[] y = new double[count];
+        double[] tol = new double[count];
+        for (int i=0; i<count; i++) {
+            Location loc = locations.get(i);
+            x[i] = (Math.toRadians(loc.getLongitude()) - lng0) * cosLat0 * EARTH_RADIUS;
+            y[i] = (Math.toRadians(loc.getLatitude()) - lat0) * EARTH_RADIUS;
+            tol[i] = Math.max(tolerance, loc.getAccuracy());
+        }
+
+        boolean[] keep = new boolean[count];
+        keep[0] = true;
+        keep[count - 1] = true;
+        markTurns(x, y, tolerance, keep);
+
+        // douglas-peucker between each pair of points we have to keep
+        int[] stack = new int[count * 2];
+        int start = 0;
+        for (int end = 1; end < count; end++) {
+            if (!keep[end])
+                continue;
+
+            int top = 0;
+            stack[top++] = start;
+            stack[top++] = end;
+            while (top > 0) {
+                int last = stack[--top];
+                int first = stack[--top];
+
+                int index = -1;
+                double maxExcess = 0;
+                for (int i = first + 1; i < last; i++) {
+                    double excess = segmentDistance(x, y, i, first, last) - tol[i];
+                    if (excess > maxExcess) {
+                        maxExcess = excess;
+                        index = i;
+                    }
+                }
+
+                if (index >= 0) {
+                    keep[index] = true;
+                    stack[top++] = first;
+                    stack[top++] = index;
+                    stack[top++] = index;
+                    stack[top++] = last;
+                }
+            }
+            start = end;
+        }
+
+        List<Location> simplified = new ArrayList<>();
+        for (int i=0; i<count; i++) {
+            if (keep[i])
+                simplified.add(locations.get(i));
+        }
+        return simplified;
+    }
+
+    /**
+     * marks points where the path turns sharply. Legs shorter than the tolerance are ignored
+     * as their heading is mostly noise.
+     */
+    private static void markTurns(double[] x, double[] y, double tolerance, boolean[] keep) {
+        int prev = 0;
+        double prevHeading = Double.NaN;
+        for (int i = 1; i < x.length; i++) {
+            double dx = x[i] - x[prev];
+            double dy = y[i] - y[prev];
+            if (Math.hypot(dx, dy) < tolerance)
+                continue;
+
+            double heading = Math.toDegrees(Math.atan2(dy, dx));
+            if (!Double.isNaN(prevHeading)) {
+                double turn = Math.abs(heading - prevHeading);
+                if (turn > 180)
+                    turn = 360 - turn;
+                if (turn > TURN_ANGLE)
+                    keep[prev] = true;
+            }
+            prevHeading = heading;
+            prev = i;
+        }
+    }
+
+    /**
+     * distance from point i to the segment first-last
+     */
+    private static double segmentDistance(double[] x, double[] y, int i, int first, int last) {
+        double dx = x[last] - x[first];
+        double dy = y[last] - y[first];
+        double len2 = dx * dx + dy * dy;
+        double t = 0;
+        if (len2 > 0) {
+            t = ((x[i] - x[first]) * dx + (y[i] - y[first]) * dy) / len2;
+            t = Math.max(0, Math.min(1, t));
+        }
+        return Math.hypot(x[i] - (x[first] + t * dx), y[i] - (y[first] + t * dy));
+    }
+}
@@ -15,13 +15,12 @@
 
 package com.welcomeinterruption.rnwisdk;
 
-import android.app.ActivityManager;
 import android.content.Context;
 import android.location.Location;
 import android.support.annotation.Nullable;
-import android.util.Log;
 
 import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.WritableArray;
 import com.facebook.react.bridge.WritableMap;
 
 import org.json.JSONArray;
@@ -101,7 +100,7 @@ public class TesUtils {
             try {
                 obj = stringArray.getJSONObject(i);
             } catch (JSONException e) {
-                Log.i(TAG, String.format("Unable to get list: %s", e.toString()));
+                TesLog.i(TAG, "Unable to get list: %s", e.toString());
             }
 
             String oid = null;
@@ -112,7 +111,7 @@ public class TesUtils {
                     break;
                 }
             } catch (JSONException e) {
-                Log.i(TAG, String.format("Unable to get key list entry: %s", e.toString()));
+                TesLog.i(TAG, "Unable to get key list entry: %s", e.toString());
 
             }
         }
@@ -126,7 +125,7 @@ public class TesUtils {
             try {
                 obj = stringArray.getString(i);
             } catch (JSONException e) {
-                Log.i(TAG, String.format("Unable to get list: %s", e.toString()));
+                TesLog.i(TAG, "Unable to get list: %s", e.toString());
             }
 
             if (obj != null && obj.equals(value)){
@@ -160,42 +159,66 @@ public class TesUtils {
      * @throws JSONException
      */
     public static WritableMap toLocMap(JSONObject json) throws JSONException{
-        TesLocationInfo loc = new TesLocationInfo(json);
+        return toLocMap(new TesLocationInfo(json));
+    }
+
+    /** converts a TesLocation to a facebook writable map
+     *
+     * @param loc - the location
+     * @return a writealbe map
+     */
+    public static WritableMap toLocMap(TesLocationInfo loc) {
+        return toLocMap(loc.longitude, loc.latitude, loc.accuracy, loc.speed, loc.course, loc.altitude,
+                TesUtils.stringFromDate(loc.fix_timestamp), loc.inBackground);
+    }
+
+    /** converts an android location to a facebook writable map
+     *
+     * @param loc - the location
+     * @param inBackground whether the location came while the app was not running in foreground.
+     * @return a writealbe map
+     */
+    public static WritableMap toLocMap(Location loc, boolean inBackground) {
+        return toLocMap(loc.getLongitude(), loc.getLatitude(), loc.getAccuracy(), loc.getSpeed(), loc.getBearing(), loc.getAltitude(),
+                TesISO8601DateParser.format(loc.getTime()), inBackground);
+    }
+
+    /** converts a list of TesLocations to a facebook writable array
+     *
+     * @param locations - the locations
+     * @return a writable array of location maps
+     */
+    public static WritableArray toLocArray(List<TesLocationInfo> locations) {
+        WritableArray locationList = Arguments.createArray();
+        for (TesLocationInfo loc : locations) {
+            locationList.pushMap(toLocMap(loc));
+        }
+        return locationList;
+    }
+
+    private static WritableMap toLocMap(double longitude, double latitude, float accuracy, float speed, float course,
+                                        double altitude, @Nullable String fixTimestamp, boolean inBackground) {
         WritableMap locEntry = Arguments.createMap();
 
-        locEntry.putDouble("longitude", loc.longitude);
-        locEntry.putDouble("latitude", loc.latitude);
-        locEntry.putDouble("accuracy", loc.accuracy);
-        locEntry.putDouble("speed", loc.speed);
-        locEntry.putDouble("course", loc.course);
-        locEntry.putDouble("altitude", loc.altitude);
-        locEntry.putString("fix_timestamp", TesUtils.stringFromDate(loc.fix_timestamp));
-        locEntry.putBoolean("in_background", loc.inBackground);
-        locEntry.putString("arrival", null);
-        locEntry.putString("departure", null);
+        locEntry.putDouble(TesLocationInfo.KEY_LONGITUDE, longitude);
+        locEntry.putDouble(TesLocationInfo.KEY_LATITUDE, latitude);
+        locEntry.putDouble(TesLocationInfo.KEY_ACCURACY, accuracy);
+        locEntry.putDouble(TesLocationInfo.KEY_SPEED, speed);
+        locEntry.putDouble(TesLocationInfo.KEY_COURSE, course);
+        locEntry.putDouble(TesLocationInfo.KEY_ALTITUDE, altitude);
+        locEntry.putString(TesLocationInfo.KEY_FIX_TIMESTAMP, fixTimestamp);
+        locEntry.putBoolean(TesLocationInfo.KEY_IN_BACKGROUND, inBackground);
+        locEntry.putString(TesLocationInfo.KEY_ARRIVAL, null);
+        locEntry.putString(TesLocationInfo.KEY_DEPARTURE, null);
         return locEntry;
     }
 
+    /**
+     * @param context - the context
+     * @return true if the app has a started activity, see {@link TesAppState}
+     */
     static public  boolean isAppOnForeground(Context context) {
-        /**
-         We need to check if app is in foreground otherwise the app will crash.
-         http://stackoverflow.com/questions/8489993/check-android-application-is-in-foreground-or-not
-         **/
-        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
-        List<ActivityManager.RunningAppProcessInfo> appProcesses =
-                activityManager.getRunningAppProcesses();
-        if (appProcesses == null) {
-            return false;
-        }
-        final String packageName = context.getPackageName();
-        for (ActivityManager.RunningAppProcessInfo appProcess : appProcesses) {
-            if (appProcess.importance ==
-                    ActivityManager.RunningAppProcessInfo.IMPORTANCE_FOREGROUND &&
-                    appProcess.processName.equals(packageName)) {
-                return true;
-
-            }
-        }
-        return false;
+        TesAppState.register(context);
+        return TesAppState.isForeground();
     }
 }
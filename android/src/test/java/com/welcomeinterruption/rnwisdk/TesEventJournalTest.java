@@ -0,0 +1,218 @@
+//  Copyright © 2012-2018 3 Electric Sheep Pty Ltd. All rights reserved.
+//
+//  The Welcome Interruption Software Development Kit (SDK) is licensed to you subject to the terms
+//  of the License Agreement. The License Agreement forms a legally binding contract between you and
+//  3 Electric Sheep Pty Ltd in relation to your use of the Welcome Interruption SDK.
+//  You may not use this file except in compliance with the License Agreement.
+//
+//  A copy of the License Agreement can be found in the LICENSE file in the root directory of this
+//  source tree.
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License
+//  Agreement is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+//  express or implied. See the License Agreement for the specific language governing permissions
+//  and limitations under the License Agreement.
+
+package com.welcomeinterruption.rnwisdk;
+
+import android.location.Location;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class TesEventJournalTest {
+    private static final int CAPACITY = 8;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File mFile;
+    private TesEventJournal mJournal;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = new File(mFolder.getRoot(), "test.journal");
+        mJournal = new TesEventJournal(mFile, CAPACITY);
+    }
+
+    private static List<Location> fixes(int from, int count) {
+        Location[] locations = new Location[count];
+        for (int i = 0; i < count; i++) {
+            locations[i] = TesLocationCodecTest.fix(from + i);
+        }
+        return Arrays.asList(locations);
+    }
+
+    private static void assertFixes(int from, List<TesLocationInfo> read) {
+        for (int i = 0; i < read.size(); i++) {
+            assertEquals(TesLocationCodecTest.fix(from + i).getTime(), read.get(i).fix_timestamp.getTime());
+        }
+    }
+
+    @Test
+    public void appendAndRead() {
+        assertEquals(3, mJournal.appendLocations(fixes(0, 3), true));
+        assertTrue(mJournal.hasPending());
+
+        long[] to = new long[1];
+        List<TesLocationInfo> read = mJournal.readLocations(to);
+        assertEquals(3, read.size());
+        assertEquals(3, to[0]);
+        assertFixes(0, read);
+
+        mJournal.commit(to[0]);
+        assertFalse(mJournal.hasPending());
+        assertTrue("upload cursor is independent", mJournal.hasPending(TesEventJournal.CURSOR_UPLOAD));
+    }
+
+    @Test
+    public void readStopsAtEnd() {
+        mJournal.appendLocations(fixes(0, 5), true);
+
+        long[] to = new long[1];
+        List<TesLocationInfo> read = mJournal.readLocations(TesEventJournal.CURSOR_REPORT, 3, Integer.MAX_VALUE, to);
+        assertEquals(3, read.size());
+        assertEquals(3, to[0]);
+
+        read = mJournal.readLocations(TesEventJournal.CURSOR_REPORT, 2, to);
+        assertEquals(2, read.size());
+        assertEquals(2, to[0]);
+    }
+
+    @Test
+    public void geofenceEventRoundTrip() {
+        Location loc = TesLocationCodecTest.fix(4);
+        mJournal.appendGeofenceEvent(Arrays.asList("a", "bb"), 2, loc, true);
+        mJournal.appendGeofenceEvent(Collections.singletonList("c"), 1, null, false);
+
+        long[] to = new long[1];
+        List<TesEventJournal.GeofenceEvent> events = mJournal.readGeofenceEvents(to);
+        assertEquals(2, events.size());
+        assertEquals(3, to[0]);
+
+        assertEquals(2, events.get(0).transition);
+        assertEquals(Arrays.asList("a", "bb"), events.get(0).ids);
+        assertEquals(loc.getLatitude(), events.get(0).location.latitude, 0);
+
+        assertEquals(1, events.get(1).transition);
+        assertEquals(Collections.singletonList("c"), events.get(1).ids);
+        assertNull(events.get(1).location);
+    }
+
+    @Test
+    public void rejectsLongIds() {
+        char[] id = new char[TesEventJournal.MAX_ID_LENGTH + 1];
+        Arrays.fill(id, 'x');
+        assertEquals(-1, mJournal.appendGeofenceEvent(Collections.singletonList(new String(id)), 1, null, true));
+        assertEquals(0, mJournal.getWriteSeq());
+    }
+
+    @Test
+    public void wrapsAround() {
+        long[] to = new long[1];
+        for (int pass = 0; pass < 3; pass++) {
+            mJournal.appendLocations(fixes(pass * 5, 5), true);
+            List<TesLocationInfo> read = mJournal.readLocations(to);
+            assertEquals(5, read.size());
+            assertFixes(pass * 5, read);
+            mJournal.commit(to[0]);
+            mJournal.commit(TesEventJournal.CURSOR_UPLOAD, to[0]);
+        }
+        assertEquals(15, mJournal.getWriteSeq());
+        assertFalse(mJournal.hasPending());
+    }
+
+    @Test
+    public void overrunDropsOldest() {
+        long dropped = TesMetrics.get(TesMetrics.LOCATIONS_DROPPED);
+        mJournal.appendLocations(fixes(0, CAPACITY + 2), true);
+        assertEquals(dropped + 2, TesMetrics.get(TesMetrics.LOCATIONS_DROPPED));
+        assertEquals(2, mJournal.getReadSeq(TesEventJournal.CURSOR_REPORT));
+        assertEquals(2, mJournal.getReadSeq(TesEventJournal.CURSOR_UPLOAD));
+
+        long[] to = new long[1];
+        List<TesLocationInfo> read = mJournal.readLocations(to);
+        assertEquals(CAPACITY, read.size());
+        assertFixes(2, read);
+    }
+
+    @Test
+    public void overrunCountsGeofenceEventsOnce() {
+        long dropped = TesMetrics.get(TesMetrics.GEOFENCE_EVENTS_DROPPED);
+        mJournal.appendGeofenceEvent(Arrays.asList("a", "b", "c"), 1, null, true);
+        mJournal.appendLocations(fixes(0, CAPACITY), true);
+        assertEquals(dropped + 1, TesMetrics.get(TesMetrics.GEOFENCE_EVENTS_DROPPED));
+    }
+
+    @Test
+    public void overrunOnlyMovesLaggingCursor() {
+        mJournal.appendLocations(fixes(0, 5), true);
+        mJournal.commit(TesEventJournal.CURSOR_UPLOAD, 5);
+        mJournal.appendLocations(fixes(5, 5), true);
+
+        assertEquals(2, mJournal.getReadSeq(TesEventJournal.CURSOR_REPORT));
+        assertEquals(5, mJournal.getReadSeq(TesEventJournal.CURSOR_UPLOAD));
+    }
+
+    @Test
+    public void commitIfNext() {
+        long first = mJournal.appendLocations(fixes(0, 2), true);
+        long second = mJournal.appendLocations(fixes(2, 1), true);
+
+        assertFalse("earlier records pending", mJournal.commitIfNext(TesEventJournal.CURSOR_REPORT, first, second));
+        assertTrue(mJournal.commitIfNext(TesEventJournal.CURSOR_REPORT, 0, first));
+        assertFalse("past the write position", mJournal.commitIfNext(TesEventJournal.CURSOR_REPORT, first, second + 1));
+        assertTrue(mJournal.commitIfNext(TesEventJournal.CURSOR_REPORT, first, second));
+        assertEquals(second, mJournal.getReadSeq());
+        assertEquals("other cursor untouched", 0, mJournal.getReadSeq(TesEventJournal.CURSOR_UPLOAD));
+    }
+
+    @Test
+    public void commitIsClampedToWritePosition() {
+        mJournal.appendLocations(fixes(0, 2), true);
+        mJournal.commit(10);
+        assertEquals(2, mJournal.getReadSeq());
+    }
+
+    @Test
+    public void survivesReopen() throws IOException {
+        mJournal.appendLocations(fixes(0, 3), true);
+        mJournal.commit(1);
+
+        TesEventJournal reopened = new TesEventJournal(mFile, CAPACITY);
+        assertEquals(3, reopened.getWriteSeq());
+        assertEquals(1, reopened.getReadSeq());
+
+        long[] to = new long[1];
+        List<TesLocationInfo> read = reopened.readLocations(to);
+        assertEquals(2, read.size());
+        assertFixes(1, read);
+    }
+
+    @Test
+    public void reopenWithOtherCapacityResets() throws IOException {
+        mJournal.appendLocations(fixes(0, 3), true);
+
+        TesEventJournal reopened = new TesEventJournal(mFile, CAPACITY * 2);
+        assertEquals(0, reopened.getWriteSeq());
+        assertFalse(reopened.hasPending());
+    }
+}
@@ -0,0 +1,90 @@
+//  Copyright © 2012-2018 3 Electric Sheep Pty Ltd. All rights reserved.
+//
+//  The Welcome Interruption Software Development Kit (SDK) is licensed to you subject to the terms
+//  of the License Agreement. The License Agreement forms a legally binding contract between you and
+//  3 Electric Sheep Pty Ltd in relation to your use of the Welcome Interruption SDK.
+//  You may not use this file except in compliance with the License Agreement.
+//
+//  A copy of the License Agreement can be found in the LICENSE file in the root directory of this
+//  source tree.
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License
+//  Agreement is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+//  express or implied. See the License Agreement for the specific language governing permissions
+//  and limitations under the License Agreement.
+
+
+package com.welcomeinterruption.rnwisdk;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class TesISO8601DateParserTest {
+    private static final long TIME = 1517652672345L; // 2018-02-03T10:11:12.345Z
+
+    @Test
+    public void parsesTimeZones() throws ParseException {
+        assertEquals(TIME, TesISO8601DateParser.parseMillis("2018-02-03T10:11:12.345Z"));
+        assertEquals(TIME - 345, TesISO8601DateParser.parseMillis("2018-02-03T10:11:12Z"));
+        assertEquals(TIME - 345, TesISO8601DateParser.parseMillis("2018-02-03T20:11:12+10:00"));
+        assertEquals(TIME - 345, TesISO8601DateParser.parseMillis("2018-02-03T10:11:12+0000"));
+        assertEquals(TIME - 345, TesISO8601DateParser.parseMillis("2018-02-03T05:11:12-05"));
+        assertEquals(TIME - 12345, TesISO8601DateParser.parseMillis("2018-02-03T10:11Z"));
+    }
+
+    @Test
+    public void parsesLeapDay() throws ParseException {
+        assertEquals(1456704000000L, TesISO8601DateParser.parseMillis("2016-02-29T00:00:00Z"));
+    }
+
+    @Test(expected = ParseException.class)
+    public void rejectsInvalidDay() throws ParseException {
+        TesISO8601DateParser.parseMillis("2018-02-30T10:11:12Z");
+    }
+
+    @Test(expected = ParseException.class)
+    public void rejectsDateOnly() throws ParseException {
+        TesISO8601DateParser.parseMillis("2018-02-03");
+    }
+
+    @Test(expected = ParseException.class)
+    public void rejectsTrailingText() throws ParseException {
+        TesISO8601DateParser.parseMillis("2018-02-03T10:11:12Zx");
+    }
+
+    @Test
+    public void formats() {
+        assertEquals("2018-02-03T10:11:12+0000", TesISO8601DateParser.format(TIME));
+        assertEquals("2018-02-03T10:11:12.345+0000", TesISO8601DateParser.format(TIME, true, new StringBuilder()).toString());
+        assertEquals("1969-12-31T23:59:59+0000", TesISO8601DateParser.format(-1000));
+        assertEquals(TesISO8601DateParser.format(TIME), TesISO8601DateParser.toString(new Date(TIME)));
+    }
+
+    @Test
+    public void matchesSimpleDateFormat() throws ParseException {
+        SimpleDateFormat reference = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ", Locale.US);
+        reference.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+        Random random = new Random(3);
+        for (int i = 0; i < 10000; i++) {
+            // whole seconds between 1900 and 2100
+            long time = (long) ((random.nextDouble() * 200 - 70) * 365.25 * 86400) * 1000;
+            String formatted = TesISO8601DateParser.format(time);
+            assertEquals(reference.format(new Date(time)), formatted);
+            assertEquals(time, TesISO8601DateParser.parseMillis(formatted));
+        }
+    }
+}
@@ -0,0 +1,135 @@
+//  Copyright © 2012-2018 3 Electric Sheep Pty Ltd. All rights reserved.
+//
+//  The Welcome Interruption Software Development Kit (SDK) is licensed to you subject to the terms
+//  of the License Agreement. The License Agreement forms a legally binding contract between you and
+//  3 Electric Sheep Pty Ltd in relation to your use of the Welcome Interruption SDK.
+//  You may not use this file except in compliance with the License Agreement.
+//
+//  A copy of the License Agreement can be found in the LICENSE file in the root directory of this
+//  source tree.
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License
+//  Agreement is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+//  express or implied. See the License Agreement for the specific language governing permissions
+//  and limitations under the License Agreement.
+
+package com.welcomeinterruption.rnwisdk;
+
+import android.location.Location;
+
+import com.google.android.gms.location.LocationResult;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import androidx.work.Data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class TesLocationCodecTest {
+
+    static Location fix(int i) {
+        Location loc = new Location("test");
+        loc.setLatitude(-33.8688 + i * 0.0001);
+        loc.setLongitude(151.2093 - i * 0.0001);
+        loc.setAltitude(20.5 + i);
+        loc.setTime(1546300800000L + i * 1000L);
+        loc.setAccuracy(5.25f);
+        loc.setSpeed(1.5f + i);
+        loc.setBearing(90.0f);
+        return loc;
+    }
+
+    static List<Location> fixes(int count) {
+        List<Location> locations = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            locations.add(fix(i));
+        }
+        return locations;
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        List<Location> locations = fixes(3);
+        List<TesLocationInfo> decoded = TesLocationCodec.decode(TesLocationCodec.encode(locations, true));
+
+        assertEquals(locations.size(), decoded.size());
+        for (int i = 0; i < locations.size(); i++) {
+            Location loc = locations.get(i);
+            TesLocationInfo info = decoded.get(i);
+            assertEquals(loc.getLatitude(), info.latitude, 0);
+            assertEquals(loc.getLongitude(), info.longitude, 0);
+            assertEquals(loc.getAltitude(), info.altitude, 0);
+            assertEquals(loc.getTime(), info.fix_timestamp.getTime());
+            assertEquals(loc.getAccuracy(), info.accuracy, 0);
+            assertEquals(loc.getSpeed(), info.speed, 0);
+            assertEquals(loc.getBearing(), info.course, 0);
+            assertTrue(info.inBackground);
+        }
+    }
+
+    @Test
+    public void roundTripEmpty() throws IOException {
+        long[] packed = TesLocationCodec.encode(Collections.<Location>emptyList(), false);
+        assertEquals(TesLocationCodec.HEADER_SIZE / 8, packed.length);
+        assertEquals(0, TesLocationCodec.decode(packed).size());
+    }
+
+    @Test
+    public void packedSize() {
+        long[] packed = TesLocationCodec.encode(fixes(10), false);
+        assertEquals((TesLocationCodec.HEADER_SIZE + 10 * TesLocationCodec.RECORD_SIZE) / 8, packed.length);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsTruncated() throws IOException {
+        long[] packed = TesLocationCodec.encode(fixes(2), false);
+        long[] truncated = new long[packed.length - 1];
+        System.arraycopy(packed, 0, truncated, 0, truncated.length);
+        TesLocationCodec.decode(truncated);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsBadMagic() throws IOException {
+        long[] packed = TesLocationCodec.encode(fixes(1), false);
+        packed[0] ^= 0xFFFFL << 48;
+        TesLocationCodec.decode(packed);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsShort() throws IOException {
+        TesLocationCodec.decode(new long[0]);
+    }
+
+    @Test
+    public void largeBatchSplitsIntoDataSizedJobs() throws IOException {
+        int count = 5 * TesJobDispatcher.MAX_BINARY_LOCATIONS + 7;
+        List<Location> locations = fixes(count);
+        List<Data> batches = TesJobDispatcher.setData(LocationResult.create(locations));
+
+        assertEquals(6, batches.size());
+        int i = 0;
+        for (Data b : batches) {
+            assertTrue("batch fits in Data", Data.toByteArray(b).length <= Data.MAX_DATA_BYTES);
+            assertTrue(TesJobDispatcher.isBinary(b));
+
+            List<TesLocationInfo> decoded = TesJobDispatcher.getLocationData(b);
+            assertTrue(decoded.size() <= TesJobDispatcher.MAX_BINARY_LOCATIONS);
+            for (TesLocationInfo info : decoded) {
+                assertEquals("in order, none dropped", locations.get(i++).getTime(), info.fix_timestamp.getTime());
+            }
+            assertEquals(locations.get(i - 1).getTime(), TesJobDispatcher.getFixTime(b));
+        }
+        assertEquals(count, i);
+    }
+}
@@ -0,0 +1,75 @@
+//  Copyright © 2012-2018 3 Electric Sheep Pty Ltd. All rights reserved.
+//
+//  The Welcome Interruption Software Development Kit (SDK) is licensed to you subject to the terms
+//  of the License Agreement. The License Agreement forms a legally binding contract between you and
+//  3 Electric Sheep Pty Ltd in relation to your use of the Welcome Interruption SDK.
+//  You may not use this file except in compliance with the License Agreement.
+//
+//  A copy of the License Agreement can be found in the LICENSE file in the root directory of this
+//  source tree.
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License
+//  Agreement is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+//  express or implied. See the License Agreement for the specific language governing permissions
+//  and limitations under the License Agreement.
+
+
+package com.welcomeinterruption.rnwisdk;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class TesMetricsTest {
+
+    @Test
+    public void smallValuesHaveTheirOwnBucket() {
+        for (int v = 0; v < 16; v++) {
+            assertEquals(v, TesMetrics.bucketOf(v));
+            assertEquals(v, TesMetrics.upperBoundOf(v));
+        }
+    }
+
+    @Test
+    public void bucketsContainTheirValues() {
+        for (long v = 0; v < 100000000L; v += (v < 1000) ? 1 : v / 13) {
+            int bucket = TesMetrics.bucketOf(v);
+            long lower = (bucket == 0) ? 0 : TesMetrics.upperBoundOf(bucket - 1) + 1;
+            assertTrue(v + " below bucket " + bucket, v >= lower);
+            assertTrue(v + " above bucket " + bucket, v <= TesMetrics.upperBoundOf(bucket));
+        }
+    }
+
+    @Test
+    public void bucketsAreContiguous() {
+        long previous = TesMetrics.upperBoundOf(0);
+        for (int bucket = 1; bucket < TesMetrics.bucketOf(1L << 36); bucket++) {
+            long upper = TesMetrics.upperBoundOf(bucket);
+            assertEquals(bucket, TesMetrics.bucketOf(previous + 1));
+            assertEquals(bucket, TesMetrics.bucketOf(upper));
+            previous = upper;
+        }
+    }
+
+    @Test
+    public void boundsHaveBoundedError() {
+        // 8 sub buckets per power of two, so a bound is within 1/8 of the values in its bucket
+        for (long v = 16; v < 1000000000L; v = v * 3 / 2) {
+            long upper = TesMetrics.upperBoundOf(TesMetrics.bucketOf(v));
+            assertTrue(v + " -> " + upper, upper - v <= v / 8);
+        }
+    }
+
+    @Test
+    public void hugeValuesLandInTheLastBucket() {
+        int last = TesMetrics.bucketOf(Long.MAX_VALUE);
+        assertEquals(last, TesMetrics.bucketOf(1L << 40));
+        assertTrue(TesMetrics.bucketOf((1L << 36) - 1) < last);
+    }
+}
@@ -0,0 +1,434 @@
+//  Copyright © 2012-2018 3 Electric Sheep Pty Ltd. All rights reserved.
+//
+//  The Welcome Interruption Software Development Kit (SDK) is licensed to you subject to the terms
+//  of the License Agreement. The License Agreement forms a legally binding contract between you and
+//  3 Electric Sheep Pty Ltd in relation to your use of the Welcome Interruption SDK.
+//  You may not use this file except in compliance with the License Agreement.
+//
+//  A copy of the License Agreement can be found in the LICENSE file in the root directory of this
+//  source tree.
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License
+//  Agreement is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+//  express or implied. See the License Agreement for the specific language governing permissions
+//  and limitations under the License Agreement.
+
+package com.welcomeinterruption.rnwisdk;
+
+import android.arch.core.executor.testing.InstantTaskExecutorRule;
+import android.arch.lifecycle.LiveData;
+import android.arch.lifecycle.Observer;
+import android.content.Context;
+import android.content.Intent;
+import android.location.Location;
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.support.annotation.Nullable;
+
+import com.google.android.gms.location.Geofence;
+import com.google.android.gms.location.LocationResult;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import androidx.work.State;
+import androidx.work.WorkManager;
+import androidx.work.WorkStatus;
+import androidx.work.testing.TestDriver;
+import androidx.work.testing.WorkManagerTestInitHelper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Load harness for the receiver to worker pipeline. Replays the kind of burst Play Services
+ * delivers when the device leaves Doze: a run of location results and geofence events, fired
+ * back to back at the receivers on the main thread while no job can run. The native upload chain
+ * is then drained with WorkManager's test driver against a local server.
+ * <p>
+ * Reports
+ * <ul>
+ *     <li>main thread time in each receiver's onReceive, the handoff to {@link TesReceiverExecutor}</li>
+ *     <li>the WorkManager queue depth during and after the burst</li>
+ *     <li>the bytes persisted to the event journals</li>
+ *     <li>end to end events per second, from the first intent to the last fix uploaded</li>
+ * </ul>
+ * as JSON to build/reports/loadtest/pipeline.json, so runs can be compared.
+ * <p>
+ * The headless JS jobs need a React instance, so they are left queued: they show up in the queue
+ * depth but are not run. Skipped unless the build is run with -PwisdkLoadTest.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class TesPipelineLoadTest {
+    private static final int DEFAULT_RESULTS = 200;
+    private static final int FIXES_PER_RESULT = 5;
+    private static final int GEOFENCE_EVERY = 2; // a geofence event every other location result
+    private static final int DEPTH_SAMPLE = 25;
+    private static final int MAX_DRAIN_PASSES = 1000;
+
+    private static final long FIX_INTERVAL = 5000; // ms
+    private static final double STEP = 0.0005; // degrees, ~50m
+
+    // extras set by Play Services, see LocationResult.hasResult and GeofencingEvent.fromIntent
+    private static final String EXTRA_LOCATION_RESULT = "com.google.android.gms.location.EXTRA_LOCATION_RESULT";
+    private static final String EXTRA_GEOFENCE_ERROR = "gms_error_code";
+    private static final String EXTRA_GEOFENCE_TRANSITION = "com.google.android.location.intent.extra.transition";
+    private static final String EXTRA_GEOFENCE_LIST = "com.google.android.location.intent.extra.geofence_list";
+    private static final String EXTRA_TRIGGERING_LOCATION = "com.google.android.location.intent.extra.triggering_location";
+
+    private static final String[] JOB_NAMES = {
+            RNLocationUpdateService.class.getName(),
+            RNGeoTransitionService.class.getName(),
+            TesLocationUploadWorker.class.getName(),
+    };
+
+    @Rule
+    public InstantTaskExecutorRule mInstantTaskExecutor = new InstantTaskExecutorRule();
+
+    private Context mContext;
+    private HttpServer mServer;
+    private final AtomicInteger mRequests = new AtomicInteger();
+    private final AtomicLong mRequestBytes = new AtomicLong();
+
+    @Before
+    public void setUp() throws Exception {
+        assumeTrue("pipeline load harness - run with -PwisdkLoadTest", Boolean.getBoolean("wisdk.loadTest"));
+
+        mContext = RuntimeEnvironment.application;
+        WorkManagerTestInitHelper.initializeTestWorkManager(mContext);
+
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                InputStream in = exchange.getRequestBody();
+                byte[] buf = new byte[8192];
+                int n;
+                while ((n = in.read(buf)) > 0) {
+                    mRequestBytes.addAndGet(n);
+                }
+                mRequests.incrementAndGet();
+
+                byte[] response = "{\"success\":true}".getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, response.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(response);
+                out.close();
+            }
+        });
+        mServer.start();
+
+        // everything the receivers do natively, nothing that needs Play Services to answer
+        String server = "http://127.0.0.1:" + mServer.getAddress().getPort() + "/";
+        TesConfig config = new TesConfig("loadtest");
+        config.server = server;
+        config.testServer = server;
+        config.nativeUpload = true;
+        config.locAdaptive = false;
+        config.stationaryFixes = 0;
+        config.simplifyTolerance = 0;
+        config.distacneFilter = 0;
+        config.staleLocationThreshold = 0;
+        config.delay = 0;
+        config.saveConfig(mContext);
+        TesLocationUploader.setCredentials(mContext, "loadtest-token", "loadtest-device");
+    }
+
+    @After
+    public void tearDown() {
+        if (mServer != null)
+            mServer.stop(0);
+    }
+
+    @Test
+    public void burst() throws Exception {
+        int results = Integer.getInteger("wisdk.loadTest.results", DEFAULT_RESULTS);
+        int fixes = results * FIXES_PER_RESULT;
+        int geofenceEvents = results / GEOFENCE_EVERY;
+
+        // build the intents up front so only the receivers are timed
+        long firstFix = System.currentTimeMillis() - fixes * FIX_INTERVAL;
+        List<Intent> locationIntents = new ArrayList<>(results);
+        List<Intent> geofenceIntents = new ArrayList<>(geofenceEvents);
+        for (int i = 0; i < results; i++) {
+            List<Location> locations = new ArrayList<>(FIXES_PER_RESULT);
+            for (int j = 0; j < FIXES_PER_RESULT; j++) {
+                int fix = i * FIXES_PER_RESULT + j;
+                locations.add(createLocation(fix, firstFix + fix * FIX_INTERVAL));
+            }
+            locationIntents.add(createLocationIntent(locations));
+
+            if (i % GEOFENCE_EVERY == 0) {
+                int transition = (i / GEOFENCE_EVERY) % 2 == 0 ? Geofence.GEOFENCE_TRANSITION_ENTER : Geofence.GEOFENCE_TRANSITION_EXIT;
+                geofenceIntents.add(createGeofenceIntent("region-" + (i % 10), transition, locations.get(FIXES_PER_RESULT - 1)));
+            }
+        }
+
+        TesEventJournal locationJournal = TesEventJournal.getInstance(mContext, TesEventJournal.LOCATION_JOURNAL);
+        TesEventJournal geofenceJournal = TesEventJournal.getInstance(mContext, TesEventJournal.GEOFENCE_JOURNAL);
+        long locationSeq = locationJournal.getWriteSeq();
+        long geofenceSeq = geofenceJournal.getWriteSeq();
+        long uploaded = TesMetrics.get(TesMetrics.LOCATIONS_UPLOADED);
+
+        RNLocationUpdatesBroadcastReceiver locationReceiver = new RNLocationUpdatesBroadcastReceiver();
+        RNGeoTransitionBroadcastReceiver geofenceReceiver = new RNGeoTransitionBroadcastReceiver();
+        long[] locationTimes = new long[results];
+        long[] geofenceTimes = new long[geofenceEvents];
+        int maxDepth = 0;
+
+        long start = System.nanoTime();
+        for (int i = 0; i < results; i++) {
+            long t = System.nanoTime();
+            locationReceiver.onReceive(mContext, locationIntents.get(i));
+            locationTimes[i] = System.nanoTime() - t;
+
+            if (i % GEOFENCE_EVERY == 0) {
+                t = System.nanoTime();
+                geofenceReceiver.onReceive(mContext, geofenceIntents.get(i / GEOFENCE_EVERY));
+                geofenceTimes[i / GEOFENCE_EVERY] = System.nanoTime() - t;
+            }
+
+            if (i % DEPTH_SAMPLE == 0) {
+                maxDepth = Math.max(maxDepth, getQueueDepth());
+            }
+        }
+        // the receivers hand their work to a background thread, wait for it before sampling
+        assertTrue("receiver work finished", TesReceiverExecutor.awaitIdle(60000));
+        long burstEnd = System.nanoTime();
+        int burstDepth = getQueueDepth();
+        maxDepth = Math.max(maxDepth, burstDepth);
+
+        drain(TesLocationUploadWorker.class.getName());
+        long end = System.nanoTime();
+
+        long locationRecords = locationJournal.getWriteSeq() - locationSeq;
+        long geofenceRecords = geofenceJournal.getWriteSeq() - geofenceSeq;
+        long fixesUploaded = TesMetrics.get(TesMetrics.LOCATIONS_UPLOADED) - uploaded;
+
+        JSONObject report = new JSONObject();
+        report.put("locationResults", results);
+        report.put("fixesPerResult", FIXES_PER_RESULT);
+        report.put("geofenceEvents", geofenceEvents);
+
+        JSONObject onReceive = new JSONObject();
+        onReceive.put("location", summarize(locationTimes));
+        onReceive.put("geofence", summarize(geofenceTimes));
+        report.put("onReceive", onReceive);
+
+        JSONObject depth = new JSONObject();
+        depth.put("max", maxDepth);
+        depth.put("afterBurst", burstDepth);
+        depth.put("afterDrain", getQueueDepth());
+        report.put("queueDepth", depth);
+
+        JSONObject persisted = new JSONObject();
+        persisted.put("locationJournal", locationRecords * TesEventJournal.RECORD_SIZE);
+        persisted.put("geofenceJournal", geofenceRecords * TesEventJournal.RECORD_SIZE);
+        persisted.put("filesDir", sizeOf(mContext.getFilesDir()));
+        report.put("persistedBytes", persisted);
+
+        JSONObject upload = new JSONObject();
+        upload.put("requests", mRequests.get());
+        upload.put("bytes", mRequestBytes.get());
+        upload.put("fixes", fixesUploaded);
+        report.put("upload", upload);
+
+        double burstSeconds = (burstEnd - start) / 1e9;
+        double totalSeconds = (end - start) / 1e9;
+        report.put("burstSeconds", burstSeconds);
+        report.put("drainSeconds", (end - burstEnd) / 1e9);
+        report.put("fixesPerSecond", fixesUploaded / totalSeconds);
+        report.put("geofenceEventsPerSecond", geofenceRecords / burstSeconds);
+
+        writeReport(report);
+
+        assertEquals("every fix journaled", fixes, locationRecords);
+        assertEquals("every fix uploaded", fixes, fixesUploaded);
+    }
+
+    /**
+     * Runs the queued work of a unique work chain until none is left, meeting the constraints of
+     * each job as it becomes runnable.
+     */
+    private void drain(String name) {
+        TestDriver driver = WorkManagerTestInitHelper.getTestDriver();
+        for (int pass = 0; pass < MAX_DRAIN_PASSES; pass++) {
+            boolean pending = false;
+            for (WorkStatus status : getStatuses(name)) {
+                if (status.getState() == State.ENQUEUED) {
+                    driver.setAllConstraintsMet(status.getId());
+                }
+                if (!status.getState().isFinished()) {
+                    pending = true;
+                }
+            }
+            ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+            if (!pending)
+                return;
+        }
+        fail("Work for " + name + " didn't drain");
+    }
+
+    /**
+     * @return the number of jobs queued or running
+     */
+    private int getQueueDepth() {
+        int depth = 0;
+        for (String name : JOB_NAMES) {
+            for (WorkStatus status : getStatuses(name)) {
+                if (!status.getState().isFinished())
+                    depth++;
+            }
+        }
+        return depth;
+    }
+
+    private List<WorkStatus> getStatuses(String name) {
+        LiveData<List<WorkStatus>> data = WorkManager.getInstance().getStatusesForUniqueWork(name);
+        Observer<List<WorkStatus>> observer = new Observer<List<WorkStatus>>() {
+            @Override
+            public void onChanged(@Nullable List<WorkStatus> statuses) {
+            }
+        };
+
+        // computed synchronously under the instant task executor
+        data.observeForever(observer);
+        try {
+            List<WorkStatus> statuses = data.getValue();
+            return statuses != null ? statuses : Collections.<WorkStatus>emptyList();
+        } finally {
+            data.removeObserver(observer);
+        }
+    }
+
+    private static Location createLocation(int fix, long time) {
+        Location loc = new Location("fused");
+        loc.setLatitude(-33.8688 + STEP * Math.sin(fix / 20.0) + fix * STEP / 10);
+        loc.setLongitude(151.2093 + STEP * Math.cos(fix / 20.0));
+        loc.setAccuracy(10);
+        loc.setSpeed(10);
+        loc.setBearing(fix % 360);
+        loc.setAltitude(20);
+        loc.setTime(time);
+        return loc;
+    }
+
+    private Intent createLocationIntent(List<Location> locations) {
+        Intent intent = new Intent(mContext, RNLocationUpdatesBroadcastReceiver.class);
+        intent.setAction(RNLocationUpdatesBroadcastReceiver.ACTION_PROCESS_UPDATES);
+        intent.putExtra(EXTRA_LOCATION_RESULT, LocationResult.create(locations));
+        return intent;
+    }
+
+    private Intent createGeofenceIntent(String id, int transition, Location triggering) {
+        Geofence fence = new Geofence.Builder()
+                .setRequestId(id)
+                .setCircularRegion(triggering.getLatitude(), triggering.getLongitude(), 100)
+                .setExpirationDuration(Geofence.NEVER_EXPIRE)
+                .setTransitionTypes(Geofence.GEOFENCE_TRANSITION_ENTER | Geofence.GEOFENCE_TRANSITION_EXIT)
+                .build();
+
+        // Play Services sends the geofences as marshalled parcels
+        Parcel parcel = Parcel.obtain();
+        byte[] bytes;
+        try {
+            ((Parcelable) fence).writeToParcel(parcel, 0);
+            bytes = parcel.marshall();
+        } finally {
+            parcel.recycle();
+        }
+
+        Intent intent = new Intent(mContext, RNGeoTransitionBroadcastReceiver.class);
+        intent.putExtra(EXTRA_GEOFENCE_ERROR, -1);
+        intent.putExtra(EXTRA_GEOFENCE_TRANSITION, transition);
+        intent.putExtra(EXTRA_GEOFENCE_LIST, new ArrayList<>(Collections.singletonList(bytes)));
+        intent.putExtra(EXTRA_TRIGGERING_LOCATION, triggering);
+        return intent;
+    }
+
+    /**
+     * @param times - nanoseconds
+     * @return count, mean, percentiles and max in microseconds
+     */
+    private static JSONObject summarize(long[] times) throws JSONException {
+        JSONObject summary = new JSONObject();
+        summary.put("count", times.length);
+        if (times.length == 0)
+            return summary;
+
+        long[] sorted = Arrays.copyOf(times, times.length);
+        Arrays.sort(sorted);
+        long total = 0;
+        for (long t : sorted) {
+            total += t;
+        }
+
+        summary.put("meanUs", total / sorted.length / 1000);
+        summary.put("p50Us", sorted[(int) (sorted.length * 0.50)] / 1000);
+        summary.put("p95Us", sorted[(int) (sorted.length * 0.95)] / 1000);
+        summary.put("p99Us", sorted[(int) (sorted.length * 0.99)] / 1000);
+        summary.put("maxUs", sorted[sorted.length - 1] / 1000);
+        summary.put("totalMs", total / 1000000);
+        return summary;
+    }
+
+    private static long sizeOf(File file) {
+        if (!file.isDirectory())
+            return file.length();
+
+        long size = 0;
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                size += sizeOf(child);
+            }
+        }
+        return size;
+    }
+
+    private static void writeReport(JSONObject report) throws IOException, JSONException {
+        String path = System.getProperty("wisdk.loadTest.report");
+        if (path == null || path.isEmpty())
+            return;
+
+        File file = new File(path);
+        File dir = file.getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("Unable to create " + dir);
+
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(report.toString(2).getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,160 @@
+//  Copyright © 2012-2018 3 Electric Sheep Pty Ltd. All rights reserved.
+//
+//  The Welcome Interruption Software Development Kit (SDK) is licensed to you subject to the terms
+//  of the License Agreement. The License Agreement forms a legally binding contract between you and
+//  3 Electric Sheep Pty Ltd in relation to your use of the Welcome Interruption SDK.
+//  You may not use this file except in compliance with the License Agreement.
+//
+//  A copy of the License Agreement can be found in the LICENSE file in the root directory of this
+//  source tree.
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License
+//  Agreement is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+//  express or implied. See the License Agreement for the specific language governing permissions
+//  and limitations under the License Agreement.
+
+
+package com.welcomeinterruption.rnwisdk;
+
+import android.location.Location;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class TesTraceReaderTest {
+    private static final long TIME = 1551687300000L; // 2019-03-04T08:15:00Z
+
+    private static List<Location> csv(String text) throws IOException {
+        return TesTraceReader.readCsv(new StringReader(text));
+    }
+
+    private static List<Location> gpx(String text) throws IOException {
+        return TesTraceReader.readGpx(new StringReader(text));
+    }
+
+    @Test
+    public void readsCsv() throws IOException {
+        List<Location> locations = csv(
+                "time,latitude,longitude,accuracy,speed,bearing,altitude\n" +
+                "2019-03-04T08:15:00Z,-33.8688,151.2093,8,12.5,90,20\n");
+
+        assertEquals(1, locations.size());
+        Location loc = locations.get(0);
+        assertEquals(TIME, loc.getTime());
+        assertEquals(-33.8688, loc.getLatitude(), 0);
+        assertEquals(151.2093, loc.getLongitude(), 0);
+        assertEquals(8, loc.getAccuracy(), 0);
+        assertEquals(12.5, loc.getSpeed(), 0);
+        assertEquals(90, loc.getBearing(), 0);
+        assertEquals(20, loc.getAltitude(), 0);
+    }
+
+    @Test
+    public void readsCsvAliasesAndEpochTimes() throws IOException {
+        List<Location> locations = csv(
+                "# recorded on a bus\n" +
+                "lng,lat,timestamp\n" +
+                "\n" +
+                "151.2093,-33.8688,1551687301000\n" +
+                "151.2093,-33.8688,1551687300\n");
+
+        assertEquals(2, locations.size());
+        assertEquals("sorted by time, seconds read as seconds", TIME, locations.get(0).getTime());
+        assertEquals(TIME + 1000, locations.get(1).getTime());
+        assertEquals(TesTraceReader.DEFAULT_ACCURACY, locations.get(0).getAccuracy(), 0);
+        assertEquals(151.2093, locations.get(0).getLongitude(), 0);
+    }
+
+    @Test
+    public void skipsInvalidCsvLines() throws IOException {
+        List<Location> locations = csv(
+                "time,latitude,longitude\n" +
+                "2019-03-04T08:15:00Z,-33.8688,151.2093\n" +
+                "yesterday,-33.8688,151.2093\n" +
+                "2019-03-04T08:15:01Z,-33.8688\n" +
+                "2019-03-04T08:15:02Z,north,151.2093\n" +
+                "2019-03-04T08:15:03Z,-33.8688,151.2094\n");
+
+        assertEquals(2, locations.size());
+        assertEquals(TIME + 3000, locations.get(1).getTime());
+    }
+
+    @Test
+    public void fillsInSpeedAndBearing() throws IOException {
+        List<Location> locations = csv(
+                "time,latitude,longitude\n" +
+                "2019-03-04T08:15:00Z,0,0\n" +
+                "2019-03-04T08:15:10Z,0,0.001\n");
+
+        Location first = locations.get(0);
+        Location second = locations.get(1);
+        assertFalse(first.hasSpeed());
+        assertTrue(second.hasSpeed());
+        assertEquals(first.distanceTo(second) / 10, second.getSpeed(), 0.01);
+        assertEquals("heading east", 90, second.getBearing(), 0.5);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsCsvWithoutHeader() throws IOException {
+        csv("# nothing here\n");
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsCsvHeaderWithoutTime() throws IOException {
+        csv("latitude,longitude\n-33.8688,151.2093\n");
+    }
+
+    @Test
+    public void readsGpx() throws IOException {
+        List<Location> locations = gpx(
+                "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+                "<gpx version=\"1.1\" xmlns=\"http://www.topografix.com/GPX/1/1\">\n" +
+                "  <trk><trkseg>\n" +
+                "    <trkpt lat=\"-33.8688\" lon=\"151.2093\">\n" +
+                "      <ele>20</ele><time>2019-03-04T08:15:00Z</time><speed>12.5</speed><course>90</course><hdop>2</hdop>\n" +
+                "    </trkpt>\n" +
+                "    <trkpt lat=\"-33.8689\" lon=\"151.2094\"><ele>21</ele></trkpt>\n" +
+                "  </trkseg></trk>\n" +
+                "  <rte>\n" +
+                "    <rtept lat=\"-33.8690\" lon=\"151.2095\"><time>2019-03-04T08:15:05Z</time></rtept>\n" +
+                "  </rte>\n" +
+                "</gpx>\n");
+
+        assertEquals("point without a time skipped", 2, locations.size());
+        Location loc = locations.get(0);
+        assertEquals(TIME, loc.getTime());
+        assertEquals(-33.8688, loc.getLatitude(), 0);
+        assertEquals(151.2093, loc.getLongitude(), 0);
+        assertEquals(20, loc.getAltitude(), 0);
+        assertEquals(12.5, loc.getSpeed(), 0);
+        assertEquals(90, loc.getBearing(), 0);
+        assertEquals(2 * TesTraceReader.HDOP_ACCURACY, loc.getAccuracy(), 0);
+
+        Location route = locations.get(1);
+        assertEquals(TIME + 5000, route.getTime());
+        assertEquals(TesTraceReader.DEFAULT_ACCURACY, route.getAccuracy(), 0);
+        assertTrue(route.hasSpeed());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsInvalidGpx() throws IOException {
+        gpx("<gpx><trk><trkseg><trkpt lat=\"1\" lon=\"2\"><time>2019-03-04T08:15:00Z</time></trkseg></gpx>");
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsGpxPointWithoutPosition() throws IOException {
+        gpx("<gpx><trk><trkseg><trkpt lat=\"1\"><time>2019-03-04T08:15:00Z</time></trkpt></trkseg></trk></gpx>");
+    }
+}
@@ -0,0 +1,137 @@
+//  Copyright © 2012-2018 3 Electric Sheep Pty Ltd. All rights reserved.
+//
+//  The Welcome Interruption Software Development Kit (SDK) is licensed to you subject to the terms
+//  of the License Agreement. The License Agreement forms a legally binding contract between you and
+//  3 Electric Sheep Pty Ltd in relation to your use of the Welcome Interruption SDK.
+//  You may not use this file except in compliance with the License Agreement.
+//
+//  A copy of the License Agreement can be found in the LICENSE file in the root directory of this
+//  source tree.
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License
+//  Agreement is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+//  express or implied. See the License Agreement for the specific language governing permissions
+//  and limitations under the License Agreement.
+
+
+package com.welcomeinterruption.rnwisdk;
+
+import android.location.Location;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class TesTrajectorySimplifierTest {
+    private static final double STEP = 0.0001; // ~11m on the equator
+
+    private static Location point(int i, double lat, double lng, float accuracy) {
+        Location loc = new Location("test");
+        loc.setLatitude(lat);
+        loc.setLongitude(lng);
+        loc.setAccuracy(accuracy);
+        loc.setTime(1546300800000L + i * 1000L);
+        return loc;
+    }
+
+    /**
+     * points heading east along the equator
+     */
+    private static List<Location> line(int count, float accuracy) {
+        List<Location> locations = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            locations.add(point(i, 0, i * STEP, accuracy));
+        }
+        return locations;
+    }
+
+    @Test
+    public void disabledOrShortIsUnchanged() {
+        List<Location> locations = line(10, 1);
+        assertSame(locations, TesTrajectorySimplifier.simplify(locations, 0));
+        assertSame(locations, TesTrajectorySimplifier.simplify(locations, -1));
+
+        List<Location> pair = line(2, 1);
+        assertSame(pair, TesTrajectorySimplifier.simplify(pair, 5));
+    }
+
+    @Test
+    public void straightLineKeepsEnds() {
+        List<Location> locations = line(20, 1);
+        List<Location> simplified = TesTrajectorySimplifier.simplify(locations, 5);
+
+        assertEquals(2, simplified.size());
+        assertSame(locations.get(0), simplified.get(0));
+        assertSame(locations.get(19), simplified.get(1));
+    }
+
+    /**
+     * points heading east with a bump ~28m north in the middle, too gentle to count as turns
+     */
+    private static List<Location> bump(float accuracy) {
+        List<Location> locations = line(21, 1);
+        for (int i = 6; i < 15; i++) {
+            double offset = (5 - Math.abs(i - 10)) * STEP / 2;
+            locations.set(i, point(i, offset, i * STEP, accuracy));
+        }
+        return locations;
+    }
+
+    @Test
+    public void keepsDeviation() {
+        List<Location> locations = bump(1);
+        List<Location> simplified = TesTrajectorySimplifier.simplify(locations, 5);
+
+        assertEquals(5, simplified.size());
+        assertSame(locations.get(5), simplified.get(1));
+        assertSame(locations.get(10), simplified.get(2));
+        assertSame(locations.get(15), simplified.get(3));
+    }
+
+    @Test
+    public void dropsDeviationWithinAccuracy() {
+        // the bump is within the accuracy of its fixes
+        List<Location> simplified = TesTrajectorySimplifier.simplify(bump(50), 5);
+
+        assertEquals(2, simplified.size());
+    }
+
+    @Test
+    public void keepsSharpTurn() {
+        List<Location> locations = line(10, 1);
+        // turn back west a few meters north of the outbound leg
+        double lat = 0.00002;
+        for (int i = 0; i < 10; i++) {
+            locations.add(point(10 + i, lat, (9 - i) * STEP, 1));
+        }
+        List<Location> simplified = TesTrajectorySimplifier.simplify(locations, 5);
+
+        assertTrue(simplified.contains(locations.get(9)));
+        assertSame(locations.get(0), simplified.get(0));
+        assertSame(locations.get(19), simplified.get(simplified.size() - 1));
+        assertTrue(simplified.size() < locations.size());
+    }
+
+    @Test
+    public void keepsTimeOrder() {
+        List<Location> locations = line(30, 1);
+        for (int i = 0; i < 30; i += 3) {
+            locations.set(i, point(i, (i % 2 == 0 ? 1 : -1) * STEP, i * STEP, 1));
+        }
+        List<Location> simplified = TesTrajectorySimplifier.simplify(locations, 5);
+
+        for (int i = 1; i < simplified.size(); i++) {
+            assertTrue(simplified.get(i - 1).getTime() < simplified.get(i).getTime());
+        }
+    }
+}
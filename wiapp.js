@@ -32,7 +32,6 @@ import RNWisdk from "./wisdk";
 import Permissions from 'react-native-permissions';
 import OpenSettings from 'react-native-open-settings';
 
-import uuidv4 from "uuid/v4";
 import moment from "moment";
 
 const KEY_WIAPP_SETTINGS = "@TesWI:AppSettings";
@@ -61,6 +60,12 @@ const ERROR_UPDATE = 4;
  */
 const ONE_DAY = 1000*60*60*24;
 
+/**
+ * id of the geofence that follows the device. It is moved in place rather than replaced
+ * so there is only ever one.
+ */
+const FOLLOW_GEOFENCE_ID = "gf_follow";
+
 /**
  * For now just hardwire version
  */
@@ -193,6 +198,14 @@ export class WiAppListener {
     onBootHandler = () => {};
     onPermissionChangeHandler = () => {};
 
+    /**
+     * Android only - called when location updates are parked because the device is stationary,
+     * or resumed because it has moved
+     * @param stationary - true if updates have been parked
+     * @param loc - where the change was seen, may be null
+     */
+    onMotionChangeHandler = (stationary, loc) => {};
+
     /**
      * Error handler
      */
@@ -266,6 +279,7 @@ export class Wiapp {
         this.geoCallback = null;
         this.permCallback = null;
         this.bootCallback = null;
+        this.motionCallback = null;
 
         // are we monitoring
         this.isMonitoring = false;
@@ -837,9 +851,10 @@ export class Wiapp {
     _setupCallbacks = () => {
         this._clearCallbacks(false);
         this.geoCallback = RNWisdk.onGeofenceUpdate(this._onGeofenceUpdate);
-        this.locCallback = RNWisdk.onLocationUpade(this._onLocationUpdate);
+        this.locCallback = RNWisdk.onLocationUpade(this._onNativeLocationUpdate);
         this.permCallback = RNWisdk.onPermissionChange(this._onPermissionChange);
         this.bootCallback = RNWisdk.onBoot(this._onBoot);
+        this.motionCallback = RNWisdk.onMotionChange(this._onMotionChange);
     };
 
     _checkForPermChange = () => {
@@ -854,6 +869,7 @@ export class Wiapp {
         if (this.geoCallback) { this.geoCallback(); this.geoCallback=null;}
         if (this.locCallback) {this.locCallback(); this.locCallback=null;}
         if (this.bootCallback) {this.bootCallback(); this.bootCallback=null;}
+        if (this.motionCallback) {this.motionCallback(); this.motionCallback=null;}
         if (!leavePermChg)
             if (this.permCallback) {this.permCallback(); this.permCallback=null;}
     };
@@ -1027,6 +1043,15 @@ export class Wiapp {
             this.versionToken =  _nwu(jsonData.versionToken);
             this.lastPermissionNag = _nwu(jsonData.lastPermissionNag);
             this.lastPermissionNagCount = _nwu(jsonData.lastPermissionNagCount);
+
+            // a native upload may have been given a new device id by the server
+            return RNWisdk.getUploadDeviceToken().then((uploadToken) => {
+                if (uploadToken && this.deviceToken && uploadToken !== this.deviceToken) {
+                    this.listener.onNewDeviceToken(uploadToken);
+                    this.deviceToken = uploadToken;
+                    return this.saveTokens();
+                }
+            });
         }).catch((e)=>{
             this.listener.onErrorHandler("init token failed", e);
         });
@@ -1050,6 +1075,12 @@ export class Wiapp {
             lastPermissionNag: this.lastPermissionNag,
             lastPermissionNagCount: this.lastPermissionNagCount,
         };
+        // native uploads send the same device info as sendDeviceUpdate, with the fixes as "current"
+        const deviceInfo = this.addHardwareDetails(this._fillDeviceFromLocation(null, true));
+        delete deviceInfo.current;
+        RNWisdk.setUploadCredentials(this.api.accessToken, this.deviceToken, JSON.stringify(deviceInfo)).catch((e) => {
+            console.log("Failed to set upload credentials: " + e);
+        });
         return AsyncStorage.setItem(KEY_WIAPP_SETTINGS, JSON.stringify(tokens));
     };
 
@@ -1097,9 +1128,8 @@ export class Wiapp {
 
                 onGeoUpdateHandler(lastloc);
 
-                RNWisdk.clearGeofences();
-                RNWisdk.addGeofences([
-                    {latitude: lastloc.latitude, longitude: lastloc.longitude, radius: this.config.geoRadius, identifier: "gf_"+uuidv4()}
+                RNWisdk.syncGeofences([
+                    {latitude: lastloc.latitude, longitude: lastloc.longitude, radius: this.config.geoRadius, identifier: FOLLOW_GEOFENCE_ID}
                 ]).catch((e) => {
                     onErrorHandler('Geofence create fail',e);
                 });
@@ -1109,12 +1139,23 @@ export class Wiapp {
         }
     };
 
+    /**
+     * Called on a location update from the native side. When native upload is on the locations
+     * have already been sent to the server.
+     * @param loc location information
+     * @private
+     */
+    _onNativeLocationUpdate = (loc) => {
+        this._onLocationUpdate(loc, Platform.OS === 'android' && this.config.nativeUpload);
+    };
+
     /**
      * Called on a location update from the device
      * @param loc location information
+     * @param uploaded true if the locations have already been sent to the server
      * @private
      */
-    _onLocationUpdate = (loc) => {
+    _onLocationUpdate = (loc, uploaded = false) => {
         //console.log("Loc update:" + JSON.stringify(loc));
         const {onErrorHandler, onLocationUpdateHandler} = this.listener;
         if (!loc.success){
@@ -1128,7 +1169,9 @@ export class Wiapp {
                 if (l !== null && l !== undefined){
                     if (lastloc === null || lastloc.longitude !== l.longitude || lastloc.latitude !== l.latitude){
                         lastloc = l;
-                        this.sendDeviceUpdate(lastloc, lastloc.in_background );
+                        if (!uploaded) {
+                            this.sendDeviceUpdate(lastloc, lastloc.in_background);
+                        }
 
                         onLocationUpdateHandler(lastloc)
 
@@ -1138,13 +1181,12 @@ export class Wiapp {
             });
 
             if (lastloc !== null) {
-                RNWisdk.clearGeofences();
-                RNWisdk.addGeofences([
+                RNWisdk.syncGeofences([
                     {
                         latitude: lastloc.latitude,
                         longitude: lastloc.longitude,
                         radius: this.config.geoRadius,
-                        identifier: "gf_" + uuidv4()
+                        identifier: FOLLOW_GEOFENCE_ID
                     }
                 ]).catch((e) => {
                     onErrorHandler('Geofence create fail', e);
@@ -1166,6 +1208,21 @@ export class Wiapp {
 
     };
 
+    /**
+     * Android only - location updates parked or resumed
+     * @param motion - the motion change event
+     * @private
+     */
+    _onMotionChange = (motion) => {
+        const {onErrorHandler} = this.listener;
+        if (!motion.success){
+            onErrorHandler("Motion change failure", motion);
+            return;
+        }
+        if (this.listener.onMotionChangeHandler)
+            this.listener.onMotionChangeHandler(motion.stationary, motion.location);
+    };
+
     /**
      * IOS only - catch user changes in permission
      * @param status - the change id
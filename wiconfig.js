@@ -184,6 +184,7 @@ export class WiConfig  {
         // this.accuracy = this.LOC_DESIRED_ACCURACY;
         // this.staleLocationThreshold = this.LOC_STALE_LOCATION_THRESHOLD;
         this.logLocInfo = false;
+        this.simplifyTolerance = 0; // meters, android only - 0 = don't simplify location batches
 
         // auth config
         this.authAutoAuthenticate = true;
@@ -206,6 +207,9 @@ export class WiConfig  {
         this.locFastestUpdateInterval = WiConfig.FASTEST_UPDATE_INTERVAL;
         this.locMaxWaitTime = WiConfig.UPDATE_INTERVAL;
         this.locPriorityAccuracy = WiConfig.PRIORITY_LOCATION_ACCURACY;
+        this.locAdaptive = false; // android only - adapt the location request to driving, walking or stationary
+        this.stationaryFixes = 0; // android only - fixes in a row within stationaryRadius before updates are parked, 0 disables
+        this.stationaryRadius = 100; // android only - meters
         this.locPermission = WiConfig.LOCATION_PERMISSION;
         this.useGeoFences = true;
 
@@ -214,6 +218,16 @@ export class WiConfig  {
         this.geoExpiry = NEVER_EXPIRE;
         this.geoInitialTrigger = INITIAL_TRIGGER_ENTER;
         this.geoLoiteringDelay = this.LOITERING_DELAY;
+        this.geoMaxMonitored = 90; // android only - max regions from setMonitoredRegions registered with the OS at once
+        this.geoNativeRearm = false; // android only - move the follow geofence natively on exit without waking JS
+        this.geoReportTransitions = GEOFENCE_TRANSITION_ENTER | GEOFENCE_TRANSITION_DWELL | GEOFENCE_TRANSITION_EXIT; // android only - transitions that wake JS
+        this.nativeUpload = false; // android only - upload background locations natively instead of via JS
+        this.headlessIdleTimeout = 60; // android only - seconds a headless JS runtime is kept warm after its last task, -1 keeps it
+        this.headlessTaskTimeout = 30; // android only - seconds a headless JS task may run before it is given up on
+        this.headlessTaskRetries = 3; // android only - times a timed out headless JS job is retried
+        this.powerProfile = ''; // android only - 'realtime', 'balanced' or 'low-power' overrides the location, geofence and job settings
+        this.powerProfileAuto = false; // android only - use 'low-power' while battery saver is on or the battery is low
+        this.geoResponsiveness = 0; // android only - ms geofence notifications may be delayed to save power
 
         // permissions
         this.askForLocationPermission = true;
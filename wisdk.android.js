@@ -13,7 +13,7 @@
 //  express or implied. See the License Agreement for the specific language governing permissions
 //  and limitations under the License Agreement.
 
-import {AppRegistry, NativeModules, PermissionsAndroid} from 'react-native';
+import {AppRegistry, DeviceEventEmitter, NativeModules, PermissionsAndroid} from 'react-native';
 import {Wiapp} from './wiapp';
 
 let RNWisdk = NativeModules.RNWisdk;
@@ -21,10 +21,21 @@ let RNWisdk = NativeModules.RNWisdk;
 const GEO_TRANSITION_TASK_NAME = "wisdk-geo-transition";
 const LOC_UPDATE_TASK_NAME = "wisdk-location-update";
 const BOOT_TASK_NAME = "wisdk-boot-tassk";
+const MOTION_CHANGE_TASK_NAME = "wisdk-motion-change";
 
 let geofence_callbacks = [];
 let locupdate_callbacks = [];
 let boot_callbacks = [];
+let motion_callbacks = [];
+
+// time the last headless task ran. While the native side keeps the JS runtime warm between tasks
+// (headlessIdleTimeout) there is no need to reload the config and restart the api for every task.
+let lastTaskTime = 0;
+
+const isWarm = (wi) => {
+    const idleTimeout = wi.config.headlessIdleTimeout;
+    return lastTaskTime > 0 && (idleTimeout < 0 || Date.now() - lastTaskTime < idleTimeout * 1000);
+};
 
 // ensure we have atleast the callbacks and networking setup
 const setup = (pr, fullStartup=false) => {
@@ -45,17 +56,24 @@ const setup = (pr, fullStartup=false) => {
             const startmeup = (fullStartup) ? wi.start: wi.startApi ;
             return startmeup();
         }).then(()=>{
+            lastTaskTime = Date.now();
             return pr;
         });
 
     }
+    else if (!fullStartup && isWarm(wi)) {
+        // runtime still warm from an earlier task - config and api are already setup
+        lastTaskTime = Date.now();
+        return pr;
+    }
     else {
         // already have a we instance with config and listener
         return wi.config.getSavedConfig().then(()=> {
             const startmeup = (fullStartup) ? wi.start: wi.startApi ;
-            startmeup().then(()=>{
-                return pr;
-            })
+            return startmeup();
+        }).then(()=>{
+            lastTaskTime = Date.now();
+            return pr;
         });
     }
 
@@ -107,6 +125,50 @@ AppRegistry.registerHeadlessTask(LOC_UPDATE_TASK_NAME, () => {
     }
 });
 
+// while the app is in the foreground the native side emits location and geofence events
+// directly, under the task names, rather than starting a headless task
+DeviceEventEmitter.addListener(GEO_TRANSITION_TASK_NAME, (geofenceEvent) => {
+    try {
+        geofence_callbacks.forEach(callback => {
+            callback(geofenceEvent);
+        });
+    }
+    catch(e){
+        console.log("Exception in geo event:"+e);
+    }
+});
+
+DeviceEventEmitter.addListener(LOC_UPDATE_TASK_NAME, (locEvent) => {
+    try {
+        locupdate_callbacks.forEach(callback => {
+            callback(locEvent);
+        });
+    }
+    catch(e){
+        console.log("Exception in loc update:"+e);
+    }
+});
+
+AppRegistry.registerHeadlessTask(MOTION_CHANGE_TASK_NAME, () => {
+    return (motionEvent) => {
+        try {
+            return setup(new Promise((resolve, reject) => {
+                try {
+                    motion_callbacks.forEach(callback => {
+                        callback(motionEvent);
+                    });
+                    resolve();
+                } catch (e) {
+                    reject(e);
+                }
+            }));
+        }
+        catch(e){
+            console.log("Exception in motion change:"+e);
+        }
+    }
+});
+
 AppRegistry.registerHeadlessTask(BOOT_TASK_NAME, () => {
     return () => {
         try {
@@ -143,6 +205,14 @@ let rnwisdkInterface = {
     addGeofences: RNWisdk.addGeofences,
     clearGeofences: RNWisdk.clearGeofences,
     removeGeofences: RNWisdk.removeGeofences,
+    syncGeofences: RNWisdk.syncGeofences,
+    setMonitoredRegions: RNWisdk.setMonitoredRegions,
+    setUploadCredentials: RNWisdk.setUploadCredentials,
+    getUploadDeviceToken: RNWisdk.getUploadDeviceToken,
+    getPowerProfile: RNWisdk.getPowerProfile,
+    getMetrics: RNWisdk.getMetrics,
+    getLog: RNWisdk.getLog,
+    exportLog: RNWisdk.exportLog,
 
     onGeofenceUpdate: (callback) => {
         geofence_callbacks.push(callback);
@@ -174,6 +244,16 @@ let rnwisdkInterface = {
         };
     },
 
+    onMotionChange: (callback) => {
+        motion_callbacks.push(callback);
+        return function off() {
+            const idx = motion_callbacks.indexOf(callback);
+            if(idx >= 0) {
+                motion_callbacks.splice(idx, 1);
+            }
+        };
+    },
+
     onPermissionChange: (callback) => {
       // no op on android
     },
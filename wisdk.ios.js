@@ -35,6 +35,35 @@ let rnwisdkInterface = {
     addGeofences: RNWisdk.addGeofences,
     clearGeofences: RNWisdk.clearGeofences,
     removeGeofences: RNWisdk.removeGeofences,
+    syncGeofences: (geofences) => {
+        // no native diffing on IOS - replace everything
+        return RNWisdk.clearGeofences().then(() => RNWisdk.addGeofences(geofences));
+    },
+    setMonitoredRegions: (regions) => {
+        // not supported on IOS - region rotation is android only
+        return Promise.reject(new Error("setMonitoredRegions is not supported on IOS"));
+    },
+    setUploadCredentials: (accessToken, deviceToken, deviceInfo) => {
+        // locations are always uploaded from JS on IOS
+        return Promise.resolve();
+    },
+    getUploadDeviceToken: () => {
+        return Promise.resolve(null);
+    },
+    getPowerProfile: () => {
+        // power profiles are android only
+        return Promise.resolve({profile: null, active: null, constrained: false});
+    },
+    getMetrics: () => {
+        // pipeline metrics are only collected natively on android
+        return Promise.resolve({});
+    },
+    getLog: () => {
+        return Promise.resolve('');
+    },
+    exportLog: () => {
+        return Promise.reject(new Error("exportLog is not supported on IOS"));
+    },
 
     onGeofenceUpdate: (callback) => {
         const subscription = RNWisdkEmitter.addListener(RNWisdk.GeofenceUpdate, callback);
@@ -61,6 +90,11 @@ let rnwisdkInterface = {
         // no op on IOS
     },
 
+    onMotionChange: (callback) => {
+        // no op on IOS
+        return function off() {};
+    },
+
     ERROR_UNEXPECTED_ERROR : -1,
     ERROR_NULL_LOCATION_RETURNED : -2
 };